@@ -0,0 +1,63 @@
+package com.heartdiagnostic.service.benchmark;
+
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.WekaModelService;
+import jakarta.validation.Validator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Rows per second when each row is its own diagnosis, as /api/diagnose does
+// it, against the same rows in one /api/diagnose/batch call: validation,
+// encoding, classification and results, without HTTP or JSON
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class BatchBenchmark {
+
+    static final int ROWS = 256;
+
+    @State(Scope.Benchmark)
+    public static class Service {
+
+        @Param({"none", "array"})
+        public String compile;
+
+        @Param({"true", "false"})
+        public boolean explain;
+
+        Validator validator;
+        WekaModelService modelService;
+        List<SymptomInput> rows;
+
+        @Setup
+        public void setUp() throws Exception {
+            validator = BenchmarkInputs.validator();
+            modelService = BenchmarkInputs.modelService(compile);
+            rows = Arrays.asList(Arrays.copyOf(BenchmarkInputs.symptoms(5), ROWS));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void single(Service service, Blackhole blackhole) throws Exception {
+        for (SymptomInput input : service.rows) {
+            if (!service.validator.validate(input).isEmpty()) {
+                throw new IllegalStateException("Benchmark input failed validation");
+            }
+            blackhole.consume(service.modelService.classify(input, service.explain));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<BatchDiagnosisItem> batch(Service service) throws Exception {
+        return service.modelService.classifyBatch(service.rows, service.explain);
+    }
+}
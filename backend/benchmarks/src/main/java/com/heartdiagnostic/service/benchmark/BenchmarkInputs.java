@@ -0,0 +1,97 @@
+package com.heartdiagnostic.service.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.DiagnosisMetrics;
+import com.heartdiagnostic.service.service.ExplanationEngine;
+import com.heartdiagnostic.service.service.ModelEnsemble;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.PredictionCache;
+import com.heartdiagnostic.service.service.ShadowScorer;
+import com.heartdiagnostic.service.service.WekaModelService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.Random;
+
+// Shared fixtures. Benchmarks cycle through a pool of varied inputs so branch
+// prediction and constant folding cannot turn a stage into a no-op.
+public final class BenchmarkInputs {
+
+    public static final int POOL_SIZE = 1024;
+
+    private static final String[] SEX = {"male", "female"};
+    private static final String[] CHEST_PAIN = {"typical", "atypical", "non-anginal", "asymptomatic"};
+    private static final String[] REST_ECG = {"normal", "st-t-abnormality", "left-ventricular-hypertrophy"};
+    private static final String[] EXERCISE_ANGINA = {"yes", "no"};
+    private static final String[] THALLIUM = {"normal", "fixed-defect", "reversible-defect"};
+
+    private BenchmarkInputs() {
+    }
+
+    // Uniform over the ranges allowed by SymptomInput's constraints
+    public static SymptomInput[] symptoms(long seed) {
+        Random random = new Random(seed);
+        SymptomInput[] inputs = new SymptomInput[POOL_SIZE];
+        for (int i = 0; i < inputs.length; i++) {
+            SymptomInput input = new SymptomInput();
+            input.setAge(1 + random.nextInt(120));
+            input.setSex(SEX[random.nextInt(SEX.length)]);
+            input.setChestPain(CHEST_PAIN[random.nextInt(CHEST_PAIN.length)]);
+            input.setBloodPressure(50 + random.nextInt(251));
+            input.setCholesterol(100 + random.nextInt(501));
+            input.setFastingBS(random.nextInt(2));
+            input.setRestECG(REST_ECG[random.nextInt(REST_ECG.length)]);
+            input.setMaxHeartRate(60 + random.nextInt(161));
+            input.setExerciseAngina(EXERCISE_ANGINA[random.nextInt(EXERCISE_ANGINA.length)]);
+            input.setOldpeak(Math.round(random.nextDouble() * 100) / 10.0);
+            input.setThallium(THALLIUM[random.nextInt(THALLIUM.length)]);
+            input.setHeightM(1.4 + random.nextDouble() * 0.6);
+            input.setWeightKg(40 + random.nextDouble() * 80);
+            inputs[i] = input;
+        }
+        return inputs;
+    }
+
+    public static byte[][] json(ObjectMapper objectMapper, SymptomInput[] inputs) throws Exception {
+        byte[][] json = new byte[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            json[i] = objectMapper.writeValueAsBytes(inputs[i]);
+        }
+        return json;
+    }
+
+    // Configured like the service's own mapper
+    public static ObjectMapper objectMapper() {
+        return new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    }
+
+    public static Validator validator() {
+        return Validation.buildDefaultValidatorFactory().getValidator();
+    }
+
+    // The builtin model, compiled the same way the service would compile it
+    public static ModelRegistry registry(String compileMode) throws Exception {
+        ModelRegistry modelRegistry = new ModelRegistry(new DefaultResourceLoader(),
+            ModelRegistryProperties.defaults().withPath("").withDir("").withRetain(1).withCompile(compileMode));
+        modelRegistry.initialize();
+        return modelRegistry;
+    }
+
+    // Cache, ensemble and shadow scoring off, as configured by default; stage
+    // timers are recorded into an in-memory registry, as the service's would be
+    public static WekaModelService modelService(String compileMode) throws Exception {
+        ModelRegistry modelRegistry = registry(compileMode);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        DiagnosisMetrics metrics = new DiagnosisMetrics(meterRegistry);
+        return new WekaModelService(modelRegistry, validator(),
+            new PredictionCache(modelRegistry, meterRegistry, false, 1, 0), metrics,
+            new ModelEnsemble(modelRegistry, false, "", 0, 1), new ExplanationEngine("path", 3),
+            new ShadowScorer(modelRegistry, metrics, meterRegistry, false, "", 0, 1, 1));
+    }
+}
@@ -0,0 +1,87 @@
+package com.heartdiagnostic.service.benchmark;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.FeatureEncoder;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.WekaModelService;
+import com.heartdiagnostic.service.util.ModelTrainer;
+import org.openjdk.jmh.annotations.*;
+import weka.classifiers.Classifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One distributionForInstance call per model, the step WekaModelService.classify
+// runs after encoding
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ClassifierBenchmark {
+
+    // mock: the builtin rules; j48: a tree trained by ModelTrainer on synthetic rows.
+    // The -compiled variants are the flat-array form the registry serves by default.
+    @Param({"mock", "mock-compiled", "j48", "j48-compiled"})
+    public String model;
+
+    private Classifier classifier;
+    private Instance[] instances;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        classifier = model.startsWith("mock") ? new MockClassifier()
+            : ModelTrainer.train(trainingData(header, BenchmarkInputs.symptoms(3)), 0.25f, 2);
+        instances = encode(header, BenchmarkInputs.symptoms(2));
+        if (model.endsWith("-compiled")) {
+            classifier = CompiledTreeClassifier.compile(classifier, header, false);
+        }
+    }
+
+    private static Instance[] encode(Instances header, SymptomInput[] inputs) {
+        FeatureEncoder encoder = new FeatureEncoder(header);
+        Instance[] encoded = new Instance[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            encoded[i] = new DenseInstance(1.0, encoder.encode(inputs[i]));
+            encoded[i].setDataset(header);
+        }
+        return encoded;
+    }
+
+    // Labels follow a noisy mix of numeric and nominal rules, so the tree has
+    // numeric thresholds as well as nominal splits
+    private static Instances trainingData(Instances header, SymptomInput[] inputs) {
+        FeatureEncoder encoder = new FeatureEncoder(header);
+        Random random = new Random(4);
+        Instances data = new Instances(header, inputs.length);
+        for (SymptomInput input : inputs) {
+            double risk = (input.getAge() - 50) / 20.0
+                + (input.getCholesterol() - 240) / 80.0
+                + (input.getThallium().equals("normal") ? -1 : 1)
+                + (input.getChestPain().equals("asymptomatic") ? 1 : 0)
+                + random.nextGaussian() * 0.5;
+            double[] values = encoder.encode(input);
+            values[header.classIndex()] = risk < 0 ? 0 : risk < 1.5 ? 1 : 2;
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    private int next() {
+        int i = next;
+        next = (i + 1) & (BenchmarkInputs.POOL_SIZE - 1);
+        return i;
+    }
+
+    @Benchmark
+    public double[] distributionForInstance() throws Exception {
+        return classifier.distributionForInstance(instances[next()]);
+    }
+}
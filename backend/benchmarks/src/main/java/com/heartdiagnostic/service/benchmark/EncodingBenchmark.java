@@ -0,0 +1,38 @@
+package com.heartdiagnostic.service.benchmark;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.FeatureEncoder;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Feature encoding as WekaModelService.classify does it: straight into the
+// value array of the thread's reusable instance
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+
+    private FeatureEncoder encoder;
+    private FeatureEncoder.ReusableInstance reusable;
+    private SymptomInput[] inputs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        encoder = new FeatureEncoder(WekaModelService.createDataStructure());
+        reusable = encoder.newReusableInstance();
+        inputs = BenchmarkInputs.symptoms(3);
+    }
+
+    @Benchmark
+    public double[] encode() {
+        int i = next;
+        next = (i + 1) & (BenchmarkInputs.POOL_SIZE - 1);
+        return encoder.encode(inputs[i], reusable.values());
+    }
+}
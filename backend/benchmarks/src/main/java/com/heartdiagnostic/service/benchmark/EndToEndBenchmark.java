@@ -0,0 +1,66 @@
+package com.heartdiagnostic.service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.WekaModelService;
+import jakarta.validation.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// One diagnosis as the controller performs it (parse, validate, classify,
+// serialize) from several threads sharing a single service instance
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@Threads(4)
+public class EndToEndBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Service {
+
+        @Param({"none", "array", "bytecode"})
+        public String compile;
+
+        ObjectMapper objectMapper;
+        Validator validator;
+        WekaModelService modelService;
+        byte[][] json;
+
+        @Setup
+        public void setUp() throws Exception {
+            objectMapper = BenchmarkInputs.objectMapper();
+            validator = BenchmarkInputs.validator();
+            modelService = BenchmarkInputs.modelService(compile);
+            json = BenchmarkInputs.json(objectMapper, BenchmarkInputs.symptoms(4));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup
+        public void setUp() {
+            // Threads start at different points of the pool
+            next = (int) (Thread.currentThread().getId() * 97) & (BenchmarkInputs.POOL_SIZE - 1);
+        }
+
+        int next() {
+            int i = next;
+            next = (i + 1) & (BenchmarkInputs.POOL_SIZE - 1);
+            return i;
+        }
+    }
+
+    @Benchmark
+    public byte[] diagnose(Service service, Cursor cursor) throws Exception {
+        SymptomInput input = service.objectMapper.readValue(service.json[cursor.next()], SymptomInput.class);
+        if (!service.validator.validate(input).isEmpty()) {
+            throw new IllegalStateException("Benchmark input failed validation");
+        }
+        return service.objectMapper.writeValueAsBytes(service.modelService.classify(input));
+    }
+}
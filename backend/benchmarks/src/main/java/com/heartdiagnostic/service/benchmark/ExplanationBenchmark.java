@@ -0,0 +1,55 @@
+package com.heartdiagnostic.service.benchmark;
+
+import com.heartdiagnostic.service.model.ClassScores;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.ExplanationEngine;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import org.openjdk.jmh.annotations.*;
+import weka.core.DenseInstance;
+import weka.core.Utils;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ExplanationBenchmark {
+
+    @Param({"template", "path"})
+    public String mode;
+
+    private ExplanationEngine engine;
+    private ModelSnapshot model;
+    private SymptomInput[] inputs;
+    private double[][] values;
+    private ClassScores[] scores;
+    private int[] predicted;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        engine = new ExplanationEngine(mode, 3);
+        model = BenchmarkInputs.registry("array").active();
+        inputs = BenchmarkInputs.symptoms(5);
+        values = new double[inputs.length][];
+        scores = new ClassScores[inputs.length];
+        predicted = new int[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            values[i] = model.getEncoder().encode(inputs[i]);
+            double[] distribution = model.getPool().distributionForInstance(
+                new DenseInstance(1.0, values[i]));
+            predicted[i] = Utils.maxIndex(distribution);
+            scores[i] = new ClassScores(model.getClassNames(), distribution);
+        }
+    }
+
+    @Benchmark
+    public ExplanationEngine.Explanation explain() {
+        int i = next;
+        next = (i + 1) & (BenchmarkInputs.POOL_SIZE - 1);
+        return engine.explain(model, values[i], predicted[i], scores[i], inputs[i]);
+    }
+}
@@ -0,0 +1,70 @@
+package com.heartdiagnostic.service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.WekaModelService;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Request and response handling around the model: SymptomInput parsing and
+// bean validation on the way in, DiagnosisResult serialization on the way out
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private Validator validator;
+    private SymptomInput[] inputs;
+    private byte[][] json;
+    private DiagnosisResult[] results;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = BenchmarkInputs.objectMapper();
+        validator = BenchmarkInputs.validator();
+        inputs = BenchmarkInputs.symptoms(1);
+        json = BenchmarkInputs.json(objectMapper, inputs);
+
+        WekaModelService modelService = BenchmarkInputs.modelService("array");
+        results = new DiagnosisResult[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            results[i] = modelService.classify(inputs[i]);
+        }
+    }
+
+    private int next() {
+        int i = next;
+        next = (i + 1) & (BenchmarkInputs.POOL_SIZE - 1);
+        return i;
+    }
+
+    @Benchmark
+    public SymptomInput deserialize() throws Exception {
+        return objectMapper.readValue(json[next()], SymptomInput.class);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<SymptomInput>> validate() {
+        return validator.validate(inputs[next()]);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<SymptomInput>> deserializeAndValidate() throws Exception {
+        return validator.validate(objectMapper.readValue(json[next()], SymptomInput.class));
+    }
+
+    @Benchmark
+    public byte[] serializeResult() throws Exception {
+        return objectMapper.writeValueAsBytes(results[next()]);
+    }
+}
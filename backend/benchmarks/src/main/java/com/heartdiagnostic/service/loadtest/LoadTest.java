@@ -0,0 +1,476 @@
+package com.heartdiagnostic.service.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.heartdiagnostic.service.benchmark.BenchmarkInputs;
+import com.heartdiagnostic.service.model.SymptomInput;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-loop load generator for a running service. Requests go out on a fixed
+// schedule whether or not earlier ones have been answered, and each latency is
+// measured from the moment its request was due rather than when it was sent.
+// A server that stalls is therefore charged for every request it held up
+// (coordinated omission), which a closed loop of waiting clients would hide.
+// The rate is stepped up until a step misses an endpoint's p99 objective or
+// the error budget. The last step that held is the maximum sustainable rate,
+// and dividing it by the server's cores gives a figure to compare between releases.
+//
+// Usage: LoadTest [--url http://localhost:8080] [--rates 50,100,200,400,800,1600]
+//        [--duration 30] [--warmup 10] [--mix diagnose:90,batch:5,health:5] [--batch-size 100]
+//        [--slo-ms diagnose:50,batch:1000,health:50] [--max-error-rate 0.01] [--timeout-ms 5000]
+//        [--max-inflight 10000] [--cores <server cores>] [--release <label>] [--out target/loadtest]
+//        [--seed 1]
+public final class LoadTest {
+
+    private static final int INPUT_POOL = BenchmarkInputs.POOL_SIZE;
+    private static final int BATCH_POOL = 64;
+
+    private final URI base;
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Duration timeout;
+    private final int maxInflight;
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final int[] weights;
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private LoadTest(URI base, Map<String, Integer> mix, Map<String, Double> sloMillis, int batchSize,
+                     Duration timeout, int maxInflight, long seed) throws Exception {
+        this.base = base;
+        this.timeout = timeout;
+        this.maxInflight = maxInflight;
+        this.executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "loadtest-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(timeout)
+            .executor(executor)
+            .build();
+
+        // Request bodies are built once, so the generator only schedules and sends
+        ObjectMapper objectMapper = BenchmarkInputs.objectMapper();
+        SymptomInput[] inputs = BenchmarkInputs.symptoms(seed);
+        byte[][] json = BenchmarkInputs.json(objectMapper, inputs);
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            String name = entry.getKey();
+            HttpRequest[] requests;
+            switch (name) {
+                case "diagnose":
+                    requests = new HttpRequest[INPUT_POOL];
+                    for (int i = 0; i < requests.length; i++) {
+                        requests[i] = post("/api/diagnose", json[i]);
+                    }
+                    break;
+                case "batch":
+                    requests = new HttpRequest[BATCH_POOL];
+                    for (int i = 0; i < requests.length; i++) {
+                        SymptomInput[] rows = new SymptomInput[batchSize];
+                        for (int r = 0; r < batchSize; r++) {
+                            rows[r] = inputs[(i * batchSize + r) % inputs.length];
+                        }
+                        requests[i] = post("/api/diagnose/batch", objectMapper.writeValueAsBytes(rows));
+                    }
+                    break;
+                case "health":
+                    requests = new HttpRequest[] {
+                        HttpRequest.newBuilder(base.resolve("/api/health")).timeout(timeout).GET().build()
+                    };
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown endpoint in --mix: " + name
+                        + " (diagnose, batch, health)");
+            }
+            Double slo = sloMillis.get(name);
+            if (slo == null) {
+                throw new IllegalArgumentException("No --slo-ms objective for " + name);
+            }
+            endpoints.add(new Endpoint(name, requests, slo, "batch".equals(name) ? batchSize : 1));
+        }
+
+        // Cumulative weights for picking an endpoint per request
+        this.weights = new int[endpoints.size()];
+        int total = 0;
+        for (int i = 0; i < endpoints.size(); i++) {
+            total += mix.get(endpoints.get(i).name);
+            weights[i] = total;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            Map<String, String> options = parseOptions(args);
+            URI url = URI.create(options.getOrDefault("url", "http://localhost:8080"));
+            double[] rates = parseDoubles(options.getOrDefault("rates", "50,100,200,400,800,1600"));
+            int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+            int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+            Map<String, Integer> mix = new LinkedHashMap<>();
+            parsePairs(options.getOrDefault("mix", "diagnose:90,batch:5,health:5"))
+                .forEach((name, weight) -> mix.put(name, weight.intValue()));
+            Map<String, Double> slo = parsePairs(options.getOrDefault("slo-ms", "diagnose:50,batch:1000,health:50"));
+            int batchSize = Integer.parseInt(options.getOrDefault("batch-size", "100"));
+            double maxErrorRate = Double.parseDouble(options.getOrDefault("max-error-rate", "0.01"));
+            Duration timeout = Duration.ofMillis(Long.parseLong(options.getOrDefault("timeout-ms", "5000")));
+            int maxInflight = Integer.parseInt(options.getOrDefault("max-inflight", "10000"));
+            String release = options.getOrDefault("release", "dev");
+            Path out = Paths.get(options.getOrDefault("out", "target/loadtest")).resolve(release);
+            long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+
+            LoadTest loadTest = new LoadTest(url, mix, slo, batchSize, timeout, maxInflight, seed);
+            int cores = options.containsKey("cores") ? Integer.parseInt(options.get("cores")) : loadTest.serverCores();
+            Files.createDirectories(out);
+
+            System.out.println("Load test of " + url + " (" + cores + " server cores), mix " + mix);
+            if (warmup > 0) {
+                System.out.println("Warming up for " + warmup + " s at " + rates[0] + " req/s");
+                loadTest.run(rates[0], warmup, new Random(seed));
+            }
+
+            Random random = new Random(seed);
+            List<Map<String, Object>> steps = new ArrayList<>();
+            double sustainable = 0;
+            for (double rate : rates) {
+                StepResult result = loadTest.run(rate, duration, random);
+                Map<String, Object> step = result.report(maxErrorRate);
+                steps.add(step);
+                result.writeHistograms(out.resolve(String.format("%.0f", rate)));
+                System.out.println(result.summary(maxErrorRate));
+                if (!(Boolean) step.get("sustainable")) {
+                    break;
+                }
+                sustainable = rate;
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("release", release);
+            report.put("url", url.toString());
+            report.put("timestamp", System.currentTimeMillis());
+            report.put("serverCores", cores);
+            report.put("generatorCores", Runtime.getRuntime().availableProcessors());
+            report.put("mix", mix);
+            report.put("sloP99Ms", slo);
+            report.put("maxErrorRate", maxErrorRate);
+            report.put("stepSeconds", duration);
+            report.put("maxSustainableQps", sustainable);
+            report.put("qpsPerCore", cores > 0 ? sustainable / cores : null);
+            report.put("steps", steps);
+            Path reportFile = out.resolve("capacity-report.json");
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile.toFile(), report);
+
+            System.out.println("Maximum sustainable rate: " + sustainable + " req/s"
+                + (cores > 0 ? String.format(" (%.1f per core)", sustainable / cores) : ""));
+            System.out.println("Capacity report: " + reportFile);
+            System.exit(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // Sends at rate requests per second for the given seconds, then waits for
+    // the stragglers; every request due in the step is accounted for
+    private StepResult run(double rate, int seconds, Random random) throws InterruptedException {
+        StepResult result = new StepResult(rate, seconds);
+        double interval = 1_000_000_000.0 / rate;
+        long total = (long) (rate * seconds);
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long due = start + (long) (i * interval);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Endpoint endpoint = pick(random);
+            EndpointStats stats = result.stats(endpoint);
+            long sent = System.nanoTime();
+            result.recordLag(sent - due);
+            if (inflight.get() >= maxInflight) {
+                // Counted as failed rather than queued, which would bend the schedule
+                stats.failed("overload");
+                continue;
+            }
+            inflight.incrementAndGet();
+            HttpRequest request = endpoint.requests[random.nextInt(endpoint.requests.length)];
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                long now = System.nanoTime();
+                inflight.decrementAndGet();
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                    stats.failed(cause instanceof HttpTimeoutException ? "timeout" : cause.getClass().getSimpleName());
+                } else if (response.statusCode() / 100 != 2) {
+                    stats.failed(Integer.toString(response.statusCode()));
+                } else {
+                    stats.succeeded(now - due, now - sent);
+                }
+            });
+        }
+        long sendEnd = System.nanoTime();
+
+        // Requests still out after the timeout have already been failed by the client
+        long drainDeadline = sendEnd + timeout.toNanos() + TimeUnit.SECONDS.toNanos(1);
+        while (inflight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        result.finish(sendEnd - start);
+        return result;
+    }
+
+    private Endpoint pick(Random random) {
+        int roll = random.nextInt(weights[weights.length - 1]);
+        for (int i = 0; i < weights.length; i++) {
+            if (roll < weights[i]) {
+                return endpoints.get(i);
+            }
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+    private HttpRequest post(String path, byte[] body) {
+        return HttpRequest.newBuilder(base.resolve(path))
+            .timeout(timeout)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+    }
+
+    // Asks the service's actuator how many cores it sees
+    @SuppressWarnings("unchecked")
+    private int serverCores() {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(base.resolve("/actuator/metrics/system.cpu.count"))
+                .timeout(timeout).GET().build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            Map<String, Object> metric = new ObjectMapper().readValue(response.body(), Map.class);
+            List<Map<String, Object>> measurements = (List<Map<String, Object>>) metric.get("measurements");
+            return ((Number) measurements.get(0).get("value")).intValue();
+        } catch (Exception e) {
+            System.err.println("Could not read the server's core count (" + e.getMessage()
+                + "); pass --cores to report a per-core rate");
+            return 0;
+        }
+    }
+
+    private static final class Endpoint {
+        final String name;
+        final HttpRequest[] requests;
+        final double sloMillis;
+        final int rowsPerRequest;
+
+        Endpoint(String name, HttpRequest[] requests, double sloMillis, int rowsPerRequest) {
+            this.name = name;
+            this.requests = requests;
+            this.sloMillis = sloMillis;
+            this.rowsPerRequest = rowsPerRequest;
+        }
+    }
+
+    private static final class EndpointStats {
+        final Endpoint endpoint;
+        // From when the request was due (corrected) and from when it was sent
+        final Histogram latency = new ConcurrentHistogram(3);
+        final Histogram serviceTime = new ConcurrentHistogram(3);
+        final LongAdder succeeded = new LongAdder();
+        final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+        EndpointStats(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void succeeded(long latencyNanos, long serviceNanos) {
+            latency.recordValue(latencyNanos);
+            serviceTime.recordValue(serviceNanos);
+            succeeded.increment();
+        }
+
+        void failed(String kind) {
+            failures.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+
+        long failedCount() {
+            return failures.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        double p99Millis() {
+            return latency.getValueAtPercentile(99.0) / 1e6;
+        }
+    }
+
+    private final class StepResult {
+        final double rate;
+        final int seconds;
+        final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        long maxLagNanos;
+        long sendNanos;
+
+        StepResult(double rate, int seconds) {
+            this.rate = rate;
+            this.seconds = seconds;
+            for (Endpoint endpoint : endpoints) {
+                stats.put(endpoint.name, new EndpointStats(endpoint));
+            }
+        }
+
+        EndpointStats stats(Endpoint endpoint) {
+            return stats.get(endpoint.name);
+        }
+
+        void recordLag(long lagNanos) {
+            maxLagNanos = Math.max(maxLagNanos, lagNanos);
+        }
+
+        void finish(long sendNanos) {
+            this.sendNanos = sendNanos;
+        }
+
+        long succeeded() {
+            return stats.values().stream().mapToLong(s -> s.succeeded.sum()).sum();
+        }
+
+        long failed() {
+            return stats.values().stream().mapToLong(EndpointStats::failedCount).sum();
+        }
+
+        double errorRate() {
+            long total = succeeded() + failed();
+            return total > 0 ? (double) failed() / total : 0;
+        }
+
+        boolean sustainable(double maxErrorRate) {
+            if (errorRate() > maxErrorRate) {
+                return false;
+            }
+            for (EndpointStats endpoint : stats.values()) {
+                if (endpoint.succeeded.sum() > 0 && endpoint.p99Millis() > endpoint.endpoint.sloMillis) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Map<String, Object> report(double maxErrorRate) {
+            double elapsed = sendNanos / 1e9;
+            Map<String, Object> step = new LinkedHashMap<>();
+            step.put("targetQps", rate);
+            step.put("achievedQps", succeeded() / elapsed);
+            step.put("errorRate", errorRate());
+            // A large lag means the generator, not the server, fell behind the schedule
+            step.put("maxSendLagMs", maxLagNanos / 1e6);
+            step.put("sustainable", sustainable(maxErrorRate));
+            Map<String, Object> perEndpoint = new LinkedHashMap<>();
+            for (EndpointStats endpoint : stats.values()) {
+                Map<String, Object> values = new LinkedHashMap<>();
+                long count = endpoint.succeeded.sum();
+                values.put("succeeded", count);
+                Map<String, Long> failures = new LinkedHashMap<>();
+                endpoint.failures.forEach((kind, n) -> failures.put(kind, n.sum()));
+                values.put("failed", failures);
+                values.put("rowsPerSecond", count * endpoint.endpoint.rowsPerRequest / elapsed);
+                if (count > 0) {
+                    Histogram latency = endpoint.latency;
+                    values.put("meanMs", latency.getMean() / 1e6);
+                    values.put("p50Ms", latency.getValueAtPercentile(50) / 1e6);
+                    values.put("p90Ms", latency.getValueAtPercentile(90) / 1e6);
+                    values.put("p99Ms", latency.getValueAtPercentile(99) / 1e6);
+                    values.put("p999Ms", latency.getValueAtPercentile(99.9) / 1e6);
+                    values.put("maxMs", latency.getMaxValue() / 1e6);
+                    values.put("uncorrectedP99Ms", endpoint.serviceTime.getValueAtPercentile(99) / 1e6);
+                    values.put("sloP99Ms", endpoint.endpoint.sloMillis);
+                }
+                perEndpoint.put(endpoint.endpoint.name, values);
+            }
+            step.put("endpoints", perEndpoint);
+            return step;
+        }
+
+        // One HdrHistogram percentile distribution per endpoint, in milliseconds
+        void writeHistograms(Path dir) throws IOException {
+            Files.createDirectories(dir);
+            for (EndpointStats endpoint : stats.values()) {
+                try (PrintStream out = new PrintStream(Files.newOutputStream(dir.resolve(endpoint.endpoint.name
+                        + ".hgrm")))) {
+                    endpoint.latency.outputPercentileDistribution(out, 1e6);
+                }
+                try (PrintStream out = new PrintStream(Files.newOutputStream(dir.resolve(endpoint.endpoint.name
+                        + "-uncorrected.hgrm")))) {
+                    endpoint.serviceTime.outputPercentileDistribution(out, 1e6);
+                }
+            }
+        }
+
+        String summary(double maxErrorRate) {
+            StringBuilder text = new StringBuilder(String.format("%8.0f req/s: achieved %8.1f, errors %.2f%%, %s",
+                rate, succeeded() / (sendNanos / 1e9), errorRate() * 100,
+                sustainable(maxErrorRate) ? "OK" : "NOT SUSTAINABLE"));
+            for (EndpointStats endpoint : stats.values()) {
+                if (endpoint.succeeded.sum() > 0) {
+                    text.append(String.format("%n    %-9s p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  max %8.2f ms"
+                            + "  (p99 objective %.0f ms)", endpoint.endpoint.name,
+                        endpoint.latency.getValueAtPercentile(50) / 1e6, endpoint.p99Millis(),
+                        endpoint.latency.getValueAtPercentile(99.9) / 1e6, endpoint.latency.getMaxValue() / 1e6,
+                        endpoint.endpoint.sloMillis));
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static double[] parseDoubles(String list) {
+        double[] values = Arrays.stream(list.split(",")).map(String::trim).mapToDouble(Double::parseDouble).toArray();
+        Arrays.sort(values);
+        return values;
+    }
+
+    // "name:value,name:value" in the order given
+    private static Map<String, Double> parsePairs(String list) {
+        Map<String, Double> pairs = new LinkedHashMap<>();
+        for (String part : list.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected name:value, got " + part);
+            }
+            pairs.put(pair[0].trim(), Double.parseDouble(pair[1].trim()));
+        }
+        return pairs;
+    }
+}
@@ -2,12 +2,21 @@ package com.heartdiagnostic.service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.web.bind.annotation.CrossOrigin;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 @CrossOrigin(origins = "*")
 public class DiagnosticServiceApplication {
+
+    // Startup steps kept for /actuator/startup
+    private static final int STARTUP_STEPS = 4096;
+
     public static void main(String[] args) {
-        SpringApplication.run(DiagnosticServiceApplication.class, args);
+        SpringApplication application = new SpringApplication(DiagnosticServiceApplication.class);
+        application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEPS));
+        application.run(args);
     }
 }
@@ -1,14 +1,43 @@
 package com.heartdiagnostic.service.controller;
 
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
+import com.heartdiagnostic.service.model.BulkScoringReport;
 import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.Outcome;
 import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.AdmissionLimiter;
+import com.heartdiagnostic.service.service.AnalyticsStore;
+import com.heartdiagnostic.service.service.AuditLog;
+import com.heartdiagnostic.service.service.BulkScoringPipeline;
+import com.heartdiagnostic.service.service.DiagnosisMetrics;
+import com.heartdiagnostic.service.service.MicroBatcher;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.OnlineLearner;
+import com.heartdiagnostic.service.service.ShadowScorer;
+import com.heartdiagnostic.service.service.StartupTimeline;
+import com.heartdiagnostic.service.service.TenantRouter;
 import com.heartdiagnostic.service.service.WekaModelService;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
-import jakarta.validation.Valid;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -16,32 +45,260 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class DiagnosticController {
     
-    @Autowired
-    private WekaModelService wekaModelService;
+    private static final Logger log = LoggerFactory.getLogger(DiagnosticController.class);
+    
+    private final WekaModelService wekaModelService;
+    private final BulkScoringPipeline bulkScoringPipeline;
+    private final ModelRegistry modelRegistry;
+    private final DiagnosisMetrics diagnosisMetrics;
+    private final AdmissionLimiter admissionLimiter;
+    private final AuditLog auditLog;
+    private final ShadowScorer shadowScorer;
+    private final OnlineLearner onlineLearner;
+    private final AnalyticsStore analyticsStore;
+    private final MicroBatcher microBatcher;
+    private final StartupTimeline startupTimeline;
+    private final TenantRouter tenantRouter;
+    private final int maxBatchSize;
+    
+    // The optional subsystems are always beans; each is a no-op while its
+    // weka.*.enabled property is off
+    public DiagnosticController(WekaModelService wekaModelService, BulkScoringPipeline bulkScoringPipeline,
+                                ModelRegistry modelRegistry, DiagnosisMetrics diagnosisMetrics,
+                                AdmissionLimiter admissionLimiter, AuditLog auditLog, ShadowScorer shadowScorer,
+                                OnlineLearner onlineLearner, AnalyticsStore analyticsStore,
+                                MicroBatcher microBatcher, StartupTimeline startupTimeline, TenantRouter tenantRouter,
+                                @Value("${weka.batch.max-size:50000}") int maxBatchSize) {
+        this.wekaModelService = wekaModelService;
+        this.bulkScoringPipeline = bulkScoringPipeline;
+        this.modelRegistry = modelRegistry;
+        this.diagnosisMetrics = diagnosisMetrics;
+        this.admissionLimiter = admissionLimiter;
+        this.auditLog = auditLog;
+        this.shadowScorer = shadowScorer;
+        this.onlineLearner = onlineLearner;
+        this.analyticsStore = analyticsStore;
+        this.microBatcher = microBatcher;
+        this.startupTimeline = startupTimeline;
+        this.tenantRouter = tenantRouter;
+        this.maxBatchSize = maxBatchSize;
+    }
     
     @PostMapping("/diagnose")
-    public ResponseEntity<DiagnosisResult> diagnose(@Valid @RequestBody SymptomInput input) {
+    public ResponseEntity<DiagnosisResult> diagnose(@RequestBody SymptomInput input,
+                                                    @RequestParam(defaultValue = "true") boolean explain,
+                                                    @RequestHeader(value = "${weka.tenants.header:X-Tenant-Id}",
+                                                        required = false) String tenant) {
+        // Requests turned away before a model is chosen count against the active one
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(wekaModelService.getModelVersion());
+        if (tenant != null && !TenantRouter.isValidTenantId(tenant)) {
+            metrics.failure("validation");
+            return ResponseEntity.badRequest().body(createErrorResult("Invalid tenant id"));
+        }
+        // Tenant quotas come first, so a tenant over its quota takes no shared capacity
+        TenantRouter.Lease lease = tenantRouter.tryAcquire(tenant, 1);
+        if (lease == null) {
+            metrics.failure("tenant_quota");
+            return tenantRejected().body(createErrorResult("Tenant quota exceeded. Please retry shortly."));
+        }
+        AdmissionLimiter.Permit permit = admissionLimiter.tryAcquire();
+        if (permit == null) {
+            lease.close();
+            metrics.failure("rejected");
+            return rejected().body(createErrorResult("Service is at capacity. Please retry shortly."));
+        }
+        ModelSnapshot tenantModel;
         try {
+            tenantModel = tenantModel(tenant, lease, permit, metrics);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                .body(createErrorResult("Diagnosis failed: " + e.getMessage()));
+        }
+        metrics = metricsFor(tenantModel, metrics);
+        metrics.requestStarted();
+        try (lease; permit) {
             if (!wekaModelService.isModelLoaded()) {
+                metrics.failure("model_not_loaded");
                 return ResponseEntity.internalServerError()
                     .body(createErrorResult("Model not loaded. Please try again later."));
             }
             
-            DiagnosisResult result = wekaModelService.classify(input);
+            // Validated here rather than with @Valid so the validation stage is timed
+            List<String> errors = wekaModelService.validate(input);
+            if (!errors.isEmpty()) {
+                metrics.failure("validation");
+                return ResponseEntity.badRequest()
+                    .body(createErrorResult("Invalid input: " + String.join("; ", errors)));
+            }
+            
+            // Concurrent single diagnoses are scored together when micro-batching is on
+            DiagnosisResult result;
+            if (tenantModel == null) {
+                result = microBatcher.isEnabled()
+                    ? microBatcher.classify(input, explain) : wekaModelService.classify(input, explain);
+            } else {
+                result = microBatcher.isEnabled()
+                    ? microBatcher.classify(tenantModel, input, explain)
+                    : wekaModelService.classify(tenantModel, input, explain);
+            }
+            served("diagnose", input, result);
             return ResponseEntity.ok(result);
             
         } catch (Exception e) {
-            System.err.println("Error during diagnosis: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error during diagnosis", e);
+            metrics.failure(e);
             return ResponseEntity.internalServerError()
                 .body(createErrorResult("Diagnosis failed: " + e.getMessage()));
+        } finally {
+            metrics.requestFinished();
         }
     }
     
+    @PostMapping("/diagnose/batch")
+    public ResponseEntity<Map<String, Object>> diagnoseBatch(@RequestBody List<SymptomInput> inputs,
+                                                             @RequestParam(defaultValue = "true") boolean explain,
+                                                             @RequestHeader(value = "${weka.tenants.header:X-Tenant-Id}",
+                                                                 required = false) String tenant) {
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(wekaModelService.getModelVersion());
+        if (tenant != null && !TenantRouter.isValidTenantId(tenant)) {
+            metrics.failure("validation");
+            return ResponseEntity.badRequest().body(createBatchError("Invalid tenant id"));
+        }
+        // Checked before the quota, so a rejected batch costs its tenant nothing
+        if (inputs.size() > maxBatchSize) {
+            metrics.failure("batch_too_large");
+            return ResponseEntity.badRequest()
+                .body(createBatchError("Batch too large: " + inputs.size() + " rows (max " + maxBatchSize + ")"));
+        }
+        // A batch draws one token per row from its tenant's bucket
+        TenantRouter.Lease lease = tenantRouter.tryAcquire(tenant, Math.max(1, inputs.size()));
+        if (lease == null) {
+            metrics.failure("tenant_quota");
+            return tenantRejected().body(createBatchError("Tenant quota exceeded. Please retry shortly."));
+        }
+        AdmissionLimiter.Permit permit = admissionLimiter.tryAcquire();
+        if (permit == null) {
+            lease.close();
+            metrics.failure("rejected");
+            return rejected().body(createBatchError("Service is at capacity. Please retry shortly."));
+        }
+        ModelSnapshot tenantModel;
+        try {
+            tenantModel = tenantModel(tenant, lease, permit, metrics);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                .body(createBatchError("Batch diagnosis failed: " + e.getMessage()));
+        }
+        metrics = metricsFor(tenantModel, metrics);
+        metrics.requestStarted();
+        try (lease; permit) {
+            if (!wekaModelService.isModelLoaded()) {
+                metrics.failure("model_not_loaded");
+                return ResponseEntity.internalServerError()
+                    .body(createBatchError("Model not loaded. Please try again later."));
+            }
+            
+            List<BatchDiagnosisItem> results = tenantModel == null
+                ? wekaModelService.classifyBatch(inputs, explain)
+                : wekaModelService.classifyBatch(tenantModel, inputs, explain);
+            int failed = 0;
+            for (BatchDiagnosisItem item : results) {
+                if (item.isSuccess()) {
+                    served("batch", inputs.get(item.getIndex()), item.getResult());
+                } else {
+                    failed++;
+                }
+            }
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("total", results.size());
+            response.put("succeeded", results.size() - failed);
+            response.put("failed", failed);
+            response.put("results", results);
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            log.error("Error during batch diagnosis", e);
+            metrics.failure(e);
+            return ResponseEntity.internalServerError()
+                .body(createBatchError("Batch diagnosis failed: " + e.getMessage()));
+        } finally {
+            metrics.requestFinished();
+        }
+    }
+    
+    @PostMapping(value = "/diagnose/stream", consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+    public void diagnoseStream(HttpServletRequest request, HttpServletResponse response,
+                               @RequestParam(defaultValue = "true") boolean explain,
+                               @RequestHeader(value = "${weka.tenants.header:X-Tenant-Id}",
+                                   required = false) String tenant) throws IOException {
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(wekaModelService.getModelVersion());
+        if (!wekaModelService.isModelLoaded()) {
+            metrics.failure("model_not_loaded");
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Model not loaded. Please try again later.");
+            return;
+        }
+        if (tenant != null && !TenantRouter.isValidTenantId(tenant)) {
+            metrics.failure("validation");
+            response.sendError(HttpStatus.BAD_REQUEST.value(), "Invalid tenant id");
+            return;
+        }
+        
+        BulkScoringPipeline.Format format = request.getContentType().startsWith("text/csv")
+            ? BulkScoringPipeline.Format.CSV : BulkScoringPipeline.Format.NDJSON;
+        // The row count is not known up front: the stream takes one token and a
+        // concurrency slot here, and each chunk's rows are charged as it is scored
+        TenantRouter.Lease lease = tenantRouter.tryAcquire(tenant, 1);
+        if (lease == null) {
+            metrics.failure("tenant_quota");
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(tenantRouter.getRetryAfterSeconds()));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Tenant quota exceeded. Please retry shortly.");
+            return;
+        }
+        AdmissionLimiter.Permit permit = admissionLimiter.tryAcquire();
+        if (permit == null) {
+            lease.close();
+            metrics.failure("rejected");
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(admissionLimiter.getRetryAfterSeconds()));
+            response.sendError(admissionLimiter.getRejectStatus(), "Service is at capacity. Please retry shortly.");
+            return;
+        }
+        ModelSnapshot tenantModel;
+        try {
+            tenantModel = tenantModel(tenant, lease, permit, metrics);
+        } catch (Exception e) {
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Streaming diagnosis failed: " + e.getMessage());
+            return;
+        }
+        metrics = metricsFor(tenantModel, metrics);
+        
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        OutputStream out = response.getOutputStream();
+        metrics.requestStarted();
+        try (lease; permit) {
+            BulkScoringReport report = bulkScoringPipeline.score(request.getInputStream(), format, out, explain,
+                tenantModel, lease, auditLog.isEnabled() || analyticsStore.isEnabled()
+                    ? (input, result) -> served("stream", input, result) : null);
+            log.info("Streaming diagnosis finished: {}", report);
+        } catch (Exception e) {
+            log.error("Error during streaming diagnosis", e);
+            metrics.failure(e);
+            // Results may already have been sent, so report the failure in-band
+            out.write(("{\"error\":\"Streaming diagnosis failed\"}\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } finally {
+            metrics.requestFinished();
+        }
+    }
+    
+    // Liveness: always 200 while the server answers. "ready" turns true once
+    // the configured models are loaded and warmed up (see /health/ready).
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
         Map<String, Object> health = new HashMap<>();
         health.put("status", "UP");
+        health.put("live", true);
+        health.put("ready", wekaModelService.isModelReady());
         health.put("modelLoaded", wekaModelService.isModelLoaded());
         health.put("modelInfo", wekaModelService.getModelInfo());
         health.put("timestamp", System.currentTimeMillis());
@@ -49,16 +306,278 @@ public class DiagnosticController {
         return ResponseEntity.ok(health);
     }
     
+    // Readiness: 503 until the configured models are loaded, so no traffic is
+    // routed here while only the builtin rules are available
+    @GetMapping("/health/ready")
+    public ResponseEntity<Map<String, Object>> ready() {
+        boolean ready = wekaModelService.isModelReady();
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", ready ? "UP" : wekaModelService.isModelLoadFailed() ? "FAILED" : "LOADING");
+        response.put("ready", ready);
+        response.put("modelVersion", wekaModelService.getModelVersion());
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+    
+    @GetMapping("/health/startup")
+    public ResponseEntity<Map<String, Object>> startup() {
+        return ResponseEntity.ok(startupTimeline.report());
+    }
+    
     @GetMapping("/model/info")
     public ResponseEntity<Map<String, String>> modelInfo() {
         Map<String, String> info = new HashMap<>();
         info.put("modelType", wekaModelService.getModelInfo());
         info.put("status", wekaModelService.isModelLoaded() ? "loaded" : "not loaded");
-        info.put("version", "v1.0");
+        info.put("version", wekaModelService.getModelVersion());
         
         return ResponseEntity.ok(info);
     }
     
+    @GetMapping("/model/versions")
+    public ResponseEntity<List<Map<String, Object>>> modelVersions() {
+        ModelSnapshot active = modelRegistry.active();
+        List<Map<String, Object>> versions = new ArrayList<>();
+        for (ModelSnapshot snapshot : modelRegistry.versions()) {
+            Map<String, Object> version = new HashMap<>();
+            version.put("version", snapshot.getVersion());
+            version.put("modelType", snapshot.getModelType());
+            version.put("source", snapshot.getSource());
+            version.put("calibration", snapshot.getCalibration() != null
+                ? snapshot.getCalibration().getMethod().name().toLowerCase() : "none");
+            version.put("loadedAt", snapshot.getLoadedAt());
+            version.put("active", snapshot == active);
+            versions.add(version);
+        }
+        return ResponseEntity.ok(versions);
+    }
+    
+    @PostMapping("/model/activate/{version}")
+    public ResponseEntity<Map<String, String>> activateModel(@PathVariable String version) {
+        Map<String, String> info = new HashMap<>();
+        try {
+            ModelSnapshot snapshot = modelRegistry.activate(version);
+            info.put("modelType", snapshot.getModelType());
+            info.put("version", snapshot.getVersion());
+            info.put("status", "active");
+            return ResponseEntity.ok(info);
+        } catch (IllegalArgumentException e) {
+            info.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(info);
+        }
+    }
+    
+    @GetMapping("/model/shadow")
+    public ResponseEntity<Map<String, Object>> shadowStats() {
+        Map<String, Object> stats = shadowScorer.stats();
+        if (stats == null) {
+            Map<String, Object> info = new HashMap<>();
+            info.put("status", shadowScorer.isEnabled() ? "idle" : "disabled");
+            return ResponseEntity.ok(info);
+        }
+        return ResponseEntity.ok(stats);
+    }
+    
+    @PostMapping("/model/shadow/{version}")
+    public ResponseEntity<Map<String, String>> startShadow(@PathVariable String version) {
+        Map<String, String> info = new HashMap<>();
+        try {
+            shadowScorer.shadow(version);
+            info.put("version", version);
+            info.put("status", "shadowing");
+            return ResponseEntity.ok(info);
+        } catch (IllegalArgumentException e) {
+            info.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(info);
+        } catch (IllegalStateException e) {
+            info.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(info);
+        }
+    }
+    
+    @DeleteMapping("/model/shadow")
+    public ResponseEntity<Map<String, Object>> stopShadow() {
+        // The final counts are returned, since they are gone once shadowing stops
+        Map<String, Object> stats = shadowScorer.stats();
+        shadowScorer.stop();
+        Map<String, Object> info = new HashMap<>();
+        info.put("status", "stopped");
+        if (stats != null) {
+            info.put("final", stats);
+        }
+        return ResponseEntity.ok(info);
+    }
+    
+    @PostMapping("/outcomes")
+    public ResponseEntity<Map<String, Object>> submitOutcomes(@RequestBody List<Outcome> outcomes) {
+        if (!onlineLearner.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(createBatchError("Online learning is disabled (weka.online.enabled)"));
+        }
+        String unavailable = onlineLearner.getUnavailableReason();
+        if (unavailable != null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(createBatchError(unavailable));
+        }
+        if (outcomes.size() > maxBatchSize) {
+            return ResponseEntity.badRequest()
+                .body(createBatchError("Batch too large: " + outcomes.size() + " rows (max " + maxBatchSize + ")"));
+        }
+        
+        // Invalid rows are reported and skipped; the rest are learned in the background
+        int accepted = 0;
+        int rejected = 0;
+        List<Map<String, Object>> invalid = new ArrayList<>();
+        for (int i = 0; i < outcomes.size(); i++) {
+            Outcome outcome = outcomes.get(i);
+            List<String> errors = new ArrayList<>();
+            if (outcome.getInput() == null) {
+                errors.add("Input is required");
+            } else {
+                errors.addAll(wekaModelService.validate(outcome.getInput()));
+            }
+            if (!onlineLearner.isKnownLabel(outcome.getLabel())) {
+                errors.add("Unknown label: " + outcome.getLabel());
+            }
+            if (!errors.isEmpty()) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("index", i);
+                row.put("errors", errors);
+                invalid.add(row);
+            } else if (onlineLearner.offer(outcome)) {
+                accepted++;
+            } else {
+                rejected++;
+            }
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("total", outcomes.size());
+        response.put("accepted", accepted);
+        response.put("rejected", rejected);
+        response.put("invalid", invalid);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+    
+    @GetMapping("/outcomes/stats")
+    public ResponseEntity<Map<String, Object>> outcomeStats() {
+        return ResponseEntity.ok(onlineLearner.stats());
+    }
+    
+    @PostMapping("/outcomes/rollback")
+    public ResponseEntity<Map<String, String>> rollbackOnlineUpdate() {
+        Map<String, String> info = new HashMap<>();
+        try {
+            ModelSnapshot snapshot = onlineLearner.rollback();
+            info.put("version", snapshot.getVersion());
+            info.put("status", "rolled back");
+            return ResponseEntity.ok(info);
+        } catch (IllegalStateException e) {
+            info.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(info);
+        }
+    }
+    
+    @GetMapping("/analytics")
+    public ResponseEntity<Map<String, Object>> analytics(@RequestParam(required = false) List<String> groupBy,
+                                                         @RequestParam(defaultValue = "10") int ageBandWidth,
+                                                         @RequestParam MultiValueMap<String, String> params) {
+        try {
+            List<AnalyticsStore.Dimension> dimensions = new ArrayList<>();
+            for (String name : groupBy != null ? groupBy : List.<String>of()) {
+                dimensions.add(dimension(name));
+            }
+            // Any other parameter named after a dimension filters on it, e.g. sex=female&ageBand=50-59,60-69
+            Map<AnalyticsStore.Dimension, List<String>> filters = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> param : params.entrySet()) {
+                AnalyticsStore.Dimension dimension = AnalyticsStore.Dimension.forParam(param.getKey());
+                if (dimension == null) {
+                    continue;
+                }
+                List<String> values = new ArrayList<>();
+                for (String value : param.getValue()) {
+                    values.addAll(Arrays.asList(value.split(",")));
+                }
+                filters.put(dimension, values);
+            }
+            return ResponseEntity.ok(analyticsStore.aggregate(dimensions, filters, ageBandWidth));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createBatchError(e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(createBatchError(e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/analytics/stats")
+    public ResponseEntity<Map<String, Object>> analyticsStats() {
+        return ResponseEntity.ok(analyticsStore.stats());
+    }
+    
+    @GetMapping("/tenants")
+    public ResponseEntity<Map<String, Object>> tenants() {
+        return ResponseEntity.ok(tenantRouter.stats());
+    }
+    
+    // Frees a tenant's model; its next request reads the file again, picking up a new one
+    @DeleteMapping("/tenants/{tenant}/model")
+    public ResponseEntity<Map<String, Object>> unloadTenantModel(@PathVariable String tenant) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("tenant", tenant);
+        response.put("unloaded", tenantRouter.unload(tenant));
+        return ResponseEntity.ok(response);
+    }
+    
+    private static AnalyticsStore.Dimension dimension(String name) {
+        AnalyticsStore.Dimension dimension = AnalyticsStore.Dimension.forParam(name.trim());
+        if (dimension == null) {
+            throw new IllegalArgumentException("Unknown dimension '" + name + "', expected one of "
+                + Arrays.stream(AnalyticsStore.Dimension.values()).map(AnalyticsStore.Dimension::param).toList());
+        }
+        return dimension;
+    }
+    
+    // Every successful diagnosis is audited and kept for analytics
+    private void served(String source, SymptomInput input, DiagnosisResult result) {
+        auditLog.record(source, input, result);
+        analyticsStore.record(input, result);
+    }
+
+    // The tenant's own model, or null for the active one. A model that cannot
+    // be loaded ends the request here, counted against the active model.
+    private ModelSnapshot tenantModel(String tenant, TenantRouter.Lease lease, AdmissionLimiter.Permit permit,
+                                      DiagnosisMetrics.ModelMetrics metrics) throws Exception {
+        try {
+            return tenantRouter.model(tenant);
+        } catch (Exception e) {
+            lease.close();
+            permit.close();
+            log.error("Could not load the model of tenant {}", tenant, e);
+            metrics.failure("tenant_model");
+            throw e;
+        }
+    }
+
+    // Failures and requests in flight are counted against the model that scores the request
+    private DiagnosisMetrics.ModelMetrics metricsFor(ModelSnapshot tenantModel,
+                                                     DiagnosisMetrics.ModelMetrics active) {
+        return tenantModel == null ? active : diagnosisMetrics.forModel(tenantModel.getVersion());
+    }
+
+    // Shed load fast, with a hint for when to come back
+    private ResponseEntity.BodyBuilder tenantRejected() {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(tenantRouter.getRetryAfterSeconds()));
+    }
+    
+    private ResponseEntity.BodyBuilder rejected() {
+        return ResponseEntity.status(admissionLimiter.getRejectStatus())
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(admissionLimiter.getRetryAfterSeconds()));
+    }
+    
+    private Map<String, Object> createBatchError(String errorMessage) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("error", errorMessage);
+        return error;
+    }
+    
     private DiagnosisResult createErrorResult(String errorMessage) {
         DiagnosisResult errorResult = new DiagnosisResult();
         errorResult.setLabel("Error");
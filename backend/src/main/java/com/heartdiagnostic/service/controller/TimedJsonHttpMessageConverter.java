@@ -0,0 +1,37 @@
+package com.heartdiagnostic.service.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.service.DiagnosisMetrics;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+// Replaces Spring Boot's default JSON converter (same type, same ObjectMapper)
+// so the time spent writing a diagnosis to the response is recorded as the
+// serialization stage
+@Component
+public class TimedJsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    private final DiagnosisMetrics diagnosisMetrics;
+
+    public TimedJsonHttpMessageConverter(ObjectMapper objectMapper, DiagnosisMetrics diagnosisMetrics) {
+        super(objectMapper);
+        this.diagnosisMetrics = diagnosisMetrics;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+        if (!(object instanceof DiagnosisResult result)) {
+            super.writeInternal(object, type, outputMessage);
+            return;
+        }
+        long start = System.nanoTime();
+        super.writeInternal(object, type, outputMessage);
+        diagnosisMetrics.forModel(result.getModelVersion())
+            .record(DiagnosisMetrics.Stage.SERIALIZATION, System.nanoTime() - start);
+    }
+}
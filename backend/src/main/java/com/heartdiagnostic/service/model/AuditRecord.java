@@ -0,0 +1,32 @@
+package com.heartdiagnostic.service.model;
+
+// One served diagnosis as kept in the audit log: the input as received, the
+// result as returned, and the endpoint that produced it
+public class AuditRecord {
+
+    private long timestamp;
+    private String source;
+    private SymptomInput input;
+    private DiagnosisResult result;
+
+    public AuditRecord() {}
+
+    public AuditRecord(long timestamp, String source, SymptomInput input, DiagnosisResult result) {
+        this.timestamp = timestamp;
+        this.source = source;
+        this.input = input;
+        this.result = result;
+    }
+
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    public String getSource() { return source; }
+    public void setSource(String source) { this.source = source; }
+
+    public SymptomInput getInput() { return input; }
+    public void setInput(SymptomInput input) { this.input = input; }
+
+    public DiagnosisResult getResult() { return result; }
+    public void setResult(DiagnosisResult result) { this.result = result; }
+}
@@ -0,0 +1,40 @@
+package com.heartdiagnostic.service.model;
+
+import java.util.List;
+
+public class BatchDiagnosisItem {
+
+    private int index;
+    private DiagnosisResult result;
+    private List<String> errors;
+
+    public BatchDiagnosisItem() {}
+
+    public BatchDiagnosisItem(int index, DiagnosisResult result, List<String> errors) {
+        this.index = index;
+        this.result = result;
+        this.errors = errors;
+    }
+
+    public static BatchDiagnosisItem success(int index, DiagnosisResult result) {
+        return new BatchDiagnosisItem(index, result, null);
+    }
+
+    public static BatchDiagnosisItem failure(int index, List<String> errors) {
+        return new BatchDiagnosisItem(index, null, errors);
+    }
+
+    public boolean isSuccess() {
+        return result != null;
+    }
+
+    // Getters and Setters
+    public int getIndex() { return index; }
+    public void setIndex(int index) { this.index = index; }
+
+    public DiagnosisResult getResult() { return result; }
+    public void setResult(DiagnosisResult result) { this.result = result; }
+
+    public List<String> getErrors() { return errors; }
+    public void setErrors(List<String> errors) { this.errors = errors; }
+}
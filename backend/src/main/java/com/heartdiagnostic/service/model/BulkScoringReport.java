@@ -0,0 +1,56 @@
+package com.heartdiagnostic.service.model;
+
+public class BulkScoringReport {
+
+    private long rows;
+    private long succeeded;
+    private long failed;
+    private long chunks;
+    private long elapsedMs;
+    private double rowsPerSecond;
+    private double meanChunkLatencyMs;
+    private double p50ChunkLatencyMs;
+    private double p99ChunkLatencyMs;
+    private double maxChunkLatencyMs;
+
+    public BulkScoringReport() {}
+
+    // Getters and Setters
+    public long getRows() { return rows; }
+    public void setRows(long rows) { this.rows = rows; }
+
+    public long getSucceeded() { return succeeded; }
+    public void setSucceeded(long succeeded) { this.succeeded = succeeded; }
+
+    public long getFailed() { return failed; }
+    public void setFailed(long failed) { this.failed = failed; }
+
+    public long getChunks() { return chunks; }
+    public void setChunks(long chunks) { this.chunks = chunks; }
+
+    public long getElapsedMs() { return elapsedMs; }
+    public void setElapsedMs(long elapsedMs) { this.elapsedMs = elapsedMs; }
+
+    public double getRowsPerSecond() { return rowsPerSecond; }
+    public void setRowsPerSecond(double rowsPerSecond) { this.rowsPerSecond = rowsPerSecond; }
+
+    public double getMeanChunkLatencyMs() { return meanChunkLatencyMs; }
+    public void setMeanChunkLatencyMs(double meanChunkLatencyMs) { this.meanChunkLatencyMs = meanChunkLatencyMs; }
+
+    public double getP50ChunkLatencyMs() { return p50ChunkLatencyMs; }
+    public void setP50ChunkLatencyMs(double p50ChunkLatencyMs) { this.p50ChunkLatencyMs = p50ChunkLatencyMs; }
+
+    public double getP99ChunkLatencyMs() { return p99ChunkLatencyMs; }
+    public void setP99ChunkLatencyMs(double p99ChunkLatencyMs) { this.p99ChunkLatencyMs = p99ChunkLatencyMs; }
+
+    public double getMaxChunkLatencyMs() { return maxChunkLatencyMs; }
+    public void setMaxChunkLatencyMs(double maxChunkLatencyMs) { this.maxChunkLatencyMs = maxChunkLatencyMs; }
+
+    @Override
+    public String toString() {
+        return String.format("rows=%d succeeded=%d failed=%d chunks=%d elapsed=%dms throughput=%.1f rows/s "
+                + "chunk latency mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+            rows, succeeded, failed, chunks, elapsedMs, rowsPerSecond,
+            meanChunkLatencyMs, p50ChunkLatencyMs, p99ChunkLatencyMs, maxChunkLatencyMs);
+    }
+}
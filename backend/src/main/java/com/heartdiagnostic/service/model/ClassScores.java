@@ -0,0 +1,95 @@
+package com.heartdiagnostic.service.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.util.*;
+
+// Class scores in a fixed layout: one shared array of class names and one
+// array of scores in the same order. Reads like a Map so DiagnosisResult keeps
+// its JSON shape, but is serialized straight from the array.
+@JsonSerialize(using = ClassScores.Serializer.class)
+public class ClassScores extends AbstractMap<String, Double> {
+
+    private final String[] classNames;
+    private final double[] values;
+
+    public ClassScores(String[] classNames, double[] values) {
+        if (classNames.length != values.length) {
+            throw new IllegalArgumentException("Expected " + classNames.length + " scores, got " + values.length);
+        }
+        this.classNames = classNames;
+        this.values = values;
+    }
+
+    public int size() {
+        return classNames.length;
+    }
+
+    public String className(int index) {
+        return classNames[index];
+    }
+
+    public double value(int index) {
+        return values[index];
+    }
+
+    public int indexOf(Object className) {
+        for (int i = 0; i < classNames.length; i++) {
+            if (classNames[i].equals(className)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Double get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public Set<Entry<String, Double>> entrySet() {
+        return new AbstractSet<Entry<String, Double>>() {
+            public int size() {
+                return classNames.length;
+            }
+
+            public Iterator<Entry<String, Double>> iterator() {
+                return new Iterator<Entry<String, Double>>() {
+                    private int next = 0;
+
+                    public boolean hasNext() {
+                        return next < classNames.length;
+                    }
+
+                    public Entry<String, Double> next() {
+                        if (next >= classNames.length) throw new NoSuchElementException();
+                        int i = next++;
+                        return new SimpleImmutableEntry<>(classNames[i], values[i]);
+                    }
+                };
+            }
+        };
+    }
+
+    public static class Serializer extends JsonSerializer<ClassScores> {
+        @Override
+        public void serialize(ClassScores scores, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            for (int i = 0; i < scores.classNames.length; i++) {
+                generator.writeNumberField(scores.classNames[i], scores.values[i]);
+            }
+            generator.writeEndObject();
+        }
+    }
+}
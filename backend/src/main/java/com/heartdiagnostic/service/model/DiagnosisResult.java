@@ -1,6 +1,7 @@
 package com.heartdiagnostic.service.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
 import java.util.Map;
 
 public class DiagnosisResult {
@@ -8,8 +9,13 @@ public class DiagnosisResult {
     private String label;
     private Map<String, Double> scores;
     private String explanation;
+    // Path explanations only: each feature's effect on the predicted class's probability
+    private Map<String, Double> contributions;
     private String modelVersion;
     private long timestamp;
+    // Ensemble mode only: members whose votes were counted, and those dropped at the deadline
+    private List<String> contributors;
+    private List<String> dropped;
 
     public DiagnosisResult() {
         this.timestamp = System.currentTimeMillis();
@@ -33,9 +39,18 @@ public class DiagnosisResult {
     public String getExplanation() { return explanation; }
     public void setExplanation(String explanation) { this.explanation = explanation; }
 
+    public Map<String, Double> getContributions() { return contributions; }
+    public void setContributions(Map<String, Double> contributions) { this.contributions = contributions; }
+
     public String getModelVersion() { return modelVersion; }
     public void setModelVersion(String modelVersion) { this.modelVersion = modelVersion; }
 
     public long getTimestamp() { return timestamp; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    public List<String> getContributors() { return contributors; }
+    public void setContributors(List<String> contributors) { this.contributors = contributors; }
+
+    public List<String> getDropped() { return dropped; }
+    public void setDropped(List<String> dropped) { this.dropped = dropped; }
 }
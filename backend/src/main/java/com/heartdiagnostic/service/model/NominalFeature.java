@@ -0,0 +1,84 @@
+package com.heartdiagnostic.service.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+// The encoding tables for the categorical input features. A value's code is
+// its position in the table, and the service schema lists each attribute's
+// values in table order, so training data and live requests get the same
+// codes. Lookups compare against the table's fixed strings; nothing is parsed
+// or matched by pattern.
+public enum NominalFeature {
+
+    SEX("sex", "male", "female"),
+    CHEST_PAIN("chestPain", "typical", "atypical", "non-anginal", "asymptomatic"),
+    REST_ECG("restECG", "normal", "st-t-abnormality", "left-ventricular-hypertrophy"),
+    EXERCISE_ANGINA("exerciseAngina", "no", "yes"),
+    THALLIUM("thallium", "normal", "fixed-defect", "reversible-defect");
+
+    // Codes for a value that was not given, and for one that is not in the table
+    public static final int MISSING = -1;
+    public static final int UNKNOWN = -2;
+
+    private final String attribute;
+    private final String[] values;
+    private final char[][] chars;
+
+    NominalFeature(String attribute, String... values) {
+        this.attribute = attribute;
+        this.values = values;
+        this.chars = new char[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            chars[i] = values[i].toCharArray();
+        }
+    }
+
+    // The table for a schema attribute name, or null when it is not categorical
+    public static NominalFeature forAttribute(String attribute) {
+        for (NominalFeature feature : values()) {
+            if (feature.attribute.equals(attribute)) {
+                return feature;
+            }
+        }
+        return null;
+    }
+
+    public String attribute() {
+        return attribute;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    // The table's own string for code, so decoded inputs share one instance per value
+    public String value(int code) {
+        return values[code];
+    }
+
+    public List<String> valueList() {
+        return List.of(values);
+    }
+
+    public int code(String value) {
+        if (value == null) {
+            return MISSING;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    // Same as code(String) for text still in a parser's buffer
+    public int code(char[] text, int offset, int length) {
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i].length == length && Arrays.equals(chars[i], 0, length, text, offset, offset + length)) {
+                return i;
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,22 @@
+package com.heartdiagnostic.service.model;
+
+// A confirmed diagnosis for an earlier input, used to update online models.
+// label must be one of the model's class names.
+public class Outcome {
+
+    private SymptomInput input;
+    private String label;
+
+    public Outcome() {}
+
+    public Outcome(SymptomInput input, String label) {
+        this.input = input;
+        this.label = label;
+    }
+
+    public SymptomInput getInput() { return input; }
+    public void setInput(SymptomInput input) { this.input = input; }
+
+    public String getLabel() { return label; }
+    public void setLabel(String label) { this.label = label; }
+}
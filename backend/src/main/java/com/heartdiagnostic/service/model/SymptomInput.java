@@ -1,8 +1,15 @@
 package com.heartdiagnostic.service.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import jakarta.validation.constraints.*;
 
+// Categorical fields are held both as text and as their NominalFeature code.
+// Requests are decoded by SymptomInputDeserializer, which looks the codes up in
+// the tables directly; an unknown value gets the code UNKNOWN, which the @Min
+// constraints on the codes reject.
+@JsonDeserialize(using = SymptomInputDeserializer.class)
 public class SymptomInput {
     
     @NotNull(message = "Age is required")
@@ -11,15 +18,19 @@ public class SymptomInput {
     private Integer age;
     
     @NotBlank(message = "Sex is required")
-    @Pattern(regexp = "^(male|female)$", message = "Sex must be either 'male' or 'female'")
     private String sex;
     
+    @Min(value = NominalFeature.MISSING, message = "Sex must be either 'male' or 'female'")
+    private int sexCode = NominalFeature.MISSING;
+    
     @NotBlank(message = "Chest pain type is required")
-    @Pattern(regexp = "^(typical|atypical|non-anginal|asymptomatic)$", 
-             message = "Chest pain must be one of: typical, atypical, non-anginal, asymptomatic")
     @JsonProperty("chestPain")
     private String chestPain;
     
+    @Min(value = NominalFeature.MISSING,
+         message = "Chest pain must be one of: typical, atypical, non-anginal, asymptomatic")
+    private int chestPainCode = NominalFeature.MISSING;
+    
     @NotNull(message = "Blood pressure is required")
     @Min(value = 50, message = "Blood pressure must be at least 50")
     @Max(value = 300, message = "Blood pressure must be at most 300")
@@ -38,11 +49,13 @@ public class SymptomInput {
     private Integer fastingBS;
     
     @NotBlank(message = "Resting ECG is required")
-    @Pattern(regexp = "^(normal|st-t-abnormality|left-ventricular-hypertrophy)$",
-             message = "Resting ECG must be one of: normal, st-t-abnormality, left-ventricular-hypertrophy")
     @JsonProperty("restECG")
     private String restECG;
     
+    @Min(value = NominalFeature.MISSING,
+         message = "Resting ECG must be one of: normal, st-t-abnormality, left-ventricular-hypertrophy")
+    private int restECGCode = NominalFeature.MISSING;
+    
     @NotNull(message = "Maximum heart rate is required")
     @Min(value = 60, message = "Maximum heart rate must be at least 60")
     @Max(value = 220, message = "Maximum heart rate must be at most 220")
@@ -50,20 +63,24 @@ public class SymptomInput {
     private Integer maxHeartRate;
     
     @NotBlank(message = "Exercise angina is required")
-    @Pattern(regexp = "^(yes|no)$", message = "Exercise angina must be 'yes' or 'no'")
     @JsonProperty("exerciseAngina")
     private String exerciseAngina;
     
+    @Min(value = NominalFeature.MISSING, message = "Exercise angina must be 'yes' or 'no'")
+    private int exerciseAnginaCode = NominalFeature.MISSING;
+    
     @NotNull(message = "Oldpeak is required")
     @Min(value = 0, message = "Oldpeak must be at least 0")
     @Max(value = 10, message = "Oldpeak must be at most 10")
     private Double oldpeak;
     
     @NotBlank(message = "Thallium scan is required")
-    @Pattern(regexp = "^(normal|fixed-defect|reversible-defect)$",
-             message = "Thallium scan must be one of: normal, fixed-defect, reversible-defect")
     private String thallium;
     
+    @Min(value = NominalFeature.MISSING,
+         message = "Thallium scan must be one of: normal, fixed-defect, reversible-defect")
+    private int thalliumCode = NominalFeature.MISSING;
+    
     @NotNull(message = "Height is required")
     @Min(value = 0, message = "Height must be positive")
     @Max(value = 3, message = "Height must be at most 3 meters")
@@ -84,10 +101,16 @@ public class SymptomInput {
     public void setAge(Integer age) { this.age = age; }
 
     public String getSex() { return sex; }
-    public void setSex(String sex) { this.sex = sex; }
+    public void setSex(String sex) { setNominal(NominalFeature.SEX, NominalFeature.SEX.code(sex), sex); }
+
+    @JsonIgnore
+    public int getSexCode() { return sexCode; }
 
     public String getChestPain() { return chestPain; }
-    public void setChestPain(String chestPain) { this.chestPain = chestPain; }
+    public void setChestPain(String chestPain) { setNominal(NominalFeature.CHEST_PAIN, NominalFeature.CHEST_PAIN.code(chestPain), chestPain); }
+
+    @JsonIgnore
+    public int getChestPainCode() { return chestPainCode; }
 
     public Integer getBloodPressure() { return bloodPressure; }
     public void setBloodPressure(Integer bloodPressure) { this.bloodPressure = bloodPressure; }
@@ -99,19 +122,28 @@ public class SymptomInput {
     public void setFastingBS(Integer fastingBS) { this.fastingBS = fastingBS; }
 
     public String getRestECG() { return restECG; }
-    public void setRestECG(String restECG) { this.restECG = restECG; }
+    public void setRestECG(String restECG) { setNominal(NominalFeature.REST_ECG, NominalFeature.REST_ECG.code(restECG), restECG); }
+
+    @JsonIgnore
+    public int getRestECGCode() { return restECGCode; }
 
     public Integer getMaxHeartRate() { return maxHeartRate; }
     public void setMaxHeartRate(Integer maxHeartRate) { this.maxHeartRate = maxHeartRate; }
 
     public String getExerciseAngina() { return exerciseAngina; }
-    public void setExerciseAngina(String exerciseAngina) { this.exerciseAngina = exerciseAngina; }
+    public void setExerciseAngina(String exerciseAngina) { setNominal(NominalFeature.EXERCISE_ANGINA, NominalFeature.EXERCISE_ANGINA.code(exerciseAngina), exerciseAngina); }
+
+    @JsonIgnore
+    public int getExerciseAnginaCode() { return exerciseAnginaCode; }
 
     public Double getOldpeak() { return oldpeak; }
     public void setOldpeak(Double oldpeak) { this.oldpeak = oldpeak; }
 
     public String getThallium() { return thallium; }
-    public void setThallium(String thallium) { this.thallium = thallium; }
+    public void setThallium(String thallium) { setNominal(NominalFeature.THALLIUM, NominalFeature.THALLIUM.code(thallium), thallium); }
+
+    @JsonIgnore
+    public int getThalliumCode() { return thalliumCode; }
 
     public Double getHeightM() { return heightM; }
     public void setHeightM(Double heightM) { this.heightM = heightM; }
@@ -119,6 +151,18 @@ public class SymptomInput {
     public Double getWeightKg() { return weightKg; }
     public void setWeightKg(Double weightKg) { this.weightKg = weightKg; }
 
+    // text is kept as given only when code is not in the table
+    void setNominal(NominalFeature feature, int code, String text) {
+        String value = code >= 0 ? feature.value(code) : text;
+        switch (feature) {
+            case SEX: sex = value; sexCode = code; break;
+            case CHEST_PAIN: chestPain = value; chestPainCode = code; break;
+            case REST_ECG: restECG = value; restECGCode = code; break;
+            case EXERCISE_ANGINA: exerciseAngina = value; exerciseAnginaCode = code; break;
+            case THALLIUM: thallium = value; thalliumCode = code; break;
+        }
+    }
+
     // Calculate BMI
     public Double getBmi() {
         if (heightM != null && weightKg != null && heightM > 0) {
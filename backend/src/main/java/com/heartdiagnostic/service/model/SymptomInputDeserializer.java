@@ -0,0 +1,73 @@
+package com.heartdiagnostic.service.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+
+// Reads a SymptomInput field by field. Categorical values are matched against
+// the NominalFeature tables while still in the parser's buffer, so a known
+// value costs no String and no regex. Numbers go through Jackson's own
+// deserializers and keep their usual coercions; unknown properties are handled
+// as the mapper is configured to handle them.
+public class SymptomInputDeserializer extends JsonDeserializer<SymptomInput> {
+
+    @Override
+    public SymptomInput deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
+        } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            return (SymptomInput) ctxt.handleUnexpectedToken(SymptomInput.class, p);
+        }
+
+        SymptomInput input = new SymptomInput();
+        for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            String name = p.currentName();
+            token = p.nextToken();
+            switch (name) {
+                case "age": input.setAge(number(p, ctxt, token, Integer.class)); break;
+                case "sex": nominal(p, ctxt, token, input, NominalFeature.SEX); break;
+                case "chestPain": nominal(p, ctxt, token, input, NominalFeature.CHEST_PAIN); break;
+                case "bloodPressure": input.setBloodPressure(number(p, ctxt, token, Integer.class)); break;
+                case "cholesterol": input.setCholesterol(number(p, ctxt, token, Integer.class)); break;
+                case "fastingBS": input.setFastingBS(number(p, ctxt, token, Integer.class)); break;
+                case "restECG": nominal(p, ctxt, token, input, NominalFeature.REST_ECG); break;
+                case "maxHeartRate": input.setMaxHeartRate(number(p, ctxt, token, Integer.class)); break;
+                case "exerciseAngina": nominal(p, ctxt, token, input, NominalFeature.EXERCISE_ANGINA); break;
+                case "oldpeak": input.setOldpeak(number(p, ctxt, token, Double.class)); break;
+                case "thallium": nominal(p, ctxt, token, input, NominalFeature.THALLIUM); break;
+                case "height_m": input.setHeightM(number(p, ctxt, token, Double.class)); break;
+                case "weight_kg": input.setWeightKg(number(p, ctxt, token, Double.class)); break;
+                // Derived from height and weight; present in JSON the service wrote itself
+                case "bmi": p.skipChildren(); break;
+                default: ctxt.handleUnknownProperty(p, this, SymptomInput.class, name);
+            }
+        }
+        return input;
+    }
+
+    private static <T> T number(JsonParser p, DeserializationContext ctxt, JsonToken token, Class<T> type)
+            throws IOException {
+        return token == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, type);
+    }
+
+    private static void nominal(JsonParser p, DeserializationContext ctxt, JsonToken token, SymptomInput input,
+                                NominalFeature feature) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            input.setNominal(feature, NominalFeature.MISSING, null);
+            return;
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            int code = feature.code(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            // The text is only materialised for values that will fail validation
+            input.setNominal(feature, code, code >= 0 ? null : p.getText());
+            return;
+        }
+        // Other scalars are coerced to text as Jackson would for a String property
+        String text = ctxt.readValue(p, String.class);
+        input.setNominal(feature, feature.code(text), text);
+    }
+}
@@ -0,0 +1,177 @@
+package com.heartdiagnostic.service.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Caps the number of diagnoses running at once and rejects the rest
+// immediately instead of letting them queue. The cap follows observed latency:
+// it shrinks when requests take longer than the long-run average (work is
+// queueing inside the service) and grows back while latency stays flat.
+@Service
+public class AdmissionLimiter {
+
+    // Latency is sampled over windows of at least this long and this many requests
+    private static final long WINDOW_NANOS = 100_000_000L;
+    private static final int WINDOW_SAMPLES = 10;
+    // Weight of one window in the long-run latency average
+    private static final double LONG_RTT_WEIGHT = 1.0 / 100;
+    // Latency up to this multiple of the long-run average still counts as flat
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long retryAfterSeconds;
+    private final int rejectStatus;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+
+    private final LongAdder windowCount = new LongAdder();
+    private final LongAdder windowNanos = new LongAdder();
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private volatile long windowStart = System.nanoTime();
+    private double longRttNanos;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public AdmissionLimiter(MeterRegistry meterRegistry,
+                            @Value("${weka.admission.enabled:false}") boolean enabled,
+                            @Value("${weka.admission.initial-limit:64}") int initialLimit,
+                            @Value("${weka.admission.min-limit:8}") int minLimit,
+                            @Value("${weka.admission.max-limit:1024}") int maxLimit,
+                            @Value("${weka.admission.retry-after-seconds:1}") long retryAfterSeconds,
+                            @Value("${weka.admission.reject-status:503}") int rejectStatus) {
+        this.enabled = enabled;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        if (rejectStatus != 503 && rejectStatus != 429) {
+            throw new IllegalArgumentException("weka.admission.reject-status must be 503 or 429, got " + rejectStatus);
+        }
+        this.rejectStatus = rejectStatus;
+
+        if (enabled) {
+            Gauge.builder("diagnosis.admission.limit", this, AdmissionLimiter::getLimit).register(meterRegistry);
+            Gauge.builder("diagnosis.admission.inflight", inFlight, AtomicInteger::get).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.admission.rejected", rejected, LongAdder::sum).register(meterRegistry);
+        }
+    }
+
+    // Returns a permit to release when the request completes, or null when
+    // the service is at its limit and the request should be rejected
+    public Permit tryAcquire() {
+        if (!enabled) {
+            return Permit.NONE;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(this, System.nanoTime());
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // 503 by default; 429 for deployments whose clients only back off on that
+    public int getRejectStatus() {
+        return rejectStatus;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private void release(long startNanos) {
+        long now = System.nanoTime();
+        inFlight.decrementAndGet();
+        windowCount.increment();
+        windowNanos.add(now - startNanos);
+
+        // One thread closes the window; the others carry on without waiting
+        if (now - windowStart < WINDOW_NANOS || windowCount.sum() < WINDOW_SAMPLES
+                || !updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long count = windowCount.sumThenReset();
+            long total = windowNanos.sumThenReset();
+            windowStart = now;
+            if (count > 0) {
+                adjust((double) total / count);
+            }
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    private void adjust(double shortRttNanos) {
+        longRttNanos = longRttNanos == 0 ? shortRttNanos
+            : longRttNanos * (1 - LONG_RTT_WEIGHT) + shortRttNanos * LONG_RTT_WEIGHT;
+
+        // Latency well above the long-run average means requests are queueing,
+        // so the limit shrinks in proportion; otherwise it grows by a small
+        // allowance for queueing, roughly sqrt(limit)
+        double current = limit;
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / shortRttNanos));
+        double target = current * gradient + Math.sqrt(current);
+
+        // Let the baseline drift down after an overload so the limit can recover
+        if (shortRttNanos < longRttNanos) {
+            longRttNanos = shortRttNanos;
+        }
+
+        // Only grow while the limit is actually being used
+        if (target > current && inFlight.get() < current / 2) {
+            return;
+        }
+        double next = current * (1 - SMOOTHING) + target * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    public static final class Permit implements AutoCloseable {
+
+        static final Permit NONE = new Permit(null, 0);
+
+        private final AdmissionLimiter limiter;
+        private final long startNanos;
+        private boolean released;
+
+        private Permit(AdmissionLimiter limiter, long startNanos) {
+            this.limiter = limiter;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            if (limiter != null && !released) {
+                released = true;
+                limiter.release(startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,733 @@
+package com.heartdiagnostic.service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.ClassScores;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.NominalFeature;
+import com.heartdiagnostic.service.model.SymptomInput;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Keeps served diagnoses in memory as columns for population analytics.
+// Rows are appended to fixed-size chunks of primitive arrays: categorical
+// inputs as their NominalFeature codes, labels and model versions as codes into
+// small dictionaries, class scores as 16-bit fractions, and the clinical risk
+// factors as two bitmasks (known and present). That is about 18 bytes a row
+// for a three-class model. The oldest full chunk is dropped once max-rows is
+// exceeded.
+//
+// Request threads append to one of several stripes, picked by thread id, each
+// with its own open chunk and lock; the store-wide lock is only taken when a
+// stripe opens a new chunk. A chunk publishes its rows through its volatile
+// size, so queries never lock. A query takes a snapshot of the
+// chunk sizes. It scans the chunks in parallel, a column at a time, into
+// dense per-group counters, then merges them.
+@Service
+public class AnalyticsStore {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsStore.class);
+
+    // Group-bys with more combinations than this are refused; the counters are dense
+    static final int MAX_GROUPS = 1 << 14;
+    static final int MAX_CLASSES = 16;
+    private static final int MAX_AGE = 120;
+    private static final double SCORE_SCALE = 65535.0;
+    private static final String MISSING = "missing";
+
+    public enum Dimension {
+        AGE_BAND("ageBand"),
+        SEX("sex"),
+        CHEST_PAIN("chestPain"),
+        REST_ECG("restECG"),
+        EXERCISE_ANGINA("exerciseAngina"),
+        THALLIUM("thallium"),
+        FASTING_BS("fastingBS"),
+        LABEL("label"),
+        MODEL("model");
+
+        private final String param;
+
+        Dimension(String param) {
+            this.param = param;
+        }
+
+        public String param() {
+            return param;
+        }
+
+        public static Dimension forParam(String param) {
+            for (Dimension dimension : values()) {
+                if (dimension.param.equals(param)) {
+                    return dimension;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Same thresholds as the template explanations, plus obesity from the BMI
+    public enum RiskFactor {
+        AGE_OVER_65("ageOver65"),
+        HIGH_BLOOD_PRESSURE("highBloodPressure"),
+        HIGH_CHOLESTEROL("highCholesterol"),
+        HIGH_FASTING_BS("highFastingBloodSugar"),
+        EXERCISE_ANGINA("exerciseAngina"),
+        ST_DEPRESSION("stDepression"),
+        THALLIUM_DEFECT("thalliumDefect"),
+        OBESITY("obesity");
+
+        private final String param;
+
+        RiskFactor(String param) {
+            this.param = param;
+        }
+
+        public String param() {
+            return param;
+        }
+    }
+
+    private static final RiskFactor[] RISK_FACTORS = RiskFactor.values();
+    private static final int ANGINA_YES = NominalFeature.EXERCISE_ANGINA.code("yes");
+    private static final int THALLIUM_NORMAL = NominalFeature.THALLIUM.code("normal");
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final long maxRows;
+    private final int chunkRows;
+    private final boolean replayAudit;
+    private final Path auditDir;
+    private final ForkJoinPool pool;
+    private final Stripe[] stripes;
+
+    // chunks and evicted are guarded by this; chunks is replaced, never
+    // modified, so readers need no lock
+    private final Dictionary labels = new Dictionary(255);
+    private final Dictionary models = new Dictionary(65535);
+    private final Dictionary classes = new Dictionary(MAX_CLASSES);
+    private volatile Chunk[] chunks = new Chunk[0];
+    private long evicted;
+
+    private Thread replay;
+
+    public AnalyticsStore(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                          @Value("${weka.analytics.enabled:false}") boolean enabled,
+                          @Value("${weka.analytics.max-rows:10000000}") long maxRows,
+                          @Value("${weka.analytics.chunk-rows:65536}") int chunkRows,
+                          @Value("${weka.analytics.threads:0}") int threads,
+                          @Value("${weka.analytics.stripes:0}") int stripes,
+                          @Value("${weka.analytics.replay-audit:true}") boolean replayAudit,
+                          @Value("${weka.audit.dir:audit}") String auditDir) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.chunkRows = Math.max(1, chunkRows);
+        this.maxRows = Math.max(this.chunkRows, maxRows);
+        this.replayAudit = replayAudit;
+        this.auditDir = Paths.get(auditDir);
+        this.pool = enabled
+            ? new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors())
+            : null;
+        this.stripes = new Stripe[enabled ? (stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors()) : 0];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+
+        if (enabled) {
+            Gauge.builder("diagnosis.analytics.rows", this, AnalyticsStore::rowCount).register(meterRegistry);
+        }
+    }
+
+    // Rebuilds the store from the audit log in the background; diagnoses
+    // served meanwhile are recorded as usual
+    @PostConstruct
+    public void start() {
+        if (!enabled || !replayAudit || !Files.isDirectory(auditDir)) {
+            return;
+        }
+        // Records audited from now on are also recorded live
+        long startedAt = System.currentTimeMillis();
+        replay = new Thread(() -> {
+            try {
+                long start = System.nanoTime();
+                long count = AuditLog.replay(auditDir, objectMapper, record -> {
+                    if (record.getTimestamp() < startedAt && record.getInput() != null && record.getResult() != null) {
+                        record(record.getInput(), record.getResult());
+                    }
+                });
+                log.info("Loaded {} audit records into analytics in {} ms", count,
+                    (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception e) {
+                log.warn("Could not load the audit log into analytics: {}", e.getMessage());
+            }
+        }, "analytics-replay");
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long rowCount() {
+        long rows = 0;
+        for (Chunk chunk : chunks) {
+            rows += chunk.size;
+        }
+        return rows;
+    }
+
+    // Adds a served diagnosis; input is expected to have passed validation
+    public void record(SymptomInput input, DiagnosisResult result) {
+        if (!enabled) {
+            return;
+        }
+        Integer age = input.getAge();
+        int known = 0;
+        int present = 0;
+        if (age != null) {
+            known |= bit(RiskFactor.AGE_OVER_65);
+            if (age > 65) present |= bit(RiskFactor.AGE_OVER_65);
+        }
+        if (input.getBloodPressure() != null) {
+            known |= bit(RiskFactor.HIGH_BLOOD_PRESSURE);
+            if (input.getBloodPressure() > 140) present |= bit(RiskFactor.HIGH_BLOOD_PRESSURE);
+        }
+        if (input.getCholesterol() != null) {
+            known |= bit(RiskFactor.HIGH_CHOLESTEROL);
+            if (input.getCholesterol() > 240) present |= bit(RiskFactor.HIGH_CHOLESTEROL);
+        }
+        if (input.getFastingBS() != null) {
+            known |= bit(RiskFactor.HIGH_FASTING_BS);
+            if (input.getFastingBS() == 1) present |= bit(RiskFactor.HIGH_FASTING_BS);
+        }
+        if (input.getExerciseAnginaCode() >= 0) {
+            known |= bit(RiskFactor.EXERCISE_ANGINA);
+            if (input.getExerciseAnginaCode() == ANGINA_YES) present |= bit(RiskFactor.EXERCISE_ANGINA);
+        }
+        if (input.getOldpeak() != null) {
+            known |= bit(RiskFactor.ST_DEPRESSION);
+            if (input.getOldpeak() > 2.0) present |= bit(RiskFactor.ST_DEPRESSION);
+        }
+        if (input.getThalliumCode() >= 0) {
+            known |= bit(RiskFactor.THALLIUM_DEFECT);
+            if (input.getThalliumCode() != THALLIUM_NORMAL) present |= bit(RiskFactor.THALLIUM_DEFECT);
+        }
+        Double bmi = input.getBmi();
+        if (bmi != null) {
+            known |= bit(RiskFactor.OBESITY);
+            if (bmi >= 30) present |= bit(RiskFactor.OBESITY);
+        }
+
+        Stripe stripe = stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+        synchronized (stripe) {
+            Chunk chunk = stripe.chunk;
+            if (chunk == null || chunk.size == chunkRows) {
+                chunk = stripe.chunk = newChunk();
+            }
+            int row = chunk.size;
+            chunk.age[row] = (byte) (age != null ? Math.min(age, MAX_AGE) : 0);
+            chunk.sex[row] = (byte) input.getSexCode();
+            chunk.chestPain[row] = (byte) input.getChestPainCode();
+            chunk.restECG[row] = (byte) input.getRestECGCode();
+            chunk.exerciseAngina[row] = (byte) input.getExerciseAnginaCode();
+            chunk.thallium[row] = (byte) input.getThalliumCode();
+            chunk.fastingBS[row] = (byte) (input.getFastingBS() != null ? input.getFastingBS() : -1);
+            chunk.label[row] = (byte) labels.code(result.getLabel());
+            chunk.model[row] = (short) models.code(result.getModelVersion());
+            chunk.riskKnown[row] = (byte) known;
+            chunk.riskPresent[row] = (byte) present;
+
+            Map<String, Double> scores = result.getScores();
+            if (scores instanceof ClassScores classScores) {
+                for (int c = 0; c < classScores.size(); c++) {
+                    setScore(chunk, row, classScores.className(c), classScores.value(c));
+                }
+            } else if (scores != null) {
+                for (Map.Entry<String, Double> score : scores.entrySet()) {
+                    if (score.getValue() != null) {
+                        setScore(chunk, row, score.getKey(), score.getValue());
+                    }
+                }
+            }
+            // Publishes the row to queries
+            chunk.size = row + 1;
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("rows", rowCount());
+        stats.put("chunks", chunks.length);
+        stats.put("maxRows", maxRows);
+        stats.put("evictedRows", evicted);
+        stats.put("bytes", (long) chunks.length * chunkBytes());
+        stats.put("labels", Arrays.asList(labels.names()));
+        stats.put("models", Arrays.asList(models.names()));
+        return stats;
+    }
+
+    // Label distribution, mean class scores and risk factor prevalence for each
+    // combination of groupBy values among the rows matching every filter. A
+    // filter lists the accepted values of one dimension; "missing" matches
+    // rows without a value. Ages are grouped in bands of ageBandWidth years.
+    public Map<String, Object> aggregate(List<Dimension> groupBy, Map<Dimension, List<String>> filters,
+                                         int ageBandWidth) {
+        if (!enabled) {
+            throw new IllegalStateException("Analytics is disabled (weka.analytics.enabled)");
+        }
+        if (ageBandWidth < 1 || ageBandWidth > MAX_AGE) {
+            throw new IllegalArgumentException("Age band width must be between 1 and " + MAX_AGE);
+        }
+        long start = System.nanoTime();
+
+        // Sizes before dictionaries: every visible row's codes are then in the dictionaries
+        Chunk[] snapshot = chunks;
+        int[] sizes = new int[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            sizes[i] = snapshot[i].size;
+        }
+        String[] labelNames = labels.names();
+        String[] modelNames = models.names();
+        String[] classNames = classes.names();
+
+        Map<Dimension, String[]> slotNames = new HashMap<>();
+        for (Dimension dimension : groupBy) {
+            slotNames.put(dimension, slotNames(dimension, ageBandWidth, labelNames, modelNames));
+        }
+        List<Dimension> filterDimensions = new ArrayList<>();
+        List<boolean[]> accepted = new ArrayList<>();
+        for (Map.Entry<Dimension, List<String>> filter : filters.entrySet()) {
+            String[] names = slotNames(filter.getKey(), ageBandWidth, labelNames, modelNames);
+            boolean[] accept = new boolean[names.length];
+            for (String value : filter.getValue()) {
+                int slot = Arrays.asList(names).indexOf(value);
+                if (slot < 0) {
+                    throw new IllegalArgumentException("Unknown " + filter.getKey().param() + " '" + value
+                        + "', expected one of " + Arrays.toString(names));
+                }
+                accept[slot] = true;
+            }
+            filterDimensions.add(filter.getKey());
+            accepted.add(accept);
+        }
+
+        long groups = 1;
+        int[] cardinalities = new int[groupBy.size()];
+        for (int d = 0; d < groupBy.size(); d++) {
+            cardinalities[d] = slotNames.get(groupBy.get(d)).length;
+            groups *= cardinalities[d];
+            if (groups > MAX_GROUPS) {
+                throw new IllegalArgumentException("Grouping by " + groupBy + " gives more than " + MAX_GROUPS
+                    + " groups; group by fewer dimensions or use wider age bands");
+            }
+        }
+
+        Query query = new Query(groupBy, cardinalities, filterDimensions, accepted, ageBandWidth, (int) groups,
+            labelNames.length, classNames.length);
+        Partial total;
+        try {
+            total = pool.submit(() -> IntStream.range(0, snapshot.length).parallel()
+                .collect(() -> new Partial(query, chunkRows),
+                    (partial, i) -> partial.scan(snapshot[i], sizes[i]),
+                    Partial::merge)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Analytics query interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Analytics query failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int group = 0; group < query.groups; group++) {
+            long count = total.counts[group];
+            if (count == 0) {
+                continue;
+            }
+            // The group number is the slots in mixed radix, first dimension most significant
+            int[] slots = new int[groupBy.size()];
+            int rest = group;
+            for (int d = groupBy.size() - 1; d >= 0; d--) {
+                slots[d] = rest % cardinalities[d];
+                rest /= cardinalities[d];
+            }
+            Map<String, Object> key = new LinkedHashMap<>();
+            for (int d = 0; d < groupBy.size(); d++) {
+                key.put(groupBy.get(d).param(), slotNames.get(groupBy.get(d))[slots[d]]);
+            }
+
+            Map<String, Long> labelCounts = new HashMap<>();
+            for (int l = 0; l < query.numLabels; l++) {
+                long labelCount = total.labelCounts[group * query.numLabels + l];
+                if (labelCount > 0) {
+                    labelCounts.put(labelNames[l], labelCount);
+                }
+            }
+            Map<String, Double> meanScores = new HashMap<>();
+            for (int c = 0; c < query.numClasses; c++) {
+                meanScores.put(classNames[c], total.scoreSums[group * query.numClasses + c] / SCORE_SCALE / count);
+            }
+            Map<String, Double> prevalence = new HashMap<>();
+            for (int r = 0; r < RISK_FACTORS.length; r++) {
+                long known = total.riskKnown[group * RISK_FACTORS.length + r];
+                if (known > 0) {
+                    prevalence.put(RISK_FACTORS[r].param(),
+                        (double) total.riskPresent[group * RISK_FACTORS.length + r] / known);
+                }
+            }
+
+            Map<String, Object> row = new HashMap<>();
+            row.put("group", key);
+            row.put("count", count);
+            row.put("labels", labelCounts);
+            row.put("meanScores", meanScores);
+            row.put("riskFactors", prevalence);
+            rows.add(row);
+        }
+
+        long scanned = 0;
+        for (int size : sizes) {
+            scanned += size;
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("rows", scanned);
+        response.put("matched", total.matched);
+        response.put("groupBy", groupBy.stream().map(Dimension::param).toList());
+        response.put("groups", rows);
+        response.put("elapsedMs", (System.nanoTime() - start) / 1_000_000.0);
+        return response;
+    }
+
+    private void setScore(Chunk chunk, int row, String className, double value) {
+        int c = classes.code(className);
+        if (c < 0) {
+            return;
+        }
+        char[] column = chunk.scores[c];
+        if (column == null) {
+            // Earlier rows of the chunk had no score for this class
+            column = chunk.scores[c] = new char[chunkRows];
+        }
+        column[row] = (char) Math.round(Math.max(0, Math.min(1, value)) * SCORE_SCALE);
+    }
+
+    // Only full chunks are dropped: the others are still some stripe's open chunk
+    private synchronized Chunk newChunk() {
+        Chunk chunk = new Chunk(chunkRows);
+        List<Chunk> next = new ArrayList<>(Arrays.asList(chunks));
+        next.add(chunk);
+        long maxChunks = maxRows / chunkRows;
+        for (int i = 0; i < next.size() && next.size() > maxChunks; ) {
+            if (next.get(i).size == chunkRows) {
+                evicted += next.remove(i).size;
+            } else {
+                i++;
+            }
+        }
+        chunks = next.toArray(new Chunk[0]);
+        return chunk;
+    }
+
+    private long chunkBytes() {
+        return (long) chunkRows * (12 + 2L * classes.names().length);
+    }
+
+    private static int bit(RiskFactor factor) {
+        return 1 << factor.ordinal();
+    }
+
+    // Names of a dimension's slots; the last slot holds rows without a value
+    private static String[] slotNames(Dimension dimension, int ageBandWidth, String[] labelNames,
+                                      String[] modelNames) {
+        String[] values;
+        switch (dimension) {
+            case AGE_BAND:
+                values = new String[MAX_AGE / ageBandWidth + 1];
+                for (int band = 0; band < values.length; band++) {
+                    int low = band * ageBandWidth;
+                    values[band] = ageBandWidth == 1 ? Integer.toString(low)
+                        : low + "-" + Math.min(MAX_AGE, low + ageBandWidth - 1);
+                }
+                break;
+            case FASTING_BS:
+                values = new String[]{"0", "1"};
+                break;
+            case LABEL:
+                values = labelNames;
+                break;
+            case MODEL:
+                values = modelNames;
+                break;
+            default:
+                values = feature(dimension).valueList().toArray(new String[0]);
+        }
+        String[] names = Arrays.copyOf(values, values.length + 1);
+        names[values.length] = MISSING;
+        return names;
+    }
+
+    private static NominalFeature feature(Dimension dimension) {
+        switch (dimension) {
+            case SEX: return NominalFeature.SEX;
+            case CHEST_PAIN: return NominalFeature.CHEST_PAIN;
+            case REST_ECG: return NominalFeature.REST_ECG;
+            case EXERCISE_ANGINA: return NominalFeature.EXERCISE_ANGINA;
+            case THALLIUM: return NominalFeature.THALLIUM;
+            default: throw new IllegalArgumentException("Not a categorical input: " + dimension);
+        }
+    }
+
+    private static final class Stripe {
+        // Guarded by this stripe
+        Chunk chunk;
+    }
+
+    // Appends only; codes are positions in names. Known values are looked up
+    // without locking.
+    private static final class Dictionary {
+        private final int capacity;
+        private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] names = new String[0];
+
+        Dictionary(int capacity) {
+            this.capacity = capacity;
+        }
+
+        // -1 for null, and for new values once full
+        int code(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            return code != null ? code : add(value);
+        }
+
+        // The name is published before the code, so a row's codes are always named
+        private synchronized int add(String value) {
+            Integer code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (names.length >= capacity) {
+                return -1;
+            }
+            String[] next = Arrays.copyOf(names, names.length + 1);
+            next[names.length] = value;
+            names = next;
+            codes.put(value, next.length - 1);
+            return next.length - 1;
+        }
+
+        String[] names() {
+            return names;
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] age;
+        final byte[] sex;
+        final byte[] chestPain;
+        final byte[] restECG;
+        final byte[] exerciseAngina;
+        final byte[] thallium;
+        final byte[] fastingBS;
+        final byte[] label;
+        final short[] model;
+        final byte[] riskKnown;
+        final byte[] riskPresent;
+        // Per class code, allocated when a row first has that class
+        final char[][] scores = new char[MAX_CLASSES][];
+        volatile int size;
+
+        Chunk(int capacity) {
+            age = new byte[capacity];
+            sex = new byte[capacity];
+            chestPain = new byte[capacity];
+            restECG = new byte[capacity];
+            exerciseAngina = new byte[capacity];
+            thallium = new byte[capacity];
+            fastingBS = new byte[capacity];
+            label = new byte[capacity];
+            model = new short[capacity];
+            riskKnown = new byte[capacity];
+            riskPresent = new byte[capacity];
+        }
+    }
+
+    private static final class Query {
+        final List<Dimension> groupBy;
+        final int[] cardinalities;
+        final List<Dimension> filters;
+        final List<boolean[]> accepted;
+        final int ageBandWidth;
+        final int groups;
+        final int numLabels;
+        final int numClasses;
+
+        Query(List<Dimension> groupBy, int[] cardinalities, List<Dimension> filters, List<boolean[]> accepted,
+              int ageBandWidth, int groups, int numLabels, int numClasses) {
+            this.groupBy = groupBy;
+            this.cardinalities = cardinalities;
+            this.filters = filters;
+            this.accepted = accepted;
+            this.ageBandWidth = ageBandWidth;
+            this.groups = groups;
+            this.numLabels = numLabels;
+            this.numClasses = numClasses;
+        }
+    }
+
+    // Counters for one scanning thread, merged at the end
+    private static final class Partial {
+        final Query query;
+        final long[] counts;
+        final long[] labelCounts;
+        final long[] scoreSums;
+        final long[] riskKnown;
+        final long[] riskPresent;
+        long matched;
+        // Group of each row of the chunk being scanned, -1 when filtered out
+        private final int[] keys;
+        private final int[] slots;
+
+        Partial(Query query, int chunkRows) {
+            this.query = query;
+            counts = new long[query.groups];
+            labelCounts = new long[query.groups * query.numLabels];
+            scoreSums = new long[query.groups * query.numClasses];
+            riskKnown = new long[query.groups * RISK_FACTORS.length];
+            riskPresent = new long[query.groups * RISK_FACTORS.length];
+            keys = new int[chunkRows];
+            slots = new int[chunkRows];
+        }
+
+        void scan(Chunk chunk, int rows) {
+            Arrays.fill(keys, 0, rows, 0);
+            for (int d = 0; d < query.filters.size(); d++) {
+                boolean[] accept = query.accepted.get(d);
+                slots(query.filters.get(d), chunk, rows, accept.length);
+                for (int i = 0; i < rows; i++) {
+                    if (!accept[slots[i]]) keys[i] = -1;
+                }
+            }
+            for (int d = 0; d < query.groupBy.size(); d++) {
+                int cardinality = query.cardinalities[d];
+                slots(query.groupBy.get(d), chunk, rows, cardinality);
+                for (int i = 0; i < rows; i++) {
+                    if (keys[i] >= 0) keys[i] = keys[i] * cardinality + slots[i];
+                }
+            }
+
+            int numLabels = query.numLabels;
+            for (int i = 0; i < rows; i++) {
+                int key = keys[i];
+                if (key < 0) continue;
+                counts[key]++;
+                int label = chunk.label[i] & 0xFF;
+                if (label < numLabels) labelCounts[key * numLabels + label]++;
+            }
+            for (int c = 0; c < query.numClasses; c++) {
+                char[] column = chunk.scores[c];
+                if (column == null) continue;
+                int numClasses = query.numClasses;
+                for (int i = 0; i < rows; i++) {
+                    if (keys[i] >= 0) scoreSums[keys[i] * numClasses + c] += column[i];
+                }
+            }
+            int numFactors = RISK_FACTORS.length;
+            for (int i = 0; i < rows; i++) {
+                int key = keys[i];
+                if (key < 0) continue;
+                matched++;
+                int known = chunk.riskKnown[i] & 0xFF;
+                int present = chunk.riskPresent[i] & 0xFF;
+                while (known != 0) {
+                    int r = Integer.numberOfTrailingZeros(known);
+                    riskKnown[key * numFactors + r]++;
+                    riskPresent[key * numFactors + r] += (present >>> r) & 1;
+                    known &= known - 1;
+                }
+            }
+        }
+
+        // Fills slots with each row's slot of dimension; missing values take the last one
+        private void slots(Dimension dimension, Chunk chunk, int rows, int cardinality) {
+            int missing = cardinality - 1;
+            byte[] column;
+            switch (dimension) {
+                case AGE_BAND:
+                    int width = query.ageBandWidth;
+                    for (int i = 0; i < rows; i++) {
+                        int age = chunk.age[i];
+                        slots[i] = age == 0 ? missing : age / width;
+                    }
+                    return;
+                case MODEL:
+                    for (int i = 0; i < rows; i++) {
+                        int model = chunk.model[i] & 0xFFFF;
+                        slots[i] = model < missing ? model : missing;
+                    }
+                    return;
+                case LABEL:
+                    for (int i = 0; i < rows; i++) {
+                        int label = chunk.label[i] & 0xFF;
+                        slots[i] = label < missing ? label : missing;
+                    }
+                    return;
+                case SEX: column = chunk.sex; break;
+                case CHEST_PAIN: column = chunk.chestPain; break;
+                case REST_ECG: column = chunk.restECG; break;
+                case EXERCISE_ANGINA: column = chunk.exerciseAngina; break;
+                case THALLIUM: column = chunk.thallium; break;
+                default: column = chunk.fastingBS;
+            }
+            for (int i = 0; i < rows; i++) {
+                int code = column[i];
+                slots[i] = code >= 0 && code < missing ? code : missing;
+            }
+        }
+
+        Partial merge(Partial other) {
+            add(counts, other.counts);
+            add(labelCounts, other.labelCounts);
+            add(scoreSums, other.scoreSums);
+            add(riskKnown, other.riskKnown);
+            add(riskPresent, other.riskPresent);
+            matched += other.matched;
+            return this;
+        }
+
+        private static void add(long[] into, long[] from) {
+            for (int i = 0; i < into.length; i++) {
+                into[i] += from[i];
+            }
+        }
+    }
+}
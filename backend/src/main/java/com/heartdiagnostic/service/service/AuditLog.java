@@ -0,0 +1,336 @@
+package com.heartdiagnostic.service.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.heartdiagnostic.service.model.AuditRecord;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.SymptomInput;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Append-only audit trail of served diagnoses. Request threads only place a
+// record in a bounded lock-free ring buffer; a single writer thread turns
+// records into NDJSON, appends them to the current segment file and forces
+// each batch to disk with one fsync (group commit). Segments are rotated by
+// size and never rewritten. When the buffer is full the request waits for
+// space, or, when configured to drop, the record is dropped and counted.
+@Service
+public class AuditLog {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditLog.class);
+
+    public enum Policy { DROP, BLOCK }
+
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".ndjson";
+
+    private final boolean enabled;
+    private final Path dir;
+    private final Policy policy;
+    private final int batchSize;
+    private final long flushNanos;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final ObjectWriter writer;
+
+    // Bounded multi-producer, single-consumer ring: a slot is free for the
+    // producer claiming position p when its sequence is p, and holds a record
+    // for the consumer at position p when its sequence is p + 1
+    private final int mask;
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+
+    // Producers between their running check and the end of their offer. The
+    // writer only stops once this is zero after running was cleared, so a
+    // record accepted during shutdown is still committed.
+    private final AtomicInteger producers = new AtomicInteger();
+
+    private volatile boolean running;
+    private Thread thread;
+    private FileChannel channel;
+    private OutputStream out;
+    private long segmentSize;
+    private int segmentIndex;
+
+    public AuditLog(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                    @Value("${weka.audit.enabled:false}") boolean enabled,
+                    @Value("${weka.audit.dir:audit}") String dir,
+                    @Value("${weka.audit.capacity:65536}") int capacity,
+                    @Value("${weka.audit.policy:block}") String policy,
+                    @Value("${weka.audit.batch-size:512}") int batchSize,
+                    @Value("${weka.audit.flush-ms:10}") long flushMillis,
+                    @Value("${weka.audit.segment-mb:64}") long segmentMegabytes,
+                    @Value("${weka.audit.fsync:true}") boolean fsync) {
+        this.enabled = enabled;
+        this.dir = Paths.get(dir);
+        this.policy = Policy.valueOf(policy.trim().toUpperCase());
+        this.batchSize = Math.max(1, batchSize);
+        this.flushNanos = Math.max(1, flushMillis) * 1_000_000L;
+        this.segmentBytes = Math.max(1, segmentMegabytes) * 1024 * 1024;
+        this.fsync = fsync;
+        this.writer = objectMapper.writerFor(AuditRecord.class);
+
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new Object[enabled ? size : 0];
+        this.sequences = new AtomicLongArray(enabled ? size : 0);
+        for (int i = 0; i < sequences.length(); i++) {
+            sequences.set(i, i);
+        }
+
+        if (enabled) {
+            Gauge.builder("diagnosis.audit.queue", this, AuditLog::queued).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.audit.written", written, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.audit.dropped", dropped, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.audit.commits", commits, LongAdder::sum).register(meterRegistry);
+        }
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(dir);
+        running = true;
+        thread = new Thread(this::run, "audit-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops taking records, then waits for the writer to commit what is queued
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long writtenCount() { return written.sum(); }
+
+    public long droppedCount() { return dropped.sum(); }
+
+    public long queued() {
+        return tail.get() - head;
+    }
+
+    // Queues a record for the writer; returns false when it was dropped
+    public boolean record(String source, SymptomInput input, DiagnosisResult result) {
+        if (!enabled) {
+            return false;
+        }
+        producers.incrementAndGet();
+        try {
+            if (!running) {
+                dropped.increment();
+                return false;
+            }
+            AuditRecord record = new AuditRecord(System.currentTimeMillis(), source, input, result);
+            while (!offer(record)) {
+                if (policy == Policy.DROP || !running) {
+                    dropped.increment();
+                    return false;
+                }
+                // Blocking: wait for the writer to free a slot
+                LockSupport.parkNanos(50_000);
+            }
+            return true;
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    private boolean offer(Object record) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = record;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    // Writer thread only
+    private AuditRecord poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        AuditRecord record = (AuditRecord) slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return record;
+    }
+
+    private void run() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        while (true) {
+            AuditRecord record;
+            while (batch.size() < batchSize && (record = poll()) != null) {
+                batch.add(record);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+                continue;
+            }
+            if (!running && producers.get() == 0 && queued() == 0) {
+                break;
+            }
+            // Nothing queued: wait a flush interval rather than have producers wake us
+            LockSupport.parkNanos(flushNanos);
+        }
+        closeSegment();
+    }
+
+    // Appends a batch and forces it to disk once
+    private void commit(List<AuditRecord> batch) {
+        try {
+            for (AuditRecord record : batch) {
+                if (out == null || segmentSize >= segmentBytes) {
+                    openSegment();
+                }
+                byte[] line;
+                try {
+                    line = writer.writeValueAsBytes(record);
+                } catch (IOException e) {
+                    log.warn("Could not serialize audit record: {}", e.getMessage());
+                    dropped.increment();
+                    continue;
+                }
+                out.write(line);
+                out.write('\n');
+                segmentSize += line.length + 1;
+            }
+            out.flush();
+            if (fsync) {
+                channel.force(false);
+            }
+            written.add(batch.size());
+            commits.increment();
+        } catch (IOException e) {
+            // The segment may end in a partial line; the reader skips it. Start a fresh one.
+            log.error("Audit write failed, {} records lost", batch.size(), e);
+            dropped.add(batch.size());
+            closeSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        closeSegment();
+        // Fixed-width names sort in write order; CREATE_NEW never reopens an old segment
+        Path file = dir.resolve(String.format("%s%013d-%06d%s", SEGMENT_PREFIX, System.currentTimeMillis(),
+            segmentIndex++, SEGMENT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        segmentSize = 0;
+        log.info("Writing audit segment {}", file);
+    }
+
+    private void closeSegment() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+            if (fsync) {
+                channel.force(true);
+            }
+            out.close();
+        } catch (IOException e) {
+            log.warn("Could not close audit segment: {}", e.getMessage());
+        }
+        out = null;
+        channel = null;
+    }
+
+    // Reads every record in dir in write order and returns how many were read.
+    // A line that does not parse (such as one cut short by a crash) is skipped.
+    public static long replay(Path dir, ObjectMapper objectMapper, Consumer<AuditRecord> consumer) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+
+        ObjectReader reader = objectMapper.readerFor(AuditRecord.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        long count = 0;
+        for (Path segment : segments) {
+            try (BufferedReader lines = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                String line;
+                int lineNumber = 0;
+                while ((line = lines.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) continue;
+                    AuditRecord record;
+                    try {
+                        record = reader.readValue(line);
+                    } catch (IOException e) {
+                        log.warn("Skipping unreadable audit record {}:{}", segment.getFileName(), lineNumber);
+                        continue;
+                    }
+                    consumer.accept(record);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,240 @@
+package com.heartdiagnostic.service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
+import com.heartdiagnostic.service.model.BulkScoringReport;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.util.CsvLines;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+// Scores newline-delimited JSON or CSV rows in fixed-size chunks, so only one
+// chunk is ever held in memory. Reading and writing happen on the caller's
+// thread: when the output blocks, no more input is read.
+@Service
+public class BulkScoringPipeline {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final String[] CSV_COLUMNS = {
+        "age", "sex", "chestPain", "bloodPressure", "cholesterol", "fastingBS", "restECG",
+        "maxHeartRate", "exerciseAngina", "oldpeak", "thallium", "height_m", "weight_kg"
+    };
+
+    private final WekaModelService wekaModelService;
+    private final ObjectReader inputReader;
+    private final ObjectWriter itemWriter;
+    private final ObjectWriter reportWriter;
+    private final int chunkSize;
+
+    public BulkScoringPipeline(WekaModelService wekaModelService, ObjectMapper objectMapper,
+                               @Value("${weka.stream.chunk-size:1000}") int chunkSize) {
+        this.wekaModelService = wekaModelService;
+        this.inputReader = objectMapper.readerFor(SymptomInput.class);
+        this.itemWriter = objectMapper.writerFor(BatchDiagnosisItem.class);
+        this.reportWriter = objectMapper.writer();
+        this.chunkSize = chunkSize;
+    }
+
+    public BulkScoringReport score(InputStream in, Format format, OutputStream out) throws Exception {
+        return score(in, format, out, true);
+    }
+
+    public BulkScoringReport score(InputStream in, Format format, OutputStream out, boolean explain) throws Exception {
+        return score(in, format, out, explain, null);
+    }
+
+    // sink, when given, receives every successfully scored row with its input
+    public BulkScoringReport score(InputStream in, Format format, OutputStream out, boolean explain,
+                                   BiConsumer<SymptomInput, DiagnosisResult> sink) throws Exception {
+        return score(in, format, out, explain, null, TenantRouter.Lease.NONE, sink);
+    }
+
+    // Scores with model (the active model when null), and charges each chunk's
+    // rows to the tenant holding lease before scoring it
+    public BulkScoringReport score(InputStream in, Format format, OutputStream out, boolean explain,
+                                   ModelSnapshot model, TenantRouter.Lease lease,
+                                   BiConsumer<SymptomInput, DiagnosisResult> sink) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Map<String, Integer> csvHeader = format == Format.CSV ? readCsvHeader(reader) : null;
+
+        List<SymptomInput> chunk = new ArrayList<>(chunkSize);
+        Map<Integer, String> parseErrors = new HashMap<>();
+        ChunkLatencies latencies = new ChunkLatencies();
+        long[] counts = new long[2]; // succeeded, failed
+        long rowIndex = 0;
+        long start = System.nanoTime();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            try {
+                chunk.add(format == Format.CSV ? parseCsv(line, csvHeader) : inputReader.readValue(line));
+            } catch (Exception e) {
+                parseErrors.put(chunk.size(), "Unreadable row: " + e.getMessage());
+                chunk.add(null);
+            }
+            if (chunk.size() == chunkSize) {
+                scoreChunk(chunk, parseErrors, rowIndex, explain, model, lease, sink, out, latencies, counts);
+                rowIndex += chunk.size();
+                chunk.clear();
+                parseErrors.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            scoreChunk(chunk, parseErrors, rowIndex, explain, model, lease, sink, out, latencies, counts);
+            rowIndex += chunk.size();
+        }
+
+        BulkScoringReport report = latencies.toReport(rowIndex, counts[0], counts[1], System.nanoTime() - start);
+
+        // The report is the last line of the output
+        out.write(reportWriter.writeValueAsBytes(Collections.singletonMap("report", report)));
+        out.write('\n');
+        out.flush();
+        return report;
+    }
+
+    private void scoreChunk(List<SymptomInput> chunk, Map<Integer, String> parseErrors, long offset, boolean explain,
+                            ModelSnapshot model, TenantRouter.Lease lease, BiConsumer<SymptomInput, DiagnosisResult> sink,
+                            OutputStream out, ChunkLatencies latencies, long[] counts) throws Exception {
+        lease.charge(chunk.size());
+        long chunkStart = System.nanoTime();
+        List<BatchDiagnosisItem> items = model == null
+            ? wekaModelService.classifyBatch(chunk, explain) : wekaModelService.classifyBatch(model, chunk, explain);
+        latencies.record(System.nanoTime() - chunkStart);
+
+        for (BatchDiagnosisItem item : items) {
+            String parseError = parseErrors.get(item.getIndex());
+            if (parseError != null) {
+                item.setErrors(List.of(parseError));
+            }
+            counts[item.isSuccess() ? 0 : 1]++;
+            if (sink != null && item.isSuccess()) {
+                sink.accept(chunk.get(item.getIndex()), item.getResult());
+            }
+            item.setIndex((int) (offset + item.getIndex()));
+            out.write(itemWriter.writeValueAsBytes(item));
+            out.write('\n');
+        }
+        // Flushing per chunk hands results to the client as they are produced
+        out.flush();
+    }
+
+    private Map<String, Integer> readCsvHeader(BufferedReader reader) throws IOException {
+        String headerLine = reader.readLine();
+        if (headerLine == null) {
+            return Collections.emptyMap();
+        }
+        List<String> names = CsvLines.split(headerLine);
+        Map<String, Integer> header = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            header.put(names.get(i).trim(), i);
+        }
+        for (String column : CSV_COLUMNS) {
+            if (!header.containsKey(column)) {
+                throw new IllegalArgumentException("CSV header is missing column: " + column);
+            }
+        }
+        return header;
+    }
+
+    private SymptomInput parseCsv(String line, Map<String, Integer> header) {
+        List<String> fields = CsvLines.split(line);
+        SymptomInput input = new SymptomInput();
+        input.setAge(parseInt(field(fields, header, "age")));
+        input.setSex(field(fields, header, "sex"));
+        input.setChestPain(field(fields, header, "chestPain"));
+        input.setBloodPressure(parseInt(field(fields, header, "bloodPressure")));
+        input.setCholesterol(parseInt(field(fields, header, "cholesterol")));
+        input.setFastingBS(parseInt(field(fields, header, "fastingBS")));
+        input.setRestECG(field(fields, header, "restECG"));
+        input.setMaxHeartRate(parseInt(field(fields, header, "maxHeartRate")));
+        input.setExerciseAngina(field(fields, header, "exerciseAngina"));
+        input.setOldpeak(parseDouble(field(fields, header, "oldpeak")));
+        input.setThallium(field(fields, header, "thallium"));
+        input.setHeightM(parseDouble(field(fields, header, "height_m")));
+        input.setWeightKg(parseDouble(field(fields, header, "weight_kg")));
+        return input;
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> header, String column) {
+        int index = header.get(column);
+        if (index >= fields.size()) return null;
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Integer parseInt(String value) {
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    private static Double parseDouble(String value) {
+        return value == null ? null : Double.valueOf(value);
+    }
+
+    // Log-linear histogram of chunk latencies in microseconds; fixed size
+    // regardless of how many chunks a run scores
+    private static class ChunkLatencies {
+        private final long[] buckets = new long[488];
+        private long count;
+        private long totalMicros;
+        private long maxMicros;
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            buckets[bucket(micros)]++;
+            count++;
+            totalMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+        }
+
+        BulkScoringReport toReport(long rows, long succeeded, long failed, long elapsedNanos) {
+            BulkScoringReport report = new BulkScoringReport();
+            report.setRows(rows);
+            report.setSucceeded(succeeded);
+            report.setFailed(failed);
+            report.setChunks(count);
+            report.setElapsedMs(elapsedNanos / 1_000_000);
+            report.setRowsPerSecond(elapsedNanos > 0 ? rows * 1e9 / elapsedNanos : 0);
+            report.setMeanChunkLatencyMs(count > 0 ? totalMicros / 1000.0 / count : 0);
+            report.setP50ChunkLatencyMs(percentile(0.50) / 1000.0);
+            report.setP99ChunkLatencyMs(percentile(0.99) / 1000.0);
+            report.setMaxChunkLatencyMs(maxMicros / 1000.0);
+            return report;
+        }
+
+        private long percentile(double p) {
+            long target = (long) Math.ceil(count * p);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target && seen > 0) {
+                    return Math.min(lowerBound(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        private static int bucket(long micros) {
+            if (micros < 8) return (int) micros;
+            int exp = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exp - 3)) & 7;
+            return (exp - 2) * 8 + sub;
+        }
+
+        private static long lowerBound(int bucket) {
+            if (bucket < 8) return bucket;
+            int exp = bucket / 8 + 2;
+            return (long) (8 + bucket % 8) << (exp - 3);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.heartdiagnostic.service.service;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Maps a classifier's raw class distribution to calibrated probabilities. Each
+// class has its own one-vs-rest curve, fitted by ModelTrainer on out-of-fold
+// predictions with isotonic regression or Platt scaling, and tabulated at
+// BINS evenly spaced raw scores. Scoring then costs one table read per class
+// and a renormalization, whatever the fitted method.
+public final class Calibration implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int BINS = 1024;
+
+    public enum Method {
+        ISOTONIC, PLATT;
+
+        public static Method forName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final Method method;
+    // table[c][b]: probability of class c at raw score b / (BINS - 1)
+    private final float[][] table;
+
+    public Calibration(Method method, float[][] table) {
+        for (float[] curve : table) {
+            if (curve.length != BINS) {
+                throw new IllegalArgumentException("Calibration curves need " + BINS + " points, got " + curve.length);
+            }
+        }
+        this.method = method;
+        this.table = table;
+    }
+
+    // distributions[i] is the raw distribution for a row the classifier was not
+    // trained on, and labels[i] its true class
+    public static Calibration fit(Method method, double[][] distributions, int[] labels, int numClasses) {
+        if (distributions.length == 0) {
+            throw new IllegalArgumentException("No predictions to calibrate on");
+        }
+        float[][] table = new float[numClasses][];
+        double[] scores = new double[distributions.length];
+        boolean[] positive = new boolean[distributions.length];
+        for (int c = 0; c < numClasses; c++) {
+            for (int i = 0; i < distributions.length; i++) {
+                scores[i] = distributions[i][c];
+                positive[i] = labels[i] == c;
+            }
+            table[c] = method == Method.PLATT ? platt(scores, positive) : isotonic(scores, positive);
+        }
+        return new Calibration(method, table);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public int numClasses() {
+        return table.length;
+    }
+
+    public float value(int classIndex, int bin) {
+        return table[classIndex][bin];
+    }
+
+    // Calibrates distribution in place and returns it; classifiers hand out a
+    // fresh array per call, so nothing shared is modified
+    public double[] apply(double[] distribution) {
+        int n = Math.min(distribution.length, table.length);
+        double sum = 0;
+        for (int c = 0; c < n; c++) {
+            double raw = distribution[c];
+            int bin = raw <= 0 ? 0 : raw >= 1 ? BINS - 1 : (int) (raw * (BINS - 1) + 0.5);
+            distribution[c] = table[c][bin];
+            sum += distribution[c];
+        }
+        if (sum > 0) {
+            for (int c = 0; c < n; c++) {
+                distribution[c] /= sum;
+            }
+        }
+        return distribution;
+    }
+
+    // Pool-adjacent-violators over the rows sorted by score, then linear
+    // interpolation between the block means
+    private static float[] isotonic(double[] scores, boolean[] positive) {
+        int n = scores.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(scores[a], scores[b]));
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] weight = new double[n];
+        int blocks = 0;
+        for (int k = 0; k < n; ) {
+            // Rows with equal scores form one point
+            double score = scores[order[k]];
+            double hits = 0;
+            int count = 0;
+            for (; k < n && scores[order[k]] == score; k++, count++) {
+                if (positive[order[k]]) hits++;
+            }
+            x[blocks] = score;
+            y[blocks] = hits / count;
+            weight[blocks] = count;
+            blocks++;
+            // A block may not be lower than the one below it
+            while (blocks > 1 && y[blocks - 1] < y[blocks - 2]) {
+                double w = weight[blocks - 2] + weight[blocks - 1];
+                x[blocks - 2] = (x[blocks - 2] * weight[blocks - 2] + x[blocks - 1] * weight[blocks - 1]) / w;
+                y[blocks - 2] = (y[blocks - 2] * weight[blocks - 2] + y[blocks - 1] * weight[blocks - 1]) / w;
+                weight[blocks - 2] = w;
+                blocks--;
+            }
+        }
+
+        float[] curve = new float[BINS];
+        int block = 0;
+        for (int b = 0; b < BINS; b++) {
+            double score = (double) b / (BINS - 1);
+            while (block < blocks - 1 && x[block + 1] <= score) block++;
+            double value;
+            if (score <= x[0] || blocks == 1) {
+                value = y[0];
+            } else if (block == blocks - 1) {
+                value = y[blocks - 1];
+            } else {
+                double t = (score - x[block]) / (x[block + 1] - x[block]);
+                value = y[block] + t * (y[block + 1] - y[block]);
+            }
+            curve[b] = (float) value;
+        }
+        return curve;
+    }
+
+    // Fits p = 1 / (1 + exp(a * score + b)) by Newton's method on the log loss,
+    // with Platt's smoothed targets so that a separable class does not give
+    // probabilities of exactly 0 and 1
+    private static float[] platt(double[] scores, boolean[] positive) {
+        int n = scores.length;
+        int positives = 0;
+        for (boolean p : positive) if (p) positives++;
+        double high = (positives + 1.0) / (positives + 2.0);
+        double low = 1.0 / (n - positives + 2.0);
+
+        double a = 0;
+        double b = Math.log((n - positives + 1.0) / (positives + 1.0));
+        for (int iteration = 0; iteration < 100; iteration++) {
+            double gradA = 0, gradB = 0, hAA = 1e-12, hAB = 0, hBB = 1e-12;
+            for (int i = 0; i < n; i++) {
+                double p = 1 / (1 + Math.exp(a * scores[i] + b));
+                double diff = (positive[i] ? high : low) - p;
+                double d2 = p * (1 - p);
+                gradA += scores[i] * diff;
+                gradB += diff;
+                hAA += scores[i] * scores[i] * d2;
+                hAB += scores[i] * d2;
+                hBB += d2;
+            }
+            double det = hAA * hBB - hAB * hAB;
+            if (det <= 0) break;
+            double stepA = -(hBB * gradA - hAB * gradB) / det;
+            double stepB = -(hAA * gradB - hAB * gradA) / det;
+            a += stepA;
+            b += stepB;
+            if (Math.abs(stepA) < 1e-9 && Math.abs(stepB) < 1e-9) break;
+        }
+
+        float[] curve = new float[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            double score = (double) bin / (BINS - 1);
+            curve[bin] = (float) (1 / (1 + Math.exp(a * score + b)));
+        }
+        return curve;
+    }
+}
@@ -0,0 +1,143 @@
+package com.heartdiagnostic.service.service;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lets many request threads score against one model. Classifiers known to be
+// stateless are called directly. Any other WEKA classifier is deep-copied with
+// makeCopies, and each copy gets its own header and instance, so a copy is only
+// ever used by one thread at a time and nothing is shared between copies.
+// Threads start from their own stripe and take the first free copy, so there
+// is no global lock. A model's calibration, if it has one, is applied to
+// every distribution on the way out.
+public final class ClassifierPool {
+
+    private final Classifier shared;
+    private final Slot[] slots;
+    private final Calibration calibration;
+
+    private ClassifierPool(Classifier shared, Slot[] slots, Calibration calibration) {
+        this.shared = shared;
+        this.slots = slots;
+        this.calibration = calibration;
+    }
+
+    public static ClassifierPool create(Classifier classifier, Instances header, int size) throws Exception {
+        return create(classifier, header, size, null);
+    }
+
+    public static ClassifierPool create(Classifier classifier, Instances header, int size,
+                                        Calibration calibration) throws Exception {
+        if (isThreadSafe(classifier)) {
+            return new ClassifierPool(classifier, null, calibration);
+        }
+        int copies = Math.max(1, size);
+        Classifier[] classifiers = AbstractClassifier.makeCopies(classifier, copies);
+        Slot[] slots = new Slot[copies];
+        for (int i = 0; i < copies; i++) {
+            Instances slotHeader = new Instances(header, 0);
+            FeatureEncoder.ReusableInstance instance = new FeatureEncoder.ReusableInstance(slotHeader.numAttributes());
+            instance.setDataset(slotHeader);
+            slots[i] = new Slot(classifiers[i], instance);
+        }
+        return new ClassifierPool(null, slots, calibration);
+    }
+
+    // Classifiers that keep no per-call state and can be called concurrently
+    public static boolean isThreadSafe(Classifier classifier) {
+        return classifier instanceof CompiledTreeClassifier || classifier instanceof MockClassifier;
+    }
+
+    public int size() {
+        return slots == null ? 0 : slots.length;
+    }
+
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        if (shared != null) {
+            return calibrate(shared.distributionForInstance(instance));
+        }
+
+        Slot slot = acquire();
+        try {
+            // The caller's instance belongs to the caller; the copy only sees its own
+            double[] values = slot.instance.values();
+            if (instance instanceof FeatureEncoder.ReusableInstance) {
+                System.arraycopy(((FeatureEncoder.ReusableInstance) instance).values(), 0, values, 0, values.length);
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = instance.value(i);
+                }
+            }
+            return calibrate(slot.classifier.distributionForInstance(slot.instance));
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    // Scores a block of encoded rows for header, taking a copy once for the whole block
+    public double[][] distributionsForRows(double[][] rows, Instances header) throws Exception {
+        double[][] distributions = new double[rows.length][];
+        if (shared != null) {
+            FeatureEncoder.ReusableInstance instance = new FeatureEncoder.ReusableInstance(header.numAttributes());
+            instance.setDataset(header);
+            for (int i = 0; i < rows.length; i++) {
+                System.arraycopy(rows[i], 0, instance.values(), 0, rows[i].length);
+                distributions[i] = calibrate(shared.distributionForInstance(instance));
+            }
+            return distributions;
+        }
+
+        Slot slot = acquire();
+        try {
+            double[] values = slot.instance.values();
+            for (int i = 0; i < rows.length; i++) {
+                System.arraycopy(rows[i], 0, values, 0, values.length);
+                distributions[i] = calibrate(slot.classifier.distributionForInstance(slot.instance));
+            }
+            return distributions;
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    private double[] calibrate(double[] distribution) {
+        return calibration == null ? distribution : calibration.apply(distribution);
+    }
+
+    private Slot acquire() {
+        int n = slots.length;
+        int home = stripe(n);
+        for (int i = 0; i < n; i++) {
+            Slot slot = slots[(home + i) % n];
+            if (slot.lock.tryLock()) {
+                return slot;
+            }
+        }
+        // Every copy is busy; wait for this thread's own stripe
+        Slot slot = slots[home];
+        slot.lock.lock();
+        return slot;
+    }
+
+    private static int stripe(int n) {
+        long id = Thread.currentThread().getId();
+        id ^= id >>> 17;
+        id *= 0x9E3779B97F4A7C15L;
+        return (int) ((id >>> 33) % n);
+    }
+
+    private static final class Slot {
+        final Classifier classifier;
+        final FeatureEncoder.ReusableInstance instance;
+        final ReentrantLock lock = new ReentrantLock();
+
+        Slot(Classifier classifier, FeatureEncoder.ReusableInstance instance) {
+            this.classifier = classifier;
+            this.instance = instance;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.heartdiagnostic.service.service;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// A decision tree flattened into parallel arrays and evaluated directly on an
+// attribute value array. Nodes are numbered breadth first, so the children of
+// a split are consecutive and only the first child index is stored.
+//
+// A tree can also be backed by a node table in a (memory-mapped) buffer, as
+// laid out by ModelFile, in which case it keeps no node arrays on the heap.
+public final class CompiledTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final byte LEAF = 0;
+    // Child 0 when value <= threshold, otherwise child 1
+    public static final byte NUMERIC_LE = 1;
+    // Child 0 when value == threshold (a nominal code), otherwise child 1
+    public static final byte NOMINAL_EQ = 2;
+    // One child per nominal code
+    public static final byte NOMINAL_MULTI = 3;
+
+    // Finds the leaf for a value array, or returns -1 when it hits a missing value
+    public interface LeafFinder {
+        int leaf(double[] values);
+    }
+
+    private final int numClasses;
+    private final byte[] kind;
+    private final int[] feature;
+    private final double[] threshold;
+    // First child for splits, offset into distributions for leaves
+    private final int[] offset;
+    private final int[] numChildren;
+    // Share of the parent's training weight, used when the split value is missing
+    private final double[] missingWeight;
+    private final double[] distributions;
+
+    // Fixed-size node records: kind, feature, threshold, offset, children, missing weight
+    static final int NODE_BYTES = 32;
+    private static final int KIND = 0;
+    private static final int FEATURE = 4;
+    private static final int THRESHOLD = 8;
+    private static final int OFFSET = 16;
+    private static final int CHILDREN = 20;
+    private static final int MISSING_WEIGHT = 24;
+
+    // Set instead of the arrays for buffer-backed trees
+    private final transient ByteBuffer nodes;
+    private final transient ByteBuffer leafDistributions;
+    private final transient int nodeCount;
+
+    private transient LeafFinder leafFinder;
+
+    public CompiledTree(int numClasses, byte[] kind, int[] feature, double[] threshold, int[] offset,
+                        int[] numChildren, double[] missingWeight, double[] distributions) {
+        this.numClasses = numClasses;
+        this.kind = kind;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.offset = offset;
+        this.numChildren = numChildren;
+        this.missingWeight = missingWeight;
+        this.distributions = distributions;
+        this.nodes = null;
+        this.leafDistributions = null;
+        this.nodeCount = kind.length;
+    }
+
+    private CompiledTree(int numClasses, int nodeCount, ByteBuffer nodes, ByteBuffer distributions) {
+        this.numClasses = numClasses;
+        this.kind = null;
+        this.feature = null;
+        this.threshold = null;
+        this.offset = null;
+        this.numChildren = null;
+        this.missingWeight = null;
+        this.distributions = null;
+        this.nodes = nodes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.leafDistributions = distributions.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.nodeCount = nodeCount;
+    }
+
+    // A tree over a node table of nodeCount records and a distribution table of
+    // doubles, both little-endian. The buffers are read in place, not copied.
+    public static CompiledTree wrap(int numClasses, int nodeCount, ByteBuffer nodes, ByteBuffer distributions) {
+        if (nodes.remaining() != (long) nodeCount * NODE_BYTES) {
+            throw new IllegalArgumentException("Node table holds " + nodes.remaining() + " bytes, expected "
+                + (long) nodeCount * NODE_BYTES);
+        }
+        return new CompiledTree(numClasses, nodeCount, nodes, distributions);
+    }
+
+    // Writes the node table in the layout wrap() reads
+    public void writeNodes(ByteBuffer target) {
+        ByteBuffer out = target.order(ByteOrder.LITTLE_ENDIAN);
+        for (int node = 0; node < numNodes(); node++) {
+            int base = out.position();
+            out.put(kind(node)).put((byte) 0).put((byte) 0).put((byte) 0);
+            out.putInt(base + FEATURE, feature(node));
+            out.putDouble(base + THRESHOLD, threshold(node));
+            out.putInt(base + OFFSET, offset(node));
+            out.putInt(base + CHILDREN, numChildren(node));
+            out.putDouble(base + MISSING_WEIGHT, missingWeight(node));
+            out.position(base + NODE_BYTES);
+        }
+    }
+
+    public int distributionLength() {
+        return distributions != null ? distributions.length : leafDistributions.remaining() / Double.BYTES;
+    }
+
+    public double distributionValue(int index) {
+        return distributions != null ? distributions[index] : leafDistributions.getDouble(index * Double.BYTES);
+    }
+
+    public boolean isBuffered() {
+        return nodes != null;
+    }
+
+    public int numClasses() { return numClasses; }
+
+    public int numNodes() { return kind != null ? kind.length : nodeCount; }
+
+    public byte kind(int node) { return kind != null ? kind[node] : nodes.get(node * NODE_BYTES + KIND); }
+
+    public int feature(int node) { return feature != null ? feature[node] : nodes.getInt(node * NODE_BYTES + FEATURE); }
+
+    public double threshold(int node) {
+        return threshold != null ? threshold[node] : nodes.getDouble(node * NODE_BYTES + THRESHOLD);
+    }
+
+    public int offset(int node) { return offset != null ? offset[node] : nodes.getInt(node * NODE_BYTES + OFFSET); }
+
+    public int numChildren(int node) {
+        return numChildren != null ? numChildren[node] : nodes.getInt(node * NODE_BYTES + CHILDREN);
+    }
+
+    public double missingWeight(int node) {
+        return missingWeight != null ? missingWeight[node] : nodes.getDouble(node * NODE_BYTES + MISSING_WEIGHT);
+    }
+
+    public double distribution(int leaf, int classIndex) {
+        return distributionValue(offset(leaf) + classIndex);
+    }
+
+    // Switches leaf lookup to generated bytecode (or back to the array walk when null)
+    public void setLeafFinder(LeafFinder leafFinder) {
+        this.leafFinder = leafFinder;
+    }
+
+    public boolean isGenerated() {
+        return leafFinder != null;
+    }
+
+    // Leaf reached by values, or -1 when a split value on the path is missing
+    public int leaf(double[] values) {
+        LeafFinder finder = leafFinder;
+        if (finder != null) {
+            return finder.leaf(values);
+        }
+        if (nodes != null) {
+            return bufferedLeaf(values);
+        }
+        int node = 0;
+        while (kind[node] != LEAF) {
+            double value = values[feature[node]];
+            int branch = value != value ? -1 : branch(node, value);
+            if (branch < 0) {
+                return -1;
+            }
+            node = offset[node] + branch;
+        }
+        return node;
+    }
+
+    // Writes the class distribution for values into target (of length numClasses)
+    public double[] distribution(double[] values, double[] target) {
+        int leaf = leaf(values);
+        if (leaf >= 0 && distributions != null) {
+            System.arraycopy(distributions, offset[leaf], target, 0, numClasses);
+        } else if (leaf >= 0) {
+            int start = offset(leaf);
+            for (int c = 0; c < numClasses; c++) {
+                target[c] = leafDistributions.getDouble((start + c) * Double.BYTES);
+            }
+        } else {
+            java.util.Arrays.fill(target, 0, numClasses, 0.0);
+            accumulate(0, values, 1.0, target);
+        }
+        return target;
+    }
+
+    public double[] distribution(double[] values) {
+        return distribution(values, new double[numClasses]);
+    }
+
+    private int branch(int node, double value) {
+        switch (kind(node)) {
+            case NUMERIC_LE:
+                return value <= threshold(node) ? 0 : 1;
+            case NOMINAL_EQ:
+                return value == threshold(node) ? 0 : 1;
+            default:
+                int code = (int) value;
+                return code >= 0 && code < numChildren(node) ? code : -1;
+        }
+    }
+
+    // Weighted descent through every branch below a missing value, as WEKA does
+    private void accumulate(int node, double[] values, double weight, double[] target) {
+        if (kind(node) == LEAF) {
+            for (int c = 0; c < numClasses; c++) {
+                target[c] += weight * distributionValue(offset(node) + c);
+            }
+            return;
+        }
+        double value = values[feature(node)];
+        int branch = value != value ? -1 : branch(node, value);
+        if (branch >= 0) {
+            accumulate(offset(node) + branch, values, weight, target);
+            return;
+        }
+        for (int i = 0; i < numChildren(node); i++) {
+            int child = offset(node) + i;
+            if (missingWeight(child) > 0) {
+                accumulate(child, values, weight * missingWeight(child), target);
+            }
+        }
+    }
+
+    private int bufferedLeaf(double[] values) {
+        int node = 0;
+        while (kind(node) != LEAF) {
+            double value = values[feature(node)];
+            int branch = value != value ? -1 : branch(node, value);
+            if (branch < 0) {
+                return -1;
+            }
+            node = offset(node) + branch;
+        }
+        return node;
+    }
+
+    // Buffer-backed trees are serialized as ordinary array-backed ones
+    private Object writeReplace() {
+        if (nodes == null) {
+            return this;
+        }
+        byte[] kinds = new byte[nodeCount];
+        int[] features = new int[nodeCount];
+        double[] thresholds = new double[nodeCount];
+        int[] offsets = new int[nodeCount];
+        int[] children = new int[nodeCount];
+        double[] weights = new double[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            kinds[node] = kind(node);
+            features[node] = feature(node);
+            thresholds[node] = threshold(node);
+            offsets[node] = offset(node);
+            children[node] = numChildren(node);
+            weights[node] = missingWeight(node);
+        }
+        double[] values = new double[distributionLength()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = distributionValue(i);
+        }
+        return new CompiledTree(numClasses, kinds, features, thresholds, offsets, children, weights, values);
+    }
+}
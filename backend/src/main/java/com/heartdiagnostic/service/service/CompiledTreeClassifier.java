@@ -0,0 +1,107 @@
+package com.heartdiagnostic.service.service;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+// Serves a compiled tree through the WEKA Classifier interface, so the rest of
+// the service does not need to know whether a model was compiled. Trees
+// compiled from a classifier keep it, so the model can be retrained: that
+// rebuilds the source classifier and compiles it again.
+public class CompiledTreeClassifier extends AbstractClassifier {
+
+    private CompiledTree tree;
+    private final String sourceType;
+    // Null for trees read from a model file, which do not carry one
+    private Classifier source;
+
+    public CompiledTreeClassifier(CompiledTree tree, String sourceType) {
+        this(tree, sourceType, null);
+    }
+
+    public CompiledTreeClassifier(CompiledTree tree, String sourceType, Classifier source) {
+        this.tree = tree;
+        this.sourceType = sourceType;
+        this.source = source;
+    }
+
+    // Compiles the classifier, generating bytecode when asked to
+    public static CompiledTreeClassifier compile(Classifier classifier, Instances header, boolean bytecode) throws Exception {
+        CompiledTree tree = TreeCompiler.compile(classifier, header);
+        if (bytecode) {
+            TreeCompiler.generateBytecode(tree);
+        }
+        return new CompiledTreeClassifier(tree, classifier.getClass().getSimpleName(), classifier);
+    }
+
+    public CompiledTree getTree() {
+        return tree;
+    }
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    // The classifier the tree was compiled from, or null
+    public Classifier getSource() {
+        return source;
+    }
+
+    public boolean canRetrain() {
+        return source != null;
+    }
+
+    // Trains a copy of the source classifier with its options on data and
+    // serves the recompiled result. Like any WEKA classifier this changes the
+    // model in place, so retrain a copy (AbstractClassifier.makeCopy) of one
+    // that is being served.
+    public void buildClassifier(Instances data) throws Exception {
+        if (source == null) {
+            throw new UnsupportedOperationException(
+                "This " + sourceType + " tree was read from a model file without its source classifier");
+        }
+        Classifier retrained = AbstractClassifier.makeCopy(source);
+        retrained.buildClassifier(data);
+        CompiledTree compiled = TreeCompiler.compile(retrained, data);
+        if (tree.isGenerated()) {
+            TreeCompiler.generateBytecode(compiled);
+        }
+        source = retrained;
+        tree = compiled;
+    }
+
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        // Reusable instances expose their value array; others have to be copied out
+        double[] values = instance instanceof FeatureEncoder.ReusableInstance
+            ? ((FeatureEncoder.ReusableInstance) instance).values()
+            : instance.toDoubleArray();
+        return tree.distribution(values);
+    }
+
+    public double classifyInstance(Instance instance) throws Exception {
+        double[] distribution = distributionForInstance(instance);
+        int best = 0;
+        for (int i = 1; i < distribution.length; i++) {
+            if (distribution[i] > distribution[best]) best = i;
+        }
+        return best;
+    }
+
+    public Capabilities getCapabilities() {
+        Capabilities result = new Capabilities(this);
+        result.disableAll();
+        result.enable(Capabilities.Capability.NOMINAL_ATTRIBUTES);
+        result.enable(Capabilities.Capability.NUMERIC_ATTRIBUTES);
+        result.enable(Capabilities.Capability.NOMINAL_CLASS);
+        result.enable(Capabilities.Capability.MISSING_VALUES);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return sourceType + " compiled to " + tree.numNodes() + " nodes"
+            + (tree.isGenerated() ? " (bytecode)" : "");
+    }
+}
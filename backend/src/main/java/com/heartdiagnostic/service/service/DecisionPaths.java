@@ -0,0 +1,130 @@
+package com.heartdiagnostic.service.service;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+// Per-feature contributions for tree models, traced along the decision path.
+// Every node gets the class distribution the tree expects before its split is
+// taken; walking from the root to the leaf, the change in the predicted
+// class's probability at each split is credited to the split's feature. For
+// a calibrated model every node's distribution is calibrated too, so the
+// contributions plus the root's prior add up to the calibrated score the
+// model returns for the leaf.
+public final class DecisionPaths {
+
+    private final CompiledTree tree;
+    private final int numClasses;
+    // numNodes x numClasses, row-major
+    private final double[] nodeDistributions;
+
+    private DecisionPaths(CompiledTree tree, Calibration calibration) {
+        this.tree = tree;
+        this.numClasses = tree.numClasses();
+        this.nodeDistributions = nodeDistributions(tree);
+        if (calibration != null) {
+            calibrate(calibration);
+        }
+    }
+
+    // Paths for trees the service can compile (the already compiled tree when
+    // there is one), or null for any other classifier. calibration is the
+    // model's own, or null when it serves raw scores.
+    public static DecisionPaths of(Classifier classifier, Instances header, Calibration calibration) {
+        try {
+            if (classifier instanceof CompiledTreeClassifier) {
+                return new DecisionPaths(((CompiledTreeClassifier) classifier).getTree(), calibration);
+            }
+            if (TreeCompiler.canCompile(classifier)) {
+                return new DecisionPaths(TreeCompiler.compile(classifier, header), calibration);
+            }
+        } catch (Exception e) {
+            // No path explanations for this model; callers fall back to templates
+        }
+        return null;
+    }
+
+    public double prior(int classIndex) {
+        return nodeDistributions[classIndex];
+    }
+
+    // Adds each split's effect on classIndex to target (indexed by attribute)
+    // and returns the number of splits on the path. The walk stops at a
+    // missing split value, since the prediction there is a blend of branches.
+    public int contributions(double[] values, int classIndex, double[] target) {
+        int node = 0;
+        int splits = 0;
+        while (tree.kind(node) != CompiledTree.LEAF) {
+            int feature = tree.feature(node);
+            double value = values[feature];
+            int branch = value != value ? -1 : branch(node, value);
+            if (branch < 0) {
+                break;
+            }
+            int child = tree.offset(node) + branch;
+            target[feature] += nodeDistributions[child * numClasses + classIndex]
+                - nodeDistributions[node * numClasses + classIndex];
+            node = child;
+            splits++;
+        }
+        return splits;
+    }
+
+    // Replaces each node's raw distribution with the calibrated one. Done after
+    // every split is filled from its raw children, since calibration is not linear.
+    private void calibrate(Calibration calibration) {
+        double[] row = new double[numClasses];
+        for (int node = 0; node < tree.numNodes(); node++) {
+            System.arraycopy(nodeDistributions, node * numClasses, row, 0, numClasses);
+            System.arraycopy(calibration.apply(row), 0, nodeDistributions, node * numClasses, numClasses);
+        }
+    }
+
+    private int branch(int node, double value) {
+        switch (tree.kind(node)) {
+            case CompiledTree.NUMERIC_LE:
+                return value <= tree.threshold(node) ? 0 : 1;
+            case CompiledTree.NOMINAL_EQ:
+                return value == tree.threshold(node) ? 0 : 1;
+            default:
+                int code = (int) value;
+                return code >= 0 && code < tree.numChildren(node) ? code : -1;
+        }
+    }
+
+    // Children are numbered after their parent, so one backwards pass fills
+    // every split from its children. Splits are weighted by each child's share
+    // of the training data; trees that do not record shares (such as the
+    // builtin rules) weight their children equally.
+    private static double[] nodeDistributions(CompiledTree tree) {
+        int numClasses = tree.numClasses();
+        double[] distributions = new double[tree.numNodes() * numClasses];
+        for (int node = tree.numNodes() - 1; node >= 0; node--) {
+            int row = node * numClasses;
+            if (tree.kind(node) == CompiledTree.LEAF) {
+                for (int c = 0; c < numClasses; c++) {
+                    distributions[row + c] = tree.distribution(node, c);
+                }
+                continue;
+            }
+            int first = tree.offset(node);
+            int count = tree.numChildren(node);
+            double total = 0;
+            int weighted = 0;
+            for (int i = 0; i < count; i++) {
+                double weight = tree.missingWeight(first + i);
+                if (weight > 0) {
+                    total += weight;
+                    weighted++;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                double weight = weighted > 1 ? tree.missingWeight(first + i) / total : 1.0 / count;
+                int childRow = (first + i) * numClasses;
+                for (int c = 0; c < numClasses; c++) {
+                    distributions[row + c] += weight * distributions[childRow + c];
+                }
+            }
+        }
+        return distributions;
+    }
+}
@@ -0,0 +1,114 @@
+package com.heartdiagnostic.service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Micrometer meters for the diagnosis path. Meters are created once per model
+// version and cached, so recording on the request path is a map lookup and an
+// array index rather than a registry lookup.
+@Service
+public class DiagnosisMetrics {
+
+    public enum Stage {
+        VALIDATION("validation"),
+        ENCODING("encoding"),
+        CLASSIFICATION("classification"),
+        EXPLANATION("explanation"),
+        SERIALIZATION("serialization");
+
+        private final String tag;
+
+        Stage(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static final String VERSION_TAG = "model.version";
+    private static final String NO_MODEL = "none";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ModelMetrics> models = new ConcurrentHashMap<>();
+
+    public DiagnosisMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public ModelMetrics forModel(String modelVersion) {
+        String version = modelVersion != null ? modelVersion : NO_MODEL;
+        ModelMetrics metrics = models.get(version);
+        return metrics != null ? metrics : models.computeIfAbsent(version, v -> new ModelMetrics(meterRegistry, v));
+    }
+
+    public static final class ModelMetrics {
+
+        private final MeterRegistry meterRegistry;
+        private final String version;
+        private final Timer[] stages;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Map<String, Counter> predictions = new ConcurrentHashMap<>();
+        private final Map<String, Counter> failures = new ConcurrentHashMap<>();
+
+        private ModelMetrics(MeterRegistry meterRegistry, String version) {
+            this.meterRegistry = meterRegistry;
+            this.version = version;
+            this.stages = new Timer[Stage.values().length];
+            for (Stage stage : Stage.values()) {
+                // Percentiles for dashboards, histogram buckets for aggregating across instances
+                stages[stage.ordinal()] = Timer.builder("diagnosis.stage")
+                    .description("Time spent in one stage of a diagnosis")
+                    .tag("stage", stage.tag)
+                    .tag(VERSION_TAG, version)
+                    .publishPercentiles(0.5, 0.95, 0.99, 0.999)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            }
+            Gauge.builder("diagnosis.inflight", inFlight, AtomicInteger::get)
+                .description("Diagnosis requests currently being processed")
+                .tag(VERSION_TAG, version)
+                .register(meterRegistry);
+        }
+
+        public void record(Stage stage, long nanos) {
+            stages[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void prediction(String label) {
+            counter(predictions, "diagnosis.predictions", "label", label).increment();
+        }
+
+        public void failure(String type) {
+            counter(failures, "diagnosis.failures", "type", type).increment();
+        }
+
+        public void failure(Throwable error) {
+            failure(error.getClass().getSimpleName());
+        }
+
+        public void requestStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        public void requestFinished() {
+            inFlight.decrementAndGet();
+        }
+
+        private Counter counter(Map<String, Counter> counters, String name, String tag, String value) {
+            Counter counter = counters.get(value);
+            if (counter == null) {
+                counter = counters.computeIfAbsent(value, v -> Counter.builder(name)
+                    .tag(tag, v)
+                    .tag(VERSION_TAG, version)
+                    .register(meterRegistry));
+            }
+            return counter;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
+import com.heartdiagnostic.service.model.ClassScores;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.NominalFeature;
+import com.heartdiagnostic.service.model.SymptomInput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary protocol for internal callers, served by DiagnosisRpcServer.
+// Length-prefixed frames over one TCP connection; numbers are big-endian and
+// strings are java.io.DataOutput UTF (u16 length, then the bytes).
+//
+//   frame     u32 length (of what follows), u8 type, u32 requestId, body
+//   HELLO     server, once on connect: "HDRP", u8 version
+//   DIAGNOSE  u8 flags (1 = explain), u32 rows, then ROW_BYTES per row:
+//             u8 age, u8 sex, u8 chestPain, u16 bloodPressure, u16 cholesterol, u8 fastingBS,
+//             u8 restECG, u16 maxHeartRate, u8 exerciseAngina, f64 oldpeak, u8 thallium,
+//             f64 height_m, f64 weight_kg
+//             Categorical fields are NominalFeature codes. 0xFF (u8), 0xFFFF (u16) and NaN mean missing.
+//             A number that does not fit, or text that is not in a NominalFeature table, is sent as
+//             0xFE (u8) or 0xFFFE (u16); the original text is not carried. The server decodes a
+//             categorical 0xFE as the placeholder "#254", so validation rejects the row either way.
+//   RESULT    str modelVersion, u8 classes, a str per class name, u32 rows, then per row
+//             u8 STATUS_OK, u8 label, an f32 score per class[, str explanation when asked], or
+//             u8 STATUS_ERROR, str messages joined with "; "
+//   PING/PONG no body
+//   BUSY      no body: the service is at capacity, or weka.rpc.tenant is over its quota;
+//             send the request again later
+//   ERROR     str message; after a malformed frame the server also closes the connection
+//
+// Requests may be pipelined on a connection; they are answered in order.
+public final class DiagnosisProtocol {
+
+    public static final byte[] MAGIC = {'H', 'D', 'R', 'P'};
+    public static final int VERSION = 1;
+
+    public static final int DIAGNOSE = 0x01;
+    public static final int PING = 0x02;
+    public static final int HELLO = 0x80;
+    public static final int RESULT = 0x81;
+    public static final int PONG = 0x82;
+    public static final int BUSY = 0x83;
+    public static final int ERROR = 0xFF;
+
+    public static final int FLAG_EXPLAIN = 1;
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_ERROR = 1;
+
+    public static final int ROW_BYTES = 37;
+    // type and requestId
+    public static final int FRAME_HEADER_BYTES = 5;
+
+    private static final int MISSING_U8 = 0xFF;
+    private static final int MISSING_U16 = 0xFFFF;
+    // Values that do not fit are sent as these, which validation rejects
+    private static final int OUT_OF_RANGE_U8 = 0xFE;
+    private static final int OUT_OF_RANGE_U16 = 0xFFFE;
+
+    private DiagnosisProtocol() {
+    }
+
+    // Assembles one frame at a time, since the length prefix is only known
+    // once the body is written. Reused for every frame on a connection.
+    public static final class FrameWriter {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        private final DataOutputStream body = new DataOutputStream(buffer);
+
+        public DataOutputStream begin(int type, int requestId) throws IOException {
+            buffer.reset();
+            body.writeByte(type);
+            body.writeInt(requestId);
+            return body;
+        }
+
+        public void end(DataOutputStream out) throws IOException {
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+        }
+
+        public void write(DataOutputStream out, int type, int requestId) throws IOException {
+            begin(type, requestId);
+            end(out);
+        }
+    }
+
+    public static void writeHello(FrameWriter frame, DataOutputStream out) throws IOException {
+        DataOutputStream body = frame.begin(HELLO, 0);
+        body.write(MAGIC);
+        body.writeByte(VERSION);
+        frame.end(out);
+    }
+
+    public static void writeError(FrameWriter frame, DataOutputStream out, int requestId, String message)
+            throws IOException {
+        frame.begin(ERROR, requestId).writeUTF(message);
+        frame.end(out);
+    }
+
+    public static void writeDiagnose(FrameWriter frame, DataOutputStream out, int requestId,
+                                     List<SymptomInput> inputs, boolean explain) throws IOException {
+        DataOutputStream body = frame.begin(DIAGNOSE, requestId);
+        body.writeByte(explain ? FLAG_EXPLAIN : 0);
+        body.writeInt(inputs.size());
+        for (SymptomInput input : inputs) {
+            body.writeByte(u8(input.getAge()));
+            body.writeByte(code(input.getSexCode()));
+            body.writeByte(code(input.getChestPainCode()));
+            body.writeShort(u16(input.getBloodPressure()));
+            body.writeShort(u16(input.getCholesterol()));
+            body.writeByte(u8(input.getFastingBS()));
+            body.writeByte(code(input.getRestECGCode()));
+            body.writeShort(u16(input.getMaxHeartRate()));
+            body.writeByte(code(input.getExerciseAnginaCode()));
+            body.writeDouble(f64(input.getOldpeak()));
+            body.writeByte(code(input.getThalliumCode()));
+            body.writeDouble(f64(input.getHeightM()));
+            body.writeDouble(f64(input.getWeightKg()));
+        }
+        frame.end(out);
+    }
+
+    // Decodes rows from a DIAGNOSE body positioned after the row count
+    public static List<SymptomInput> readRows(ByteBuffer body, int rows) {
+        List<SymptomInput> inputs = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            SymptomInput input = new SymptomInput();
+            input.setAge(u8(body.get()));
+            input.setSex(nominal(NominalFeature.SEX, body.get()));
+            input.setChestPain(nominal(NominalFeature.CHEST_PAIN, body.get()));
+            input.setBloodPressure(u16(body.getShort()));
+            input.setCholesterol(u16(body.getShort()));
+            input.setFastingBS(u8(body.get()));
+            input.setRestECG(nominal(NominalFeature.REST_ECG, body.get()));
+            input.setMaxHeartRate(u16(body.getShort()));
+            input.setExerciseAngina(nominal(NominalFeature.EXERCISE_ANGINA, body.get()));
+            input.setOldpeak(f64(body.getDouble()));
+            input.setThallium(nominal(NominalFeature.THALLIUM, body.get()));
+            input.setHeightM(f64(body.getDouble()));
+            input.setWeightKg(f64(body.getDouble()));
+            inputs.add(input);
+        }
+        return inputs;
+    }
+
+    // Class names are sent once per frame; every row of a batch is scored by the same model
+    public static void writeResult(FrameWriter frame, DataOutputStream out, int requestId,
+                                   List<BatchDiagnosisItem> items, boolean explain) throws IOException {
+        String[] classNames = new String[0];
+        String version = "";
+        for (BatchDiagnosisItem item : items) {
+            if (item.isSuccess()) {
+                classNames = item.getResult().getScores().keySet().toArray(new String[0]);
+                version = item.getResult().getModelVersion();
+                break;
+            }
+        }
+
+        DataOutputStream body = frame.begin(RESULT, requestId);
+        body.writeUTF(version != null ? version : "");
+        body.writeByte(classNames.length);
+        for (String className : classNames) {
+            body.writeUTF(className);
+        }
+        body.writeInt(items.size());
+        for (BatchDiagnosisItem item : items) {
+            if (!item.isSuccess()) {
+                body.writeByte(STATUS_ERROR);
+                body.writeUTF(String.join("; ", item.getErrors()));
+                continue;
+            }
+            DiagnosisResult result = item.getResult();
+            Map<String, Double> scores = result.getScores();
+            body.writeByte(STATUS_OK);
+            body.writeByte(Arrays.asList(classNames).indexOf(result.getLabel()));
+            // Fresh results share ClassScores; cached ones may be a plain map
+            ClassScores classScores = scores instanceof ClassScores ? (ClassScores) scores : null;
+            for (int c = 0; c < classNames.length; c++) {
+                double score = classScores != null ? classScores.value(c) : scores.getOrDefault(classNames[c], 0.0);
+                body.writeFloat((float) score);
+            }
+            if (explain) {
+                body.writeUTF(result.getExplanation() != null ? result.getExplanation() : "");
+            }
+        }
+        frame.end(out);
+    }
+
+    // One frame from the server, as read by a client
+    public static final class Response {
+        private final int type;
+        private final int requestId;
+        private String modelVersion;
+        private String[] classNames;
+        private List<Row> rows;
+        private String message;
+
+        Response(int type, int requestId) {
+            this.type = type;
+            this.requestId = requestId;
+        }
+
+        public int getType() { return type; }
+
+        public int getRequestId() { return requestId; }
+
+        public String getModelVersion() { return modelVersion; }
+
+        public String[] getClassNames() { return classNames; }
+
+        // RESULT only, in request order
+        public List<Row> getRows() { return rows; }
+
+        // ERROR only
+        public String getMessage() { return message; }
+    }
+
+    public static final class Row {
+        private final String label;
+        private final float[] scores;
+        private final String explanation;
+        private final String errors;
+
+        Row(String label, float[] scores, String explanation, String errors) {
+            this.label = label;
+            this.scores = scores;
+            this.explanation = explanation;
+            this.errors = errors;
+        }
+
+        public boolean isSuccess() { return errors == null; }
+
+        public String getLabel() { return label; }
+
+        // In the order of the response's class names
+        public float[] getScores() { return scores; }
+
+        public String getExplanation() { return explanation; }
+
+        public String getErrors() { return errors; }
+    }
+
+    // Reads the next frame; explain must match the request the frame answers
+    public static Response readResponse(DataInputStream in, boolean explain) throws IOException {
+        int length = in.readInt();
+        if (length < FRAME_HEADER_BYTES) {
+            throw new IOException("Malformed frame of " + length + " bytes");
+        }
+        int type = in.readUnsignedByte();
+        Response response = new Response(type, in.readInt());
+        switch (type) {
+            case HELLO:
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                int version = in.readUnsignedByte();
+                if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                    throw new IOException("Not a diagnosis protocol v" + VERSION + " server: "
+                        + new String(magic, StandardCharsets.ISO_8859_1) + " v" + version);
+                }
+                break;
+            case RESULT:
+                response.modelVersion = in.readUTF();
+                String[] classNames = new String[in.readUnsignedByte()];
+                for (int c = 0; c < classNames.length; c++) {
+                    classNames[c] = in.readUTF();
+                }
+                response.classNames = classNames;
+                int rows = in.readInt();
+                response.rows = new ArrayList<>(rows);
+                for (int i = 0; i < rows; i++) {
+                    if (in.readUnsignedByte() != STATUS_OK) {
+                        response.rows.add(new Row(null, null, null, in.readUTF()));
+                        continue;
+                    }
+                    String label = classNames[in.readUnsignedByte()];
+                    float[] scores = new float[classNames.length];
+                    for (int c = 0; c < scores.length; c++) {
+                        scores[c] = in.readFloat();
+                    }
+                    response.rows.add(new Row(label, scores, explain ? in.readUTF() : null, null));
+                }
+                break;
+            case ERROR:
+                response.message = in.readUTF();
+                break;
+            default:
+                // PONG and BUSY carry nothing; skip anything newer than this reader
+                in.skipNBytes(length - FRAME_HEADER_BYTES);
+        }
+        return response;
+    }
+
+    private static int u8(Integer value) {
+        if (value == null) return MISSING_U8;
+        return value < 0 || value >= OUT_OF_RANGE_U8 ? OUT_OF_RANGE_U8 : value;
+    }
+
+    private static int u16(Integer value) {
+        if (value == null) return MISSING_U16;
+        return value < 0 || value >= OUT_OF_RANGE_U16 ? OUT_OF_RANGE_U16 : value;
+    }
+
+    private static int code(int code) {
+        if (code == NominalFeature.MISSING) return MISSING_U8;
+        return code < 0 ? OUT_OF_RANGE_U8 : code;
+    }
+
+    private static double f64(Double value) {
+        return value == null ? Double.NaN : value;
+    }
+
+    private static Integer u8(byte value) {
+        int unsigned = value & 0xFF;
+        return unsigned == MISSING_U8 ? null : unsigned;
+    }
+
+    private static Integer u16(short value) {
+        int unsigned = value & 0xFFFF;
+        return unsigned == MISSING_U16 ? null : unsigned;
+    }
+
+    private static Double f64(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+    // Codes beyond the table keep a placeholder text, so validation reports them
+    private static String nominal(NominalFeature feature, byte value) {
+        int code = value & 0xFF;
+        if (code == MISSING_U8) return null;
+        return code < feature.size() ? feature.value(code) : "#" + code;
+    }
+}
@@ -0,0 +1,295 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
+import com.heartdiagnostic.service.model.SymptomInput;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Serves DiagnosisProtocol on a local TCP port for internal callers, alongside
+// the JSON REST API. Each connection has its own thread, which reads batches,
+// scores them through WekaModelService.classifyBatch (the same validation,
+// model and metrics as /api/diagnose/batch) and writes the results in order.
+// The protocol carries no tenant, so every batch is charged to the tenant
+// weka.rpc.tenant (and scored with its model, if it has one); with tenant
+// quotas on, the port's callers share that tenant's quota.
+// Callers can keep sending while earlier batches are scored, so a connection
+// streams in both directions. Responses are flushed once the caller has
+// nothing more queued, so pipelined batches share packets.
+@Service
+public class DiagnosisRpcServer {
+
+    private static final Logger log = LoggerFactory.getLogger(DiagnosisRpcServer.class);
+
+    private final WekaModelService wekaModelService;
+    private final DiagnosisMetrics diagnosisMetrics;
+    private final AdmissionLimiter admissionLimiter;
+    private final TenantRouter tenantRouter;
+    private final String tenant;
+    private final AuditLog auditLog;
+    private final AnalyticsStore analyticsStore;
+    private final boolean enabled;
+    private final String bind;
+    private final int port;
+    private final int maxConnections;
+    private final int maxRows;
+
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+    private ThreadPoolExecutor executor;
+    private Thread acceptor;
+
+    public DiagnosisRpcServer(WekaModelService wekaModelService, DiagnosisMetrics diagnosisMetrics,
+                              AdmissionLimiter admissionLimiter, TenantRouter tenantRouter, AuditLog auditLog,
+                              AnalyticsStore analyticsStore,
+                              @Value("${weka.rpc.enabled:false}") boolean enabled,
+                              @Value("${weka.rpc.bind:127.0.0.1}") String bind,
+                              @Value("${weka.rpc.port:7070}") int port,
+                              @Value("${weka.rpc.max-connections:64}") int maxConnections,
+                              @Value("${weka.rpc.tenant:rpc}") String tenant,
+                              @Value("${weka.batch.max-size:50000}") int maxRows) {
+        this.wekaModelService = wekaModelService;
+        this.diagnosisMetrics = diagnosisMetrics;
+        this.admissionLimiter = admissionLimiter;
+        this.tenantRouter = tenantRouter;
+        if (!TenantRouter.isValidTenantId(tenant)) {
+            throw new IllegalArgumentException("weka.rpc.tenant is not a valid tenant id: " + tenant);
+        }
+        this.tenant = tenant;
+        this.auditLog = auditLog;
+        this.analyticsStore = analyticsStore;
+        this.enabled = enabled;
+        this.bind = bind;
+        this.port = port;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxRows = Math.max(1, maxRows);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bind, port), maxConnections);
+        // No queue: a connection beyond the limit is closed rather than left waiting
+        executor = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "rpc-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        running = true;
+        acceptor = new Thread(this::accept, "rpc-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Binary diagnosis protocol listening on {}:{}", bind, getPort());
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // The bound port, which differs from the configured one when that is 0
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    private void accept() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Accepting a connection failed: {}", e.getMessage());
+                }
+                continue;
+            }
+            try {
+                executor.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                log.warn("Refusing connection from {}: {} connections open", socket.getRemoteSocketAddress(),
+                    maxConnections);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        connections.add(socket);
+        DiagnosisProtocol.FrameWriter frame = new DiagnosisProtocol.FrameWriter();
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            socket.setTcpNoDelay(true);
+            DiagnosisProtocol.writeHello(frame, out);
+            out.flush();
+
+            int maxFrameBytes = DiagnosisProtocol.FRAME_HEADER_BYTES + 5 + maxRows * DiagnosisProtocol.ROW_BYTES;
+            byte[] buffer = new byte[4096];
+            while (running) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < DiagnosisProtocol.FRAME_HEADER_BYTES || length > maxFrameBytes) {
+                    DiagnosisProtocol.writeError(frame, out, 0, "Frame of " + length + " bytes is outside 5.."
+                        + maxFrameBytes);
+                    out.flush();
+                    return;
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                ByteBuffer body = ByteBuffer.wrap(buffer, 0, length);
+                int type = body.get() & 0xFF;
+                int requestId = body.getInt();
+
+                if (type == DiagnosisProtocol.DIAGNOSE) {
+                    if (!diagnose(body, requestId, frame, out)) {
+                        out.flush();
+                        return;
+                    }
+                } else if (type == DiagnosisProtocol.PING) {
+                    frame.write(out, DiagnosisProtocol.PONG, requestId);
+                } else {
+                    DiagnosisProtocol.writeError(frame, out, requestId, "Unknown frame type " + type);
+                    out.flush();
+                    return;
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // Closed by the caller or by shutdown
+        } catch (IOException e) {
+            log.warn("Binary protocol connection from {} failed: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    // Answers one DIAGNOSE frame; returns false when the frame was malformed
+    // and the connection has to be closed
+    private boolean diagnose(ByteBuffer body, int requestId, DiagnosisProtocol.FrameWriter frame,
+                             DataOutputStream out) throws IOException {
+        if (body.remaining() < 5) {
+            DiagnosisProtocol.writeError(frame, out, requestId, "Truncated diagnose frame");
+            return false;
+        }
+        boolean explain = (body.get() & DiagnosisProtocol.FLAG_EXPLAIN) != 0;
+        int rows = body.getInt();
+        if (rows < 0 || rows > maxRows || body.remaining() != rows * DiagnosisProtocol.ROW_BYTES) {
+            DiagnosisProtocol.writeError(frame, out, requestId, "Expected " + rows + " rows of "
+                + DiagnosisProtocol.ROW_BYTES + " bytes (max " + maxRows + " rows), got " + body.remaining() + " bytes");
+            return false;
+        }
+        List<SymptomInput> inputs = DiagnosisProtocol.readRows(body, rows);
+
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(wekaModelService.getModelVersion());
+        // Over the tenant's quota or at capacity, the caller is told to come back later
+        TenantRouter.Lease lease = tenantRouter.tryAcquire(tenant, Math.max(1, rows));
+        if (lease == null) {
+            metrics.failure("tenant_quota");
+            frame.write(out, DiagnosisProtocol.BUSY, requestId);
+            return true;
+        }
+        AdmissionLimiter.Permit permit = admissionLimiter.tryAcquire();
+        if (permit == null) {
+            lease.close();
+            metrics.failure("rejected");
+            frame.write(out, DiagnosisProtocol.BUSY, requestId);
+            return true;
+        }
+        // A tenant model that cannot be loaded fails the request, not the connection
+        ModelSnapshot tenantModel;
+        try {
+            tenantModel = tenantRouter.model(tenant);
+        } catch (Exception e) {
+            lease.close();
+            permit.close();
+            log.error("Could not load the model of tenant {}", tenant, e);
+            metrics.failure("tenant_model");
+            DiagnosisProtocol.writeError(frame, out, requestId, "Diagnosis failed: " + e.getMessage());
+            return true;
+        }
+        // Counted from here against the model that scores the rows
+        if (tenantModel != null) {
+            metrics = diagnosisMetrics.forModel(tenantModel.getVersion());
+        }
+        metrics.requestStarted();
+        try (lease; permit) {
+            List<BatchDiagnosisItem> results = tenantModel == null
+                ? wekaModelService.classifyBatch(inputs, explain)
+                : wekaModelService.classifyBatch(tenantModel, inputs, explain);
+            if (auditLog.isEnabled() || analyticsStore.isEnabled()) {
+                for (BatchDiagnosisItem item : results) {
+                    if (item.isSuccess()) {
+                        auditLog.record("rpc", inputs.get(item.getIndex()), item.getResult());
+                        analyticsStore.record(inputs.get(item.getIndex()), item.getResult());
+                    }
+                }
+            }
+            DiagnosisProtocol.writeResult(frame, out, requestId, results, explain);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error during binary protocol diagnosis", e);
+            metrics.failure(e);
+            DiagnosisProtocol.writeError(frame, out, requestId, "Diagnosis failed: " + e.getMessage());
+        } finally {
+            metrics.requestFinished();
+        }
+        return true;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.ClassScores;
+import com.heartdiagnostic.service.model.NominalFeature;
+import com.heartdiagnostic.service.model.SymptomInput;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import weka.core.Instances;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Builds the explanation attached to a diagnosis. In path mode the text names
+// the features that moved the model towards its prediction, traced along the
+// tree's decision path (see DecisionPaths), and the result carries every
+// feature's contribution. Template mode renders the fixed clinical risk
+// factors from precomputed sentences. Models that are not trees, and
+// ensembles, fall back to the template.
+@Service
+public class ExplanationEngine {
+
+    public enum Mode { PATH, TEMPLATE, NONE }
+
+    private static final String PATH_PREFIX = "Based on the model's decision path: ";
+    private static final String NO_PATH = "no single feature decided this prediction";
+    private static final String CONFIDENCE = ". Confidence: ";
+
+    // Risk factors in the order they are listed; bit i of a mask selects factor i
+    private static final String[] RISK_FACTORS = {
+        "age over 65", "high blood pressure", "high cholesterol", "elevated blood sugar",
+        "exercise-induced angina", "significant ST depression", "thallium scan abnormalities"
+    };
+    // Every combination of risk factors rendered once, up to the confidence figure
+    private static final String[] TEMPLATES = new String[1 << RISK_FACTORS.length];
+
+    static {
+        for (int mask = 0; mask < TEMPLATES.length; mask++) {
+            StringBuilder text = new StringBuilder("Based on your symptoms: ");
+            int start = text.length();
+            for (int i = 0; i < RISK_FACTORS.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    text.append(text.length() == start ? "Key risk factors identified: " : ", ").append(RISK_FACTORS[i]);
+                }
+            }
+            if (text.length() == start) {
+                text.append("No major risk factors identified");
+            }
+            TEMPLATES[mask] = text.append(CONFIDENCE).toString();
+        }
+    }
+
+    private static final int ANGINA_YES = NominalFeature.EXERCISE_ANGINA.code("yes");
+    private static final int THALLIUM_NORMAL = NominalFeature.THALLIUM.code("normal");
+
+    private static final Map<String, String> FEATURE_LABELS = Map.ofEntries(
+        Map.entry("age", "age"),
+        Map.entry("sex", "sex"),
+        Map.entry("chestPain", "chest pain type"),
+        Map.entry("bloodPressure", "blood pressure"),
+        Map.entry("cholesterol", "cholesterol"),
+        Map.entry("fastingBS", "fasting blood sugar"),
+        Map.entry("restECG", "resting ECG"),
+        Map.entry("maxHeartRate", "maximum heart rate"),
+        Map.entry("exerciseAngina", "exercise-induced angina"),
+        Map.entry("oldpeak", "ST depression"),
+        Map.entry("thallium", "thallium scan"),
+        Map.entry("bmi", "BMI"));
+
+    private final Mode mode;
+    private final int topFeatures;
+
+    public ExplanationEngine(@Value("${weka.explanation.mode:path}") String mode,
+                             @Value("${weka.explanation.top-features:3}") int topFeatures) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase());
+        this.topFeatures = Math.max(1, topFeatures);
+    }
+
+    public static ExplanationEngine template() {
+        return new ExplanationEngine("template", 3);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.NONE;
+    }
+
+    public static final class Explanation {
+        private final String text;
+        private final Map<String, Double> contributions;
+
+        Explanation(String text, Map<String, Double> contributions) {
+            this.text = text;
+            this.contributions = contributions;
+        }
+
+        public String getText() { return text; }
+
+        // Change in the predicted class's probability per feature, largest first; null in template mode
+        public Map<String, Double> getContributions() { return contributions; }
+    }
+
+    // values are the encoded attributes for model's header; model may be null
+    // (an ensemble), which always uses the template
+    public Explanation explain(ModelSnapshot model, double[] values, int predictedClass,
+                               ClassScores scores, SymptomInput input) {
+        if (mode == Mode.NONE) {
+            return null;
+        }
+        DecisionPaths paths = model != null ? model.getDecisionPaths() : null;
+        if (mode == Mode.PATH && paths != null && values != null) {
+            return explainPath(model.getHeader(), paths, values, predictedClass, scores);
+        }
+        return new Explanation(template(predictedClass, scores, input), null);
+    }
+
+    public String template(int predictedClass, ClassScores scores, SymptomInput input) {
+        int mask = 0;
+        if (input.getAge() > 65) mask |= 1;
+        if (input.getBloodPressure() > 140) mask |= 1 << 1;
+        if (input.getCholesterol() > 240) mask |= 1 << 2;
+        if (input.getFastingBS() == 1) mask |= 1 << 3;
+        if (input.getExerciseAnginaCode() == ANGINA_YES) mask |= 1 << 4;
+        if (input.getOldpeak() > 2.0) mask |= 1 << 5;
+        // Either defect
+        if (input.getThalliumCode() >= 0 && input.getThalliumCode() != THALLIUM_NORMAL) mask |= 1 << 6;
+
+        String template = TEMPLATES[mask];
+        return appendPercent(new StringBuilder(template.length() + 7).append(template), scores.value(predictedClass))
+            .toString();
+    }
+
+    private Explanation explainPath(Instances header, DecisionPaths paths, double[] values, int predictedClass,
+                                    ClassScores scores) {
+        int numAttributes = header.numAttributes();
+        double[] contribution = new double[numAttributes];
+        paths.contributions(values, predictedClass, contribution);
+
+        // Features in order of decreasing influence; trees touch only a handful
+        int[] order = new int[numAttributes];
+        int count = 0;
+        for (int a = 0; a < numAttributes; a++) {
+            if (contribution[a] != 0) {
+                int i = count++;
+                while (i > 0 && Math.abs(contribution[order[i - 1]]) < Math.abs(contribution[a])) {
+                    order[i] = order[i - 1];
+                    i--;
+                }
+                order[i] = a;
+            }
+        }
+
+        Map<String, Double> contributions = count == 0 ? Collections.emptyMap() : new LinkedHashMap<>(count * 2);
+        StringBuilder text = new StringBuilder(PATH_PREFIX.length() + 48 * Math.min(count, topFeatures) + 24);
+        text.append(PATH_PREFIX);
+        for (int i = 0; i < count; i++) {
+            int a = order[i];
+            String name = header.attribute(a).name();
+            contributions.put(name, contribution[a]);
+            if (i < topFeatures) {
+                if (i > 0) text.append(", ");
+                text.append(FEATURE_LABELS.getOrDefault(name, name)).append(" (").append(contribution[a] > 0 ? "+" : "");
+                appendPercent(text, contribution[a]);
+                text.append(')');
+            }
+        }
+        if (count == 0) {
+            text.append(NO_PATH);
+        }
+        appendPercent(text.append(CONFIDENCE), scores.value(predictedClass));
+        return new Explanation(text.toString(), contributions);
+    }
+
+    // One decimal place, same output as "%.1f%%" without going through String.format
+    private static StringBuilder appendPercent(StringBuilder text, double fraction) {
+        return text.append(Math.round(fraction * 1000) / 10.0).append('%');
+    }
+}
@@ -0,0 +1,185 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.NominalFeature;
+import com.heartdiagnostic.service.model.SymptomInput;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Maps a SymptomInput straight into an attribute value array for a given header.
+// Attribute positions, and the header's code for each NominalFeature table
+// code, are resolved once when the encoder is built, so encoding does no
+// attribute lookups or string comparisons and allocates nothing. For headers
+// built from the tables the codes map to themselves.
+public class FeatureEncoder {
+
+    // Idle instances kept for reuse; more than this are left to the GC
+    private static final int MAX_IDLE_INSTANCES = 256;
+
+    private final Instances header;
+    private final int numAttributes;
+
+    // Reusable instances are checked out per call rather than held per thread,
+    // so a request on a virtual thread, which is a new thread each time, still
+    // reuses one
+    private final ConcurrentLinkedQueue<ReusableInstance> idleInstances = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    // Attribute positions in the header (-1 when the header does not use the feature)
+    private final int age, sex, chestPain, bloodPressure, cholesterol, fastingBS, restECG,
+        maxHeartRate, exerciseAngina, oldpeak, thallium, bmi;
+
+    // Header code for each table code (-1 when the header lacks the value)
+    private final int[] sexCodes, chestPainCodes, restECGCodes, exerciseAnginaCodes, thalliumCodes;
+    private final double[] fastingBSCodes;
+
+    public FeatureEncoder(Instances header) {
+        this.header = header;
+        this.numAttributes = header.numAttributes();
+
+        age = numericIndex("age");
+        sex = nominalIndex(NominalFeature.SEX.attribute());
+        chestPain = nominalIndex(NominalFeature.CHEST_PAIN.attribute());
+        bloodPressure = numericIndex("bloodPressure");
+        cholesterol = numericIndex("cholesterol");
+        fastingBS = nominalIndex("fastingBS");
+        restECG = nominalIndex(NominalFeature.REST_ECG.attribute());
+        maxHeartRate = numericIndex("maxHeartRate");
+        exerciseAngina = nominalIndex(NominalFeature.EXERCISE_ANGINA.attribute());
+        oldpeak = numericIndex("oldpeak");
+        thallium = nominalIndex(NominalFeature.THALLIUM.attribute());
+        bmi = numericIndex("bmi");
+
+        sexCodes = codes(sex, NominalFeature.SEX);
+        chestPainCodes = codes(chestPain, NominalFeature.CHEST_PAIN);
+        restECGCodes = codes(restECG, NominalFeature.REST_ECG);
+        exerciseAnginaCodes = codes(exerciseAngina, NominalFeature.EXERCISE_ANGINA);
+        thalliumCodes = codes(thallium, NominalFeature.THALLIUM);
+        fastingBSCodes = fastingBS < 0 ? new double[0] : new double[] {
+            header.attribute(fastingBS).indexOfValue("0"),
+            header.attribute(fastingBS).indexOfValue("1")
+        };
+    }
+
+    public Instances getHeader() {
+        return header;
+    }
+
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    // Fills target (of length numAttributes) and returns it; the class value is left missing
+    public double[] encode(SymptomInput input, double[] target) {
+        for (int i = 0; i < numAttributes; i++) {
+            target[i] = Utils.missingValue();
+        }
+        if (age >= 0) target[age] = input.getAge();
+        if (sex >= 0) target[sex] = code(sexCodes, input.getSexCode(), input.getSex(), "sex");
+        if (chestPain >= 0) target[chestPain] = code(chestPainCodes, input.getChestPainCode(), input.getChestPain(), "chestPain");
+        if (bloodPressure >= 0) target[bloodPressure] = input.getBloodPressure();
+        if (cholesterol >= 0) target[cholesterol] = input.getCholesterol();
+        if (fastingBS >= 0) target[fastingBS] = fastingBSCode(input.getFastingBS());
+        if (restECG >= 0) target[restECG] = code(restECGCodes, input.getRestECGCode(), input.getRestECG(), "restECG");
+        if (maxHeartRate >= 0) target[maxHeartRate] = input.getMaxHeartRate();
+        if (exerciseAngina >= 0) target[exerciseAngina] = code(exerciseAnginaCodes, input.getExerciseAnginaCode(), input.getExerciseAngina(), "exerciseAngina");
+        if (oldpeak >= 0) target[oldpeak] = input.getOldpeak();
+        if (thallium >= 0) target[thallium] = code(thalliumCodes, input.getThalliumCode(), input.getThallium(), "thallium");
+        if (bmi >= 0) {
+            // Same as SymptomInput.getBmi() without boxing the result
+            double height = input.getHeightM();
+            target[bmi] = height > 0 ? input.getWeightKg() / (height * height) : Utils.missingValue();
+        }
+        return target;
+    }
+
+    public double[] encode(SymptomInput input) {
+        return encode(input, new double[numAttributes]);
+    }
+
+    // Creates an instance whose value array can be re-encoded in place
+    public ReusableInstance newReusableInstance() {
+        ReusableInstance instance = new ReusableInstance(numAttributes);
+        instance.setDataset(header);
+        return instance;
+    }
+
+    // An idle instance for this header, or a new one; hand it back with
+    // releaseInstance once nothing refers to its values any more
+    public ReusableInstance acquireInstance() {
+        ReusableInstance instance = idleInstances.poll();
+        if (instance == null) {
+            return newReusableInstance();
+        }
+        idleCount.decrementAndGet();
+        return instance;
+    }
+
+    public void releaseInstance(ReusableInstance instance) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE_INSTANCES) {
+            idleInstances.offer(instance);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    private static double code(int[] codes, int code, String value, String attributeName) {
+        if (code < 0 || codes[code] < 0) {
+            throw new IllegalArgumentException("Value not defined for attribute " + attributeName + ": " + value);
+        }
+        return codes[code];
+    }
+
+    private double fastingBSCode(int value) {
+        if (value < 0 || value >= fastingBSCodes.length || fastingBSCodes[value] < 0) {
+            throw new IllegalArgumentException("Value not defined for attribute fastingBS: " + value);
+        }
+        return fastingBSCodes[value];
+    }
+
+    private int numericIndex(String name) {
+        Attribute attribute = header.attribute(name);
+        if (attribute == null) return -1;
+        if (!attribute.isNumeric()) {
+            throw new IllegalArgumentException("Attribute " + name + " must be numeric");
+        }
+        return attribute.index();
+    }
+
+    private int nominalIndex(String name) {
+        Attribute attribute = header.attribute(name);
+        if (attribute == null) return -1;
+        if (!attribute.isNominal()) {
+            throw new IllegalArgumentException("Attribute " + name + " must be nominal");
+        }
+        return attribute.index();
+    }
+
+    private int[] codes(int attributeIndex, NominalFeature feature) {
+        if (attributeIndex < 0) return new int[0];
+        Attribute attribute = header.attribute(attributeIndex);
+        int[] codes = new int[feature.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = attribute.indexOfValue(feature.value(i));
+        }
+        return codes;
+    }
+
+    // DenseInstance whose backing array is filled directly by the encoder.
+    // DenseInstance.setValue copies the whole array on every call, which is
+    // what this avoids.
+    public static class ReusableInstance extends DenseInstance {
+
+        public ReusableInstance(int numAttributes) {
+            super(1.0, new double[numAttributes]);
+        }
+
+        public double[] values() {
+            return m_AttValues;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.SymptomInput;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Groups concurrent single diagnoses into blocks for
+// WekaModelService.classifyEncoded. Callers encode their own input and queue
+// it. Worker threads take everything queued, up to max-batch rows, and score
+// it as one block. Under load the queue fills while a block is scored, so
+// blocks grow with traffic without any waiting. A worker also lingers for more
+// rows, but only when arrivals are close enough to fill the block within
+// max-wait-us; a lone request is scored at once. An input identical to one
+// already queued or being scored, for the same model and explain flag, waits
+// for that result instead of being scored again.
+@Service
+public class MicroBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(MicroBatcher.class);
+
+    // Weight of the newest gap in the moving average of inter-arrival gaps
+    private static final double GAP_WEIGHT = 0.05;
+
+    private final WekaModelService wekaModelService;
+    private final ModelRegistry modelRegistry;
+    private final DiagnosisMetrics diagnosisMetrics;
+    private final boolean enabled;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final int workers;
+    private final long timeoutMillis;
+    private final BlockingQueue<Pending> queue;
+    private final ConcurrentHashMap<Key, Pending> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastArrival = new AtomicLong();
+    private volatile double gapNanos = Double.MAX_VALUE;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder overflow = new LongAdder();
+
+    private volatile boolean running;
+    private final List<Thread> threads = new ArrayList<>();
+
+    public MicroBatcher(WekaModelService wekaModelService, ModelRegistry modelRegistry,
+                        DiagnosisMetrics diagnosisMetrics, MeterRegistry meterRegistry,
+                        @Value("${weka.microbatch.enabled:false}") boolean enabled,
+                        @Value("${weka.microbatch.max-batch:64}") int maxBatch,
+                        @Value("${weka.microbatch.max-wait-us:500}") long maxWaitMicros,
+                        @Value("${weka.microbatch.workers:0}") int workers,
+                        @Value("${weka.microbatch.max-pending:10000}") int maxPending,
+                        @Value("${weka.microbatch.timeout-ms:30000}") long timeoutMillis) {
+        this.wekaModelService = wekaModelService;
+        this.modelRegistry = modelRegistry;
+        this.diagnosisMetrics = diagnosisMetrics;
+        this.enabled = enabled;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxWaitNanos = Math.max(0, maxWaitMicros) * 1_000L;
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+        this.queue = new LinkedBlockingQueue<>(enabled ? Math.max(1, maxPending) : 1);
+
+        if (enabled) {
+            Gauge.builder("diagnosis.microbatch.queue", queue, BlockingQueue::size).register(meterRegistry);
+            Gauge.builder("diagnosis.microbatch.wait.us", this, MicroBatcher::currentWaitMicros).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.microbatch.batches", batches, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.microbatch.rows", rows, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.microbatch.coalesced", coalesced, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.microbatch.overflow", overflow, LongAdder::sum).register(meterRegistry);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::run, "micro-batcher-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    // Stops taking work once what is queued has been scored
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Same contract as WekaModelService.classify: input must have passed validation
+    public DiagnosisResult classify(SymptomInput input, boolean explain) throws Exception {
+        if (!running || wekaModelService.isEnsembleEnabled()) {
+            return wekaModelService.classify(input, explain);
+        }
+        return classify(modelRegistry.active(), input, explain);
+    }
+
+    // Rows for different models share the queue and are scored in per-model blocks
+    public DiagnosisResult classify(ModelSnapshot model, SymptomInput input, boolean explain) throws Exception {
+        if (!running) {
+            return wekaModelService.classify(model, input, explain);
+        }
+        try {
+            return submit(model, input, explain).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            throw new TimeoutException("No micro-batch result within " + timeoutMillis + " ms");
+        }
+    }
+
+    // Queues input and returns its result to come, or joins an identical one in flight
+    public CompletableFuture<DiagnosisResult> submit(SymptomInput input, boolean explain) throws Exception {
+        return submit(modelRegistry.active(), input, explain);
+    }
+
+    public CompletableFuture<DiagnosisResult> submit(ModelSnapshot model, SymptomInput input,
+                                                     boolean explain) throws Exception {
+        recordArrival();
+        long start = System.nanoTime();
+        double[] values = model.getEncoder().encode(input);
+        diagnosisMetrics.forModel(model.getVersion())
+            .record(DiagnosisMetrics.Stage.ENCODING, System.nanoTime() - start);
+
+        Key key = new Key(model, values, explain);
+        Pending pending = new Pending(key, input);
+        Pending leader = inFlight.putIfAbsent(key, pending);
+        if (leader != null) {
+            coalesced.increment();
+            // Each caller gets its own result object
+            return leader.future.thenApply(MicroBatcher::copy);
+        }
+        if (!queue.offer(pending)) {
+            // Full: score on the caller's thread rather than fail
+            overflow.increment();
+            scoreInline(pending);
+        } else if (!running && queue.remove(pending)) {
+            // Shut down after the check in classify, and no worker took the row
+            scoreInline(pending);
+        }
+        return pending.future;
+    }
+
+    private void scoreInline(Pending pending) {
+        inFlight.remove(pending.key, pending);
+        try {
+            pending.future.complete(wekaModelService.classifyEncoded(pending.key.model,
+                new SymptomInput[]{pending.input}, new double[][]{pending.key.values},
+                new boolean[]{pending.key.explain})[0]);
+        } catch (Exception e) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    // Current linger in microseconds, for monitoring
+    public long currentWaitMicros() {
+        return linger(1) / 1_000L;
+    }
+
+    public long batchCount() { return batches.sum(); }
+
+    public long rowCount() { return rows.sum(); }
+
+    public long coalescedCount() { return coalesced.sum(); }
+
+    private void recordArrival() {
+        long now = System.nanoTime();
+        long previous = lastArrival.getAndSet(now);
+        if (previous == 0) {
+            return;
+        }
+        // Racy but only approximate: a lost update just skips one sample
+        double gap = Math.min(now - previous, 1_000_000_000L);
+        double average = gapNanos;
+        gapNanos = average == Double.MAX_VALUE ? gap : average + GAP_WEIGHT * (gap - average);
+    }
+
+    // How long to wait for more rows once size are in hand: the time the
+    // current arrival rate needs to fill the block, if that is within max-wait,
+    // and nothing when traffic is too light to add a row in time
+    private long linger(int size) {
+        double gap = gapNanos;
+        if (size >= maxBatch || gap >= maxWaitNanos) {
+            return 0;
+        }
+        return (long) Math.min(maxWaitNanos, gap * (maxBatch - size));
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + linger(batch.size());
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                score(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Nobody is left to score what this worker holds or what is still queued
+                queue.drainTo(batch);
+                fail(batch, e);
+                return;
+            } catch (RuntimeException e) {
+                log.error("Micro-batch worker failed", e);
+                fail(batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Completes what is still open in batch, and the callers that joined it
+    private void fail(List<Pending> batch, Exception cause) {
+        for (Pending pending : batch) {
+            inFlight.remove(pending.key, pending);
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    private void score(List<Pending> batch) {
+        batches.increment();
+        rows.add(batch.size());
+        // Rows encoded for different models (a switch mid-batch) are scored separately
+        List<Pending> rest = batch;
+        while (!rest.isEmpty()) {
+            ModelSnapshot model = rest.get(0).key.model;
+            List<Pending> group = new ArrayList<>(rest.size());
+            List<Pending> others = new ArrayList<>();
+            for (Pending pending : rest) {
+                (pending.key.model == model ? group : others).add(pending);
+            }
+            score(model, group);
+            rest = others;
+        }
+    }
+
+    private void score(ModelSnapshot model, List<Pending> group) {
+        int n = group.size();
+        SymptomInput[] inputs = new SymptomInput[n];
+        double[][] values = new double[n][];
+        boolean[] explain = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            Pending pending = group.get(i);
+            inputs[i] = pending.input;
+            values[i] = pending.key.values;
+            explain[i] = pending.key.explain;
+        }
+        DiagnosisResult[] results = null;
+        Exception failure = null;
+        try {
+            results = wekaModelService.classifyEncoded(model, inputs, values, explain);
+        } catch (Exception e) {
+            failure = e;
+        }
+        for (int i = 0; i < n; i++) {
+            Pending pending = group.get(i);
+            // Later identical inputs start a new computation
+            inFlight.remove(pending.key, pending);
+            if (failure != null) {
+                pending.future.completeExceptionally(failure);
+            } else {
+                pending.future.complete(results[i]);
+            }
+        }
+    }
+
+    private static DiagnosisResult copy(DiagnosisResult result) {
+        DiagnosisResult copy = new DiagnosisResult(result.getLabel(), result.getScores(), result.getExplanation());
+        copy.setContributions(result.getContributions());
+        copy.setModelVersion(result.getModelVersion());
+        copy.setContributors(result.getContributors());
+        copy.setDropped(result.getDropped());
+        return copy;
+    }
+
+    // Identity of a computation: the encoded input, the model and whether it is explained
+    private static final class Key {
+        final ModelSnapshot model;
+        final double[] values;
+        final boolean explain;
+        final int hash;
+
+        Key(ModelSnapshot model, double[] values, boolean explain) {
+            this.model = model;
+            this.values = values;
+            this.explain = explain;
+            this.hash = (System.identityHashCode(model) * 31 + Arrays.hashCode(values)) * 2 + (explain ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return model == key.model && explain == key.explain && Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Pending {
+        final Key key;
+        final SymptomInput input;
+        final CompletableFuture<DiagnosisResult> future = new CompletableFuture<>();
+
+        Pending(Key key, SymptomInput input) {
+            this.key = key;
+            this.input = input;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Scores one input with several model versions at once and combines their
+// class distributions by weighted vote. The members are the active model and
+// the versions listed in weka.ensemble.members. They all run on a small pool,
+// and any member, the active one included, is dropped when it has not answered
+// within the latency budget. So an ensemble costs about as long as its slowest
+// member that fits the budget rather than the sum of all of them.
+@Service
+public class ModelEnsemble {
+
+    public static final String VERSION = "ensemble";
+
+    private final ModelRegistry modelRegistry;
+    private final boolean enabled;
+    // Version -> weight, in configuration order; the active model weighs 1 unless listed
+    private final Map<String, Double> weights;
+    private final long budgetNanos;
+    private final ThreadPoolExecutor executor;
+
+    public ModelEnsemble(ModelRegistry modelRegistry,
+                         @Value("${weka.ensemble.enabled:false}") boolean enabled,
+                         @Value("${weka.ensemble.members:}") String members,
+                         @Value("${weka.ensemble.budget-ms:50}") long budgetMillis,
+                         @Value("${weka.ensemble.threads:0}") int threads) {
+        this.modelRegistry = modelRegistry;
+        this.enabled = enabled;
+        this.weights = parseMembers(members);
+        this.budgetNanos = Math.max(1, budgetMillis) * 1_000_000L;
+        if (enabled) {
+            int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            AtomicInteger count = new AtomicInteger();
+            // Bounded queue: when members are backed up this far they would miss
+            // the budget anyway, so they are dropped straight away instead
+            this.executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(size * 64), runnable -> {
+                    Thread thread = new Thread(runnable, "ensemble-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getBudgetMillis() {
+        return budgetNanos / 1_000_000L;
+    }
+
+    // The combined distribution over the active model's classes, and which
+    // members made it into the vote
+    public static final class Vote {
+        private final String[] classNames;
+        private final double[] distribution;
+        private final List<String> contributors;
+        private final List<String> dropped;
+
+        Vote(String[] classNames, double[] distribution, List<String> contributors, List<String> dropped) {
+            this.classNames = classNames;
+            this.distribution = distribution;
+            this.contributors = contributors;
+            this.dropped = dropped;
+        }
+
+        public String[] getClassNames() { return classNames; }
+
+        public double[] getDistribution() { return distribution; }
+
+        public List<String> getContributors() { return contributors; }
+
+        public List<String> getDropped() { return dropped; }
+    }
+
+    // The active model first, then the listed members that are loaded, with
+    // their weights. Other registry versions, such as the builtin rules or
+    // rolled-back and online versions, only vote when they are listed.
+    public List<Map.Entry<ModelSnapshot, Double>> members() {
+        List<Map.Entry<ModelSnapshot, Double>> members = new ArrayList<>();
+        ModelSnapshot active = modelRegistry.active();
+        if (active != null) {
+            members.add(Map.entry(active, weights.getOrDefault(active.getVersion(), 1.0)));
+        }
+        for (Map.Entry<String, Double> entry : weights.entrySet()) {
+            if (active != null && entry.getKey().equals(active.getVersion())) continue;
+            ModelSnapshot snapshot = modelRegistry.get(entry.getKey());
+            if (snapshot != null) {
+                members.add(Map.entry(snapshot, entry.getValue()));
+            }
+        }
+        return members;
+    }
+
+    public Vote vote(SymptomInput input, DiagnosisMetrics diagnosisMetrics) throws Exception {
+        List<Map.Entry<ModelSnapshot, Double>> members = members();
+        if (members.isEmpty()) {
+            throw new IllegalStateException("None of the ensemble members are loaded");
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+
+        List<Future<double[]>> futures = new ArrayList<>(members.size());
+        for (int i = 0; i < members.size(); i++) {
+            ModelSnapshot member = members.get(i).getKey();
+            try {
+                futures.add(executor.submit(() -> score(member, input, diagnosisMetrics)));
+            } catch (RejectedExecutionException e) {
+                futures.add(null);
+            }
+        }
+
+        ModelSnapshot primary = members.get(0).getKey();
+        String[] classNames = primary.getClassNames();
+        double[] combined = new double[classNames.length];
+        double totalWeight = 0;
+        List<String> contributors = new ArrayList<>(members.size());
+        List<String> dropped = new ArrayList<>();
+
+        for (int i = 0; i < members.size(); i++) {
+            ModelSnapshot member = members.get(i).getKey();
+            DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(member.getVersion());
+            double[] distribution = null;
+            try {
+                if (futures.get(i) != null) {
+                    distribution = futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } else {
+                    metrics.failure("deadline");
+                }
+            } catch (TimeoutException e) {
+                futures.get(i).cancel(true);
+                metrics.failure("deadline");
+            } catch (ExecutionException e) {
+                metrics.failure(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (Exception e) {
+                metrics.failure(e);
+            }
+            if (distribution == null) {
+                dropped.add(member.getVersion());
+                continue;
+            }
+
+            double weight = members.get(i).getValue();
+            addVotes(combined, classNames, distribution, member.getClassNames(), weight);
+            totalWeight += weight;
+            contributors.add(member.getVersion());
+        }
+
+        if (contributors.isEmpty()) {
+            throw new IllegalStateException("No ensemble member answered within " + getBudgetMillis() + " ms");
+        }
+        for (int c = 0; c < combined.length; c++) {
+            combined[c] /= totalWeight;
+        }
+        return new Vote(classNames, combined, contributors,
+            dropped.isEmpty() ? Collections.emptyList() : dropped);
+    }
+
+    // Each member encodes the input against its own schema, since members may
+    // have been trained with different headers
+    private static double[] score(ModelSnapshot member, SymptomInput input, DiagnosisMetrics diagnosisMetrics)
+            throws Exception {
+        long start = System.nanoTime();
+        Instance instance = new DenseInstance(1.0, member.getEncoder().encode(input));
+        instance.setDataset(member.getHeader());
+        double[] distribution = member.getPool().distributionForInstance(instance);
+        diagnosisMetrics.forModel(member.getVersion())
+            .record(DiagnosisMetrics.Stage.CLASSIFICATION, System.nanoTime() - start);
+        return distribution;
+    }
+
+    // Adds a member's votes by class name; classes the first member does not know are ignored
+    private static void addVotes(double[] combined, String[] classNames, double[] distribution,
+                                 String[] memberClassNames, double weight) {
+        if (memberClassNames == classNames) {
+            for (int c = 0; c < combined.length; c++) {
+                combined[c] += weight * distribution[c];
+            }
+            return;
+        }
+        for (int m = 0; m < memberClassNames.length; m++) {
+            for (int c = 0; c < classNames.length; c++) {
+                if (classNames[c].equals(memberClassNames[m])) {
+                    combined[c] += weight * distribution[m];
+                    break;
+                }
+            }
+        }
+    }
+
+    // "v1.0:1, heart-model:2" -> {v1.0=1.0, heart-model=2.0}; a missing weight is 1
+    private static Map<String, Double> parseMembers(String members) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        if (members == null || members.isBlank()) {
+            return weights;
+        }
+        for (String member : members.split(",")) {
+            String spec = member.trim();
+            if (spec.isEmpty()) continue;
+            int colon = spec.lastIndexOf(':');
+            double weight = colon > 0 ? Double.parseDouble(spec.substring(colon + 1).trim()) : 1.0;
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Ensemble member " + spec + " must have a positive weight");
+            }
+            weights.put(colon > 0 ? spec.substring(0, colon).trim() : spec, weight);
+        }
+        return weights;
+    }
+}
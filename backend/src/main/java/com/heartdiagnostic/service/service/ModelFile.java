@@ -0,0 +1,274 @@
+package com.heartdiagnostic.service.service;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Binary model file (.hdm): the attribute schema and a compiled tree in one
+// versioned, little-endian file. The node and distribution tables are used
+// straight from a read-only memory mapping, so loading a model costs a header
+// parse instead of Java deserialization, and processes serving the same file
+// share its pages through the OS cache.
+//
+//   magic "HDMODEL\0" | u16 format version | u16 flags | u32 schema length
+//   schema (DataOutput encoded) | padding to 8
+//   u32 classes | u32 nodes | u32 distribution doubles | u32 reserved
+//   node table (32 bytes per node) | distribution table
+//   [u32 calibration method | u32 bins | classes x bins f32 curves, when flag 1 is set]
+//   u32 CRC32 of all preceding bytes
+public final class ModelFile {
+
+    public static final String EXTENSION = ".hdm";
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte[] MAGIC = "HDMODEL\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int NUMERIC = 0;
+    private static final int NOMINAL = 1;
+    private static final int CALIBRATED = 1;
+
+    private final Instances header;
+    private final CompiledTreeClassifier classifier;
+    private final Calibration calibration;
+
+    private ModelFile(Instances header, CompiledTreeClassifier classifier, Calibration calibration) {
+        this.header = header;
+        this.classifier = classifier;
+        this.calibration = calibration;
+    }
+
+    public Instances getHeader() {
+        return header;
+    }
+
+    public CompiledTreeClassifier getClassifier() {
+        return classifier;
+    }
+
+    // Null when the model was written without one
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    // Maps the file read-only; the mapping outlives the channel
+    public static ModelFile map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.toString());
+        }
+    }
+
+    public static ModelFile read(ByteBuffer buffer, String source) throws IOException {
+        ByteBuffer in = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < MAGIC.length + 8 + 16 + 4) {
+            throw new IOException(source + " is too short to be a model file");
+        }
+        for (byte b : MAGIC) {
+            if (in.get() != b) {
+                throw new IOException(source + " is not a model file");
+            }
+        }
+        int version = Short.toUnsignedInt(in.getShort());
+        if (version != FORMAT_VERSION) {
+            throw new IOException(source + " has format version " + version + ", expected " + FORMAT_VERSION);
+        }
+        int flags = Short.toUnsignedInt(in.getShort());
+
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(0).limit(in.limit() - 4));
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            throw new IOException(source + " failed its checksum");
+        }
+
+        int schemaLength = in.getInt();
+        byte[] schemaBytes = new byte[schemaLength];
+        in.get(schemaBytes);
+        DataInputStream schema = new DataInputStream(new ByteArrayInputStream(schemaBytes));
+        String sourceType = schema.readUTF();
+        Instances header = readSchema(schema);
+        in.position(align(in.position()));
+
+        int numClasses = in.getInt();
+        int numNodes = in.getInt();
+        int numDistributions = in.getInt();
+        in.getInt();
+        if (numClasses != header.numClasses()) {
+            throw new IOException(source + " has " + numClasses + " classes but its schema has " + header.numClasses());
+        }
+        long nodeBytes = (long) numNodes * CompiledTree.NODE_BYTES;
+        long distributionBytes = (long) numDistributions * Double.BYTES;
+        long calibrationBytes = (flags & CALIBRATED) != 0 ? 8L + (long) numClasses * Calibration.BINS * Float.BYTES : 0;
+        if (numNodes <= 0 || in.remaining() != nodeBytes + distributionBytes + calibrationBytes + 4) {
+            throw new IOException(source + " has a truncated tree section");
+        }
+        ByteBuffer nodes = in.slice(in.position(), (int) nodeBytes);
+        ByteBuffer distributions = in.slice(in.position() + (int) nodeBytes, (int) distributionBytes);
+
+        CompiledTree tree = CompiledTree.wrap(numClasses, numNodes, nodes, distributions);
+        verify(tree, header, source);
+        Calibration calibration = null;
+        if (calibrationBytes > 0) {
+            in.position(in.position() + (int) (nodeBytes + distributionBytes));
+            calibration = readCalibration(in, numClasses, source);
+        }
+        return new ModelFile(header, new CompiledTreeClassifier(tree, sourceType), calibration);
+    }
+
+    // Writes to a temporary file next to the target and moves it into place, so
+    // a watching registry never maps a half-written file
+    public static void write(Path file, Instances header, CompiledTreeClassifier classifier) throws IOException {
+        write(file, header, classifier, null);
+    }
+
+    public static void write(Path file, Instances header, CompiledTreeClassifier classifier,
+                             Calibration calibration) throws IOException {
+        CompiledTree tree = classifier.getTree();
+        if (calibration != null && calibration.numClasses() != tree.numClasses()) {
+            throw new IOException("Calibration has " + calibration.numClasses() + " classes, the tree "
+                + tree.numClasses());
+        }
+
+        ByteArrayOutputStream schemaBytes = new ByteArrayOutputStream();
+        DataOutputStream schema = new DataOutputStream(schemaBytes);
+        schema.writeUTF(classifier.getSourceType());
+        writeSchema(schema, header);
+        schema.flush();
+
+        int schemaEnd = align(MAGIC.length + 8 + schemaBytes.size());
+        int numDistributions = tree.distributionLength();
+        long size = schemaEnd + 16L + (long) tree.numNodes() * CompiledTree.NODE_BYTES
+            + (long) numDistributions * Double.BYTES + 4
+            + (calibration != null ? 8L + (long) tree.numClasses() * Calibration.BINS * Float.BYTES : 0);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tree is too large for the model file format");
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(MAGIC).putShort((short) FORMAT_VERSION).putShort((short) (calibration != null ? CALIBRATED : 0))
+            .putInt(schemaBytes.size());
+        out.put(schemaBytes.toByteArray());
+        out.position(schemaEnd);
+        out.putInt(tree.numClasses()).putInt(tree.numNodes()).putInt(numDistributions).putInt(0);
+        tree.writeNodes(out);
+        for (int i = 0; i < numDistributions; i++) {
+            out.putDouble(tree.distributionValue(i));
+        }
+        if (calibration != null) {
+            out.putInt(calibration.getMethod().ordinal()).putInt(Calibration.BINS);
+            for (int c = 0; c < tree.numClasses(); c++) {
+                for (int b = 0; b < Calibration.BINS; b++) {
+                    out.putFloat(calibration.value(c, b));
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, out.array());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Calibration readCalibration(ByteBuffer in, int numClasses, String source) throws IOException {
+        int method = in.getInt();
+        int bins = in.getInt();
+        if (method < 0 || method >= Calibration.Method.values().length || bins != Calibration.BINS) {
+            throw new IOException(source + " has a malformed calibration section");
+        }
+        float[][] table = new float[numClasses][bins];
+        for (int c = 0; c < numClasses; c++) {
+            for (int b = 0; b < bins; b++) {
+                table[c][b] = in.getFloat();
+            }
+        }
+        return new Calibration(Calibration.Method.values()[method], table);
+    }
+
+    private static void writeSchema(DataOutputStream out, Instances header) throws IOException {
+        out.writeUTF(header.relationName());
+        out.writeInt(header.numAttributes());
+        out.writeInt(header.classIndex());
+        for (int a = 0; a < header.numAttributes(); a++) {
+            Attribute attribute = header.attribute(a);
+            out.writeUTF(attribute.name());
+            if (attribute.isNominal()) {
+                out.writeByte(NOMINAL);
+                out.writeInt(attribute.numValues());
+                for (int v = 0; v < attribute.numValues(); v++) {
+                    out.writeUTF(attribute.value(v));
+                }
+            } else if (attribute.isNumeric()) {
+                out.writeByte(NUMERIC);
+            } else {
+                throw new IOException("Attribute " + attribute.name() + " is neither numeric nor nominal");
+            }
+        }
+    }
+
+    private static Instances readSchema(DataInputStream in) throws IOException {
+        String relation = in.readUTF();
+        int numAttributes = in.readInt();
+        int classIndex = in.readInt();
+        ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+        for (int a = 0; a < numAttributes; a++) {
+            String name = in.readUTF();
+            int type = in.readByte();
+            if (type == NOMINAL) {
+                int count = in.readInt();
+                List<String> values = new ArrayList<>(count);
+                for (int v = 0; v < count; v++) {
+                    values.add(in.readUTF());
+                }
+                attributes.add(new Attribute(name, values));
+            } else if (type == NUMERIC) {
+                attributes.add(new Attribute(name));
+            } else {
+                throw new IOException("Unknown attribute type " + type + " for " + name);
+            }
+        }
+        Instances header = new Instances(relation, attributes, 0);
+        header.setClassIndex(classIndex);
+        return header;
+    }
+
+    // One pass over the node table so that a bad file fails at load time
+    // rather than with an index error on some request
+    private static void verify(CompiledTree tree, Instances header, String source) throws IOException {
+        int numNodes = tree.numNodes();
+        int numDistributions = tree.distributionLength();
+        for (int node = 0; node < numNodes; node++) {
+            int offset = tree.offset(node);
+            if (tree.kind(node) == CompiledTree.LEAF) {
+                if (offset < 0 || offset + tree.numClasses() > numDistributions) {
+                    throw new IOException(source + ": leaf " + node + " points outside the distribution table");
+                }
+                continue;
+            }
+            int children = tree.kind(node) == CompiledTree.NOMINAL_MULTI ? tree.numChildren(node) : 2;
+            if (tree.kind(node) < 0 || tree.kind(node) > CompiledTree.NOMINAL_MULTI
+                || tree.feature(node) < 0 || tree.feature(node) >= header.numAttributes()
+                || offset <= node || children <= 0 || offset + children > numNodes) {
+                throw new IOException(source + ": node " + node + " is malformed");
+            }
+        }
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+}
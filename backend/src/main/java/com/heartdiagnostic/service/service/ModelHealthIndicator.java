@@ -0,0 +1,26 @@
+package com.heartdiagnostic.service.service;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+// Down until the configured models are loaded; part of the readiness group, so
+// /actuator/health/readiness refuses traffic while models load in the background
+@Component("model")
+public class ModelHealthIndicator implements HealthIndicator {
+
+    private final ModelRegistry modelRegistry;
+
+    public ModelHealthIndicator(ModelRegistry modelRegistry) {
+        this.modelRegistry = modelRegistry;
+    }
+
+    @Override
+    public Health health() {
+        ModelSnapshot active = modelRegistry.active();
+        Health.Builder health = modelRegistry.isReady() ? Health.up()
+            : modelRegistry.ready().isCompletedExceptionally() ? Health.down().withDetail("loading", "failed")
+            : Health.outOfService().withDetail("loading", "in progress");
+        return health.withDetail("version", active != null ? active.getVersion() : "none").build();
+    }
+}
@@ -0,0 +1,472 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Service;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Keeps several model versions in memory and publishes one of them as the
+// active snapshot. Serialized models dropped into the model directory are
+// picked up by a watcher thread and activated without a restart. Binary .hdm
+// model files (see ModelFile) are memory-mapped instead of deserialized.
+// With background-load the builtin rules are registered at once and the
+// configured models are loaded and warmed up on a separate thread, so the
+// server starts without waiting for them; ready() completes when they are in.
+@Service
+public class ModelRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelRegistry.class);
+
+    public static final String BUILTIN_VERSION = "v1.0";
+    private static final String MODEL_EXTENSION = ".model";
+    // Written by ModelTrainer next to the models it trains
+    public static final String BUILTIN_CALIBRATION = "builtin.calibration";
+
+    private static final String[] WARMUP_CHEST_PAIN = {"typical", "atypical", "non-anginal", "asymptomatic"};
+    private static final String[] WARMUP_REST_ECG = {"normal", "st-t-abnormality", "left-ventricular-hypertrophy"};
+    private static final String[] WARMUP_THALLIUM = {"normal", "fixed-defect", "reversible-defect"};
+
+    private final ResourceLoader resourceLoader;
+    private final String modelPath;
+    private final String modelDir;
+    private final int retain;
+    private final boolean watch;
+    private final boolean autoActivate;
+    private final long settleMillis;
+    private final String compileMode;
+    private final int poolSize;
+    private final boolean backgroundLoad;
+    private final int warmupRows;
+
+    // Loaded versions, oldest first; guarded by "this"
+    private final LinkedHashMap<String, ModelSnapshot> versions = new LinkedHashMap<>();
+    // How often each file name has been loaded; guarded by "this"
+    private final Map<String, Integer> fileLoads = new HashMap<>();
+    private volatile ModelSnapshot active;
+    private final List<Consumer<ModelSnapshot>> activationListeners = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<ModelSnapshot> ready = new CompletableFuture<>();
+    // The service schema, shared by every model that uses it; never modified
+    private final Instances serviceHeader = WekaModelService.createDataStructure();
+    // Phase name to duration in milliseconds, in the order the phases ran
+    private final Map<String, Long> loadPhases = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    public ModelRegistry(ResourceLoader resourceLoader, ModelRegistryProperties properties) {
+        this.resourceLoader = resourceLoader;
+        this.modelPath = properties.path();
+        this.modelDir = properties.dir();
+        this.retain = Math.max(1, properties.retain());
+        this.watch = properties.watch();
+        this.autoActivate = properties.autoActivate();
+        this.settleMillis = properties.settleMs();
+        this.compileMode = properties.compile();
+        this.poolSize = properties.poolSize() > 0 ? properties.poolSize() : Runtime.getRuntime().availableProcessors();
+        this.backgroundLoad = properties.backgroundLoad();
+        this.warmupRows = Math.max(0, properties.warmupRows());
+    }
+
+    @PostConstruct
+    public void initialize() throws Exception {
+        // The rule-based classifier is always available as a fallback
+        long start = System.nanoTime();
+        register(new ModelSnapshot(BUILTIN_VERSION, prepare(new MockClassifier(), serviceHeader),
+            serviceHeader, "builtin", poolSize, builtinCalibration()), true);
+        loadPhases.put("builtin", (System.nanoTime() - start) / 1_000_000);
+
+        if (!backgroundLoad) {
+            load();
+            return;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                load();
+            } catch (Exception e) {
+                log.error("Background model loading failed, serving {}", active.getVersion(), e);
+                ready.completeExceptionally(e);
+            }
+        }, "model-registry-loader");
+        loader.setDaemon(true);
+        loader.start();
+        log.info("Loading models in the background, serving {} until they are ready", active.getVersion());
+    }
+
+    private void load() throws Exception {
+        long start = System.nanoTime();
+        loadConfiguredModel();
+        loadModelDirectory();
+        loadPhases.put("load", (System.nanoTime() - start) / 1_000_000);
+
+        start = System.nanoTime();
+        warmUp(active);
+        loadPhases.put("warmup", (System.nanoTime() - start) / 1_000_000);
+
+        if (watch && modelDir != null && !modelDir.isBlank()) {
+            startWatcher();
+        }
+        log.info("Model registry initialized, active version: {}", active.getVersion());
+        ready.complete(active);
+    }
+
+    // Completes with the active snapshot once the configured models have been
+    // loaded and warmed up; at once unless background-load is set
+    public CompletableFuture<ModelSnapshot> ready() {
+        return ready;
+    }
+
+    // Copies kept of classifiers that are not thread-safe, for snapshots built outside the registry
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    public Map<String, Long> loadPhases() {
+        synchronized (loadPhases) {
+            return new LinkedHashMap<>(loadPhases);
+        }
+    }
+
+    // Scores synthetic rows so the first real requests do not pay for class
+    // loading and interpreted code along the encode and score path
+    private void warmUp(ModelSnapshot snapshot) throws Exception {
+        if (warmupRows == 0) {
+            return;
+        }
+        Random random = new Random(42);
+        FeatureEncoder encoder = snapshot.getEncoder();
+        FeatureEncoder.ReusableInstance instance = encoder.newReusableInstance();
+        double[][] rows = new double[Math.min(warmupRows, 256)][];
+        for (int i = 0; i < warmupRows; i++) {
+            SymptomInput input = syntheticInput(random);
+            encoder.encode(input, instance.values());
+            snapshot.getPool().distributionForInstance(instance);
+            rows[i % rows.length] = encoder.encode(input);
+        }
+        snapshot.getPool().distributionsForRows(rows, snapshot.getHeader());
+        log.info("Warmed up model {} with {} rows", snapshot.getVersion(), warmupRows);
+    }
+
+    // A row that passes validation, since the encoder expects every field set
+    private static SymptomInput syntheticInput(Random random) {
+        SymptomInput input = new SymptomInput();
+        input.setAge(29 + random.nextInt(50));
+        input.setSex(random.nextBoolean() ? "male" : "female");
+        input.setChestPain(WARMUP_CHEST_PAIN[random.nextInt(WARMUP_CHEST_PAIN.length)]);
+        input.setBloodPressure(90 + random.nextInt(100));
+        input.setCholesterol(120 + random.nextInt(330));
+        input.setFastingBS(random.nextInt(2));
+        input.setRestECG(WARMUP_REST_ECG[random.nextInt(WARMUP_REST_ECG.length)]);
+        input.setMaxHeartRate(70 + random.nextInt(130));
+        input.setExerciseAngina(random.nextBoolean() ? "yes" : "no");
+        input.setOldpeak(random.nextInt(60) / 10.0);
+        input.setThallium(WARMUP_THALLIUM[random.nextInt(WARMUP_THALLIUM.length)]);
+        input.setHeightM(1.5 + random.nextInt(50) / 100.0);
+        input.setWeightKg(45.0 + random.nextInt(80));
+        return input;
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    public ModelSnapshot active() {
+        return active;
+    }
+
+    // Called with the new snapshot whenever the active version changes
+    public void addActivationListener(Consumer<ModelSnapshot> listener) {
+        activationListeners.add(listener);
+    }
+
+    public synchronized ModelSnapshot get(String version) {
+        return versions.get(version);
+    }
+
+    public synchronized List<ModelSnapshot> versions() {
+        return new ArrayList<>(versions.values());
+    }
+
+    public synchronized ModelSnapshot activate(String version) {
+        ModelSnapshot snapshot = versions.get(version);
+        if (snapshot == null) {
+            throw new IllegalArgumentException("Unknown model version: " + version);
+        }
+        setActive(snapshot);
+        log.info("Activated model version {} ({})", version, snapshot.getModelType());
+        return snapshot;
+    }
+
+    // Adds a version, optionally making it active, and drops the oldest inactive
+    // versions beyond the retention limit
+    public synchronized void register(ModelSnapshot snapshot, boolean activate) {
+        versions.remove(snapshot.getVersion());
+        versions.put(snapshot.getVersion(), snapshot);
+        if (activate || active == null) {
+            setActive(snapshot);
+        }
+
+        Iterator<ModelSnapshot> oldest = versions.values().iterator();
+        while (versions.size() > retain && oldest.hasNext()) {
+            ModelSnapshot candidate = oldest.next();
+            if (candidate != active && !BUILTIN_VERSION.equals(candidate.getVersion())) {
+                oldest.remove();
+            }
+        }
+    }
+
+    private void setActive(ModelSnapshot snapshot) {
+        active = snapshot;
+        for (Consumer<ModelSnapshot> listener : activationListeners) {
+            listener.accept(snapshot);
+        }
+    }
+
+    public ModelSnapshot loadFile(Path file, boolean activate) throws Exception {
+        long start = System.nanoTime();
+        ModelSnapshot snapshot = readFile(file, nextVersion(file.getFileName().toString()));
+        register(snapshot, activate);
+        log.info("Loaded model version {} from {} in {} ms", snapshot.getVersion(), file,
+            (System.nanoTime() - start) / 1_000_000);
+        return snapshot;
+    }
+
+    // Reads a model file as the registry would, without registering it
+    public ModelSnapshot readFile(Path file, String version) throws Exception {
+        if (isBinary(file.getFileName().toString())) {
+            return snapshot(ModelFile.map(file), version, file.toString());
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in, version, file.toString());
+        }
+    }
+
+    private void loadConfiguredModel() {
+        if (modelPath == null || modelPath.isBlank()) {
+            return;
+        }
+        Resource resource = resourceLoader.getResource(modelPath);
+        if (!resource.exists()) {
+            log.info("No model at {}, using builtin rules", modelPath);
+            return;
+        }
+        try {
+            if (isBinary(resource.getFilename())) {
+                // Classpath resources inside a jar cannot be mapped and are read onto the heap
+                ModelFile file = resource.isFile()
+                    ? ModelFile.map(resource.getFile().toPath())
+                    : ModelFile.read(ByteBuffer.wrap(resource.getContentAsByteArray()), modelPath);
+                register(snapshot(file, nextVersion(resource.getFilename()), modelPath), true);
+            } else {
+                try (InputStream in = resource.getInputStream()) {
+                    register(read(in, nextVersion(resource.getFilename()), modelPath), true);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to load model from {}", modelPath, e);
+        }
+    }
+
+    private void loadModelDirectory() throws IOException {
+        Path dir = modelDirectory();
+        if (dir == null || !Files.isDirectory(dir)) {
+            return;
+        }
+
+        // Load oldest first so that with auto-activate the newest file ends up active
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                "*{" + MODEL_EXTENSION + "," + ModelFile.EXTENSION + "}")) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(ModelRegistry::lastModified));
+        for (Path file : files) {
+            try {
+                loadFile(file, autoActivate);
+            } catch (Exception e) {
+                log.error("Failed to load model {}", file, e);
+            }
+        }
+    }
+
+    private ModelSnapshot read(InputStream in, String version, String source) throws Exception {
+        // Models saved together with their training header (as the WEKA tools do)
+        // bring their own attribute schema; bare classifiers use the service schema
+        Object[] objects = SerializationHelper.readAll(in);
+        if (objects.length == 0 || !(objects[0] instanceof Classifier)) {
+            throw new IllegalArgumentException(source + " does not contain a WEKA classifier");
+        }
+        Instances header = objects.length > 1 && objects[1] instanceof Instances
+            ? shared(new Instances((Instances) objects[1], 0))
+            : serviceHeader;
+        // ModelTrainer appends the calibration fitted for the classifier
+        Calibration calibration = objects.length > 2 && objects[2] instanceof Calibration
+            ? (Calibration) objects[2]
+            : null;
+        return new ModelSnapshot(version, prepare((Classifier) objects[0], header), header, source, poolSize,
+            calibration);
+    }
+
+    private ModelSnapshot snapshot(ModelFile file, String version, String source) throws Exception {
+        CompiledTreeClassifier classifier = file.getClassifier();
+        if ("bytecode".equals(compileMode)) {
+            TreeCompiler.generateBytecode(classifier.getTree());
+        }
+        return new ModelSnapshot(version, classifier, shared(file.getHeader()), source, poolSize,
+            file.getCalibration());
+    }
+
+    // Models trained on the service schema share one header instead of each
+    // keeping a copy, and request threads reuse one encoded instance across them
+    private Instances shared(Instances header) {
+        return header.classIndex() == serviceHeader.classIndex() && header.equalHeaders(serviceHeader)
+            ? serviceHeader : header;
+    }
+
+    // The builtin rules score 0.85 for the class they pick; a calibration for
+    // them in the model directory turns that into observed frequencies
+    private Calibration builtinCalibration() {
+        Path dir = modelDirectory();
+        Path file = dir == null ? null : dir.resolve(BUILTIN_CALIBRATION);
+        if (file == null || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            Calibration calibration = (Calibration) SerializationHelper.read(file.toString());
+            log.info("Builtin rules calibrated from {} ({})", file, calibration.getMethod());
+            return calibration;
+        } catch (Exception e) {
+            log.warn("Could not read builtin calibration {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    // Compiles tree models to flat arrays (or bytecode) when enabled; anything
+    // that cannot be compiled is served by the original classifier
+    private Classifier prepare(Classifier classifier, Instances header) {
+        if ("none".equals(compileMode) || !TreeCompiler.canCompile(classifier)) {
+            return classifier;
+        }
+        try {
+            return CompiledTreeClassifier.compile(classifier, header, "bytecode".equals(compileMode));
+        } catch (Exception e) {
+            log.warn("Could not compile {}: {}", classifier.getClass().getSimpleName(), e.getMessage());
+            return classifier;
+        }
+    }
+
+    // The directory is never created here: watching one nobody set up would
+    // load whatever is later dropped into it
+    private void startWatcher() throws IOException {
+        Path dir = modelDirectory();
+        if (!Files.isDirectory(dir)) {
+            log.warn("Model directory {} does not exist, not watching for new models", dir.toAbsolutePath());
+            return;
+        }
+        watchService = dir.getFileSystem().newWatchService();
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        watcher = new Thread(() -> watch(dir), "model-registry-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(Path dir) {
+        // Files are loaded once they have stopped changing for settleMillis,
+        // so a model that is still being copied in is not read half-written
+        Map<Path, Long> pending = new HashMap<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                WatchKey key = watchService.poll(Math.max(50, settleMillis / 2), java.util.concurrent.TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path name && isModelFile(name.toString())) {
+                            pending.put(dir.resolve(name), System.currentTimeMillis());
+                        }
+                    }
+                    key.reset();
+                }
+
+                long now = System.currentTimeMillis();
+                Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, Long> entry = it.next();
+                    if (now - entry.getValue() >= settleMillis) {
+                        it.remove();
+                        try {
+                            loadFile(entry.getKey(), autoActivate);
+                        } catch (Exception e) {
+                            log.error("Failed to load model {}", entry.getKey(), e);
+                        }
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    private Path modelDirectory() {
+        return modelDir == null || modelDir.isBlank() ? null : Paths.get(modelDir);
+    }
+
+    private static boolean isModelFile(String fileName) {
+        return fileName.endsWith(MODEL_EXTENSION) || isBinary(fileName);
+    }
+
+    private static boolean isBinary(String fileName) {
+        return fileName != null && fileName.endsWith(ModelFile.EXTENSION);
+    }
+
+    // The version is the file name without its extension. A name loaded again,
+    // such as a file overwritten in place, gets name~2, name~3 and so on, so a
+    // version always stands for one model.
+    private synchronized String nextVersion(String fileName) {
+        String version = versionOf(fileName);
+        int loads = fileLoads.merge(version, 1, Integer::sum);
+        return loads == 1 ? version : version + "~" + loads;
+    }
+
+    private static String versionOf(String fileName) {
+        if (fileName == null) return "unknown";
+        if (fileName.endsWith(MODEL_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - MODEL_EXTENSION.length());
+        }
+        return isBinary(fileName)
+            ? fileName.substring(0, fileName.length() - ModelFile.EXTENSION.length())
+            : fileName;
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.heartdiagnostic.service.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+// The weka.model settings ModelRegistry is built from. Callers outside Spring
+// (the CLI tools, tests, benchmarks) start from defaults() and override what
+// they need with the with* methods.
+@ConfigurationProperties(prefix = "weka.model")
+public record ModelRegistryProperties(
+        // Model loaded at startup; empty for none
+        @DefaultValue("classpath:models/heart-model.model") String path,
+        // Directory of further model versions; empty for none
+        @DefaultValue("models") String dir,
+        @DefaultValue("3") int retain,
+        // Load files added to dir while running; dir must already exist
+        @DefaultValue("false") boolean watch,
+        // Make the newest file in dir the active version
+        @DefaultValue("false") boolean autoActivate,
+        @DefaultValue("500") long settleMs,
+        // none | array | bytecode
+        @DefaultValue("array") String compile,
+        // Copies kept of classifiers that are not thread-safe (0 = one per CPU)
+        @DefaultValue("0") int poolSize,
+        @DefaultValue("false") boolean backgroundLoad,
+        @DefaultValue("0") int warmupRows) {
+
+    public static ModelRegistryProperties defaults() {
+        return new ModelRegistryProperties("classpath:models/heart-model.model", "models", 3, false, false, 500,
+            "array", 0, false, 0);
+    }
+
+    public ModelRegistryProperties withPath(String path) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+
+    public ModelRegistryProperties withDir(String dir) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+
+    public ModelRegistryProperties withRetain(int retain) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+
+    public ModelRegistryProperties withWatch(boolean watch, long settleMs) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+
+    public ModelRegistryProperties withAutoActivate(boolean autoActivate) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+
+    public ModelRegistryProperties withCompile(String compile) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+
+    public ModelRegistryProperties withPoolSize(int poolSize) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+
+    public ModelRegistryProperties withBackgroundLoad(boolean backgroundLoad, int warmupRows) {
+        return new ModelRegistryProperties(path, dir, retain, watch, autoActivate, settleMs, compile, poolSize,
+            backgroundLoad, warmupRows);
+    }
+}
@@ -0,0 +1,98 @@
+package com.heartdiagnostic.service.service;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Everything a request needs to score against one model version. Never
+// mutated after construction, so a request that picked up a snapshot keeps
+// using it consistently even if another version is activated meanwhile.
+public final class ModelSnapshot {
+
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    private final long generation = GENERATIONS.incrementAndGet();
+    private final String version;
+    private final Classifier classifier;
+    private final ClassifierPool pool;
+    private final Instances header;
+    private final FeatureEncoder encoder;
+    private final String[] classNames;
+    private final DecisionPaths decisionPaths;
+    private final Calibration calibration;
+    private final String source;
+    private final long loadedAt;
+
+    public ModelSnapshot(String version, Classifier classifier, Instances header, String source) throws Exception {
+        this(version, classifier, header, source, Runtime.getRuntime().availableProcessors());
+    }
+
+    // poolSize is the number of copies kept of classifiers that are not thread-safe
+    public ModelSnapshot(String version, Classifier classifier, Instances header, String source,
+                         int poolSize) throws Exception {
+        this(version, classifier, header, source, poolSize, null);
+    }
+
+    // Scores from the pool are calibrated when calibration is not null
+    public ModelSnapshot(String version, Classifier classifier, Instances header, String source,
+                         int poolSize, Calibration calibration) throws Exception {
+        if (header.classIndex() < 0) {
+            header.setClassIndex(header.numAttributes() - 1);
+        }
+        if (!header.classAttribute().isNominal()) {
+            throw new IllegalArgumentException("Model " + version + " must have a nominal class attribute");
+        }
+        this.version = version;
+        this.classifier = classifier;
+        if (calibration != null && calibration.numClasses() != header.numClasses()) {
+            throw new IllegalArgumentException("Calibration for model " + version + " has "
+                + calibration.numClasses() + " classes, the model " + header.numClasses());
+        }
+        this.pool = ClassifierPool.create(classifier, header, poolSize, calibration);
+        this.calibration = calibration;
+        this.header = header;
+        this.encoder = new FeatureEncoder(header);
+        this.classNames = new String[header.classAttribute().numValues()];
+        for (int i = 0; i < classNames.length; i++) {
+            classNames[i] = header.classAttribute().value(i);
+        }
+        this.decisionPaths = DecisionPaths.of(classifier, header, calibration);
+        this.source = source;
+        this.loadedAt = System.currentTimeMillis();
+    }
+
+    public String getVersion() { return version; }
+
+    // Unique to this snapshot, unlike the version, which a caller may register
+    // again for a different model
+    public long getGeneration() { return generation; }
+
+    // The original classifier; score through getPool() from request threads
+    public Classifier getClassifier() { return classifier; }
+
+    public ClassifierPool getPool() { return pool; }
+
+    public Instances getHeader() { return header; }
+
+    public FeatureEncoder getEncoder() { return encoder; }
+
+    public String[] getClassNames() { return classNames; }
+
+    // Null for models that are not trees
+    public DecisionPaths getDecisionPaths() { return decisionPaths; }
+
+    // Null for models served with their raw scores
+    public Calibration getCalibration() { return calibration; }
+
+    public String getSource() { return source; }
+
+    public long getLoadedAt() { return loadedAt; }
+
+    public String getModelType() {
+        if (classifier instanceof CompiledTreeClassifier) {
+            return ((CompiledTreeClassifier) classifier).getSourceType() + " (compiled)";
+        }
+        return classifier.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,432 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.Outcome;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Updates a model from confirmed outcomes without a full retrain. Outcomes go
+// into a bounded queue, and a background thread applies them in micro-batches
+// to a private working copy of the active model, which must be a WEKA
+// UpdateableClassifier (directly or as the source of a compiled tree). At most
+// once per publish interval, a copy of the working model is published as the
+// registry version <version>-online, replacing the previous one, so scoring
+// threads never see a model being updated. Before training on a batch, the
+// working model scores it; those scores are the batch's drift statistics. The
+// model published before the latest one is kept as the rollback point.
+@Service
+public class OnlineLearner {
+
+    private static final Logger log = LoggerFactory.getLogger(OnlineLearner.class);
+
+    private final ModelRegistry modelRegistry;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long batchNanos;
+    private final long publishNanos;
+    private final boolean autoActivate;
+    private final int historySize;
+    private final double driftThreshold;
+    private final BlockingQueue<Outcome> queue;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder learned = new LongAdder();
+    private final LongAdder driftBatches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    // Guarded by this, which is only held to read or swap them. The learner
+    // thread updates working outside the lock; a rollback replaces working,
+    // and a batch applied to the replaced copy is then discarded.
+    private Classifier working;
+    private ModelSnapshot current;
+    private ModelSnapshot previous;
+    private String rootVersion;
+    private String onlineVersion;
+    private int batches;
+    private int unpublished;
+    private long publishedAt;
+    private long seen;
+    private long correct;
+    private double[] labelCounts;
+    private final Deque<Map<String, Object>> history = new ArrayDeque<>();
+
+    private volatile Set<String> labels = Set.of();
+    // Why outcomes are not being learned, or null once the learner is running
+    private volatile String unavailable = "Online learning starts once the models are loaded";
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    public OnlineLearner(ModelRegistry modelRegistry, MeterRegistry meterRegistry,
+                         @Value("${weka.online.enabled:false}") boolean enabled,
+                         @Value("${weka.online.batch-size:64}") int batchSize,
+                         @Value("${weka.online.batch-ms:1000}") long batchMillis,
+                         @Value("${weka.online.publish-ms:10000}") long publishMillis,
+                         @Value("${weka.online.max-pending:10000}") int maxPending,
+                         @Value("${weka.online.auto-activate:false}") boolean autoActivate,
+                         @Value("${weka.online.history:50}") int history,
+                         @Value("${weka.online.drift-threshold:0.1}") double driftThreshold) {
+        this.modelRegistry = modelRegistry;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchNanos = Math.max(1, batchMillis) * 1_000_000L;
+        this.publishNanos = Math.max(0, publishMillis) * 1_000_000L;
+        this.autoActivate = autoActivate;
+        this.historySize = Math.max(1, history);
+        this.driftThreshold = driftThreshold;
+        this.queue = new ArrayBlockingQueue<>(enabled ? Math.max(1, maxPending) : 1);
+
+        if (enabled) {
+            Gauge.builder("diagnosis.online.pending", queue, BlockingQueue::size).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.online.learned", learned, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.online.rejected", rejected, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.online.drift", driftBatches, LongAdder::sum).register(meterRegistry);
+        }
+    }
+
+    // Starts from the model active at startup; versions activated later by hand
+    // are not picked up, and stop being replaced by the learner's versions.
+    // When models load in the background, starts once they are ready. A model
+    // that cannot be updated is never swapped for another one: the learner
+    // stays stopped and outcomes are refused.
+    @PostConstruct
+    public void start() throws Exception {
+        if (!enabled) {
+            return;
+        }
+        CompletableFuture<ModelSnapshot> ready = modelRegistry.ready();
+        if (ready.isDone()) {
+            begin(modelRegistry.active());
+            return;
+        }
+        ready.thenAccept(base -> {
+            try {
+                begin(base);
+            } catch (Exception e) {
+                unavailable = "Online learning could not start from model " + base.getVersion() + ": " + e;
+                log.error("Online learning could not start from model {}", base.getVersion(), e);
+            }
+        });
+    }
+
+    private void begin(ModelSnapshot base) throws Exception {
+        Classifier classifier = updateableCopy(base);
+        if (classifier == null) {
+            unavailable = "Model " + base.getVersion() + " (" + base.getModelType() + ") cannot be updated"
+                + " incrementally; online learning needs a WEKA UpdateableClassifier";
+            log.error("Online learning not started: {}", unavailable);
+            return;
+        }
+        synchronized (this) {
+            working = classifier;
+            current = base;
+            rootVersion = base.getVersion();
+            onlineVersion = rootVersion + "-online";
+            publishedAt = System.nanoTime();
+            labelCounts = new double[base.getClassNames().length];
+        }
+        labels = Set.of(base.getClassNames());
+
+        running = true;
+        unavailable = null;
+        thread = new Thread(this::run, "online-learner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops taking outcomes, then waits for the queued ones to be learned and published
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Why outcomes are refused while enabled (the model cannot be updated, or
+    // is still loading); null when they are being learned
+    public String getUnavailableReason() {
+        return unavailable;
+    }
+
+    public boolean isKnownLabel(String label) {
+        return label != null && labels.contains(label);
+    }
+
+    // Queues an outcome whose input has been validated; returns false when the queue is full
+    public boolean offer(Outcome outcome) {
+        if (!running || !queue.offer(outcome)) {
+            rejected.increment();
+            return false;
+        }
+        accepted.increment();
+        return true;
+    }
+
+    // A private copy of the snapshot's model to update, or null when it cannot
+    // be updated incrementally. Compiled trees are updated through their source.
+    private static Classifier updateableCopy(ModelSnapshot snapshot) throws Exception {
+        Classifier classifier = snapshot.getClassifier();
+        if (classifier instanceof CompiledTreeClassifier && ((CompiledTreeClassifier) classifier).getSource() != null) {
+            classifier = ((CompiledTreeClassifier) classifier).getSource();
+        }
+        return classifier instanceof UpdateableClassifier ? AbstractClassifier.makeCopy(classifier) : null;
+    }
+
+    private void run() {
+        List<Outcome> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Outcome first = queue.poll(batchNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    publish(false);
+                    continue;
+                }
+                // Wait up to one batch interval for the batch to fill
+                batch.add(first);
+                long deadline = System.nanoTime() + batchNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Outcome next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                learn(batch);
+                publish(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                failedBatches.increment();
+                log.error("Online update failed, {} outcomes discarded", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+        try {
+            publish(true);
+        } catch (Exception e) {
+            log.error("Could not publish the last online updates", e);
+        }
+    }
+
+    private void learn(List<Outcome> outcomes) throws Exception {
+        long start = System.nanoTime();
+        Classifier model;
+        ModelSnapshot base;
+        synchronized (this) {
+            model = working;
+            base = current;
+        }
+        Instances header = base.getHeader();
+        int numClasses = base.getClassNames().length;
+
+        // Prequential evaluation: each outcome is scored before it is learned
+        List<Instance> instances = new ArrayList<>(outcomes.size());
+        double[] batchLabels = new double[numClasses];
+        int batchCorrect = 0;
+        double confidence = 0;
+        for (Outcome outcome : outcomes) {
+            int label = header.classAttribute().indexOfValue(outcome.getLabel());
+            if (label < 0) {
+                continue;
+            }
+            double[] values = base.getEncoder().encode(outcome.getInput());
+            values[header.classIndex()] = label;
+            Instance instance = new DenseInstance(1.0, values);
+            instance.setDataset(header);
+
+            double[] distribution = model.distributionForInstance(instance);
+            if (Utils.maxIndex(distribution) == label) {
+                batchCorrect++;
+            }
+            confidence += distribution[label];
+            batchLabels[label]++;
+            instances.add(instance);
+        }
+        if (instances.isEmpty()) {
+            return;
+        }
+        for (Instance instance : instances) {
+            ((UpdateableClassifier) model).updateClassifier(instance);
+        }
+
+        int size = instances.size();
+        double accuracy = (double) batchCorrect / size;
+        Double runningAccuracy;
+        double labelShift = 0;
+        boolean drift;
+        int batch;
+        synchronized (this) {
+            if (working != model) {
+                log.info("Online batch of {} outcomes discarded, the model was rolled back meanwhile", size);
+                return;
+            }
+            runningAccuracy = seen > 0 ? (double) correct / seen : null;
+            // Total variation distance between this batch's labels and all earlier ones
+            Map<String, Double> labelShares = new LinkedHashMap<>();
+            for (int c = 0; c < numClasses; c++) {
+                double share = batchLabels[c] / size;
+                labelShares.put(base.getClassNames()[c], share);
+                if (seen > 0) {
+                    labelShift += Math.abs(share - labelCounts[c] / seen) / 2;
+                }
+            }
+            drift = runningAccuracy != null
+                && (runningAccuracy - accuracy > driftThreshold || labelShift > driftThreshold);
+
+            batch = ++batches;
+            unpublished++;
+            seen += size;
+            correct += batchCorrect;
+            for (int c = 0; c < numClasses; c++) {
+                labelCounts[c] += batchLabels[c];
+            }
+
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("batch", batch);
+            stats.put("timestamp", System.currentTimeMillis());
+            stats.put("size", size);
+            stats.put("accuracy", accuracy);
+            stats.put("runningAccuracy", runningAccuracy);
+            stats.put("meanConfidence", confidence / size);
+            stats.put("labelShift", labelShift);
+            stats.put("labels", labelShares);
+            stats.put("drift", drift);
+            stats.put("updateMillis", (System.nanoTime() - start) / 1_000_000.0);
+            history.addFirst(stats);
+            while (history.size() > historySize) {
+                history.removeLast();
+            }
+        }
+        learned.add(size);
+        if (drift) {
+            driftBatches.increment();
+            log.warn("Online batch {} learned {} outcomes with drift: accuracy {} (running {}), label shift {}",
+                batch, size, accuracy, runningAccuracy, labelShift);
+        } else {
+            log.debug("Online batch {} learned {} outcomes, accuracy {}", batch, size, accuracy);
+        }
+    }
+
+    // Publishes a copy of the working model once the publish interval has
+    // passed since the last one (or at once when forced). Only the learner
+    // thread modifies the working model, so it is copied outside the lock.
+    private void publish(boolean force) throws Exception {
+        Classifier model;
+        ModelSnapshot base;
+        synchronized (this) {
+            if (unpublished == 0 || (!force && System.nanoTime() - publishedAt < publishNanos)) {
+                return;
+            }
+            model = working;
+            base = current;
+        }
+        ModelSnapshot snapshot = new ModelSnapshot(onlineVersion, AbstractClassifier.makeCopy(model),
+            base.getHeader(), "online:" + rootVersion, modelRegistry.getPoolSize());
+
+        synchronized (this) {
+            if (working != model) {
+                return;
+            }
+            // The learner only takes over serving while its own lineage is being served
+            boolean activate = autoActivate && modelRegistry.active() == current;
+            modelRegistry.register(snapshot, activate);
+            previous = current;
+            current = snapshot;
+            unpublished = 0;
+            publishedAt = System.nanoTime();
+            log.info("Published online version {} after {} batches ({} outcomes){}", onlineVersion, batches, seen,
+                activate ? ", now active" : "");
+        }
+    }
+
+    // Goes back to the model published before the latest one, and serves it
+    // again if the latest one is being served. Batches learned since the latest
+    // publish are discarded too. One step back is kept.
+    public synchronized ModelSnapshot rollback() {
+        if (!enabled) {
+            throw new IllegalStateException("Online learning is disabled (weka.online.enabled)");
+        }
+        if (previous == null) {
+            throw new IllegalStateException("No online update to roll back");
+        }
+        Classifier restored;
+        try {
+            restored = updateableCopy(previous);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not restore model " + previous.getVersion() + ": " + e, e);
+        }
+        boolean serving = modelRegistry.active() == current;
+        // Registered again in case retention has dropped it, or the online version replaced it
+        modelRegistry.register(previous, serving);
+        log.info("Rolled back online version {} to {}", current.getVersion(), previous.getVersion());
+        working = restored;
+        current = previous;
+        previous = null;
+        unpublished = 0;
+        return current;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        if (!enabled) {
+            return stats;
+        }
+        if (unavailable != null) {
+            stats.put("unavailable", unavailable);
+        }
+        if (current == null) {
+            return stats;
+        }
+        stats.put("version", current.getVersion());
+        stats.put("rollbackVersion", previous != null ? previous.getVersion() : null);
+        stats.put("classifier", working.getClass().getSimpleName());
+        stats.put("pending", queue.size());
+        stats.put("accepted", accepted.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("learned", learned.sum());
+        stats.put("batches", batches);
+        stats.put("unpublishedBatches", unpublished);
+        stats.put("failedBatches", failedBatches.sum());
+        stats.put("driftBatches", driftBatches.sum());
+        stats.put("runningAccuracy", seen > 0 ? (double) correct / seen : null);
+        // Latest batch first
+        stats.put("history", new ArrayList<>(history));
+        return stats;
+    }
+}
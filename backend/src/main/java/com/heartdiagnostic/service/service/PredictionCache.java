@@ -0,0 +1,205 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded LRU cache of diagnosis results keyed by the encoded feature vector
+// and the generation of the model snapshot that produced them. The generation,
+// not the version string, identifies the model, so a result from a replaced
+// model that lands after the cache was cleared is never served for its
+// successor. Split into independently locked segments so concurrent requests
+// rarely contend.
+@Service
+public class PredictionCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PredictionCache(ModelRegistry modelRegistry, MeterRegistry meterRegistry,
+                           @Value("${weka.cache.enabled:false}") boolean enabled,
+                           @Value("${weka.cache.max-size:100000}") int maxSize,
+                           @Value("${weka.cache.ttl-seconds:600}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.ttlNanos = Math.max(0, ttlSeconds) * 1_000_000_000L;
+        this.segments = new Segment[SEGMENTS];
+        int perSegment = Math.max(1, maxSize / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+
+        // Results from the previous model can no longer be hit; drop them to free the space
+        modelRegistry.addActivationListener(snapshot -> clear());
+        if (enabled) {
+            FunctionCounter.builder("diagnosis.cache.hits", hits, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.cache.misses", misses, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.cache.evictions", evictions, LongAdder::sum).register(meterRegistry);
+            Gauge.builder("diagnosis.cache.size", this, PredictionCache::size).register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Returns a fresh result for the cached entry, or null on a miss
+    public DiagnosisResult get(ModelSnapshot model, double[] values) {
+        if (!enabled) return null;
+        long hash = hash(values);
+        Entry entry = segment(hash).get(new Key(model.getGeneration(), hash, values), System.nanoTime());
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        DiagnosisResult result = new DiagnosisResult(entry.label, entry.scores, entry.explanation);
+        result.setContributions(entry.contributions);
+        result.setModelVersion(model.getVersion());
+        return result;
+    }
+
+    public void put(ModelSnapshot model, double[] values, DiagnosisResult result) {
+        if (!enabled) return;
+        long hash = hash(values);
+        // The caller's array is reused for the next request, so the key keeps a copy
+        Key key = new Key(model.getGeneration(), hash, values.clone());
+        segment(hash).put(key, new Entry(result.getLabel(), result.getScores(), result.getExplanation(),
+            result.getContributions(), System.nanoTime() + ttlNanos));
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long hitCount() { return hits.sum(); }
+
+    public long missCount() { return misses.sum(); }
+
+    public long evictionCount() { return evictions.sum(); }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+    }
+
+    // 64-bit mix of the raw value bits, finished with the MurmurHash3 avalanche
+    static long hash(double[] values) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (double value : values) {
+            h = (h ^ Double.doubleToLongBits(value)) * 0xBF58476D1CE4E5B9L;
+            h = Long.rotateLeft(h, 31);
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Key {
+        private final long generation;
+        private final long hash;
+        private final double[] values;
+
+        Key(long generation, long hash, double[] values) {
+            this.generation = generation;
+            this.hash = hash;
+            this.values = values;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            // The full vector is compared so a hash collision can never return another patient's result
+            return hash == other.hash && generation == other.generation && Arrays.equals(values, other.values);
+        }
+    }
+
+    private static final class Entry {
+        private final String label;
+        private final Map<String, Double> scores;
+        private final String explanation;
+        private final Map<String, Double> contributions;
+        private final long expiresAt;
+
+        Entry(String label, Map<String, Double> scores, String explanation, Map<String, Double> contributions,
+              long expiresAt) {
+            this.label = label;
+            this.scores = scores;
+            this.explanation = explanation;
+            this.contributions = contributions;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final class Segment {
+        private final int maxSize;
+        private final LinkedHashMap<Key, Entry> entries;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        synchronized Entry get(Key key, long now) {
+            Entry entry = entries.get(key);
+            if (entry != null && ttlNanos > 0 && now - entry.expiresAt > 0) {
+                entries.remove(key);
+                evictions.increment();
+                return null;
+            }
+            return entry;
+        }
+
+        synchronized void put(Key key, Entry entry) {
+            entries.put(key, entry);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.heartdiagnostic.service.service;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Runs a candidate model in shadow on a sample of live diagnoses. The request
+// thread only rolls the sampling dice and, for sampled requests, hands a copy
+// of the encoded instance to a low-priority pool with a bounded queue; when
+// the queue is full the sample is skipped. The candidate's answers are only
+// compared with the primary's and counted, never returned.
+@Service
+public class ShadowScorer {
+
+    private final ModelRegistry modelRegistry;
+    private final DiagnosisMetrics diagnosisMetrics;
+    private final boolean enabled;
+    private final double sampleRate;
+    private final ThreadPoolExecutor executor;
+
+    private volatile Comparison comparison;
+
+    public ShadowScorer(ModelRegistry modelRegistry, DiagnosisMetrics diagnosisMetrics, MeterRegistry meterRegistry,
+                        @Value("${weka.shadow.enabled:false}") boolean enabled,
+                        @Value("${weka.shadow.version:}") String version,
+                        @Value("${weka.shadow.sample-rate:0.1}") double sampleRate,
+                        @Value("${weka.shadow.max-pending:64}") int maxPending,
+                        @Value("${weka.shadow.threads:1}") int threads) {
+        this.modelRegistry = modelRegistry;
+        this.diagnosisMetrics = diagnosisMetrics;
+        this.enabled = enabled;
+        this.sampleRate = Math.min(1.0, Math.max(0.0, sampleRate));
+        if (enabled) {
+            this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxPending)), runnable -> {
+                    Thread thread = new Thread(runnable, "shadow-scorer");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+            if (version != null && !version.isBlank()) {
+                this.comparison = new Comparison(version.trim());
+            }
+        } else {
+            this.executor = null;
+        }
+
+        if (enabled) {
+            // Gauges rather than counters, since the counts restart with each candidate
+            Gauge.builder("diagnosis.shadow.compared", this, s -> s.count(c -> c.compared)).register(meterRegistry);
+            Gauge.builder("diagnosis.shadow.skipped", this, s -> s.count(c -> c.skipped)).register(meterRegistry);
+            Gauge.builder("diagnosis.shadow.agreement", this, ShadowScorer::agreementRate).register(meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Starts comparing against version with fresh counts
+    public void shadow(String version) {
+        if (!enabled) {
+            throw new IllegalStateException("Shadow mode is disabled (weka.shadow.enabled)");
+        }
+        if (modelRegistry.get(version) == null) {
+            throw new IllegalArgumentException("Unknown model version: " + version);
+        }
+        comparison = new Comparison(version);
+    }
+
+    public void stop() {
+        comparison = null;
+    }
+
+    // Called on the request thread after the primary has scored values; returns
+    // at once, and does nothing at all for requests that are not sampled
+    public void offer(ModelSnapshot primary, double[] values, SymptomInput input, double[] primaryDistribution,
+                      long primaryNanos) {
+        Comparison current = comparison;
+        if (current == null || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        if (current.version.equals(primary.getVersion())) {
+            return;
+        }
+        String primaryLabel = primary.getClassNames()[Utils.maxIndex(primaryDistribution)];
+        double[] copy = values.clone();
+        try {
+            executor.execute(() -> current.score(primary, copy, input, primaryLabel, primaryNanos));
+        } catch (RejectedExecutionException e) {
+            current.skipped.increment();
+        }
+    }
+
+    // Counts and rates for the current candidate, or null when nothing is shadowed
+    public Map<String, Object> stats() {
+        Comparison current = comparison;
+        return current != null ? current.stats() : null;
+    }
+
+    private long count(Function<Comparison, LongAdder> counter) {
+        Comparison current = comparison;
+        return current != null ? counter.apply(current).sum() : 0;
+    }
+
+    private double agreementRate() {
+        Comparison current = comparison;
+        long compared = current != null ? current.compared.sum() : 0;
+        return compared > 0 ? (double) current.agreed.sum() / compared : Double.NaN;
+    }
+
+    private final class Comparison {
+        private final String version;
+        private final long startedAt = System.currentTimeMillis();
+        private final LongAdder compared = new LongAdder();
+        private final LongAdder agreed = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder primaryNanos = new LongAdder();
+        private final LongAdder shadowNanos = new LongAdder();
+        // primary label -> shadow label -> count
+        private final Map<String, Map<String, LongAdder>> confusion = new ConcurrentHashMap<>();
+
+        Comparison(String version) {
+            this.version = version;
+        }
+
+        void score(ModelSnapshot primary, double[] values, SymptomInput input, String primaryLabel, long primaryTime) {
+            ModelSnapshot candidate = modelRegistry.get(version);
+            if (candidate == null) {
+                skipped.increment();
+                return;
+            }
+            try {
+                // The primary's encoding is reused when both models share a schema
+                double[] encoded = candidate.getHeader().equalHeaders(primary.getHeader())
+                    ? values : candidate.getEncoder().encode(input);
+                Instance instance = new DenseInstance(1.0, encoded);
+                instance.setDataset(candidate.getHeader());
+
+                long start = System.nanoTime();
+                double[] distribution = candidate.getPool().distributionForInstance(instance);
+                long elapsed = System.nanoTime() - start;
+                diagnosisMetrics.forModel(version).record(DiagnosisMetrics.Stage.CLASSIFICATION, elapsed);
+
+                String label = candidate.getClassNames()[Utils.maxIndex(distribution)];
+                compared.increment();
+                if (label.equals(primaryLabel)) {
+                    agreed.increment();
+                }
+                primaryNanos.add(primaryTime);
+                shadowNanos.add(elapsed);
+                confusion.computeIfAbsent(primaryLabel, l -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(label, l -> new LongAdder()).increment();
+            } catch (Exception e) {
+                failed.increment();
+                diagnosisMetrics.forModel(version).failure(e);
+            }
+        }
+
+        Map<String, Object> stats() {
+            long comparedCount = compared.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("version", version);
+            stats.put("sampleRate", sampleRate);
+            stats.put("startedAt", startedAt);
+            stats.put("compared", comparedCount);
+            stats.put("agreed", agreed.sum());
+            stats.put("agreementRate", comparedCount > 0 ? (double) agreed.sum() / comparedCount : null);
+            stats.put("skipped", skipped.sum());
+            stats.put("failed", failed.sum());
+            if (comparedCount > 0) {
+                double primaryMicros = primaryNanos.sum() / 1000.0 / comparedCount;
+                double shadowMicros = shadowNanos.sum() / 1000.0 / comparedCount;
+                stats.put("meanPrimaryMicros", primaryMicros);
+                stats.put("meanShadowMicros", shadowMicros);
+                stats.put("meanDeltaMicros", shadowMicros - primaryMicros);
+            }
+            Map<String, Map<String, Long>> matrix = new TreeMap<>();
+            confusion.forEach((primaryLabel, row) -> {
+                Map<String, Long> counts = new TreeMap<>();
+                row.forEach((label, count) -> counts.put(label, count.sum()));
+                matrix.put(primaryLabel, counts);
+            });
+            stats.put("confusion", matrix);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.heartdiagnostic.service.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Milliseconds from JVM start to each startup milestone: the context refreshed,
+// the web server listening, the application ready (live) and the models loaded
+// and warmed up (ready for traffic). With background model loading the last two
+// come in either order. The report is logged once both are in, together with
+// how long each model registry phase took.
+@Service
+public class StartupTimeline {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupTimeline.class);
+
+    private final ModelRegistry modelRegistry;
+    // Guarded by "this"
+    private final Map<String, Long> milestones = new LinkedHashMap<>();
+    private boolean reported;
+
+    public StartupTimeline(ModelRegistry modelRegistry) {
+        this.modelRegistry = modelRegistry;
+        modelRegistry.ready().whenComplete((snapshot, failure) -> mark("modelsReady"));
+    }
+
+    @EventListener
+    public void onContextRefreshed(ContextRefreshedEvent event) {
+        mark("contextRefreshed");
+    }
+
+    @EventListener
+    public void onWebServerInitialized(WebServerInitializedEvent event) {
+        mark("webServerStarted");
+    }
+
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        mark("applicationReady");
+    }
+
+    public Map<String, Object> report() {
+        Map<String, Object> report = new HashMap<>();
+        synchronized (this) {
+            report.put("milestonesMs", new LinkedHashMap<>(milestones));
+        }
+        report.put("modelPhasesMs", modelRegistry.loadPhases());
+        report.put("ready", modelRegistry.isReady());
+        return report;
+    }
+
+    private void mark(String milestone) {
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        synchronized (this) {
+            // Refresh events repeat for child contexts; the first one counts
+            milestones.putIfAbsent(milestone, uptime);
+            if (reported || !milestones.containsKey("applicationReady") || !milestones.containsKey("modelsReady")) {
+                return;
+            }
+            reported = true;
+        }
+        log.info("Startup timeline (ms since JVM start): {}, model phases (ms): {}",
+            milestones, modelRegistry.loadPhases());
+    }
+}
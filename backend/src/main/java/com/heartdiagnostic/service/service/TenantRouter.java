@@ -0,0 +1,449 @@
+package com.heartdiagnostic.service.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+// Routes diagnoses by tenant, named in a request header. A tenant with a
+// model file in the tenant directory (<tenant>.hdm or <tenant>.model) is
+// scored with it; the others use the active model. Tenant models are loaded on
+// first use and kept for the max-loaded most recently used tenants, so idle
+// tenants' models are dropped and their memory freed; the next request loads
+// them again. A model that fails to load fails its tenant's requests without
+// reading the file again until a backoff passes, doubling with each failure
+// up to load-retry-max-ms. Each tenant has its own token bucket for request rate and its own
+// concurrency cap, checked before the shared admission limit, so a tenant over
+// its quota is turned away without taking capacity from the others.
+@Service
+public class TenantRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(TenantRouter.class);
+
+    private static final Pattern TENANT_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String[] EXTENSIONS = {ModelFile.EXTENSION, ".model"};
+
+    private final ModelRegistry modelRegistry;
+    private final boolean enabled;
+    private final String header;
+    private final Path dir;
+    private final int maxLoaded;
+    private final int maxTenants;
+    private final Quota defaultQuota;
+    private final Map<String, Quota> quotas;
+    private final long retryAfterSeconds;
+    private final long loadRetryNanos;
+    private final long loadRetryMaxNanos;
+
+    private final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Tenant overflowTenant;
+    // Tenants looked up so far; the snapshot is null for a tenant without a
+    // model file, so the directory is only checked once per tenant, and for
+    // one whose model failed to load
+    private final ConcurrentHashMap<String, Routed> routes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<ModelSnapshot>> loading = new ConcurrentHashMap<>();
+    // Serializes eviction, which only runs after a load
+    private final Object evictionLock = new Object();
+
+    private final LongAdder rateRejected = new LongAdder();
+    private final LongAdder concurrencyRejected = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TenantRouter(ModelRegistry modelRegistry, MeterRegistry meterRegistry,
+                        @Value("${weka.tenants.enabled:false}") boolean enabled,
+                        @Value("${weka.tenants.header:X-Tenant-Id}") String header,
+                        @Value("${weka.tenants.dir:models/tenants}") String dir,
+                        @Value("${weka.tenants.max-loaded:32}") int maxLoaded,
+                        @Value("${weka.tenants.max-tenants:10000}") int maxTenants,
+                        @Value("${weka.tenants.rate:100}") double rate,
+                        @Value("${weka.tenants.burst:200}") int burst,
+                        @Value("${weka.tenants.max-concurrent:16}") int maxConcurrent,
+                        @Value("${weka.tenants.quotas:}") String quotas,
+                        @Value("${weka.tenants.retry-after-seconds:1}") long retryAfterSeconds,
+                        @Value("${weka.tenants.load-retry-ms:1000}") long loadRetryMs,
+                        @Value("${weka.tenants.load-retry-max-ms:60000}") long loadRetryMaxMs) {
+        this.modelRegistry = modelRegistry;
+        this.enabled = enabled;
+        this.header = header;
+        this.dir = dir == null || dir.isBlank() ? null : Paths.get(dir);
+        this.maxLoaded = Math.max(1, maxLoaded);
+        this.maxTenants = Math.max(1, maxTenants);
+        this.defaultQuota = new Quota(rate, burst, maxConcurrent);
+        this.quotas = parseQuotas(quotas);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        this.loadRetryNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, loadRetryMs));
+        this.loadRetryMaxNanos = Math.max(this.loadRetryNanos, TimeUnit.MILLISECONDS.toNanos(loadRetryMaxMs));
+        this.overflowTenant = new Tenant("*", defaultQuota);
+
+        if (enabled) {
+            Gauge.builder("diagnosis.tenants.active", tenants, Map::size).register(meterRegistry);
+            Gauge.builder("diagnosis.tenants.models.loaded", this, TenantRouter::loadedCount).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.tenants.models.evicted", evictions, LongAdder::sum).register(meterRegistry);
+            FunctionCounter.builder("diagnosis.tenants.rejected", rateRejected, LongAdder::sum)
+                .tag("reason", "rate").register(meterRegistry);
+            FunctionCounter.builder("diagnosis.tenants.rejected", concurrencyRejected, LongAdder::sum)
+                .tag("reason", "concurrency").register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public static boolean isValidTenantId(String tenantId) {
+        return tenantId != null && TENANT_ID.matcher(tenantId).matches();
+    }
+
+    // A lease for cost rows (one for a single diagnosis) to close when the
+    // request completes, or null when the tenant is over its rate or
+    // concurrency quota. Requests without a tenant are not limited here.
+    public Lease tryAcquire(String tenantId, int cost) {
+        if (!enabled || tenantId == null) {
+            return Lease.NONE;
+        }
+        Tenant tenant = tenant(tenantId);
+        if (!tenant.enter()) {
+            tenant.rejected.increment();
+            concurrencyRejected.increment();
+            return null;
+        }
+        // A batch larger than the burst is admitted on a full bucket
+        if (!tenant.bucket.tryTake(Math.min(cost, tenant.quota.burst))) {
+            tenant.exit();
+            tenant.rejected.increment();
+            rateRejected.increment();
+            return null;
+        }
+        tenant.admitted.add(cost);
+        return new Lease(tenant);
+    }
+
+    // The tenant's own model, or null when it is served by the active model
+    public ModelSnapshot model(String tenantId) throws Exception {
+        if (!enabled || tenantId == null || dir == null) {
+            return null;
+        }
+        if (!isValidTenantId(tenantId)) {
+            throw new IllegalArgumentException("Invalid tenant id: " + tenantId);
+        }
+        Routed routed = routes.get(tenantId);
+        if (routed != null) {
+            if (routed.failure == null) {
+                routed.lastUsed = System.nanoTime();
+                return routed.snapshot;
+            }
+            if (System.nanoTime() - routed.retryAt < 0) {
+                throw routed.failure;
+            }
+        }
+        // Loaded once however many requests are waiting for it, with no lock
+        // held, so a slow load holds up only its own tenant
+        CompletableFuture<ModelSnapshot> future = new CompletableFuture<>();
+        CompletableFuture<ModelSnapshot> existing = loading.putIfAbsent(tenantId, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        try {
+            ModelSnapshot snapshot = load(tenantId);
+            routes.put(tenantId, new Routed(snapshot));
+            if (snapshot != null) {
+                evict();
+            }
+            future.complete(snapshot);
+            return snapshot;
+        } catch (Exception e) {
+            int failures = routed != null ? routed.failures + 1 : 1;
+            long backoff = Math.min(loadRetryMaxNanos, loadRetryNanos << Math.min(failures - 1, 20));
+            routes.put(tenantId, new Routed(e, failures, System.nanoTime() + backoff));
+            log.warn("Could not load the model of tenant {}, retrying in {} ms: {}", tenantId,
+                backoff / 1_000_000, e.getMessage());
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(tenantId, future);
+        }
+    }
+
+    // Drops a tenant's model, or its failed load, so the next request reads its file again
+    public boolean unload(String tenantId) {
+        Routed routed = routes.remove(tenantId);
+        return routed != null && routed.snapshot != null;
+    }
+
+    public int loadedCount() {
+        int count = 0;
+        for (Routed routed : routes.values()) {
+            if (routed.snapshot != null) count++;
+        }
+        return count;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("header", header);
+        stats.put("maxLoaded", maxLoaded);
+        stats.put("loadedModels", loadedCount());
+        stats.put("modelLoads", loads.sum());
+        stats.put("evictedModels", evictions.sum());
+        stats.put("rateRejected", rateRejected.sum());
+        stats.put("concurrencyRejected", concurrencyRejected.sum());
+
+        List<Map<String, Object>> tenantStats = new ArrayList<>();
+        for (Tenant tenant : tenants.values()) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("tenant", tenant.id);
+            Routed routed = routes.get(tenant.id);
+            entry.put("model", routed != null && routed.snapshot != null ? routed.snapshot.getVersion() : "default");
+            if (routed != null && routed.failure != null) {
+                entry.put("loadError", routed.failure.getMessage());
+            }
+            entry.put("inFlight", tenant.inFlight.get());
+            entry.put("admitted", tenant.admitted.sum());
+            entry.put("rejected", tenant.rejected.sum());
+            entry.put("rate", tenant.quota.rate);
+            entry.put("burst", tenant.quota.burst);
+            entry.put("maxConcurrent", tenant.quota.maxConcurrent);
+            tenantStats.add(entry);
+        }
+        stats.put("tenants", tenantStats);
+        return stats;
+    }
+
+    private Tenant tenant(String tenantId) {
+        Tenant tenant = tenants.get(tenantId);
+        if (tenant != null) {
+            return tenant;
+        }
+        // Past max-tenants, unknown names share one quota rather than growing the map
+        if (tenants.size() >= maxTenants) {
+            return overflowTenant;
+        }
+        return tenants.computeIfAbsent(tenantId, id -> new Tenant(id, quotas.getOrDefault(id, defaultQuota)));
+    }
+
+    private ModelSnapshot load(String tenantId) throws Exception {
+        for (String extension : EXTENSIONS) {
+            Path file = dir.resolve(tenantId + extension);
+            if (Files.isRegularFile(file)) {
+                long start = System.nanoTime();
+                ModelSnapshot snapshot = modelRegistry.readFile(file, tenantId + "/" + versionOf(file));
+                loads.increment();
+                log.info("Loaded model {} for tenant {} in {} ms", snapshot.getVersion(), tenantId,
+                    (System.nanoTime() - start) / 1_000_000);
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    // Unloads the least recently used models beyond max-loaded. Requests still
+    // scoring with one keep their reference until they finish.
+    private void evict() {
+        synchronized (evictionLock) {
+            while (true) {
+                int models = 0;
+                Map.Entry<String, Routed> eldest = null;
+                for (Map.Entry<String, Routed> entry : routes.entrySet()) {
+                    if (entry.getValue().snapshot == null) continue;
+                    models++;
+                    if (eldest == null || entry.getValue().lastUsed < eldest.getValue().lastUsed) {
+                        eldest = entry;
+                    }
+                }
+                if (models <= maxLoaded || eldest == null) {
+                    break;
+                }
+                if (routes.remove(eldest.getKey(), eldest.getValue())) {
+                    evictions.increment();
+                    log.info("Unloaded model {} of idle tenant {}", eldest.getValue().snapshot.getVersion(),
+                        eldest.getKey());
+                }
+            }
+            // Tenants without a model cost an entry each; forget them past max-tenants
+            if (routes.size() > maxLoaded + maxTenants) {
+                routes.values().removeIf(routed -> routed.snapshot == null);
+            }
+        }
+    }
+
+    private static String versionOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    // "tenant:rate:burst:max-concurrent,..."
+    private Map<String, Quota> parseQuotas(String spec) {
+        Map<String, Quota> parsed = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return parsed;
+        }
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 4 || !isValidTenantId(parts[0].trim())) {
+                throw new IllegalArgumentException("weka.tenants.quotas entries must be tenant:rate:burst:max-concurrent, got "
+                    + entry.trim());
+            }
+            parsed.put(parts[0].trim(), new Quota(Double.parseDouble(parts[1].trim()),
+                Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim())));
+        }
+        return parsed;
+    }
+
+    private static final class Routed {
+        final ModelSnapshot snapshot;
+        // Set when the model failed to load, with the failures in a row and
+        // when the file may be read again
+        final Exception failure;
+        final int failures;
+        final long retryAt;
+        volatile long lastUsed = System.nanoTime();
+
+        Routed(ModelSnapshot snapshot) {
+            this(snapshot, null, 0, 0);
+        }
+
+        Routed(Exception failure, int failures, long retryAt) {
+            this(null, failure, failures, retryAt);
+        }
+
+        private Routed(ModelSnapshot snapshot, Exception failure, int failures, long retryAt) {
+            this.snapshot = snapshot;
+            this.failure = failure;
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+    }
+
+    public static final class Lease implements AutoCloseable {
+        static final Lease NONE = new Lease(null);
+
+        private final Tenant tenant;
+
+        private Lease(Tenant tenant) {
+            this.tenant = tenant;
+        }
+
+        // Takes cost more rows from the tenant's rate for a request already
+        // admitted, such as the next chunk of a stream. Waits for the bucket to
+        // refill instead of failing, so the request is slowed to the tenant's rate.
+        public void charge(int cost) throws InterruptedException {
+            if (tenant == null || cost <= 0) {
+                return;
+            }
+            long waitNanos;
+            while ((waitNanos = tenant.bucket.takeOrWait(Math.min(cost, tenant.quota.burst))) > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            tenant.admitted.add(cost);
+        }
+
+        @Override
+        public void close() {
+            if (tenant != null) {
+                tenant.exit();
+            }
+        }
+    }
+
+    private static final class Quota {
+        final double rate;
+        final int burst;
+        final int maxConcurrent;
+
+        Quota(double rate, int burst, int maxConcurrent) {
+            this.rate = Math.max(0.001, rate);
+            this.burst = Math.max(1, burst);
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+        }
+    }
+
+    private static final class Tenant {
+        final String id;
+        final Quota quota;
+        final TokenBucket bucket;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAdder admitted = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+
+        Tenant(String id, Quota quota) {
+            this.id = id;
+            this.quota = quota;
+            this.bucket = new TokenBucket(quota.rate, quota.burst);
+        }
+
+        boolean enter() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= quota.maxConcurrent) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void exit() {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // Refills at rate tokens a second up to burst; each tenant has its own, so
+    // the lock is only contended by one tenant's requests
+    static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(double ratePerSecond, int capacity) {
+            this.ratePerNano = ratePerSecond / 1_000_000_000.0;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        synchronized boolean tryTake(int count) {
+            return takeOrWait(count) == 0;
+        }
+
+        // Takes count tokens and returns 0, or returns how long until there are enough
+        synchronized long takeOrWait(int count) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+            if (tokens < count) {
+                return Math.max(1, (long) Math.ceil((count - tokens) / ratePerNano));
+            }
+            tokens -= count;
+            return 0;
+        }
+    }
+}
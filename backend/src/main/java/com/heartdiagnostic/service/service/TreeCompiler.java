@@ -0,0 +1,330 @@
+package com.heartdiagnostic.service.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.BinC45Split;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.core.Instances;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+// Turns tree classifiers into CompiledTree arrays, and optionally into
+// generated bytecode with one branch instruction per split
+public final class TreeCompiler {
+
+    private static final Logger log = LoggerFactory.getLogger(TreeCompiler.class);
+
+    private TreeCompiler() {}
+
+    public static boolean canCompile(Classifier classifier) {
+        return classifier instanceof MockClassifier
+            || (classifier instanceof J48 && !((J48) classifier).getUseLaplace());
+    }
+
+    public static CompiledTree compile(Classifier classifier, Instances header) throws Exception {
+        if (classifier instanceof MockClassifier) {
+            return compile((MockClassifier) classifier);
+        }
+        if (classifier instanceof J48) {
+            return compile((J48) classifier, header);
+        }
+        throw new IllegalArgumentException("Cannot compile " + classifier.getClass().getSimpleName());
+    }
+
+    // The rules in MockClassifier.classifyInstance as a tree. A missing value fails
+    // every "<=" test there, so it always follows the right branch (weight 1).
+    public static CompiledTree compile(MockClassifier classifier) {
+        Builder builder = new Builder(3);
+        int root = builder.add();
+        int[] age = builder.split(root, CompiledTree.NUMERIC_LE, 0, 50, 2);
+        int[] cholesterol = builder.split(age[0], CompiledTree.NUMERIC_LE, 4, 200, 2);
+        builder.leaf(cholesterol[0], mockDistribution(0));
+        int[] bloodPressure = builder.split(cholesterol[1], CompiledTree.NUMERIC_LE, 3, 130, 2);
+        builder.leaf(bloodPressure[0], mockDistribution(1));
+        builder.leaf(bloodPressure[1], mockDistribution(2));
+        int[] maxHeartRate = builder.split(age[1], CompiledTree.NUMERIC_LE, 7, 130, 2);
+        builder.leaf(maxHeartRate[0], mockDistribution(2));
+        builder.leaf(maxHeartRate[1], mockDistribution(1));
+        for (int node = 1; node < builder.size(); node++) {
+            builder.missingWeight[node] = node == builder.offset[builder.parent[node]] ? 0.0 : 1.0;
+        }
+        return builder.build();
+    }
+
+    private static double[] mockDistribution(int predictedClass) {
+        // Same arithmetic as MockClassifier.distributionForInstance
+        double[] distribution = new double[3];
+        distribution[predictedClass] = 0.85;
+        for (int i = 0; i < distribution.length; i++) {
+            if (i != predictedClass) {
+                distribution[i] = 0.15 / (distribution.length - 1);
+            }
+        }
+        return distribution;
+    }
+
+    public static CompiledTree compile(J48 classifier, Instances header) throws Exception {
+        if (classifier.getUseLaplace()) {
+            throw new IllegalArgumentException("J48 trees with Laplace smoothing are not supported");
+        }
+        Field rootField = J48.class.getDeclaredField("m_root");
+        rootField.setAccessible(true);
+        ClassifierTree root = (ClassifierTree) rootField.get(classifier);
+        if (root == null) {
+            throw new IllegalStateException("J48 has not been built");
+        }
+
+        int numClasses = header.numClasses();
+        Builder builder = new Builder(numClasses);
+        Map<Integer, Distribution> splitDistributions = new HashMap<>();
+        Deque<ClassifierTree> trees = new ArrayDeque<>();
+        trees.add(root);
+        builder.add();
+
+        // Breadth first, so each split's children get consecutive node numbers
+        for (int node = 0; node < builder.size(); node++) {
+            ClassifierTree tree = trees.poll();
+            ClassifierSplitModel split = tree.getLocalModel();
+            if (tree.isLeaf()) {
+                builder.leaf(node, leafDistribution(tree, node, builder, splitDistributions, numClasses));
+                continue;
+            }
+
+            int attIndex;
+            double splitPoint;
+            if (split instanceof C45Split) {
+                attIndex = ((C45Split) split).attIndex();
+                splitPoint = ((C45Split) split).splitPoint();
+            } else if (split instanceof BinC45Split) {
+                attIndex = ((BinC45Split) split).attIndex();
+                splitPoint = ((BinC45Split) split).splitPoint();
+            } else {
+                throw new IllegalArgumentException("Unsupported split model " + split.getClass().getSimpleName());
+            }
+
+            byte kind;
+            if (header.attribute(attIndex).isNumeric()) {
+                kind = CompiledTree.NUMERIC_LE;
+            } else if (split instanceof BinC45Split) {
+                kind = CompiledTree.NOMINAL_EQ;
+            } else {
+                kind = CompiledTree.NOMINAL_MULTI;
+            }
+
+            ClassifierTree[] sons = tree.getSons();
+            Distribution distribution = split.distribution();
+            splitDistributions.put(node, distribution);
+            int[] children = builder.split(node, kind, attIndex, splitPoint, sons.length);
+            for (int i = 0; i < sons.length; i++) {
+                trees.add(sons[i]);
+                // Empty branches are skipped when WEKA spreads a missing value over the children
+                builder.missingWeight[children[i]] = isEmpty(sons[i]) || distribution.total() <= 0
+                    ? 0.0 : distribution.perBag(i) / distribution.total();
+            }
+        }
+        return builder.build();
+    }
+
+    private static double[] leafDistribution(ClassifierTree tree, int node, Builder builder,
+                                             Map<Integer, Distribution> splitDistributions, int numClasses) {
+        double[] probs = new double[numClasses];
+        if (!isEmpty(tree) || node == 0) {
+            Distribution distribution = tree.getLocalModel().distribution();
+            for (int c = 0; c < numClasses; c++) {
+                probs[c] = distribution.prob(c);
+            }
+        } else {
+            // An empty branch answers with its parent's statistics for that branch
+            int parent = builder.parent[node];
+            Distribution distribution = splitDistributions.get(parent);
+            int bag = node - builder.offset[parent];
+            for (int c = 0; c < numClasses; c++) {
+                probs[c] = distribution.prob(c, bag);
+            }
+        }
+        return probs;
+    }
+
+    private static boolean isEmpty(ClassifierTree tree) {
+        return tree.isLeaf() && tree.getLocalModel().distribution().total() <= 0;
+    }
+
+    // Generates a class whose leaf(double[]) is the tree as nested branches and
+    // installs it on the tree. Returns false (leaving the array walk in place)
+    // when the tree is too large for a single method.
+    public static boolean generateBytecode(CompiledTree tree) {
+        try {
+            String internalName = TreeCompiler.class.getPackageName().replace('.', '/') + "/GeneratedTree";
+            ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+            writer.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, internalName, null,
+                "java/lang/Object", new String[] {CompiledTree.LeafFinder.class.getName().replace('.', '/')});
+
+            MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            init.visitCode();
+            init.visitVarInsn(Opcodes.ALOAD, 0);
+            init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            init.visitInsn(Opcodes.RETURN);
+            init.visitMaxs(0, 0);
+            init.visitEnd();
+
+            MethodVisitor leaf = writer.visitMethod(Opcodes.ACC_PUBLIC, "leaf", "([D)I", null, null);
+            leaf.visitCode();
+            Label missing = new Label();
+            emitNode(leaf, tree, 0, missing);
+            leaf.visitLabel(missing);
+            leaf.visitInsn(Opcodes.ICONST_M1);
+            leaf.visitInsn(Opcodes.IRETURN);
+            leaf.visitMaxs(0, 0);
+            leaf.visitEnd();
+            writer.visitEnd();
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            tree.setLeafFinder((CompiledTree.LeafFinder) constructor.invoke());
+            return true;
+        } catch (Throwable e) {
+            log.warn("Bytecode generation failed, using array evaluation: {}", e.getMessage());
+            tree.setLeafFinder(null);
+            return false;
+        }
+    }
+
+    // Local 1 holds the value array, locals 2-3 the value under test
+    private static void emitNode(MethodVisitor mv, CompiledTree tree, int node, Label missing) {
+        if (tree.kind(node) == CompiledTree.LEAF) {
+            mv.visitLdcInsn(node);
+            mv.visitInsn(Opcodes.IRETURN);
+            return;
+        }
+
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitLdcInsn(tree.feature(node));
+        mv.visitInsn(Opcodes.DALOAD);
+        mv.visitVarInsn(Opcodes.DSTORE, 2);
+
+        // NaN is the only value not equal to itself
+        mv.visitVarInsn(Opcodes.DLOAD, 2);
+        mv.visitVarInsn(Opcodes.DLOAD, 2);
+        mv.visitInsn(Opcodes.DCMPL);
+        mv.visitJumpInsn(Opcodes.IFNE, missing);
+
+        int first = tree.offset(node);
+        if (tree.kind(node) == CompiledTree.NOMINAL_MULTI) {
+            int count = tree.numChildren(node);
+            Label[] labels = new Label[count];
+            for (int i = 0; i < count; i++) {
+                labels[i] = new Label();
+            }
+            mv.visitVarInsn(Opcodes.DLOAD, 2);
+            mv.visitInsn(Opcodes.D2I);
+            mv.visitTableSwitchInsn(0, count - 1, missing, labels);
+            for (int i = 0; i < count; i++) {
+                mv.visitLabel(labels[i]);
+                emitNode(mv, tree, first + i, missing);
+            }
+            return;
+        }
+
+        Label second = new Label();
+        mv.visitVarInsn(Opcodes.DLOAD, 2);
+        mv.visitLdcInsn(tree.threshold(node));
+        if (tree.kind(node) == CompiledTree.NUMERIC_LE) {
+            mv.visitInsn(Opcodes.DCMPG);
+            mv.visitJumpInsn(Opcodes.IFGT, second);
+        } else {
+            mv.visitInsn(Opcodes.DCMPL);
+            mv.visitJumpInsn(Opcodes.IFNE, second);
+        }
+        emitNode(mv, tree, first, missing);
+        mv.visitLabel(second);
+        emitNode(mv, tree, first + 1, missing);
+    }
+
+    // Accumulates nodes in breadth-first order
+    private static final class Builder {
+        private final int numClasses;
+        private byte[] kind = new byte[16];
+        private int[] feature = new int[16];
+        private double[] threshold = new double[16];
+        private int[] offset = new int[16];
+        private int[] numChildren = new int[16];
+        private int[] parent = new int[16];
+        private double[] missingWeight = new double[16];
+        private double[] distributions = new double[64];
+        private int distributionsSize;
+        private int size;
+
+        Builder(int numClasses) {
+            this.numClasses = numClasses;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int add() {
+            if (size == kind.length) {
+                int capacity = size * 2;
+                kind = Arrays.copyOf(kind, capacity);
+                feature = Arrays.copyOf(feature, capacity);
+                threshold = Arrays.copyOf(threshold, capacity);
+                offset = Arrays.copyOf(offset, capacity);
+                numChildren = Arrays.copyOf(numChildren, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                missingWeight = Arrays.copyOf(missingWeight, capacity);
+            }
+            missingWeight[size] = 1.0;
+            return size++;
+        }
+
+        int[] split(int node, byte nodeKind, int attIndex, double splitPoint, int children) {
+            kind[node] = nodeKind;
+            feature[node] = attIndex;
+            threshold[node] = splitPoint;
+            numChildren[node] = children;
+            int[] childNodes = new int[children];
+            for (int i = 0; i < children; i++) {
+                childNodes[i] = add();
+                parent[childNodes[i]] = node;
+            }
+            offset[node] = childNodes.length > 0 ? childNodes[0] : -1;
+            return childNodes;
+        }
+
+        void leaf(int node, double[] distribution) {
+            kind[node] = CompiledTree.LEAF;
+            feature[node] = -1;
+            offset[node] = distributionsSize;
+            if (distributionsSize + numClasses > distributions.length) {
+                distributions = Arrays.copyOf(distributions, Math.max(distributions.length * 2, distributionsSize + numClasses));
+            }
+            System.arraycopy(distribution, 0, distributions, offset[node], numClasses);
+            distributionsSize += numClasses;
+        }
+
+        CompiledTree build() {
+            return new CompiledTree(numClasses,
+                Arrays.copyOf(kind, size), Arrays.copyOf(feature, size),
+                Arrays.copyOf(threshold, size), Arrays.copyOf(offset, size),
+                Arrays.copyOf(numChildren, size), Arrays.copyOf(missingWeight, size),
+                Arrays.copyOf(distributions, distributionsSize));
+        }
+    }
+}
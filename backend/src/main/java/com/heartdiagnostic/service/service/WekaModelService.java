@@ -1,61 +1,56 @@
 package com.heartdiagnostic.service.service;
 
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
+import com.heartdiagnostic.service.model.ClassScores;
 import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.NominalFeature;
 import com.heartdiagnostic.service.model.SymptomInput;
-import weka.classifiers.Classifier;
 import weka.core.*;
 import org.springframework.stereotype.Service;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.ResourceLoader;
 
-import jakarta.annotation.PostConstruct;
-import java.io.InputStream;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import java.util.*;
 
 @Service
 public class WekaModelService {
     
-    private Classifier classifier;
-    private Instances dataStructure;
-    private ArrayList<Attribute> attributes;
+    private final ModelRegistry modelRegistry;
+    private final Validator validator;
+    private final PredictionCache predictionCache;
+    private final DiagnosisMetrics diagnosisMetrics;
+    private final ModelEnsemble ensemble;
+    private final ExplanationEngine explanationEngine;
+    private final ShadowScorer shadowScorer;
     
-    @Value("${weka.model.path:classpath:models/heart-model.model}")
-    private String modelPath;
-    
-    private final ResourceLoader resourceLoader;
-    
-    public WekaModelService(ResourceLoader resourceLoader) {
-        this.resourceLoader = resourceLoader;
-    }
-    
-    @PostConstruct
-    public void initializeModel() throws Exception {
-        // For demo purposes, create a simple mock classifier
-        // In production, you would load a real trained WEKA model
-        classifier = new MockClassifier();
-        
-        // Create the data structure that matches the training data
-        createDataStructure();
-        
-        System.out.println("Mock WEKA model initialized successfully for demo purposes");
+    public WekaModelService(ModelRegistry modelRegistry, Validator validator, PredictionCache predictionCache,
+                            DiagnosisMetrics diagnosisMetrics, ModelEnsemble ensemble,
+                            ExplanationEngine explanationEngine, ShadowScorer shadowScorer) {
+        this.modelRegistry = modelRegistry;
+        this.validator = validator;
+        this.predictionCache = predictionCache;
+        this.diagnosisMetrics = diagnosisMetrics;
+        this.ensemble = ensemble;
+        this.explanationEngine = explanationEngine;
+        this.shadowScorer = shadowScorer;
     }
     
-    private void createDataStructure() {
-        attributes = new ArrayList<>();
+    // The attribute structure of the service's input schema, in training data order
+    public static Instances createDataStructure() {
+        ArrayList<Attribute> attributes = new ArrayList<>();
         
         // Add attributes in the same order as training data
         attributes.add(new Attribute("age"));
-        attributes.add(new Attribute("sex", Arrays.asList("male", "female")));
-        attributes.add(new Attribute("chestPain", Arrays.asList("typical", "atypical", "non-anginal", "asymptomatic")));
+        attributes.add(nominal(NominalFeature.SEX));
+        attributes.add(nominal(NominalFeature.CHEST_PAIN));
         attributes.add(new Attribute("bloodPressure"));
         attributes.add(new Attribute("cholesterol"));
         attributes.add(new Attribute("fastingBS", Arrays.asList("0", "1")));
-        attributes.add(new Attribute("restECG", Arrays.asList("normal", "st-t-abnormality", "left-ventricular-hypertrophy")));
+        attributes.add(nominal(NominalFeature.REST_ECG));
         attributes.add(new Attribute("maxHeartRate"));
-        attributes.add(new Attribute("exerciseAngina", Arrays.asList("no", "yes")));
+        attributes.add(nominal(NominalFeature.EXERCISE_ANGINA));
         attributes.add(new Attribute("oldpeak"));
-        attributes.add(new Attribute("thallium", Arrays.asList("normal", "fixed-defect", "reversible-defect")));
+        attributes.add(nominal(NominalFeature.THALLIUM));
         attributes.add(new Attribute("bmi"));
         
         // Add class attribute
@@ -63,89 +58,269 @@ public class WekaModelService {
         attributes.add(new Attribute("class", classValues));
         
         // Create instances structure
-        dataStructure = new Instances("HeartDisease", attributes, 0);
+        Instances dataStructure = new Instances("HeartDisease", attributes, 0);
         dataStructure.setClassIndex(dataStructure.numAttributes() - 1);
+        return dataStructure;
+    }
+    
+    // Values in table order, so header codes are the NominalFeature codes
+    private static Attribute nominal(NominalFeature feature) {
+        return new Attribute(feature.attribute(), feature.valueList());
     }
     
     public DiagnosisResult classify(SymptomInput input) throws Exception {
-        // Create a new instance
-        Instance instance = new DenseInstance(dataStructure.numAttributes());
-        instance.setDataset(dataStructure);
-        
-        // Set attribute values
-        instance.setValue(attributes.get(0), input.getAge());
-        instance.setValue(attributes.get(1), input.getSex());
-        instance.setValue(attributes.get(2), input.getChestPain());
-        instance.setValue(attributes.get(3), input.getBloodPressure());
-        instance.setValue(attributes.get(4), input.getCholesterol());
-        instance.setValue(attributes.get(5), input.getFastingBS().toString());
-        instance.setValue(attributes.get(6), input.getRestECG());
-        instance.setValue(attributes.get(7), input.getMaxHeartRate());
-        instance.setValue(attributes.get(8), input.getExerciseAngina());
-        instance.setValue(attributes.get(9), input.getOldpeak());
-        instance.setValue(attributes.get(10), input.getThallium());
-        instance.setValue(attributes.get(11), input.getBmi());
-        
-        // Classify the instance
-        double[] distribution = classifier.distributionForInstance(instance);
-        int predictedClass = (int) classifier.classifyInstance(instance);
-        
-        // Get the predicted label
-        String predictedLabel = dataStructure.classAttribute().value(predictedClass);
-        
-        // Create scores map
-        Map<String, Double> scores = new HashMap<>();
-        for (int i = 0; i < distribution.length; i++) {
-            String className = dataStructure.classAttribute().value(i);
-            scores.put(className, distribution[i]);
+        return classify(input, true);
+    }
+    
+    // explain=false leaves the explanation out, for callers that only read the label and scores
+    public DiagnosisResult classify(SymptomInput input, boolean explain) throws Exception {
+        if (ensemble.isEnabled()) {
+            return classifyEnsemble(input, explain);
         }
-        
-        // Generate explanation
-        String explanation = generateExplanation(predictedLabel, scores, input);
-        
-        return new DiagnosisResult(predictedLabel, scores, explanation);
+        // Read the active model once so the whole request uses one version
+        return classify(modelRegistry.active(), input, explain);
     }
     
-    private String generateExplanation(String predictedLabel, Map<String, Double> scores, SymptomInput input) {
-        StringBuilder explanation = new StringBuilder();
+    // Scores with the given model, such as a tenant's, rather than the active one
+    public DiagnosisResult classify(ModelSnapshot model, SymptomInput input, boolean explain) throws Exception {
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(model.getVersion());
         
-        // Get the top contributing factors
-        List<Map.Entry<String, Double>> sortedScores = new ArrayList<>(scores.entrySet());
-        sortedScores.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        // Encode into a reusable instance checked out from the model's encoder
+        long start = System.nanoTime();
+        FeatureEncoder encoder = model.getEncoder();
+        FeatureEncoder.ReusableInstance instance = encoder.acquireInstance();
+        try {
+            encoder.encode(input, instance.values());
+            long encoded = System.nanoTime();
+            metrics.record(DiagnosisMetrics.Stage.ENCODING, encoded - start);
+            
+            // Repeat submissions skip classification and explanation entirely
+            DiagnosisResult cached = cached(model, instance.values(), explain, metrics);
+            if (cached != null) {
+                return cached;
+            }
+            
+            // Classify the instance; the label is the argmax of the distribution,
+            // so the classifier only has to be evaluated once
+            double[] distribution = model.getPool().distributionForInstance(instance);
+            long classified = System.nanoTime();
+            metrics.record(DiagnosisMetrics.Stage.CLASSIFICATION, classified - encoded);
+            
+            // A sampled copy goes to the shadow candidate, if one is set; never waits
+            shadowScorer.offer(model, instance.values(), input, distribution, classified - encoded);
+            DiagnosisResult result = toResult(model, model.getVersion(), model.getClassNames(), metrics,
+                distribution, instance.values(), explain, input);
+            predictionCache.put(model, instance.values(), result);
+            return result;
+        } finally {
+            encoder.releaseInstance(instance);
+        }
+    }
+    
+    // Scores rows that have passed validation and were encoded for model, with
+    // one classifier pool checkout for the block. Used by MicroBatcher for
+    // concurrent single diagnoses; per row it behaves as classify does.
+    public DiagnosisResult[] classifyEncoded(ModelSnapshot model, SymptomInput[] inputs, double[][] values,
+                                             boolean[] explain) throws Exception {
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(model.getVersion());
+        DiagnosisResult[] results = new DiagnosisResult[inputs.length];
+        int[] misses = new int[inputs.length];
+        int numMisses = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            results[i] = cached(model, values[i], explain[i], metrics);
+            if (results[i] == null) {
+                misses[numMisses++] = i;
+            }
+        }
+        if (numMisses == 0) {
+            return results;
+        }
         
-        explanation.append("Based on your symptoms: ");
+        double[][] rows = new double[numMisses][];
+        for (int j = 0; j < numMisses; j++) {
+            rows[j] = values[misses[j]];
+        }
+        long start = System.nanoTime();
+        double[][] distributions = model.getPool().distributionsForRows(rows, model.getHeader());
+        // Each row is timed at its share of the block
+        long perRow = (System.nanoTime() - start) / numMisses;
+        for (int j = 0; j < numMisses; j++) {
+            int i = misses[j];
+            metrics.record(DiagnosisMetrics.Stage.CLASSIFICATION, perRow);
+            shadowScorer.offer(model, values[i], inputs[i], distributions[j], perRow);
+            results[i] = toResult(model, model.getVersion(), model.getClassNames(), metrics, distributions[j],
+                values[i], explain[i], inputs[i]);
+            predictionCache.put(model, values[i], results[i]);
+        }
+        return results;
+    }
+    
+    public List<BatchDiagnosisItem> classifyBatch(List<SymptomInput> inputs) throws Exception {
+        return classifyBatch(inputs, true);
+    }
+    
+    public List<BatchDiagnosisItem> classifyBatch(List<SymptomInput> inputs, boolean explain) throws Exception {
+        return classifyBatch(modelRegistry.active(), inputs, explain);
+    }
+    
+    public List<BatchDiagnosisItem> classifyBatch(ModelSnapshot model, List<SymptomInput> inputs,
+                                                  boolean explain) throws Exception {
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(model.getVersion());
+        BatchDiagnosisItem[] items = new BatchDiagnosisItem[inputs.size()];
         
-        // Add risk factors
-        List<String> riskFactors = new ArrayList<>();
+        // Validate every row up front and fill one shared instances block with the valid ones
+        Instances batch = new Instances(model.getHeader(), inputs.size());
+        int[] rowIndex = new int[inputs.size()];
+        double[][] rowValues = new double[inputs.size()][];
+        for (int i = 0; i < inputs.size(); i++) {
+            SymptomInput input = inputs.get(i);
+            List<String> errors = validate(input, metrics);
+            if (!errors.isEmpty()) {
+                items[i] = BatchDiagnosisItem.failure(i, errors);
+                metrics.failure("validation");
+                continue;
+            }
+            long start = System.nanoTime();
+            double[] values;
+            try {
+                values = model.getEncoder().encode(input);
+            } catch (IllegalArgumentException e) {
+                // A value the schema allows but this model's header lacks, as a
+                // tenant model may; it fails its row rather than the batch
+                items[i] = BatchDiagnosisItem.failure(i, List.of(e.getMessage()));
+                metrics.failure("encoding");
+                continue;
+            }
+            rowIndex[batch.numInstances()] = i;
+            rowValues[batch.numInstances()] = values;
+            batch.add(new DenseInstance(1.0, values));
+            metrics.record(DiagnosisMetrics.Stage.ENCODING, System.nanoTime() - start);
+        }
         
-        if (input.getAge() > 65) riskFactors.add("age over 65");
-        if (input.getBloodPressure() > 140) riskFactors.add("high blood pressure");
-        if (input.getCholesterol() > 240) riskFactors.add("high cholesterol");
-        if (input.getFastingBS() == 1) riskFactors.add("elevated blood sugar");
-        if (input.getExerciseAngina().equals("yes")) riskFactors.add("exercise-induced angina");
-        if (input.getOldpeak() > 2.0) riskFactors.add("significant ST depression");
-        if (input.getThallium().equals("fixed-defect") || input.getThallium().equals("reversible-defect")) {
-            riskFactors.add("thallium scan abnormalities");
+        // Classify the block, one distribution per row
+        for (int j = 0; j < batch.numInstances(); j++) {
+            int i = rowIndex[j];
+            try {
+                long start = System.nanoTime();
+                double[] distribution = model.getPool().distributionForInstance(batch.instance(j));
+                metrics.record(DiagnosisMetrics.Stage.CLASSIFICATION, System.nanoTime() - start);
+                items[i] = BatchDiagnosisItem.success(i, toResult(model, model.getVersion(), model.getClassNames(),
+                    metrics, distribution, rowValues[j], explain, inputs.get(i)));
+            } catch (Exception e) {
+                items[i] = BatchDiagnosisItem.failure(i, List.of("Diagnosis failed: " + e.getMessage()));
+                metrics.failure(e);
+            }
         }
         
-        if (!riskFactors.isEmpty()) {
-            explanation.append("Key risk factors identified: ").append(String.join(", ", riskFactors));
-        } else {
-            explanation.append("No major risk factors identified");
+        return Arrays.asList(items);
+    }
+    
+    // Weighted vote of the ensemble members that answer within the budget. Not
+    // cached, since which members make the deadline varies from call to call.
+    private DiagnosisResult classifyEnsemble(SymptomInput input, boolean explain) throws Exception {
+        DiagnosisMetrics.ModelMetrics metrics = diagnosisMetrics.forModel(ModelEnsemble.VERSION);
+        ModelEnsemble.Vote vote = ensemble.vote(input, diagnosisMetrics);
+        DiagnosisResult result = toResult(null, ModelEnsemble.VERSION, vote.getClassNames(), metrics,
+            vote.getDistribution(), null, explain, input);
+        result.setContributors(vote.getContributors());
+        result.setDropped(vote.getDropped());
+        return result;
+    }
+    
+    // Bean validation messages for the input, sorted; empty when it is valid
+    public List<String> validate(SymptomInput input) {
+        return validate(input, diagnosisMetrics.forModel(getModelVersion()));
+    }
+    
+    private List<String> validate(SymptomInput input, DiagnosisMetrics.ModelMetrics metrics) {
+        if (input == null) {
+            return List.of("Row is empty");
+        }
+        long start = System.nanoTime();
+        Set<ConstraintViolation<SymptomInput>> violations = validator.validate(input);
+        metrics.record(DiagnosisMetrics.Stage.VALIDATION, System.nanoTime() - start);
+        if (violations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> errors = new ArrayList<>(violations.size());
+        for (ConstraintViolation<SymptomInput> violation : violations) {
+            errors.add(violation.getMessage());
+        }
+        Collections.sort(errors);
+        return errors;
+    }
+    
+    // A cached result that has everything the caller asked for, or null
+    private DiagnosisResult cached(ModelSnapshot model, double[] values, boolean explain,
+                                   DiagnosisMetrics.ModelMetrics metrics) {
+        DiagnosisResult cached = predictionCache.get(model, values);
+        if (cached == null || (cached.getExplanation() == null && explain && explanationEngine.isEnabled())) {
+            return null;
+        }
+        metrics.prediction(cached.getLabel());
+        if (!explain) {
+            cached.setExplanation(null);
+            cached.setContributions(null);
         }
+        return cached;
+    }
+    
+    public boolean isEnsembleEnabled() {
+        return ensemble.isEnabled();
+    }
+    
+    // model and values (the encoded attributes) are used for path explanations;
+    // an ensemble passes neither and gets the template
+    private DiagnosisResult toResult(ModelSnapshot model, String version, String[] classNames,
+                                     DiagnosisMetrics.ModelMetrics metrics, double[] distribution,
+                                     double[] values, boolean explain, SymptomInput input) {
+        // Get the predicted label
+        int predictedClass = Utils.maxIndex(distribution);
+        
+        // Scores share the class name array; only the distribution is copied
+        ClassScores scores = new ClassScores(classNames, distribution.clone());
+        DiagnosisResult result = new DiagnosisResult(classNames[predictedClass], scores, null);
         
-        explanation.append(". Confidence: ").append(String.format("%.1f%%", scores.get(predictedLabel) * 100));
+        if (explain) {
+            long start = System.nanoTime();
+            ExplanationEngine.Explanation explanation = explanationEngine.explain(model, values, predictedClass, scores, input);
+            metrics.record(DiagnosisMetrics.Stage.EXPLANATION, System.nanoTime() - start);
+            if (explanation != null) {
+                result.setExplanation(explanation.getText());
+                result.setContributions(explanation.getContributions());
+            }
+        }
         
-        return explanation.toString();
+        result.setModelVersion(version);
+        metrics.prediction(result.getLabel());
+        return result;
     }
     
     public boolean isModelLoaded() {
-        return classifier != null && dataStructure != null;
+        return modelRegistry.active() != null;
+    }
+    
+    // False while configured models are still loading in the background
+    public boolean isModelReady() {
+        return modelRegistry.isReady();
+    }
+    
+    public boolean isModelLoadFailed() {
+        return modelRegistry.ready().isCompletedExceptionally();
+    }
+    
+    public String getModelVersion() {
+        ModelSnapshot model = modelRegistry.active();
+        return model != null ? model.getVersion() : null;
     }
     
     public String getModelInfo() {
-        if (classifier != null) {
-            return classifier.getClass().getSimpleName() + " (v1.0)";
+        if (ensemble.isEnabled()) {
+            return "Ensemble of " + ensemble.members().size() + " models (" + ensemble.getBudgetMillis() + " ms budget)";
+        }
+        ModelSnapshot model = modelRegistry.active();
+        if (model != null) {
+            return model.getModelType() + " (" + model.getVersion() + ")";
         }
         return "Model not loaded";
     }
@@ -0,0 +1,57 @@
+package com.heartdiagnostic.service.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.DiagnosticServiceApplication;
+import com.heartdiagnostic.service.model.BulkScoringReport;
+import com.heartdiagnostic.service.service.BulkScoringPipeline;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.*;
+
+// Command-line counterpart of POST /api/diagnose/stream:
+//   BulkScorer <input.ndjson|input.csv> <output.ndjson> [chunkSize]
+// -Dweka.explain=false leaves explanations out of the output; other -Dweka.*
+// settings apply as they do to the service.
+public class BulkScorer {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: BulkScorer <input.ndjson|input.csv> <output.ndjson> [chunkSize]");
+            System.exit(1);
+        }
+
+        // The service's own beans, without the web server, so the model resolution and
+        // every weka.* setting (including -D system properties) are the service's
+        SpringApplication application = new SpringApplication(DiagnosticServiceApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setBannerMode(Banner.Mode.OFF);
+        try (ConfigurableApplicationContext context = application.run(
+                "--weka.model.watch=false", "--weka.model.background-load=false", "--weka.model.retain=1")) {
+            WekaModelService modelService = context.getBean(WekaModelService.class);
+
+            ObjectMapper objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            BulkScoringPipeline pipeline = new BulkScoringPipeline(modelService, objectMapper, chunkSize);
+
+            BulkScoringPipeline.Format format = args[0].toLowerCase().endsWith(".csv")
+                ? BulkScoringPipeline.Format.CSV : BulkScoringPipeline.Format.NDJSON;
+
+            try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]), 1 << 16);
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16)) {
+                BulkScoringReport report = pipeline.score(in, format, out,
+                    Boolean.parseBoolean(System.getProperty("weka.explain", "true")));
+                System.out.println("Scored " + args[0] + " -> " + args[1]);
+                System.out.println(report);
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
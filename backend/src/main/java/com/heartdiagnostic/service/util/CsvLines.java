@@ -0,0 +1,37 @@
+package com.heartdiagnostic.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Field splitting for the CSV read by bulk scoring and by the trainer: one
+// line at a time, with double-quoted fields that may hold commas and "" for
+// a quote. Fields are returned as written, without trimming.
+public final class CsvLines {
+
+    private CsvLines() {
+    }
+
+    public static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+}
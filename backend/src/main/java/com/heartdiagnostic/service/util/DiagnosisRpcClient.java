@@ -0,0 +1,132 @@
+package com.heartdiagnostic.service.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.DiagnosisProtocol;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Client for the binary protocol served by DiagnosisRpcServer. send() and
+// receive() may be interleaved freely: batches are answered in order, so a
+// caller can keep several in flight on one connection. Not thread-safe.
+//
+// From the command line it scores an NDJSON file of inputs:
+//   DiagnosisRpcClient <host:port> <input.ndjson> [batchSize]
+public class DiagnosisRpcClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final DiagnosisProtocol.FrameWriter frame = new DiagnosisProtocol.FrameWriter();
+    // Explain flags of the requests still waiting for a response
+    private final Deque<Boolean> pending = new ArrayDeque<>();
+    private int nextRequestId = 1;
+
+    public DiagnosisRpcClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        DiagnosisProtocol.Response hello = DiagnosisProtocol.readResponse(in, false);
+        if (hello.getType() != DiagnosisProtocol.HELLO) {
+            socket.close();
+            throw new IOException("Expected HELLO, got frame type " + hello.getType());
+        }
+    }
+
+    // Queues a batch and returns its request id; nothing is written until flush()
+    public int send(List<SymptomInput> inputs, boolean explain) throws IOException {
+        int requestId = nextRequestId++;
+        DiagnosisProtocol.writeDiagnose(frame, out, requestId, inputs, explain);
+        pending.add(explain);
+        return requestId;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // Waits for the response to the oldest batch still in flight
+    public DiagnosisProtocol.Response receive() throws IOException {
+        if (pending.isEmpty()) {
+            throw new IllegalStateException("No request in flight");
+        }
+        flush();
+        DiagnosisProtocol.Response response = DiagnosisProtocol.readResponse(in, pending.peek());
+        pending.poll();
+        return response;
+    }
+
+    public int inFlight() {
+        return pending.size();
+    }
+
+    // One batch, waiting for its result
+    public DiagnosisProtocol.Response diagnose(List<SymptomInput> inputs, boolean explain) throws IOException {
+        while (!pending.isEmpty()) {
+            receive();
+        }
+        send(inputs, explain);
+        return receive();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || !args[0].contains(":")) {
+            System.err.println("Usage: DiagnosisRpcClient <host:port> <input.ndjson> [batchSize]");
+            System.exit(1);
+        }
+        String host = args[0].substring(0, args[0].lastIndexOf(':'));
+        int port = Integer.parseInt(args[0].substring(args[0].lastIndexOf(':') + 1));
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        // Keeps the connection busy while the caller reads the previous responses
+        int window = 4;
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        long started = System.nanoTime();
+        int rows = 0;
+        int failed = 0;
+        try (DiagnosisRpcClient client = new DiagnosisRpcClient(host, port);
+             MappingIterator<SymptomInput> inputs = objectMapper.readerFor(SymptomInput.class)
+                 .readValues(new BufferedInputStream(new FileInputStream(args[1]), 1 << 16));
+             PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false)) {
+            List<SymptomInput> batch = new ArrayList<>(batchSize);
+            while (inputs.hasNextValue() || !batch.isEmpty() || client.inFlight() > 0) {
+                while (inputs.hasNextValue() && batch.size() < batchSize) {
+                    batch.add(inputs.nextValue());
+                }
+                if (!batch.isEmpty()) {
+                    client.send(batch, false);
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (client.inFlight() >= window || (!inputs.hasNextValue() && client.inFlight() > 0)) {
+                    DiagnosisProtocol.Response response = client.receive();
+                    if (response.getType() != DiagnosisProtocol.RESULT) {
+                        throw new IOException("Request " + response.getRequestId() + " failed: "
+                            + (response.getType() == DiagnosisProtocol.BUSY ? "service busy" : response.getMessage()));
+                    }
+                    for (DiagnosisProtocol.Row row : response.getRows()) {
+                        out.println(row.isSuccess() ? row.getLabel() : "error: " + row.getErrors());
+                        rows++;
+                        failed += row.isSuccess() ? 0 : 1;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+        System.err.println("Scored " + rows + " rows (" + failed + " failed) in " + elapsedMs + " ms");
+    }
+}
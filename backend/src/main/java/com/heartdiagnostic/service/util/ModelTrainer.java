@@ -1,86 +1,573 @@
 package com.heartdiagnostic.service.util;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.heartdiagnostic.service.service.Calibration;
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelFile;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.WekaModelService;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.classifiers.trees.J48;
-import weka.core.*;
-import weka.core.converters.CSVLoader;
-import java.io.*;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
+// Trains the J48 model served by the backend. Reads a CSV or ARFF dataset in
+// the service schema, runs stratified k-fold cross-validation for every point
+// of a hyperparameter grid in parallel, retrains the best configuration on
+// all rows, and writes the model (with its header, so the registry picks up
+// the schema) and a JSON evaluation report. An --out path ending in .hdm
+// writes the compiled binary format (ModelFile) instead of WEKA serialization.
+// Scores are calibrated (see Calibration) on the best configuration's
+// out-of-fold predictions, and saved with the model. The builtin rules are
+// calibrated on the same rows into builtin.calibration beside the model.
+// --algorithm naive-bayes cross-validates and writes a NaiveBayesUpdateable
+// instead, which OnlineLearner can keep training; it has no grid, is saved
+// uncalibrated because online updates would outdate the curves, and cannot
+// be compiled to .hdm.
+//
+// Usage: ModelTrainer --data <file.csv|file.arff> [--out models/heart-model.model|.hdm]
+//        [--report <file.json>] [--folds 10] [--seed 1] [--threads <cores>]
+//        [--algorithm j48|naive-bayes] [--confidence 0.1,0.25,0.5] [--min-leaf 2,5,10,25]
+//        [--calibration isotonic|platt|none]
 public class ModelTrainer {
-    
+
     public static void main(String[] args) {
         try {
-            // Create the dataset structure
-            Instances dataset = createDataset();
-            
-            // Add sample data
-            addSampleData(dataset);
-            
+            Map<String, String> options = parseOptions(args);
+            if (!options.containsKey("data")) {
+                System.err.println("Usage: ModelTrainer --data <file.csv|file.arff> [--out <model>] [--report <json>]"
+                    + " [--folds 10] [--seed 1] [--threads N] [--algorithm j48|naive-bayes]"
+                    + " [--confidence 0.1,0.25,0.5] [--min-leaf 2,5,10,25]"
+                    + " [--calibration isotonic|platt|none]");
+                System.exit(1);
+            }
+            Path dataFile = Paths.get(options.get("data"));
+            Path modelFile = Paths.get(options.getOrDefault("out", "models/heart-model.model"));
+            Path reportFile = Paths.get(options.getOrDefault("report",
+                modelFile.toString().replaceFirst("\\.model$", "") + "-report.json"));
+            int folds = Integer.parseInt(options.getOrDefault("folds", "10"));
+            long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+            int threads = Integer.parseInt(options.getOrDefault("threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+            float[] confidences = parseFloats(options.getOrDefault("confidence", "0.1,0.25,0.5"));
+            int[] minLeaves = parseInts(options.getOrDefault("min-leaf", "2,5,10,25"));
+            String calibrationName = options.getOrDefault("calibration", "isotonic");
+            Calibration.Method calibrationMethod = "none".equals(calibrationName)
+                ? null : Calibration.Method.forName(calibrationName);
+            String algorithm = options.getOrDefault("algorithm", "j48");
+            boolean updateable;
+            if ("naive-bayes".equals(algorithm)) {
+                updateable = true;
+            } else if ("j48".equals(algorithm)) {
+                updateable = false;
+            } else {
+                throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+            }
+            if (updateable && modelFile.getFileName().toString().endsWith(ModelFile.EXTENSION)) {
+                throw new IllegalArgumentException("Only J48 trees can be written as " + ModelFile.EXTENSION
+                    + "; save the naive Bayes model as .model");
+            }
+
+            // Load the dataset
+            long start = System.currentTimeMillis();
+            TrainingData data = TrainingData.read(dataFile, WekaModelService.createDataStructure());
+            if (data.size() < folds) {
+                throw new IllegalArgumentException("Need at least " + folds + " labelled rows, got " + data.size());
+            }
+            long loaded = System.currentTimeMillis();
+            System.out.println("Loaded " + data.size() + " rows from " + dataFile + " in " + (loaded - start) + " ms");
+
+            // Cross-validate every grid point in parallel
+            int[] foldOf = data.assignFolds(folds, seed);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            List<GridResult> results;
+            GridResult best;
+            Calibration calibration = null;
+            Calibration builtinCalibration = null;
+            Map<String, Object> calibrationReport = null;
+            long evaluated;
+            long calibrated;
+            try {
+                results = updateable
+                    ? pool.invoke(new GridSearchTask(data, foldOf, folds, List.of(GridPoint.NAIVE_BAYES)))
+                    : gridSearch(pool, data, foldOf, folds, confidences, minLeaves);
+                evaluated = System.currentTimeMillis();
+
+                best = results.get(0);
+                for (GridResult result : results) {
+                    System.out.println(result);
+                    if (result.accuracy() > best.accuracy()) best = result;
+                }
+                System.out.println("Best: " + best);
+
+                // Calibrate on predictions for rows each fold's model was not trained on
+                if (calibrationMethod != null) {
+                    double[][] outOfFold = pool.invoke(new OutOfFoldTask(data, foldOf, folds, best.point));
+                    int[] labels = new int[data.size()];
+                    double[][] builtin = new double[data.size()][];
+                    MockClassifier rules = new MockClassifier();
+                    for (int i = 0; i < data.size(); i++) {
+                        labels[i] = data.label(i);
+                        builtin[i] = rules.distributionForInstance(data.instance(i));
+                    }
+                    int numClasses = data.getHeader().numClasses();
+                    // An updateable model is saved uncalibrated, but the report still shows the fit
+                    Calibration fitted = Calibration.fit(calibrationMethod, outOfFold, labels, numClasses);
+                    calibration = updateable ? null : fitted;
+                    builtinCalibration = Calibration.fit(calibrationMethod, builtin, labels, numClasses);
+                    calibrationReport = new LinkedHashMap<>();
+                    calibrationReport.put("method", calibrationName);
+                    calibrationReport.put("model", calibrationScores(fitted, outOfFold, labels));
+                    calibrationReport.put("savedWithModel", calibration != null);
+                    calibrationReport.put("builtin", calibrationScores(builtinCalibration, builtin, labels));
+                    System.out.println("Calibration (" + calibrationName + "): " + calibrationReport);
+                }
+                calibrated = System.currentTimeMillis();
+            } finally {
+                pool.shutdown();
+            }
+
             // Train the model
-            J48 classifier = new J48();
-            classifier.buildClassifier(dataset);
-            
-            // Save the model
-            String modelPath = "src/main/resources/models/heart-model.model";
-            weka.core.SerializationHelper.write(modelPath, classifier);
-            
-            System.out.println("WEKA model trained and saved successfully to: " + modelPath);
+            Classifier classifier = best.point.train(data.trainingSet(foldOf, -1));
+            long trained = System.currentTimeMillis();
+
+            // Save the model with its header; written beside the target and moved
+            // into place so a watching registry never reads a partial file
+            Files.createDirectories(modelFile.toAbsolutePath().getParent());
+            if (modelFile.getFileName().toString().endsWith(ModelFile.EXTENSION)) {
+                ModelFile.write(modelFile, data.getHeader(),
+                    CompiledTreeClassifier.compile(classifier, data.getHeader(), false), calibration);
+            } else {
+                Object[] objects = calibration != null
+                    ? new Object[]{classifier, new Instances(data.getHeader(), 0), calibration}
+                    : new Object[]{classifier, new Instances(data.getHeader(), 0)};
+                Path tempFile = modelFile.resolveSibling(modelFile.getFileName() + ".tmp");
+                SerializationHelper.writeAll(tempFile.toString(), objects);
+                Files.move(tempFile, modelFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (builtinCalibration != null) {
+                Path builtinFile = modelFile.resolveSibling(ModelRegistry.BUILTIN_CALIBRATION);
+                Path tempFile = builtinFile.resolveSibling(builtinFile.getFileName() + ".tmp");
+                SerializationHelper.write(tempFile.toString(), builtinCalibration);
+                Files.move(tempFile, builtinFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            Map<String, Object> report = report(dataFile, data, folds, seed, threads, results, best, classifier);
+            if (calibrationReport != null) {
+                report.put("calibration", calibrationReport);
+            }
+            Map<String, Object> timings = new LinkedHashMap<>();
+            timings.put("loadMs", loaded - start);
+            timings.put("crossValidationMs", evaluated - loaded);
+            timings.put("calibrationMs", calibrated - evaluated);
+            timings.put("finalTrainingMs", trained - calibrated);
+            report.put("timings", timings);
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile.toFile(), report);
+
+            System.out.println("WEKA model trained and saved successfully to: " + modelFile);
+            System.out.println("Evaluation report: " + reportFile);
             System.out.println("Model: " + classifier.toString());
-            
+
         } catch (Exception e) {
             e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // Cross-validates every combination of confidence and minLeaf on the given
+    // fold assignment, in grid order
+    public static List<GridResult> gridSearch(ForkJoinPool pool, TrainingData data, int[] foldOf, int folds,
+                                              float[] confidences, int[] minLeaves) {
+        List<GridPoint> grid = new ArrayList<>();
+        for (float confidence : confidences) {
+            for (int minLeaf : minLeaves) {
+                grid.add(new GridPoint(confidence, minLeaf));
+            }
+        }
+        return pool.invoke(new GridSearchTask(data, foldOf, folds, grid));
+    }
+
+    public static J48 train(Instances data, float confidence, int minLeaf) throws Exception {
+        J48 classifier = new J48();
+        classifier.setConfidenceFactor(confidence);
+        classifier.setMinNumObj(minLeaf);
+        classifier.buildClassifier(data);
+        return classifier;
+    }
+
+    private static Map<String, Object> report(Path dataFile, TrainingData data, int folds, long seed, int threads,
+                                              List<GridResult> results, GridResult best, Classifier classifier) {
+        Instances header = data.getHeader();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("dataset", dataFile.toString());
+        report.put("rows", data.size());
+        Map<String, Integer> classes = new LinkedHashMap<>();
+        int[] counts = data.classCounts();
+        for (int c = 0; c < counts.length; c++) {
+            classes.put(header.classAttribute().value(c), counts[c]);
+        }
+        report.put("classDistribution", classes);
+        report.put("folds", folds);
+        report.put("seed", seed);
+        report.put("threads", threads);
+
+        List<Map<String, Object>> grid = new ArrayList<>();
+        for (GridResult result : results) {
+            grid.add(result.toMap(header));
+        }
+        report.put("grid", grid);
+        report.put("best", best.toMap(header));
+
+        Map<String, Object> model = new LinkedHashMap<>();
+        model.put("type", classifier.getClass().getSimpleName());
+        if (classifier instanceof OptionHandler) {
+            model.put("options", Utils.joinOptions(((OptionHandler) classifier).getOptions()));
+        }
+        if (classifier instanceof J48) {
+            model.put("treeSize", ((J48) classifier).measureTreeSize());
+            model.put("leaves", ((J48) classifier).measureNumLeaves());
+        }
+        report.put("model", model);
+        return report;
+    }
+
+    // Log loss and Brier score of the predictions before and after calibration
+    private static Map<String, Object> calibrationScores(Calibration calibration, double[][] distributions, int[] labels) {
+        double rawLogLoss = 0, logLoss = 0, rawBrier = 0, brier = 0;
+        for (int i = 0; i < distributions.length; i++) {
+            double[] raw = distributions[i];
+            double[] calibrated = calibration.apply(raw.clone());
+            rawLogLoss -= Math.log(Math.max(raw[labels[i]], 1e-15));
+            logLoss -= Math.log(Math.max(calibrated[labels[i]], 1e-15));
+            for (int c = 0; c < raw.length; c++) {
+                double target = labels[i] == c ? 1 : 0;
+                rawBrier += (raw[c] - target) * (raw[c] - target);
+                brier += (calibrated[c] - target) * (calibrated[c] - target);
+            }
+        }
+        int n = distributions.length;
+        Map<String, Object> scores = new LinkedHashMap<>();
+        scores.put("rawLogLoss", rawLogLoss / n);
+        scores.put("logLoss", logLoss / n);
+        scores.put("rawBrier", rawBrier / n);
+        scores.put("brier", brier / n);
+        return scores;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static float[] parseFloats(String list) {
+        String[] parts = list.split(",");
+        float[] values = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Float.parseFloat(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    public static NaiveBayesUpdateable trainUpdateable(Instances data) throws Exception {
+        NaiveBayesUpdateable classifier = new NaiveBayesUpdateable();
+        classifier.buildClassifier(data);
+        return classifier;
+    }
+
+    // One configuration to cross-validate: a J48 setting, or the updateable naive Bayes
+    public static final class GridPoint {
+        public static final GridPoint NAIVE_BAYES = new GridPoint(Float.NaN, 0);
+
+        public final float confidence;
+        public final int minLeaf;
+
+        GridPoint(float confidence, int minLeaf) {
+            this.confidence = confidence;
+            this.minLeaf = minLeaf;
+        }
+
+        Classifier train(Instances data) throws Exception {
+            return this == NAIVE_BAYES ? trainUpdateable(data) : ModelTrainer.train(data, confidence, minLeaf);
+        }
+
+        @Override
+        public String toString() {
+            return this == NAIVE_BAYES ? "NaiveBayesUpdateable" : String.format("C=%.2f M=%d", confidence, minLeaf);
+        }
+    }
+
+    public static final class GridResult {
+        public final GridPoint point;
+        // Rows are the actual class, columns the predicted one
+        public final long[][] confusion;
+        public final double[] foldAccuracy;
+
+        GridResult(GridPoint point, long[][] confusion, double[] foldAccuracy) {
+            this.point = point;
+            this.confusion = confusion;
+            this.foldAccuracy = foldAccuracy;
+        }
+
+        public double accuracy() {
+            long correct = 0;
+            long total = 0;
+            for (int i = 0; i < confusion.length; i++) {
+                for (int j = 0; j < confusion.length; j++) {
+                    total += confusion[i][j];
+                    if (i == j) correct += confusion[i][j];
+                }
+            }
+            return total == 0 ? 0 : (double) correct / total;
+        }
+
+        public double accuracyStdDev() {
+            double mean = 0;
+            for (double accuracy : foldAccuracy) mean += accuracy;
+            mean /= foldAccuracy.length;
+            double variance = 0;
+            for (double accuracy : foldAccuracy) variance += (accuracy - mean) * (accuracy - mean);
+            return Math.sqrt(variance / Math.max(1, foldAccuracy.length - 1));
+        }
+
+        Map<String, Object> toMap(Instances header) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            if (point != GridPoint.NAIVE_BAYES) {
+                map.put("confidenceFactor", point.confidence);
+                map.put("minNumObj", point.minLeaf);
+            }
+            map.put("accuracy", accuracy());
+            map.put("accuracyStdDev", accuracyStdDev());
+            map.put("foldAccuracy", foldAccuracy);
+
+            // Rows are the actual class, columns the predicted one
+            map.put("confusionMatrix", confusion);
+            Map<String, Object> perClass = new LinkedHashMap<>();
+            for (int c = 0; c < confusion.length; c++) {
+                long actual = 0;
+                long predicted = 0;
+                for (int k = 0; k < confusion.length; k++) {
+                    actual += confusion[c][k];
+                    predicted += confusion[k][c];
+                }
+                double precision = predicted == 0 ? 0 : (double) confusion[c][c] / predicted;
+                double recall = actual == 0 ? 0 : (double) confusion[c][c] / actual;
+                Map<String, Double> scores = new LinkedHashMap<>();
+                scores.put("precision", precision);
+                scores.put("recall", recall);
+                scores.put("f1", precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall));
+                perClass.put(header.classAttribute().value(c), scores);
+            }
+            map.put("perClass", perClass);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s accuracy=%.4f (+/- %.4f)", point, accuracy(), accuracyStdDev());
+        }
+    }
+
+    // Forks one task per grid point and fold; the pool keeps every core busy
+    // even when one configuration trains much slower than the others. Tasks
+    // are queued fold by fold and the grid points of a fold share its training
+    // set, so only the folds being worked on hold a copy of the rows.
+    private static final class GridSearchTask extends RecursiveTask<List<GridResult>> {
+        private final TrainingData data;
+        private final int[] foldOf;
+        private final int folds;
+        private final List<GridPoint> grid;
+
+        GridSearchTask(TrainingData data, int[] foldOf, int folds, List<GridPoint> grid) {
+            this.data = data;
+            this.foldOf = foldOf;
+            this.folds = folds;
+            this.grid = grid;
+        }
+
+        @Override
+        protected List<GridResult> compute() {
+            FoldSets sets = new FoldSets(data, foldOf, folds, grid.size());
+            List<FoldTask> tasks = new ArrayList<>();
+            for (int fold = 0; fold < folds; fold++) {
+                for (GridPoint point : grid) {
+                    tasks.add(new FoldTask(data, foldOf, fold, point, sets));
+                }
+            }
+            invokeAll(tasks);
+
+            int numClasses = data.getHeader().numClasses();
+            List<GridResult> results = new ArrayList<>();
+            for (int g = 0; g < grid.size(); g++) {
+                long[][] confusion = new long[numClasses][numClasses];
+                double[] foldAccuracy = new double[folds];
+                for (int fold = 0; fold < folds; fold++) {
+                    long[][] foldConfusion = tasks.get(fold * grid.size() + g).join();
+                    long correct = 0;
+                    long total = 0;
+                    for (int i = 0; i < numClasses; i++) {
+                        for (int j = 0; j < numClasses; j++) {
+                            confusion[i][j] += foldConfusion[i][j];
+                            total += foldConfusion[i][j];
+                            if (i == j) correct += foldConfusion[i][j];
+                        }
+                    }
+                    foldAccuracy[fold] = total == 0 ? 0 : (double) correct / total;
+                }
+                results.add(new GridResult(grid.get(g), confusion, foldAccuracy));
+            }
+            return results;
         }
     }
-    
-    private static Instances createDataset() {
-        ArrayList<Attribute> attributes = new ArrayList<>();
-        
-        // Add numeric attributes
-        attributes.add(new Attribute("age"));
-        attributes.add(new Attribute("sex"));
-        attributes.add(new Attribute("chestPain"));
-        attributes.add(new Attribute("bloodPressure"));
-        attributes.add(new Attribute("cholesterol"));
-        attributes.add(new Attribute("fastingBS"));
-        attributes.add(new Attribute("restECG"));
-        attributes.add(new Attribute("maxHeartRate"));
-        attributes.add(new Attribute("exerciseAngina"));
-        attributes.add(new Attribute("oldpeak"));
-        attributes.add(new Attribute("thallium"));
-        attributes.add(new Attribute("bmi"));
-        
-        // Add class attribute
-        ArrayList<String> classValues = new ArrayList<>();
-        classValues.add("Healthy");
-        classValues.add("Moderate Risk");
-        classValues.add("Severe Risk");
-        attributes.add(new Attribute("class", classValues));
-        
-        // Create dataset
-        Instances dataset = new Instances("HeartDisease", attributes, 0);
-        dataset.setClassIndex(dataset.numAttributes() - 1);
-        
-        return dataset;
+
+    // Out-of-fold distributions for one configuration: row i is scored by the
+    // model trained on every fold but its own
+    private static final class OutOfFoldTask extends RecursiveTask<double[][]> {
+        private final TrainingData data;
+        private final int[] foldOf;
+        private final int folds;
+        private final GridPoint point;
+
+        OutOfFoldTask(TrainingData data, int[] foldOf, int folds, GridPoint point) {
+            this.data = data;
+            this.foldOf = foldOf;
+            this.folds = folds;
+            this.point = point;
+        }
+
+        @Override
+        protected double[][] compute() {
+            double[][] distributions = new double[data.size()][];
+            List<RecursiveTask<Void>> tasks = new ArrayList<>();
+            for (int f = 0; f < folds; f++) {
+                int fold = f;
+                tasks.add(new RecursiveTask<>() {
+                    @Override
+                    protected Void compute() {
+                        try {
+                            Classifier classifier = point.train(data.trainingSet(foldOf, fold));
+                            // Each fold fills only its own rows
+                            for (int i = 0; i < data.size(); i++) {
+                                if (foldOf[i] == fold) {
+                                    distributions[i] = classifier.distributionForInstance(data.instance(i));
+                                }
+                            }
+                            return null;
+                        } catch (Exception e) {
+                            throw new IllegalStateException("Calibration fold " + fold + " failed", e);
+                        }
+                    }
+                });
+            }
+            invokeAll(tasks);
+            return distributions;
+        }
     }
-    
-    private static void addSampleData(Instances dataset) {
-        // Add some sample training data
-        double[][] sampleData = {
-            {45, 1, 1, 120, 200, 0, 0, 150, 0, 1.0, 1, 25.0, 0}, // Healthy
-            {55, 0, 2, 140, 250, 1, 1, 130, 1, 2.0, 2, 28.0, 1}, // Moderate Risk
-            {65, 1, 3, 160, 300, 1, 1, 110, 1, 3.0, 3, 32.0, 2}, // Severe Risk
-            {35, 0, 0, 110, 180, 0, 0, 170, 0, 0.5, 1, 22.0, 0}, // Healthy
-            {50, 1, 2, 130, 220, 0, 1, 140, 0, 1.5, 2, 26.0, 1}, // Moderate Risk
-            {60, 0, 3, 150, 280, 1, 1, 120, 1, 2.5, 3, 30.0, 2}, // Severe Risk
-            {40, 1, 1, 115, 190, 0, 0, 160, 0, 0.8, 1, 24.0, 0}, // Healthy
-            {58, 0, 2, 135, 240, 1, 1, 125, 1, 2.2, 2, 29.0, 1}, // Moderate Risk
-            {70, 1, 3, 170, 320, 1, 1, 100, 1, 3.5, 3, 35.0, 2}, // Severe Risk
-            {30, 0, 0, 100, 160, 0, 0, 180, 0, 0.2, 1, 20.0, 0}  // Healthy
-        };
-        
-        for (double[] row : sampleData) {
-            DenseInstance instance = new DenseInstance(1.0, row);
-            dataset.add(instance);
+
+    // Each fold's training set, built by the first task that needs it and
+    // dropped once every grid point has trained on it. Classifiers copy the
+    // rows they keep, so the set is only ever read while it is shared.
+    private static final class FoldSets {
+        private final TrainingData data;
+        private final int[] foldOf;
+        private final Instances[] sets;
+        private final int[] remaining;
+
+        FoldSets(TrainingData data, int[] foldOf, int folds, int users) {
+            this.data = data;
+            this.foldOf = foldOf;
+            this.sets = new Instances[folds];
+            this.remaining = new int[folds];
+            Arrays.fill(remaining, users);
+        }
+
+        Instances acquire(int fold) {
+            synchronized (remaining) {
+                if (sets[fold] == null) {
+                    sets[fold] = data.trainingSet(foldOf, fold);
+                }
+                return sets[fold];
+            }
+        }
+
+        void release(int fold) {
+            synchronized (remaining) {
+                if (--remaining[fold] == 0) {
+                    sets[fold] = null;
+                }
+            }
+        }
+    }
+
+    // Trains on every other fold and returns the confusion matrix on this one
+    private static final class FoldTask extends RecursiveTask<long[][]> {
+        private final TrainingData data;
+        private final int[] foldOf;
+        private final int fold;
+        private final GridPoint point;
+        private final FoldSets sets;
+
+        FoldTask(TrainingData data, int[] foldOf, int fold, GridPoint point, FoldSets sets) {
+            this.data = data;
+            this.foldOf = foldOf;
+            this.fold = fold;
+            this.point = point;
+            this.sets = sets;
+        }
+
+        @Override
+        protected long[][] compute() {
+            try {
+                Classifier classifier;
+                try {
+                    classifier = point.train(sets.acquire(fold));
+                } finally {
+                    sets.release(fold);
+                }
+                int numClasses = data.getHeader().numClasses();
+                long[][] confusion = new long[numClasses][numClasses];
+                for (int i = 0; i < data.size(); i++) {
+                    if (foldOf[i] != fold) continue;
+                    Instance instance = data.instance(i);
+                    int predicted = Utils.maxIndex(classifier.distributionForInstance(instance));
+                    confusion[data.label(i)][predicted]++;
+                }
+                return confusion;
+            } catch (Exception e) {
+                throw new IllegalStateException("Fold " + fold + " failed for " + point, e);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,283 @@
+package com.heartdiagnostic.service.util;
+
+import com.heartdiagnostic.service.model.NominalFeature;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Training rows in the service schema, held as one flat double array rather
+// than WEKA Instance objects. Files are read one row at a time and mapped
+// onto the schema by attribute name, so a dataset never exists as a full
+// Instances of the source file next to its encoded copy. Categorical values
+// are coded with the same NominalFeature tables that decode requests.
+public final class TrainingData {
+
+    private final Instances header;
+    private final int width;
+    // The encoding table for each categorical attribute, null for the others
+    private final NominalFeature[] features;
+    private double[] values;
+    private int rows;
+
+    public TrainingData(Instances header) {
+        this.header = header;
+        this.width = header.numAttributes();
+        this.features = new NominalFeature[width];
+        for (int a = 0; a < width; a++) {
+            Attribute attribute = header.attribute(a);
+            NominalFeature feature = NominalFeature.forAttribute(attribute.name());
+            if (feature != null && !matchesTable(attribute, feature)) {
+                throw new IllegalArgumentException("Attribute " + attribute.name()
+                    + " must list its values as " + feature.valueList());
+            }
+            features[a] = feature;
+        }
+        this.values = new double[width * 1024];
+    }
+
+    // Table codes are only header codes when the values are in table order
+    private static boolean matchesTable(Attribute attribute, NominalFeature feature) {
+        if (!attribute.isNominal() || attribute.numValues() != feature.size()) {
+            return false;
+        }
+        for (int i = 0; i < feature.size(); i++) {
+            if (!feature.value(i).equals(attribute.value(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // .arff files go through WEKA's incremental ARFF reader; anything else is
+    // read as CSV with a header row of attribute names
+    public static TrainingData read(Path file, Instances header) throws IOException {
+        TrainingData data = new TrainingData(header);
+        if (file.getFileName().toString().toLowerCase().endsWith(".arff")) {
+            data.readArff(file);
+        } else {
+            data.readCsv(file);
+        }
+        return data;
+    }
+
+    public Instances getHeader() {
+        return header;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int label(int row) {
+        return (int) values[row * width + header.classIndex()];
+    }
+
+    public int[] classCounts() {
+        int[] counts = new int[header.numClasses()];
+        for (int i = 0; i < rows; i++) {
+            counts[label(i)]++;
+        }
+        return counts;
+    }
+
+    public Instance instance(int row) {
+        Instance instance = new DenseInstance(1.0, Arrays.copyOfRange(values, row * width, (row + 1) * width));
+        instance.setDataset(header);
+        return instance;
+    }
+
+    // The rows whose fold is not the given one (or all rows for fold -1), as
+    // a WEKA training set
+    public Instances trainingSet(int[] folds, int fold) {
+        Instances set = new Instances(header, fold < 0 ? rows : rows - rows / Math.max(1, countFolds(folds)));
+        for (int i = 0; i < rows; i++) {
+            if (fold < 0 || folds[i] != fold) {
+                set.add(instance(i));
+            }
+        }
+        return set;
+    }
+
+    // Stratified fold assignment: each class is shuffled and dealt round-robin,
+    // so every fold sees roughly the overall class distribution
+    public int[] assignFolds(int numFolds, long seed) {
+        Random random = new Random(seed);
+        int[] folds = new int[rows];
+        int next = 0;
+        for (int c = 0; c < header.numClasses(); c++) {
+            int[] members = new int[rows];
+            int count = 0;
+            for (int i = 0; i < rows; i++) {
+                if (label(i) == c) members[count++] = i;
+            }
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = members[i];
+                members[i] = members[j];
+                members[j] = swap;
+            }
+            for (int i = 0; i < count; i++) {
+                folds[members[i]] = next;
+                next = (next + 1) % numFolds;
+            }
+        }
+        return folds;
+    }
+
+    public void add(double[] row) {
+        if ((rows + 1) * width > values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        System.arraycopy(row, 0, values, rows * width, width);
+        rows++;
+    }
+
+    private static int countFolds(int[] folds) {
+        int max = -1;
+        for (int fold : folds) {
+            max = Math.max(max, fold);
+        }
+        return max + 1;
+    }
+
+    private void readArff(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            ArffLoader loader = new ArffLoader();
+            loader.setSource(in);
+            Instances structure = loader.getStructure();
+            int[] columns = new int[width];
+            for (int a = 0; a < width; a++) {
+                Attribute attribute = structure.attribute(header.attribute(a).name());
+                columns[a] = attribute != null ? attribute.index() : -1;
+            }
+
+            double[] row = new double[width];
+            Instance source;
+            while ((source = loader.getNextInstance(structure)) != null) {
+                for (int a = 0; a < width; a++) {
+                    row[a] = columns[a] < 0 || source.isMissing(columns[a]) ? Utils.missingValue()
+                        : parse(a, structure.attribute(columns[a]).isNominal()
+                            ? source.stringValue(columns[a]) : Double.toString(source.value(columns[a])));
+                }
+                addLabelled(row);
+            }
+        }
+    }
+
+    private void readCsv(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                throw new IOException(file + " is empty");
+            }
+            List<String> names = CsvLines.split(headerLine);
+            int[] columns = new int[width];
+            Arrays.fill(columns, -1);
+            int heightColumn = -1;
+            int weightColumn = -1;
+            for (int c = 0; c < names.size(); c++) {
+                String name = names.get(c).trim();
+                Attribute attribute = header.attribute(name);
+                if (attribute != null) {
+                    columns[attribute.index()] = c;
+                } else if (name.equals("height_m")) {
+                    heightColumn = c;
+                } else if (name.equals("weight_kg")) {
+                    weightColumn = c;
+                }
+            }
+            if (columns[header.classIndex()] < 0) {
+                throw new IOException(file + " has no '" + header.classAttribute().name() + "' column");
+            }
+            Attribute bmi = header.attribute("bmi");
+
+            double[] row = new double[width];
+            String line;
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                List<String> fields = CsvLines.split(line);
+                try {
+                    for (int a = 0; a < width; a++) {
+                        row[a] = columns[a] < 0 || columns[a] >= fields.size() ? Utils.missingValue()
+                            : parse(a, fields.get(columns[a]));
+                    }
+                    // Datasets exported with the API field names carry height and weight instead of BMI
+                    if (bmi != null && columns[bmi.index()] < 0 && heightColumn >= 0 && weightColumn >= 0) {
+                        double height = number(fields, heightColumn);
+                        double weight = number(fields, weightColumn);
+                        row[bmi.index()] = height > 0 && !Utils.isMissingValue(weight) ? weight / (height * height)
+                            : Utils.missingValue();
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException(file + " line " + lineNumber + ": " + e.getMessage(), e);
+                }
+                addLabelled(row);
+            }
+        }
+    }
+
+    // Rows without a class label cannot be trained on and are skipped
+    private void addLabelled(double[] row) {
+        if (!Utils.isMissingValue(row[header.classIndex()])) {
+            add(row);
+        }
+    }
+
+    private double parse(int attributeIndex, String text) {
+        String value = text.trim();
+        if (value.isEmpty() || value.equals("?")) {
+            return Utils.missingValue();
+        }
+        NominalFeature feature = features[attributeIndex];
+        if (feature != null) {
+            int code = feature.code(value);
+            if (code < 0) {
+                throw new IllegalArgumentException("unknown " + feature.attribute() + " value '" + value + "'");
+            }
+            return code;
+        }
+        Attribute attribute = header.attribute(attributeIndex);
+        if (!attribute.isNominal()) {
+            return Double.parseDouble(value);
+        }
+        int index = attribute.indexOfValue(value);
+        if (index < 0 && isIntegral(value)) {
+            // Numerically coded flags such as fastingBS=1.0
+            index = attribute.indexOfValue(Long.toString((long) Double.parseDouble(value)));
+        }
+        if (index < 0) {
+            throw new IllegalArgumentException("unknown " + attribute.name() + " value '" + value + "'");
+        }
+        return index;
+    }
+
+    private static boolean isIntegral(String value) {
+        try {
+            double number = Double.parseDouble(value);
+            return number == Math.rint(number);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // A numeric field that is not an attribute, such as height_m; blank or ? is missing
+    private static double number(List<String> fields, int column) {
+        String value = column < fields.size() ? fields.get(column).trim() : "";
+        return value.isEmpty() || value.equals("?") ? Utils.missingValue() : Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,76 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.service.AdmissionLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionLimiterTest {
+
+    @Test
+    void testDisabled_AdmitsEverything() {
+        AdmissionLimiter limiter = new AdmissionLimiter(new SimpleMeterRegistry(), false, 1, 1, 1, 1, 503);
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(limiter.tryAcquire());
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getRejectedCount());
+    }
+
+    @Test
+    void testTryAcquire_RejectsAtLimitUntilReleased() {
+        AdmissionLimiter limiter = new AdmissionLimiter(new SimpleMeterRegistry(), true, 2, 1, 10, 1, 503);
+        AdmissionLimiter.Permit first = limiter.tryAcquire();
+        AdmissionLimiter.Permit second = limiter.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejectedCount());
+
+        // Closing twice releases one slot only
+        first.close();
+        first.close();
+        assertEquals(1, limiter.getInFlight());
+        assertNotNull(limiter.tryAcquire());
+        assertNull(limiter.tryAcquire());
+        assertEquals(2, limiter.getRejectedCount());
+    }
+
+    @Test
+    void testLimit_ShrinksWhenLatencyRises() throws Exception {
+        AdmissionLimiter limiter = new AdmissionLimiter(new SimpleMeterRegistry(), true, 64, 8, 1024, 1, 503);
+
+        // A first window sets the baseline, a much slower one means requests are queueing
+        runWindow(limiter, 110);
+        assertEquals(64, limiter.getLimit());
+        runWindow(limiter, 600);
+        int limit = limiter.getLimit();
+        assertTrue(limit < 64 && limit >= 8, "limit " + limit);
+    }
+
+    @Test
+    void testConstructor_ClampsLimitAndValidatesRejectStatus() {
+        AdmissionLimiter limiter = new AdmissionLimiter(new SimpleMeterRegistry(), true, 5000, 8, 1024, 0, 429);
+        assertEquals(1024, limiter.getLimit());
+        assertEquals(1, limiter.getRetryAfterSeconds());
+        assertEquals(429, limiter.getRejectStatus());
+        assertThrows(IllegalArgumentException.class,
+            () -> new AdmissionLimiter(new SimpleMeterRegistry(), true, 64, 8, 1024, 1, 500));
+    }
+
+    // Holds ten permits for about millis and releases them, which closes a window
+    private static void runWindow(AdmissionLimiter limiter, long millis) throws InterruptedException {
+        List<AdmissionLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            permits.add(limiter.tryAcquire());
+        }
+        Thread.sleep(millis);
+        for (AdmissionLimiter.Permit permit : permits) {
+            permit.close();
+        }
+    }
+}
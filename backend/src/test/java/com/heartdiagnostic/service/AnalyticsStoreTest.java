@@ -0,0 +1,147 @@
+package com.heartdiagnostic.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.ClassScores;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.AnalyticsStore;
+import com.heartdiagnostic.service.service.AnalyticsStore.Dimension;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalyticsStoreTest {
+
+    private static final String[] CLASSES = {"Healthy", "Moderate Risk", "Severe Risk"};
+
+    // Chunks of 4 rows, so a handful of rows spans several chunks
+    private final AnalyticsStore store = new AnalyticsStore(new ObjectMapper(), new SimpleMeterRegistry(),
+        true, 1000, 4, 2, 2, false, "audit");
+
+    @AfterEach
+    void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    void testAggregate_GroupsAcrossChunks() {
+        for (int i = 0; i < 5; i++) {
+            store.record(input(55, "female", 250), result("Severe Risk", 0.1, 0.2, 0.7));
+        }
+        for (int i = 0; i < 3; i++) {
+            store.record(input(42, "male", 200), result("Healthy", 0.8, 0.15, 0.05));
+        }
+        store.record(input(61, "female", 180), result("Moderate Risk", 0.2, 0.6, 0.2));
+
+        Map<String, Object> response = store.aggregate(List.of(Dimension.AGE_BAND, Dimension.SEX), Map.of(), 10);
+        assertEquals(9L, response.get("rows"));
+        assertEquals(9L, response.get("matched"));
+        List<Map<String, Object>> groups = groups(response);
+        assertEquals(3, groups.size());
+
+        // Groups come in slot order, first dimension most significant
+        Map<String, Object> forties = groups.get(0);
+        assertEquals(Map.of("ageBand", "40-49", "sex", "male"), forties.get("group"));
+        assertEquals(3L, forties.get("count"));
+
+        Map<String, Object> fifties = groups.get(1);
+        assertEquals(5L, fifties.get("count"));
+        assertEquals(Map.of("Severe Risk", 5L), fifties.get("labels"));
+        Map<?, ?> meanScores = (Map<?, ?>) fifties.get("meanScores");
+        assertEquals(0.7, (double) (Double) meanScores.get("Severe Risk"), 1e-4);
+        Map<?, ?> riskFactors = (Map<?, ?>) fifties.get("riskFactors");
+        assertEquals(1.0, (double) (Double) riskFactors.get("highCholesterol"));
+        assertEquals(0.0, (double) (Double) riskFactors.get("ageOver65"));
+        // Thallium was not given
+        assertNull(riskFactors.get("thalliumDefect"));
+    }
+
+    @Test
+    void testAggregate_FiltersAndMissingValues() {
+        store.record(input(55, "female", 250), result("Severe Risk", 0.1, 0.2, 0.7));
+        store.record(input(58, null, 250), result("Moderate Risk", 0.2, 0.6, 0.2));
+        store.record(input(70, "male", 190), result("Moderate Risk", 0.3, 0.5, 0.2));
+
+        Map<String, Object> response = store.aggregate(List.of(Dimension.SEX),
+            Map.of(Dimension.LABEL, List.of("Moderate Risk")), 10);
+        assertEquals(3L, response.get("rows"));
+        assertEquals(2L, response.get("matched"));
+        List<Map<String, Object>> groups = groups(response);
+        assertEquals(Map.of("sex", "male"), groups.get(0).get("group"));
+        assertEquals(Map.of("sex", "missing"), groups.get(1).get("group"));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> store.aggregate(List.of(), Map.of(Dimension.SEX, List.of("other")), 10));
+    }
+
+    @Test
+    void testRecord_DropsOldestChunkBeyondMaxRows() {
+        AnalyticsStore small = new AnalyticsStore(new ObjectMapper(), new SimpleMeterRegistry(), true, 8, 4, 1, 1,
+            false, "audit");
+        try {
+            for (int i = 0; i < 10; i++) {
+                small.record(input(30 + i, "male", 200), result("Healthy", 0.9, 0.05, 0.05));
+            }
+            // Two full chunks of four are kept at most, so the first chunk went when the third began
+            assertEquals(6L, small.rowCount());
+            assertEquals(4L, small.stats().get("evictedRows"));
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    void testRecord_ConcurrentAppendsAreAllCounted() throws Exception {
+        AnalyticsStore striped = new AnalyticsStore(new ObjectMapper(), new SimpleMeterRegistry(), true, 100_000, 64,
+            2, 4, false, "audit");
+        try {
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                String sex = t % 2 == 0 ? "male" : "female";
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        striped.record(input(40, sex, 200), result("Healthy", 0.9, 0.05, 0.05));
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(8000L, striped.rowCount());
+            Map<String, Object> response = striped.aggregate(List.of(Dimension.SEX), Map.of(), 10);
+            assertEquals(8000L, response.get("matched"));
+            assertEquals(4000L, groups(response).get(0).get("count"));
+            assertEquals(4000L, groups(response).get(1).get("count"));
+        } finally {
+            striped.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> groups(Map<String, Object> response) {
+        return (List<Map<String, Object>>) response.get("groups");
+    }
+
+    private static SymptomInput input(int age, String sex, int cholesterol) {
+        SymptomInput input = new SymptomInput();
+        input.setAge(age);
+        input.setSex(sex);
+        input.setChestPain("asymptomatic");
+        input.setBloodPressure(130);
+        input.setCholesterol(cholesterol);
+        input.setFastingBS(0);
+        return input;
+    }
+
+    private static DiagnosisResult result(String label, double... scores) {
+        DiagnosisResult result = new DiagnosisResult(label, new ClassScores(CLASSES, scores), null);
+        result.setModelVersion("v1");
+        return result;
+    }
+}
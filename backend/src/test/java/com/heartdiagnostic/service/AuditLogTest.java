@@ -0,0 +1,139 @@
+package com.heartdiagnostic.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.AuditRecord;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.AuditLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogTest {
+
+    private static final int THREADS = 8;
+    private static final int RECORDS_PER_THREAD = 5_000;
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testBlockingPolicy_EveryRecordIsReplayed() throws Exception {
+        // A small ring and tiny segments force producers to wait and the writer to rotate
+        AuditLog auditLog = new AuditLog(objectMapper, new SimpleMeterRegistry(), true, dir.toString(), 64,
+            "block", 32, 1, 1, false);
+        auditLog.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        // The age carries a unique id so replay can check nothing was lost or duplicated
+                        SymptomInput input = TestInputs.symptoms(thread * RECORDS_PER_THREAD + i);
+                        assertTrue(auditLog.record("diagnose", input, result()));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        auditLog.shutdown();
+
+        assertEquals(THREADS * RECORDS_PER_THREAD, auditLog.writtenCount());
+        assertEquals(0, auditLog.droppedCount());
+        try (var segments = Files.list(dir)) {
+            assertTrue(segments.count() > 1, "expected the log to rotate");
+        }
+
+        BitSet seen = new BitSet();
+        long count = AuditLog.replay(dir, objectMapper, record -> {
+            assertEquals("Healthy", record.getResult().getLabel());
+            seen.set(record.getInput().getAge());
+        });
+        assertEquals(THREADS * RECORDS_PER_THREAD, count);
+        assertEquals(THREADS * RECORDS_PER_THREAD, seen.cardinality());
+    }
+
+    @Test
+    void testReplay_SkipsTornLastLine() throws Exception {
+        AuditLog auditLog = new AuditLog(objectMapper, new SimpleMeterRegistry(), true, dir.toString(), 64,
+            "drop", 32, 1, 64, false);
+        auditLog.start();
+        auditLog.record("diagnose", TestInputs.symptoms(1), result());
+        auditLog.record("diagnose", TestInputs.symptoms(2), result());
+        auditLog.shutdown();
+
+        try (var segments = Files.list(dir)) {
+            Path segment = segments.findFirst().orElseThrow();
+            Files.writeString(segment, Files.readString(segment) + "{\"timestamp\":1,\"inp");
+        }
+        List<AuditRecord> records = new ArrayList<>();
+        assertEquals(2, AuditLog.replay(dir, objectMapper, records::add));
+        assertEquals(2, (int) records.get(1).getInput().getAge());
+    }
+
+    @Test
+    void testShutdown_EveryAcceptedRecordIsWritten() throws Exception {
+        AuditLog auditLog = new AuditLog(objectMapper, new SimpleMeterRegistry(), true, dir.toString(), 64,
+            "block", 32, 1, 64, false);
+        auditLog.start();
+
+        // Producers keep recording while the log shuts down under them
+        AtomicLong accepted = new AtomicLong();
+        AtomicLong attempted = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        attempted.incrementAndGet();
+                        SymptomInput input = TestInputs.symptoms(thread * RECORDS_PER_THREAD + i);
+                        if (auditLog.record("diagnose", input, result())) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            Thread.sleep(20);
+            auditLog.shutdown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(accepted.get(), auditLog.writtenCount());
+        assertEquals(attempted.get(), auditLog.writtenCount() + auditLog.droppedCount());
+        assertEquals(accepted.get(), AuditLog.replay(dir, objectMapper, record -> { }));
+    }
+
+    private DiagnosisResult result() {
+        return new DiagnosisResult("Healthy", Map.of("Healthy", 0.85, "Moderate Risk", 0.1, "Severe Risk", 0.05),
+            "Based on your symptoms: No major risk factors identified. Confidence: 85.0%");
+    }
+}
@@ -0,0 +1,162 @@
+package com.heartdiagnostic.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.BulkScoringReport;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.BulkScoringPipeline;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.WekaModelService;
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkScoringPipelineTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ValidatorFactory validatorFactory;
+    private ModelRegistry modelRegistry;
+    private BulkScoringPipeline pipeline;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        modelRegistry = TestServices.registry(1);
+        modelRegistry.register(new ModelSnapshot("v1", new MockClassifier(), WekaModelService.createDataStructure(),
+            "test", 1), true);
+        WekaModelService wekaModelService = TestServices.modelService(modelRegistry, validatorFactory.getValidator());
+        // Chunks of two, so the rows below span several
+        pipeline = new BulkScoringPipeline(wekaModelService, objectMapper, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Test
+    void testCsv_QuotedFieldsAndErrorRows() throws Exception {
+        // Columns in any order, with a quoted comma in one the service does not read
+        String csv = String.join("\n",
+            "note,sex,age,chestPain,bloodPressure,cholesterol,fastingBS,restECG,maxHeartRate,exerciseAngina,"
+                + "oldpeak,thallium,height_m,weight_kg",
+            "\"seen twice, \"\"urgent\"\"\",\"male\",54,typical,140,230,1,normal,150,no,2.3,normal,1.75,70",
+            "plain,female,sixty,typical,140,230,1,normal,150,no,2.3,normal,1.75,70",
+            "",
+            "plain,female,200,typical,140,230,1,normal,150,no,2.3,normal,1.75,70",
+            "plain,female,61,atypical,120,200,0,normal,140,yes,1.0,normal,,");
+        List<SymptomInput> scored = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        BulkScoringReport report = pipeline.score(input(csv), BulkScoringPipeline.Format.CSV, out, false,
+            (input, result) -> scored.add(input));
+
+        assertEquals(4, report.getRows());
+        assertEquals(1, report.getSucceeded());
+        assertEquals(3, report.getFailed());
+        assertEquals(2, report.getChunks());
+
+        List<JsonNode> lines = lines(out);
+        assertEquals(5, lines.size());
+        // One line per row, in input order with indexes across chunks; blank lines are not rows
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, lines.get(i).get("index").asInt());
+        }
+        assertTrue(lines.get(0).get("result").has("label"));
+        assertTrue(lines.get(1).get("errors").get(0).asText().startsWith("Unreadable row"));
+        assertEquals("Age must be at most 120", lines.get(2).get("errors").get(0).asText());
+        // Blank cells are read as missing values, which validation then reports
+        assertEquals(List.of("Height is required", "Weight is required"), errors(lines.get(3)));
+        assertEquals(4, lines.get(4).get("report").get("rows").asLong());
+
+        assertEquals(1, scored.size());
+        assertEquals(54, scored.get(0).getAge());
+        assertEquals("male", scored.get(0).getSex());
+        assertEquals(2.3, scored.get(0).getOldpeak());
+        assertEquals(70.0, scored.get(0).getWeightKg());
+    }
+
+    @Test
+    void testCsv_MissingColumnIsRejected() {
+        String csv = "age,sex\n54,male\n";
+        assertThrows(IllegalArgumentException.class,
+            () -> pipeline.score(input(csv), BulkScoringPipeline.Format.CSV, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testNdjson_UnreadableLineFailsOnlyItsRow() throws Exception {
+        String ndjson = String.join("\n",
+            "{\"age\":54,\"sex\":\"male\",\"chestPain\":\"typical\",\"bloodPressure\":140,\"cholesterol\":230,"
+                + "\"fastingBS\":1,\"restECG\":\"normal\",\"maxHeartRate\":150,\"exerciseAngina\":\"no\","
+                + "\"oldpeak\":2.3,\"thallium\":\"normal\",\"height_m\":1.75,\"weight_kg\":70}",
+            "{\"age\":54,",
+            "{\"age\":\"old\"}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        BulkScoringReport report = pipeline.score(input(ndjson), BulkScoringPipeline.Format.NDJSON, out, false);
+
+        assertEquals(3, report.getRows());
+        assertEquals(1, report.getSucceeded());
+        assertEquals(2, report.getFailed());
+        List<JsonNode> lines = lines(out);
+        assertTrue(lines.get(0).get("result").has("label"));
+        assertTrue(lines.get(1).get("errors").get(0).asText().startsWith("Unreadable row"));
+        assertEquals(2, lines.get(2).get("index").asInt());
+        assertTrue(lines.get(2).get("errors").get(0).asText().startsWith("Unreadable row"));
+    }
+
+    @Test
+    void testNdjson_ValueTheModelDoesNotKnowFailsOnlyItsRow() throws Exception {
+        // A model trained without one thallium value
+        Instances header = WekaModelService.createDataStructure();
+        header.replaceAttributeAt(new Attribute("thallium", List.of("normal", "fixed-defect")),
+            header.attribute("thallium").index());
+        modelRegistry.register(new ModelSnapshot("narrow", new MockClassifier(), header, "test", 1), true);
+        String row = "{\"age\":54,\"sex\":\"male\",\"chestPain\":\"typical\",\"bloodPressure\":140,"
+            + "\"cholesterol\":230,\"fastingBS\":1,\"restECG\":\"normal\",\"maxHeartRate\":150,"
+            + "\"exerciseAngina\":\"no\",\"oldpeak\":2.3,\"thallium\":\"%s\",\"height_m\":1.75,\"weight_kg\":70}";
+        String ndjson = String.format(row, "normal") + "\n" + String.format(row, "reversible-defect");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        BulkScoringReport report = pipeline.score(input(ndjson), BulkScoringPipeline.Format.NDJSON, out, false);
+
+        assertEquals(1, report.getSucceeded());
+        assertEquals(1, report.getFailed());
+        List<JsonNode> lines = lines(out);
+        assertEquals("narrow", lines.get(0).get("result").get("modelVersion").asText());
+        assertTrue(lines.get(1).get("errors").get(0).asText().contains("reversible-defect"));
+    }
+
+    private static ByteArrayInputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> errors(JsonNode line) {
+        List<String> errors = new ArrayList<>();
+        line.get("errors").forEach(error -> errors.add(error.asText()));
+        errors.sort(null);
+        return errors;
+    }
+
+    private List<JsonNode> lines(ByteArrayOutputStream out) throws Exception {
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            lines.add(objectMapper.readTree(line));
+        }
+        return lines;
+    }
+}
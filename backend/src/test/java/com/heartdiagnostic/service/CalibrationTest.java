@@ -0,0 +1,144 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.ClassScores;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.Calibration;
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.ExplanationEngine;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelFile;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalibrationTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testIsotonic_MapsFixedScoresToObservedFrequencies() {
+        // Rules that always score 0.85 for their pick but are right 60% of the time
+        Random random = new Random(1);
+        int n = 10_000;
+        double[][] distributions = new double[n][];
+        int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            int predicted = random.nextInt(3);
+            distributions[i] = fixedScores(predicted);
+            labels[i] = random.nextDouble() < 0.6 ? predicted : (predicted + 1 + random.nextInt(2)) % 3;
+        }
+        Calibration calibration = Calibration.fit(Calibration.Method.ISOTONIC, distributions, labels, 3);
+
+        double[] calibrated = calibration.apply(fixedScores(1));
+        assertEquals(0.6, calibrated[1], 0.02);
+        assertEquals(0.2, calibrated[0], 0.02);
+        assertEquals(1.0, calibrated[0] + calibrated[1] + calibrated[2], 1e-9);
+    }
+
+    @Test
+    void testPlatt_IsMonotoneInRawScore() {
+        Random random = new Random(2);
+        int n = 5_000;
+        double[][] distributions = new double[n][];
+        int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            double score = random.nextDouble();
+            distributions[i] = new double[]{1 - score, score};
+            labels[i] = random.nextDouble() < score * score ? 1 : 0;
+        }
+        Calibration calibration = Calibration.fit(Calibration.Method.PLATT, distributions, labels, 2);
+        for (int b = 1; b < Calibration.BINS; b++) {
+            assertTrue(calibration.value(1, b) >= calibration.value(1, b - 1));
+        }
+        assertTrue(calibration.value(1, 0) < 0.2);
+        assertTrue(calibration.value(1, Calibration.BINS - 1) > 0.7);
+    }
+
+    @Test
+    void testModelFile_KeepsCalibration() throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        float[][] table = new float[3][Calibration.BINS];
+        for (int c = 0; c < 3; c++) {
+            for (int b = 0; b < Calibration.BINS; b++) {
+                table[c][b] = (float) (c + 1) * b / Calibration.BINS;
+            }
+        }
+        Calibration calibration = new Calibration(Calibration.Method.PLATT, table);
+
+        Path file = tempDir.resolve("calibrated" + ModelFile.EXTENSION);
+        ModelFile.write(file, header, CompiledTreeClassifier.compile(new MockClassifier(), header, false), calibration);
+        Calibration read = ModelFile.map(file).getCalibration();
+        assertEquals(Calibration.Method.PLATT, read.getMethod());
+        for (int c = 0; c < 3; c++) {
+            for (int b = 0; b < Calibration.BINS; b++) {
+                assertEquals(table[c][b], read.value(c, b));
+            }
+        }
+
+        Path plain = tempDir.resolve("plain" + ModelFile.EXTENSION);
+        ModelFile.write(plain, header, CompiledTreeClassifier.compile(new MockClassifier(), header, false));
+        assertNull(ModelFile.map(plain).getCalibration());
+    }
+
+    @Test
+    void testPathContributions_AddUpToTheCalibratedScore() throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        // A curve far from the identity, so raw and calibrated contributions differ
+        float[][] table = new float[3][Calibration.BINS];
+        for (int c = 0; c < 3; c++) {
+            for (int b = 0; b < Calibration.BINS; b++) {
+                double raw = (double) b / (Calibration.BINS - 1);
+                table[c][b] = (float) (raw * raw * (c + 1));
+            }
+        }
+        ModelSnapshot model = new ModelSnapshot("calibrated", new MockClassifier(), header, "test", 1,
+            new Calibration(Calibration.Method.ISOTONIC, table));
+        ExplanationEngine engine = new ExplanationEngine("path", 3);
+
+        for (int age = 30; age <= 80; age += 5) {
+            SymptomInput input = input(age);
+            double[] values = model.getEncoder().encode(input);
+            Instance instance = new DenseInstance(1.0, values.clone());
+            instance.setDataset(header);
+            double[] scores = model.getPool().distributionForInstance(instance);
+            int predicted = Utils.maxIndex(scores);
+
+            ExplanationEngine.Explanation explanation = engine.explain(model, values, predicted,
+                new ClassScores(model.getClassNames(), scores), input);
+            double total = model.getDecisionPaths().prior(predicted);
+            for (double contribution : explanation.getContributions().values()) {
+                total += contribution;
+            }
+            assertEquals(scores[predicted], total, 1e-9, "age " + age);
+        }
+    }
+
+    private static SymptomInput input(int age) {
+        SymptomInput input = TestInputs.symptoms(age);
+        input.setChestPain(age > 60 ? "asymptomatic" : "typical");
+        input.setBloodPressure(100 + age);
+        input.setCholesterol(150 + 2 * age);
+        input.setFastingBS(age % 2);
+        input.setMaxHeartRate(200 - age);
+        input.setExerciseAngina(age > 50 ? "yes" : "no");
+        input.setOldpeak(age / 25.0);
+        return input;
+    }
+
+    private static double[] fixedScores(int predicted) {
+        double[] scores = {0.075, 0.075, 0.075};
+        scores[predicted] = 0.85;
+        return scores;
+    }
+}
@@ -0,0 +1,203 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.ClassifierPool;
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.FeatureEncoder;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.trees.J48;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassifierPoolTest {
+
+    private static final String[] SEX = {"male", "female"};
+    private static final String[] CHEST_PAIN = {"typical", "atypical", "non-anginal", "asymptomatic"};
+    private static final String[] REST_ECG = {"normal", "st-t-abnormality", "left-ventricular-hypertrophy"};
+    private static final String[] EXERCISE_ANGINA = {"yes", "no"};
+    private static final String[] THALLIUM = {"normal", "fixed-defect", "reversible-defect"};
+
+    private static final int THREADS = 16;
+    private static final int CALLS_PER_THREAD = 20_000;
+
+    private Instances header;
+    private FeatureEncoder encoder;
+
+    @BeforeEach
+    void setUp() {
+        header = WekaModelService.createDataStructure();
+        encoder = new FeatureEncoder(header);
+    }
+
+    @Test
+    void testStatefulClassifier_NoCrossTalkBetweenThreads() throws Exception {
+        ClassifierPool pool = ClassifierPool.create(new StatefulClassifier(), header, 4);
+        assertEquals(4, pool.size());
+
+        double[][] rows = randomRows(new Random(1), 512);
+        hammer(pool, rows, StatefulClassifier::expected);
+    }
+
+    @Test
+    void testJ48_PooledMatchesSingleThreaded() throws Exception {
+        J48 j48 = new J48();
+        j48.buildClassifier(trainingData(new Random(2), 2000));
+        ClassifierPool pool = ClassifierPool.create(j48, header, 4);
+
+        double[][] rows = randomRows(new Random(3), 512);
+        Map<double[], double[]> expected = new IdentityHashMap<>();
+        for (double[] row : rows) {
+            expected.put(row, j48.distributionForInstance(instance(row)));
+        }
+        hammer(pool, rows, expected::get);
+    }
+
+    @Test
+    void testThreadSafeClassifiers_AreShared() throws Exception {
+        assertEquals(0, ClassifierPool.create(new MockClassifier(), header, 4).size());
+        assertEquals(0, ClassifierPool.create(CompiledTreeClassifier.compile(new MockClassifier(), header, false),
+            header, 4).size());
+    }
+
+    @Test
+    void testDistributionsForRows_MatchesRowByRow() throws Exception {
+        double[][] rows = randomRows(new Random(4), 64);
+        ClassifierPool stateful = ClassifierPool.create(new StatefulClassifier(), header, 2);
+        ClassifierPool shared = ClassifierPool.create(new MockClassifier(), header, 2);
+
+        double[][] statefulBlock = stateful.distributionsForRows(rows, header);
+        double[][] sharedBlock = shared.distributionsForRows(rows, header);
+        for (int i = 0; i < rows.length; i++) {
+            assertArrayEquals(StatefulClassifier.expected(rows[i]), statefulBlock[i]);
+            assertArrayEquals(shared.distributionForInstance(instance(rows[i])), sharedBlock[i]);
+        }
+    }
+
+    // Every thread scores every row many times, mixing reusable and plain instances,
+    // and checks each answer against the single-threaded one
+    private void hammer(ClassifierPool pool, double[][] rows, Expectation expectation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    FeatureEncoder.ReusableInstance reusable = encoder.newReusableInstance();
+                    int mismatches = 0;
+                    start.await();
+                    for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                        double[] values = rows[random.nextInt(rows.length)];
+                        Instance instance;
+                        if (random.nextBoolean()) {
+                            System.arraycopy(values, 0, reusable.values(), 0, values.length);
+                            instance = reusable;
+                        } else {
+                            instance = instance(values);
+                        }
+                        if (!Arrays.equals(expectation.distribution(values), pool.distributionForInstance(instance))) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            start.countDown();
+
+            int mismatches = 0;
+            for (Future<Integer> future : futures) {
+                mismatches += future.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(0, mismatches, "pooled results differed from single-threaded results");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface Expectation {
+        double[] distribution(double[] values) throws Exception;
+    }
+
+    private Instance instance(double[] values) {
+        Instance instance = new DenseInstance(1.0, values.clone());
+        instance.setDataset(header);
+        return instance;
+    }
+
+    private double[][] randomRows(Random random, int count) {
+        double[][] rows = new double[count][];
+        for (int i = 0; i < count; i++) {
+            rows[i] = encoder.encode(randomInput(random));
+        }
+        return rows;
+    }
+
+    private Instances trainingData(Random random, int rows) {
+        Instances data = new Instances(header, rows);
+        for (int i = 0; i < rows; i++) {
+            double[] values = encoder.encode(randomInput(random));
+            values[header.classIndex()] = values[0] < 45 ? 0 : values[4] < 300 ? 1 : 2;
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    private SymptomInput randomInput(Random random) {
+        SymptomInput input = new SymptomInput();
+        input.setAge(1 + random.nextInt(120));
+        input.setSex(SEX[random.nextInt(SEX.length)]);
+        input.setChestPain(CHEST_PAIN[random.nextInt(CHEST_PAIN.length)]);
+        input.setBloodPressure(50 + random.nextInt(251));
+        input.setCholesterol(100 + random.nextInt(501));
+        input.setFastingBS(random.nextInt(2));
+        input.setRestECG(REST_ECG[random.nextInt(REST_ECG.length)]);
+        input.setMaxHeartRate(60 + random.nextInt(161));
+        input.setExerciseAngina(EXERCISE_ANGINA[random.nextInt(EXERCISE_ANGINA.length)]);
+        input.setOldpeak(Math.round(random.nextDouble() * 100) / 10.0);
+        input.setThallium(THALLIUM[random.nextInt(THALLIUM.length)]);
+        input.setHeightM(0.5 + random.nextDouble() * 2.5);
+        input.setWeightKg(10 + random.nextDouble() * 490);
+        return input;
+    }
+
+    // Keeps the row being scored in a field between calls, as many WEKA
+    // classifiers keep per-call state. Two threads sharing one copy would
+    // read each other's rows.
+    static class StatefulClassifier extends AbstractClassifier {
+
+        private double[] current;
+
+        public void buildClassifier(Instances data) {
+        }
+
+        public double[] distributionForInstance(Instance instance) {
+            current = instance.toDoubleArray();
+            Thread.yield();
+            return expected(current);
+        }
+
+        static double[] expected(double[] values) {
+            return new double[]{values[0], values[3], values[4]};
+        }
+    }
+}
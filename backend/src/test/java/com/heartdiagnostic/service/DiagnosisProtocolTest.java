@@ -0,0 +1,110 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
+import com.heartdiagnostic.service.model.ClassScores;
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.NominalFeature;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.DiagnosisProtocol;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiagnosisProtocolTest {
+
+    @Test
+    void testDiagnoseFrame_RoundTripsRows() throws Exception {
+        SymptomInput full = TestInputs.symptoms();
+        SymptomInput sparse = new SymptomInput();
+        sparse.setAge(300);
+        sparse.setChestPain("typical-angina");
+        sparse.setThallium("normal");
+
+        ByteBuffer body = frame(out -> DiagnosisProtocol.writeDiagnose(new DiagnosisProtocol.FrameWriter(), out, 7,
+            List.of(full, sparse), true));
+        assertEquals(DiagnosisProtocol.DIAGNOSE, body.get() & 0xFF);
+        assertEquals(7, body.getInt());
+        assertEquals(DiagnosisProtocol.FLAG_EXPLAIN, body.get());
+        assertEquals(2, body.getInt());
+        assertEquals(2 * DiagnosisProtocol.ROW_BYTES, body.remaining());
+
+        List<SymptomInput> rows = DiagnosisProtocol.readRows(body, 2);
+        SymptomInput copy = rows.get(0);
+        assertEquals(full.getAge(), copy.getAge());
+        assertEquals(full.getSex(), copy.getSex());
+        assertEquals(full.getChestPain(), copy.getChestPain());
+        assertEquals(full.getCholesterol(), copy.getCholesterol());
+        assertEquals(full.getThallium(), copy.getThallium());
+        assertEquals(full.getOldpeak(), copy.getOldpeak());
+        assertEquals(full.getWeightKg(), copy.getWeightKg());
+
+        // Missing stays missing; an age that does not fit and text outside the table
+        // arrive out of range for validation to reject
+        SymptomInput missing = rows.get(1);
+        assertNull(missing.getSex());
+        assertNull(missing.getCholesterol());
+        assertNull(missing.getOldpeak());
+        assertEquals("normal", missing.getThallium());
+        assertEquals("#254", missing.getChestPain());
+        assertEquals(NominalFeature.UNKNOWN, missing.getChestPainCode());
+        assertEquals(254, (int) missing.getAge());
+    }
+
+    @Test
+    void testResultFrame_RoundTripsScoresAndErrors() throws Exception {
+        String[] classNames = {"absent", "present"};
+        DiagnosisResult result = new DiagnosisResult("present", new ClassScores(classNames, new double[]{0.25, 0.75}),
+            "High risk");
+        result.setModelVersion("v3");
+        DiagnosisResult cached = new DiagnosisResult("absent", Map.of("absent", 0.9, "present", 0.1), "Low risk");
+        List<BatchDiagnosisItem> items = List.of(
+            BatchDiagnosisItem.failure(0, List.of("Age is required", "Sex is required")),
+            BatchDiagnosisItem.success(1, result),
+            BatchDiagnosisItem.success(2, cached));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DiagnosisProtocol.writeResult(new DiagnosisProtocol.FrameWriter(), new DataOutputStream(bytes), 9, items, true);
+        DiagnosisProtocol.Response response = DiagnosisProtocol.readResponse(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), true);
+
+        assertEquals(DiagnosisProtocol.RESULT, response.getType());
+        assertEquals(9, response.getRequestId());
+        assertEquals("v3", response.getModelVersion());
+        assertArrayEquals(classNames, response.getClassNames());
+        assertEquals(3, response.getRows().size());
+
+        DiagnosisProtocol.Row failed = response.getRows().get(0);
+        assertFalse(failed.isSuccess());
+        assertEquals("Age is required; Sex is required", failed.getErrors());
+
+        DiagnosisProtocol.Row scored = response.getRows().get(1);
+        assertEquals("present", scored.getLabel());
+        assertArrayEquals(new float[]{0.25f, 0.75f}, scored.getScores());
+        assertEquals("High risk", scored.getExplanation());
+
+        DiagnosisProtocol.Row fromCache = response.getRows().get(2);
+        assertEquals("absent", fromCache.getLabel());
+        assertArrayEquals(new float[]{0.9f, 0.1f}, fromCache.getScores());
+    }
+
+    private interface FrameBody {
+        void write(DataOutputStream out) throws Exception;
+    }
+
+    // The frame without its length prefix, checking the prefix on the way
+    private static ByteBuffer frame(FrameBody writer) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(bytes));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        assertEquals(buffer.remaining() - 4, buffer.getInt());
+        return buffer.slice();
+    }
+}
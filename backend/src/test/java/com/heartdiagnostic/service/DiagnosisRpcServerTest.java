@@ -0,0 +1,82 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.service.DiagnosisProtocol;
+import com.heartdiagnostic.service.service.DiagnosisRpcServer;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.TenantRouter;
+import com.heartdiagnostic.service.service.WekaModelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiagnosisRpcServerTest {
+
+    private ValidatorFactory validatorFactory;
+    private DiagnosisRpcServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        ModelRegistry modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(1));
+        modelRegistry.register(new ModelSnapshot("v1", new MockClassifier(), WekaModelService.createDataStructure(),
+            "test", 1), true);
+        WekaModelService wekaModelService = TestServices.modelService(modelRegistry, validatorFactory.getValidator());
+        // The "rpc" tenant may score three rows and then refills once every 1000 seconds
+        TenantRouter tenantRouter = new TenantRouter(modelRegistry, new SimpleMeterRegistry(), true,
+            "X-Tenant-Id", "", 32, 100, 1000, 1000, 2, "rpc:0.001:3:10", 1, 1000, 60000);
+        server = new DiagnosisRpcServer(wekaModelService, TestServices.metrics(), TestServices.admissionLimiter(),
+            tenantRouter, TestServices.auditLog(), TestServices.analyticsStore(), true, "127.0.0.1", 0, 4, "rpc", 1000);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.shutdown();
+        validatorFactory.close();
+    }
+
+    @Test
+    void testDiagnose_ChargedToTheRpcTenant() throws Exception {
+        DiagnosisProtocol.FrameWriter frame = new DiagnosisProtocol.FrameWriter();
+        try (Socket socket = new Socket("127.0.0.1", server.getPort());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            assertEquals(DiagnosisProtocol.HELLO, DiagnosisProtocol.readResponse(in, false).getType());
+
+            DiagnosisProtocol.writeDiagnose(frame, out, 1,
+                List.of(TestInputs.symptoms(), TestInputs.symptoms()), false);
+            out.flush();
+            DiagnosisProtocol.Response scored = DiagnosisProtocol.readResponse(in, false);
+            assertEquals(DiagnosisProtocol.RESULT, scored.getType());
+            assertEquals(2, scored.getRows().size());
+
+            // One row is left, so the next two are turned away and the connection stays open
+            DiagnosisProtocol.writeDiagnose(frame, out, 2,
+                List.of(TestInputs.symptoms(), TestInputs.symptoms()), false);
+            out.flush();
+            DiagnosisProtocol.Response busy = DiagnosisProtocol.readResponse(in, false);
+            assertEquals(DiagnosisProtocol.BUSY, busy.getType());
+            assertEquals(2, busy.getRequestId());
+
+            DiagnosisProtocol.writeDiagnose(frame, out, 3, List.of(TestInputs.symptoms()), false);
+            out.flush();
+            assertEquals(DiagnosisProtocol.RESULT, DiagnosisProtocol.readResponse(in, false).getType());
+        }
+    }
+}
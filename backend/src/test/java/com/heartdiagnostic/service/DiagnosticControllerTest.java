@@ -1,17 +1,39 @@
 package com.heartdiagnostic.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.heartdiagnostic.service.controller.DiagnosticController;
+import com.heartdiagnostic.service.model.BatchDiagnosisItem;
 import com.heartdiagnostic.service.model.DiagnosisResult;
 import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.BulkScoringPipeline;
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.DiagnosisMetrics;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelFile;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.StartupTimeline;
+import com.heartdiagnostic.service.service.TenantRouter;
 import com.heartdiagnostic.service.service.WekaModelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import weka.core.Instances;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -22,27 +44,30 @@ class DiagnosticControllerTest {
     @Mock
     private WekaModelService wekaModelService;
 
+    private ModelRegistry modelRegistry;
+    private SimpleMeterRegistry meterRegistry;
     private DiagnosticController diagnosticController;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        diagnosticController = new DiagnosticController();
-        // Inject the mock service (in real app, this would be done by Spring)
-        // For this test, we'll test the controller logic directly
+        modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir(""));
+        meterRegistry = new SimpleMeterRegistry();
+        diagnosticController = controller(TestServices.tenantRouter(modelRegistry), 50000);
     }
 
     @Test
     void testDiagnose_Success() throws Exception {
         // Given
-        SymptomInput input = createValidSymptomInput();
+        SymptomInput input = TestInputs.symptoms();
         DiagnosisResult expectedResult = createExpectedResult();
         
         when(wekaModelService.isModelLoaded()).thenReturn(true);
-        when(wekaModelService.classify(input)).thenReturn(expectedResult);
+        when(wekaModelService.classify(input, true)).thenReturn(expectedResult);
 
         // When
-        ResponseEntity<DiagnosisResult> response = diagnosticController.diagnose(input);
+        ResponseEntity<DiagnosisResult> response = diagnosticController.diagnose(input, true, null);
 
         // Then
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -50,14 +75,33 @@ class DiagnosticControllerTest {
         assertEquals("Moderate Risk", response.getBody().getLabel());
     }
 
+    @Test
+    void testDiagnose_WithoutExplanation() throws Exception {
+        // Given
+        SymptomInput input = TestInputs.symptoms();
+        DiagnosisResult expectedResult = createExpectedResult();
+        expectedResult.setExplanation(null);
+        
+        when(wekaModelService.isModelLoaded()).thenReturn(true);
+        when(wekaModelService.classify(input, false)).thenReturn(expectedResult);
+
+        // When
+        ResponseEntity<DiagnosisResult> response = diagnosticController.diagnose(input, false, null);
+
+        // Then
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getBody().getExplanation());
+        verify(wekaModelService, never()).classify(input, true);
+    }
+
     @Test
     void testDiagnose_ModelNotLoaded() {
         // Given
-        SymptomInput input = createValidSymptomInput();
+        SymptomInput input = TestInputs.symptoms();
         when(wekaModelService.isModelLoaded()).thenReturn(false);
 
         // When
-        ResponseEntity<DiagnosisResult> response = diagnosticController.diagnose(input);
+        ResponseEntity<DiagnosisResult> response = diagnosticController.diagnose(input, true, null);
 
         // Then
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
@@ -65,6 +109,94 @@ class DiagnosticControllerTest {
         assertEquals("Error", response.getBody().getLabel());
     }
 
+    @Test
+    void testDiagnoseBatch_PerRowResults() throws Exception {
+        // Given
+        SymptomInput valid = TestInputs.symptoms();
+        SymptomInput invalid = TestInputs.symptoms();
+        invalid.setAge(200);
+        List<SymptomInput> inputs = List.of(valid, invalid);
+        
+        when(wekaModelService.isModelLoaded()).thenReturn(true);
+        when(wekaModelService.classifyBatch(inputs, true)).thenReturn(List.of(
+            BatchDiagnosisItem.success(0, createExpectedResult()),
+            BatchDiagnosisItem.failure(1, List.of("Age must be at most 120"))));
+
+        // When
+        ResponseEntity<Map<String, Object>> response = diagnosticController.diagnoseBatch(inputs, true, null);
+
+        // Then
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNotNull(response.getBody());
+        assertEquals(2, response.getBody().get("total"));
+        assertEquals(1, response.getBody().get("failed"));
+    }
+
+    @Test
+    void testDiagnoseBatch_TooLargeCostsTenantNothing() throws Exception {
+        // "t" may score two rows and then refills once every 1000 seconds
+        TenantRouter tenantRouter = tenantRouter("t:0.001:2:10");
+        DiagnosticController controller = controller(tenantRouter, 2);
+        SymptomInput input = TestInputs.symptoms();
+        List<SymptomInput> inputs = List.of(input, input);
+        when(wekaModelService.isModelLoaded()).thenReturn(true);
+        when(wekaModelService.classifyBatch(inputs, true)).thenReturn(List.of(
+            BatchDiagnosisItem.success(0, createExpectedResult()),
+            BatchDiagnosisItem.success(1, createExpectedResult())));
+
+        ResponseEntity<Map<String, Object>> tooLarge =
+            controller.diagnoseBatch(List.of(input, input, input), true, "t");
+        assertEquals(HttpStatus.BAD_REQUEST, tooLarge.getStatusCode());
+
+        // Both tokens are still there for a batch within the limit
+        assertEquals(HttpStatus.OK, controller.diagnoseBatch(inputs, true, "t").getStatusCode());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, controller.diagnoseBatch(inputs, true, "t").getStatusCode());
+    }
+
+    @Test
+    void testDiagnoseStream_OverQuotaIsRejected() throws Exception {
+        TenantRouter tenantRouter = tenantRouter("t:0.001:1:10");
+        DiagnosticController controller = controller(tenantRouter, 50000);
+        when(wekaModelService.isModelLoaded()).thenReturn(true);
+        assertNotNull(tenantRouter.tryAcquire("t", 1));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/diagnose/stream");
+        request.setContentType("application/x-ndjson");
+        request.setContent("{}\n".getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.diagnoseStream(request, response, true, "t");
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), response.getStatus());
+        assertEquals("1", response.getHeader(HttpHeaders.RETRY_AFTER));
+        verify(wekaModelService, never()).classifyBatch(anyList(), anyBoolean());
+    }
+
+    @Test
+    void testDiagnose_FailuresAreCountedAgainstTheTenantsModel(@TempDir Path dir) throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        ModelFile.write(dir.resolve("t" + ModelFile.EXTENSION), header,
+            CompiledTreeClassifier.compile(new MockClassifier(), header, false));
+        Files.write(dir.resolve("broken" + ModelFile.EXTENSION), new byte[]{1, 2, 3});
+        DiagnosticController controller = controller(new TenantRouter(modelRegistry, new SimpleMeterRegistry(), true,
+            "X-Tenant-Id", dir.toString(), 32, 100, 1000, 1000, 2, "", 1, 1000, 60000), 50000);
+        SymptomInput input = TestInputs.symptoms();
+        when(wekaModelService.isModelLoaded()).thenReturn(true);
+        when(wekaModelService.getModelVersion()).thenReturn("v1.0");
+        when(wekaModelService.classify(any(ModelSnapshot.class), eq(input), eq(true)))
+            .thenThrow(new IllegalStateException("scoring failed"));
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, controller.diagnose(input, true, "t").getStatusCode());
+        assertEquals(1.0, meterRegistry.get("diagnosis.failures").tag("model.version", "t/t")
+            .tag("type", "IllegalStateException").counter().count());
+
+        // A model that cannot be loaded scored nothing, so the active model counts it
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, controller.diagnose(input, true, "broken").getStatusCode());
+        assertEquals(1.0, meterRegistry.get("diagnosis.failures").tag("model.version", "v1.0")
+            .tag("type", "tenant_model").counter().count());
+        assertNull(meterRegistry.find("diagnosis.failures").tag("model.version", "v1.0")
+            .tag("type", "IllegalStateException").counter());
+    }
+
     @Test
     void testHealth() {
         // Given
@@ -81,22 +213,34 @@ class DiagnosticControllerTest {
         assertTrue((Boolean) response.getBody().get("modelLoaded"));
     }
 
-    private SymptomInput createValidSymptomInput() {
-        SymptomInput input = new SymptomInput();
-        input.setAge(45);
-        input.setSex("male");
-        input.setChestPain("typical");
-        input.setBloodPressure(140);
-        input.setCholesterol(230);
-        input.setFastingBS(1);
-        input.setRestECG("normal");
-        input.setMaxHeartRate(150);
-        input.setExerciseAngina("no");
-        input.setOldpeak(2.3);
-        input.setThallium("normal");
-        input.setHeightM(1.75);
-        input.setWeightKg(70.0);
-        return input;
+    @Test
+    void testReady_UnavailableWhileModelsLoad() {
+        when(wekaModelService.isModelReady()).thenReturn(false);
+        when(wekaModelService.getModelVersion()).thenReturn("v1.0");
+
+        ResponseEntity<Map<String, Object>> loading = diagnosticController.ready();
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, loading.getStatusCode());
+        assertEquals("LOADING", loading.getBody().get("status"));
+        // Liveness is unaffected
+        assertEquals(HttpStatus.OK, diagnosticController.health().getStatusCode());
+
+        when(wekaModelService.isModelReady()).thenReturn(true);
+        assertEquals(HttpStatus.OK, diagnosticController.ready().getStatusCode());
+    }
+
+    // The mock service with every optional subsystem except tenantRouter disabled
+    private DiagnosticController controller(TenantRouter tenantRouter, int maxBatchSize) {
+        return new DiagnosticController(wekaModelService,
+            new BulkScoringPipeline(wekaModelService, new ObjectMapper(), 1000), modelRegistry,
+            new DiagnosisMetrics(meterRegistry), TestServices.admissionLimiter(), TestServices.auditLog(),
+            TestServices.shadowScorer(modelRegistry), TestServices.onlineLearner(modelRegistry),
+            TestServices.analyticsStore(), TestServices.microBatcher(wekaModelService, modelRegistry),
+            new StartupTimeline(modelRegistry), tenantRouter, maxBatchSize);
+    }
+
+    private TenantRouter tenantRouter(String quotas) {
+        return new TenantRouter(modelRegistry, new SimpleMeterRegistry(), true, "X-Tenant-Id", "", 32, 100,
+            1000, 1000, 2, quotas, 1, 1000, 60000);
     }
 
     private DiagnosisResult createExpectedResult() {
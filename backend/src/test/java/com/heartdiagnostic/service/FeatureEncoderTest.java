@@ -0,0 +1,147 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.NominalFeature;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.FeatureEncoder;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.junit.jupiter.api.Test;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FeatureEncoderTest {
+
+    @Test
+    void testEncode_EveryNominalValueMatchesWeka() {
+        Instances header = WekaModelService.createDataStructure();
+        FeatureEncoder encoder = new FeatureEncoder(header);
+        for (NominalFeature feature : NominalFeature.values()) {
+            Attribute attribute = header.attribute(feature.attribute());
+            for (String value : feature.valueList()) {
+                SymptomInput input = input();
+                set(input, feature, value);
+                // What Weka itself stores for the value
+                Instance expected = new DenseInstance(header.numAttributes());
+                expected.setDataset(header);
+                expected.setValue(attribute, value);
+
+                double[] encoded = encoder.encode(input);
+                assertEquals(expected.value(attribute), encoded[attribute.index()], feature + "=" + value);
+                assertEquals(value, attribute.value((int) encoded[attribute.index()]));
+            }
+        }
+        Attribute fastingBS = header.attribute("fastingBS");
+        for (int value = 0; value <= 1; value++) {
+            SymptomInput input = input();
+            input.setFastingBS(value);
+            assertEquals(fastingBS.indexOfValue(Integer.toString(value)), encoder.encode(input)[fastingBS.index()]);
+        }
+    }
+
+    @Test
+    void testEncode_HeaderInAnotherValueOrder() {
+        // Each nominal attribute lists its values back to front
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (NominalFeature feature : NominalFeature.values()) {
+            List<String> reversed = new ArrayList<>(feature.valueList());
+            Collections.reverse(reversed);
+            attributes.add(new Attribute(feature.attribute(), reversed));
+        }
+        attributes.add(new Attribute("fastingBS", List.of("1", "0")));
+        attributes.add(new Attribute("age"));
+        Instances header = new Instances("Reversed", attributes, 0);
+        FeatureEncoder encoder = new FeatureEncoder(header);
+
+        SymptomInput input = input();
+        double[] encoded = encoder.encode(input);
+        for (NominalFeature feature : NominalFeature.values()) {
+            Attribute attribute = header.attribute(feature.attribute());
+            assertEquals(0, encoded[attribute.index()], feature.toString());
+        }
+        assertEquals(0, encoded[header.attribute("fastingBS").index()]);
+        assertEquals(45, encoded[header.attribute("age").index()]);
+    }
+
+    @Test
+    void testEncode_MissingValues() {
+        Instances header = WekaModelService.createDataStructure();
+        FeatureEncoder encoder = new FeatureEncoder(header);
+
+        // The class is left missing, and so is a BMI without a positive height
+        SymptomInput input = input();
+        input.setHeightM(0.0);
+        double[] encoded = encoder.encode(input);
+        assertTrue(Utils.isMissingValue(encoded[header.classIndex()]));
+        assertTrue(Utils.isMissingValue(encoded[header.attribute("bmi").index()]));
+
+        // Reused arrays start from missing rather than from the last row
+        double[] target = new double[encoder.numAttributes()];
+        Arrays.fill(target, 7);
+        encoder.encode(input, target);
+        assertTrue(Utils.isMissingValue(target[header.classIndex()]));
+
+        // A nominal value that was not given, or is not in the header, is refused
+        SymptomInput missing = input();
+        missing.setThallium(null);
+        assertEquals(NominalFeature.MISSING, missing.getThalliumCode());
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> encoder.encode(missing));
+        assertTrue(e.getMessage().contains("thallium"), e.getMessage());
+
+        SymptomInput unknown = input();
+        unknown.setChestPain("sideways");
+        assertEquals(NominalFeature.UNKNOWN, unknown.getChestPainCode());
+        e = assertThrows(IllegalArgumentException.class, () -> encoder.encode(unknown));
+        assertTrue(e.getMessage().contains("sideways"), e.getMessage());
+
+        // Features the header does not use are skipped
+        ArrayList<Attribute> ageOnly = new ArrayList<>();
+        ageOnly.add(new Attribute("age"));
+        FeatureEncoder partial = new FeatureEncoder(new Instances("AgeOnly", ageOnly, 0));
+        assertArrayEquals(new double[]{45}, partial.encode(missing));
+    }
+
+    @Test
+    void testAcquireInstance_ReusesReleasedInstances() {
+        FeatureEncoder encoder = new FeatureEncoder(WekaModelService.createDataStructure());
+        FeatureEncoder.ReusableInstance first = encoder.acquireInstance();
+        assertSame(encoder.getHeader(), first.dataset());
+        assertNotSame(first, encoder.acquireInstance());
+
+        encoder.releaseInstance(first);
+        assertSame(first, encoder.acquireInstance());
+
+        // The values array is the instance's own, so encoding into it is visible through it
+        encoder.encode(input(), first.values());
+        assertEquals(45, first.value(0));
+    }
+
+    private static void set(SymptomInput input, NominalFeature feature, String value) {
+        switch (feature) {
+            case SEX: input.setSex(value); break;
+            case CHEST_PAIN: input.setChestPain(value); break;
+            case REST_ECG: input.setRestECG(value); break;
+            case EXERCISE_ANGINA: input.setExerciseAngina(value); break;
+            case THALLIUM: input.setThallium(value); break;
+        }
+    }
+
+    // The last value of every table, so a reversed header codes each as 0
+    private static SymptomInput input() {
+        SymptomInput input = TestInputs.symptoms();
+        input.setSex("female");
+        input.setChestPain("asymptomatic");
+        input.setRestECG("left-ventricular-hypertrophy");
+        input.setExerciseAngina("yes");
+        input.setThallium("reversible-defect");
+        return input;
+    }
+}
@@ -0,0 +1,154 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.MicroBatcher;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.WekaModelService;
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MicroBatcherTest {
+
+    private ValidatorFactory validatorFactory;
+    private ModelRegistry modelRegistry;
+    private WekaModelService wekaModelService;
+    private MicroBatcher microBatcher;
+
+    @BeforeEach
+    void setUp() {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(2));
+        wekaModelService = TestServices.modelService(modelRegistry, validatorFactory.getValidator());
+        microBatcher = new MicroBatcher(wekaModelService, modelRegistry, TestServices.metrics(),
+            new SimpleMeterRegistry(), true, 16, 200, 1, 1000, 10000);
+        microBatcher.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        microBatcher.shutdown();
+        validatorFactory.close();
+    }
+
+    @Test
+    void testClassify_MatchesDirectScoring() throws Exception {
+        register("v1", new MockClassifier());
+        List<CompletableFuture<DiagnosisResult>> futures = new ArrayList<>();
+        for (int age = 30; age < 90; age++) {
+            futures.add(microBatcher.submit(input(age), true));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            DiagnosisResult batched = futures.get(i).get(10, TimeUnit.SECONDS);
+            DiagnosisResult direct = wekaModelService.classify(input(30 + i), true);
+            assertEquals(direct.getLabel(), batched.getLabel());
+            assertEquals(direct.getScores(), batched.getScores());
+            assertEquals(direct.getExplanation(), batched.getExplanation());
+            assertEquals("v1", batched.getModelVersion());
+        }
+        // Rows were scored in blocks, never more than max-batch at a time
+        assertEquals(60, microBatcher.rowCount());
+        assertTrue(microBatcher.batchCount() >= 60 / 16);
+    }
+
+    @Test
+    void testSubmit_IdenticalInputsShareOneComputation() throws Exception {
+        GatedClassifier.gate = new CountDownLatch(1);
+        GatedClassifier.calls = 0;
+        register("gated", new GatedClassifier());
+
+        CompletableFuture<DiagnosisResult> first = microBatcher.submit(input(55), false);
+        CompletableFuture<DiagnosisResult> second = microBatcher.submit(input(55), false);
+        // Explained and unexplained results are different computations
+        CompletableFuture<DiagnosisResult> explained = microBatcher.submit(input(55), true);
+        GatedClassifier.gate.countDown();
+
+        DiagnosisResult a = first.get(10, TimeUnit.SECONDS);
+        DiagnosisResult b = second.get(10, TimeUnit.SECONDS);
+        assertNotSame(a, b);
+        assertEquals(a.getLabel(), b.getLabel());
+        assertEquals(a.getScores(), b.getScores());
+        assertNotNull(explained.get(10, TimeUnit.SECONDS).getExplanation());
+        assertEquals(1, microBatcher.coalescedCount());
+        assertEquals(2, GatedClassifier.calls);
+    }
+
+    @Test
+    void testSubmit_AfterShutdownIsScoredOnTheCallersThread() throws Exception {
+        register("v1", new MockClassifier());
+        microBatcher.shutdown();
+
+        // Queued after the workers stopped, so nothing else would ever score it
+        CompletableFuture<DiagnosisResult> late = microBatcher.submit(input(55), false);
+        assertTrue(late.isDone());
+        assertEquals(wekaModelService.classify(input(55), false).getLabel(), late.get().getLabel());
+        assertEquals(0, microBatcher.rowCount());
+    }
+
+    @Test
+    void testClassify_GivesUpAfterTimeout() throws Exception {
+        GatedClassifier.gate = new CountDownLatch(1);
+        register("gated", new GatedClassifier());
+        MicroBatcher impatient = new MicroBatcher(wekaModelService, modelRegistry, TestServices.metrics(),
+            new SimpleMeterRegistry(), true, 16, 200, 1, 1000, 50);
+        impatient.start();
+        try {
+            assertThrows(TimeoutException.class, () -> impatient.classify(input(55), false));
+        } finally {
+            GatedClassifier.gate.countDown();
+            impatient.shutdown();
+        }
+    }
+
+    private void register(String version, AbstractClassifier classifier) throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        modelRegistry.register(new ModelSnapshot(version, classifier, header, "test", 1), true);
+    }
+
+    private static SymptomInput input(int age) {
+        SymptomInput input = TestInputs.symptoms(age);
+        input.setSex(age % 2 == 0 ? "male" : "female");
+        input.setChestPain("asymptomatic");
+        input.setBloodPressure(120 + age);
+        input.setCholesterol(200 + age);
+        input.setFastingBS(age % 2);
+        input.setOldpeak(age / 30.0);
+        return input;
+    }
+
+    // Holds every call until the test opens the gate, so submissions overlap
+    static class GatedClassifier extends AbstractClassifier {
+
+        static volatile CountDownLatch gate;
+        static volatile int calls;
+
+        public void buildClassifier(Instances data) {
+        }
+
+        public double[] distributionForInstance(Instance instance) throws InterruptedException {
+            gate.await(10, TimeUnit.SECONDS);
+            calls++;
+            return new double[]{0.2, 0.5, 0.3};
+        }
+    }
+}
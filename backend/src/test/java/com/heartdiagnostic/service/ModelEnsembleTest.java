@@ -0,0 +1,114 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelEnsemble;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelEnsembleTest {
+
+    private ModelRegistry modelRegistry;
+    private ModelEnsemble ensemble;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(1));
+        modelRegistry.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (ensemble != null) {
+            ensemble.shutdown();
+        }
+    }
+
+    @Test
+    void testMembers_DefaultToActiveModelOnly() throws Exception {
+        register("a", new MockClassifier(), true);
+        register("b", new MockClassifier(), false);
+        ensemble = new ModelEnsemble(modelRegistry, true, "", 50, 2);
+
+        // Neither the builtin rules nor the inactive version vote unless listed
+        assertEquals(List.of("a"), versions(ensemble.members()));
+        modelRegistry.activate("b");
+        assertEquals(List.of("b"), versions(ensemble.members()));
+    }
+
+    @Test
+    void testMembers_ActiveFirstThenListedOnes() throws Exception {
+        register("a", new MockClassifier(), true);
+        register("b", new MockClassifier(), false);
+        register("c", new MockClassifier(), false);
+        ensemble = new ModelEnsemble(modelRegistry, true, "c:2, a:3, missing:1", 50, 2);
+
+        List<Map.Entry<ModelSnapshot, Double>> members = ensemble.members();
+        assertEquals(List.of("a", "c"), versions(members));
+        assertEquals(3.0, members.get(0).getValue());
+        assertEquals(2.0, members.get(1).getValue());
+    }
+
+    @Test
+    void testVote_SlowActiveModelIsDroppedWithinBudget() throws Exception {
+        register("slow", new SlowClassifier(), true);
+        register("fast", new MockClassifier(), false);
+        ensemble = new ModelEnsemble(modelRegistry, true, "fast:1", 50, 2);
+
+        long start = System.nanoTime();
+        ModelEnsemble.Vote vote = ensemble.vote(TestInputs.symptoms(), TestServices.metrics());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < SlowClassifier.DELAY_MILLIS, "took " + elapsedMillis + " ms");
+        assertEquals(List.of("fast"), vote.getContributors());
+        assertEquals(List.of("slow"), vote.getDropped());
+        double total = 0;
+        for (double p : vote.getDistribution()) total += p;
+        assertEquals(1.0, total, 1e-9);
+    }
+
+    @Test
+    void testVote_FailsWhenNoMemberAnswersInTime() throws Exception {
+        register("slow", new SlowClassifier(), true);
+        ensemble = new ModelEnsemble(modelRegistry, true, "", 20, 1);
+
+        assertThrows(IllegalStateException.class, () -> ensemble.vote(TestInputs.symptoms(), TestServices.metrics()));
+    }
+
+    private void register(String version, MockClassifier classifier, boolean activate) throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        modelRegistry.register(new ModelSnapshot(version, classifier, header, "test", 1), activate);
+    }
+
+    private static List<String> versions(List<Map.Entry<ModelSnapshot, Double>> members) {
+        List<String> versions = new ArrayList<>();
+        for (Map.Entry<ModelSnapshot, Double> member : members) {
+            versions.add(member.getKey().getVersion());
+        }
+        return versions;
+    }
+
+    // The builtin rules, answering well after any budget used here
+    private static class SlowClassifier extends MockClassifier {
+        static final long DELAY_MILLIS = 1000;
+
+        @Override
+        public double[] distributionForInstance(Instance instance) throws Exception {
+            Thread.sleep(DELAY_MILLIS);
+            return super.distributionForInstance(instance);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.service.Calibration;
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelFile;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelFileTest {
+
+    @TempDir
+    Path dir;
+
+    private Instances header;
+    private CompiledTreeClassifier classifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        header = WekaModelService.createDataStructure();
+        classifier = CompiledTreeClassifier.compile(new MockClassifier(), header, false);
+    }
+
+    @Test
+    void testMap_ReadsBackWhatWasWritten() throws Exception {
+        Path file = dir.resolve("model" + ModelFile.EXTENSION);
+        ModelFile.write(file, header, classifier);
+
+        ModelFile read = ModelFile.map(file);
+        assertNull(read.getHeader().equalHeadersMsg(header));
+        assertEquals(header.classIndex(), read.getHeader().classIndex());
+        for (int age = 30; age <= 80; age += 10) {
+            Instance instance = instance(age);
+            assertArrayEquals(classifier.distributionForInstance(instance),
+                read.getClassifier().distributionForInstance(instance), 0.0);
+        }
+    }
+
+    @Test
+    void testRead_RejectsAnyChangedByte() throws Exception {
+        Path file = dir.resolve("model" + ModelFile.EXTENSION);
+        ModelFile.write(file, header, classifier);
+        byte[] bytes = Files.readAllBytes(file);
+
+        // A flipped bit past the magic and version, in the schema, the tree and the checksum itself
+        for (int position : new int[]{13, bytes.length / 2, bytes.length - 5, bytes.length - 1}) {
+            byte[] corrupt = bytes.clone();
+            corrupt[position] ^= 0x10;
+            IOException e = assertThrows(IOException.class,
+                () -> ModelFile.read(ByteBuffer.wrap(corrupt), "corrupt"), "byte " + position);
+            assertEquals("corrupt failed its checksum", e.getMessage());
+        }
+
+        assertThrows(IOException.class,
+            () -> ModelFile.read(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 8)), "truncated"));
+        byte[] notModel = bytes.clone();
+        notModel[0] = 'X';
+        IOException e = assertThrows(IOException.class, () -> ModelFile.read(ByteBuffer.wrap(notModel), "other"));
+        assertEquals("other is not a model file", e.getMessage());
+    }
+
+    @Test
+    void testWrite_ReplacesTheFileInOneStep() throws Exception {
+        Path file = dir.resolve("model" + ModelFile.EXTENSION);
+        ModelFile.write(file, header, classifier);
+        ModelFile before = ModelFile.map(file);
+        byte[] written = Files.readAllBytes(file);
+
+        // A write that fails leaves the existing file as it was
+        Calibration twoClasses = new Calibration(Calibration.Method.PLATT, new float[2][Calibration.BINS]);
+        assertThrows(IOException.class, () -> ModelFile.write(file, header, classifier, twoClasses));
+        assertArrayEquals(written, Files.readAllBytes(file));
+
+        Calibration calibration = new Calibration(Calibration.Method.ISOTONIC, new float[3][Calibration.BINS]);
+        ModelFile.write(file, header, classifier, calibration);
+        assertNotNull(ModelFile.map(file).getCalibration());
+        // The new file was moved over the old one, so a mapping of the old one is untouched
+        assertNull(before.getCalibration());
+        Instance instance = instance(55);
+        assertArrayEquals(classifier.distributionForInstance(instance),
+            before.getClassifier().distributionForInstance(instance), 0.0);
+
+        // Nothing is left beside the model
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private Instance instance(int age) {
+        Instance instance = new DenseInstance(header.numAttributes());
+        instance.setDataset(header);
+        instance.setValue(0, age);
+        instance.setValue(1, "male");
+        instance.setValue(2, "typical");
+        instance.setValue(3, 140);
+        instance.setValue(4, 230);
+        instance.setValue(5, "1");
+        instance.setValue(6, "normal");
+        instance.setValue(7, 150);
+        instance.setValue(8, "no");
+        instance.setValue(9, 2.3);
+        instance.setValue(10, "normal");
+        instance.setValue(11, 24.5);
+        return instance;
+    }
+}
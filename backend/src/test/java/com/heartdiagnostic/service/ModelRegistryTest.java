@@ -0,0 +1,156 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelFile;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.core.Instances;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelRegistryTest {
+
+    @TempDir
+    Path dir;
+
+    private ModelRegistry modelRegistry;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (modelRegistry != null) {
+            modelRegistry.shutdown();
+        }
+    }
+
+    @Test
+    void testInitialize_LoadsDirectoryAndRetainsNewest() throws Exception {
+        for (int i = 1; i <= 4; i++) {
+            writeModel("m" + i, i);
+        }
+        modelRegistry = registry(properties().withRetain(3).withAutoActivate(true));
+
+        // The builtin rules are always kept; of the files only the two newest fit
+        assertEquals(List.of(ModelRegistry.BUILTIN_VERSION, "m3", "m4"), versionNames());
+        assertEquals("m4", modelRegistry.active().getVersion());
+        assertTrue(modelRegistry.isReady());
+    }
+
+    @Test
+    void testInitialize_WithoutAutoActivateKeepsBuiltinActive() throws Exception {
+        writeModel("m1", 1);
+        modelRegistry = registry(properties());
+
+        assertEquals(List.of(ModelRegistry.BUILTIN_VERSION, "m1"), versionNames());
+        assertEquals(ModelRegistry.BUILTIN_VERSION, modelRegistry.active().getVersion());
+    }
+
+    @Test
+    void testActivate_RollsBackAndNotifiesListeners() throws Exception {
+        writeModel("m1", 1);
+        writeModel("m2", 2);
+        modelRegistry = registry(properties().withAutoActivate(true));
+        List<String> activated = new ArrayList<>();
+        modelRegistry.addActivationListener(snapshot -> activated.add(snapshot.getVersion()));
+
+        ModelSnapshot previous = modelRegistry.activate("m1");
+        assertSame(previous, modelRegistry.active());
+        assertEquals(List.of("m1"), activated);
+        assertThrows(IllegalArgumentException.class, () -> modelRegistry.activate("missing"));
+        assertEquals("m1", modelRegistry.active().getVersion());
+    }
+
+    @Test
+    void testLoadFile_ReloadGetsNewVersion() throws Exception {
+        Path file = writeModel("m1", 1);
+        modelRegistry = registry(properties().withAutoActivate(true));
+        ModelSnapshot first = modelRegistry.active();
+
+        // The same file overwritten and loaded again is a new version, not the old one replaced
+        writeModel("m1", 2);
+        ModelSnapshot second = modelRegistry.loadFile(file, true);
+        assertEquals("m1~2", second.getVersion());
+        assertNotSame(first, second);
+        assertSame(second, modelRegistry.active());
+        assertSame(first, modelRegistry.get("m1"));
+        assertEquals("m1~3", modelRegistry.loadFile(file, false).getVersion());
+    }
+
+    @Test
+    void testWatch_LoadsFilesAddedLater() throws Exception {
+        modelRegistry = registry(properties().withAutoActivate(true).withWatch(true, 50));
+
+        writeModel("m1", System.currentTimeMillis());
+        ModelSnapshot loaded = awaitActive("m1");
+        writeModel("m1", System.currentTimeMillis() + 1000);
+        assertNotSame(loaded, awaitActive("m1~2"));
+    }
+
+    @Test
+    void testWatch_MissingDirectoryIsNotCreated() throws Exception {
+        Path missing = dir.resolve("missing");
+        modelRegistry = registry(properties().withDir(missing.toString()).withWatch(true, 50));
+
+        assertFalse(Files.exists(missing));
+        assertEquals(List.of(ModelRegistry.BUILTIN_VERSION), versionNames());
+    }
+
+    @Test
+    void testWarmUp_ScoresSyntheticRowsBeforeReady() throws Exception {
+        modelRegistry = registry(properties().withBackgroundLoad(false, 500));
+
+        assertTrue(modelRegistry.isReady());
+        assertTrue(modelRegistry.loadPhases().containsKey("warmup"));
+    }
+
+    private ModelRegistryProperties properties() {
+        return ModelRegistryProperties.defaults().withPath("").withDir(dir.toString()).withCompile("none")
+            .withPoolSize(1);
+    }
+
+    private static ModelRegistry registry(ModelRegistryProperties properties) throws Exception {
+        ModelRegistry registry = new ModelRegistry(null, properties);
+        registry.initialize();
+        return registry;
+    }
+
+    private Path writeModel(String name, long modified) throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        Path file = dir.resolve(name + ModelFile.EXTENSION);
+        ModelFile.write(file, header, CompiledTreeClassifier.compile(new MockClassifier(), header, false));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+        return file;
+    }
+
+    private List<String> versionNames() {
+        List<String> names = new ArrayList<>();
+        for (ModelSnapshot snapshot : modelRegistry.versions()) {
+            names.add(snapshot.getVersion());
+        }
+        return names;
+    }
+
+    private ModelSnapshot awaitActive(String version) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            ModelSnapshot active = modelRegistry.active();
+            if (version.equals(active.getVersion())) {
+                return active;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Version " + version + " was not activated, active: "
+            + modelRegistry.active().getVersion());
+    }
+}
@@ -0,0 +1,216 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.Outcome;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.OnlineLearner;
+import com.heartdiagnostic.service.service.WekaModelService;
+import com.heartdiagnostic.service.util.ModelTrainer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnlineLearnerTest {
+
+    private static final String[] LABELS = {"Healthy", "Moderate Risk", "Severe Risk"};
+
+    @TempDir
+    Path dir;
+
+    private ModelRegistry modelRegistry;
+    private OnlineLearner learner;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(1));
+        modelRegistry.initialize();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (learner != null) {
+            learner.shutdown();
+        }
+    }
+
+    @Test
+    void testLearn_PublishesOneStableVersion() throws Exception {
+        ModelSnapshot base = registerNaiveBayes();
+        double[] before = base.getPool().distributionForInstance(instance(base, TestInputs.symptoms(70)));
+        learner = start(true);
+
+        offer(10, 70);
+        Map<String, Object> stats = await(s -> learned(s) == 10 && (int) s.get("unpublishedBatches") == 0);
+        assertEquals("nb-online", stats.get("version"));
+        assertEquals("nb", stats.get("rollbackVersion"));
+        assertEquals("NaiveBayesUpdateable", stats.get("classifier"));
+        ModelSnapshot published = modelRegistry.active();
+        assertEquals("nb-online", published.getVersion());
+
+        offer(10, 70);
+        stats = await(s -> learned(s) == 20 && (int) s.get("unpublishedBatches") == 0
+            && modelRegistry.active() != published);
+        // Later batches replace the online version rather than adding new ones
+        assertEquals("nb-online", stats.get("rollbackVersion"));
+        assertEquals(List.of(ModelRegistry.BUILTIN_VERSION, "nb", "nb-online"), versionNames());
+        assertEquals("nb-online", modelRegistry.active().getVersion());
+
+        // The model the learner started from was copied, never updated
+        double[] after = base.getPool().distributionForInstance(instance(base, TestInputs.symptoms(70)));
+        assertArrayEquals(before, after, 1e-12);
+    }
+
+    @Test
+    void testLearn_StartsFromTheTrainersNaiveBayesModel() throws Exception {
+        List<String> rows = new ArrayList<>();
+        rows.add("age,sex,chestPain,bloodPressure,cholesterol,fastingBS,restECG,maxHeartRate,exerciseAngina,"
+            + "oldpeak,thallium,height_m,weight_kg,class");
+        for (int i = 0; i < 30; i++) {
+            int age = 30 + 2 * i;
+            rows.add(age + ",male,typical,140,230,1,normal,150,no,2.3,normal,1.75,70," + LABELS[age >= 60 ? 2 : 0]);
+        }
+        Path data = Files.write(dir.resolve("outcomes.csv"), rows);
+        Path modelFile = dir.resolve("heart.model");
+        ModelTrainer.main(new String[]{"--data", data.toString(), "--out", modelFile.toString(),
+            "--algorithm", "naive-bayes", "--folds", "3", "--threads", "2"});
+
+        ModelSnapshot trained = modelRegistry.loadFile(modelFile, true);
+        assertEquals("heart", trained.getVersion());
+        learner = start(true);
+        assertNull(learner.getUnavailableReason());
+
+        offer(10, 70);
+        Map<String, Object> stats = await(s -> learned(s) == 10 && (int) s.get("unpublishedBatches") == 0);
+        assertEquals("heart-online", stats.get("version"));
+        assertEquals("heart-online", modelRegistry.active().getVersion());
+        assertEquals("online:heart", modelRegistry.active().getSource());
+    }
+
+    @Test
+    void testRollback_ServesPreviousPublishedModel() throws Exception {
+        registerNaiveBayes();
+        learner = start(true);
+        assertThrows(IllegalStateException.class, () -> learner.rollback());
+
+        offer(10, 70);
+        await(s -> learned(s) == 10 && (int) s.get("unpublishedBatches") == 0);
+        ModelSnapshot first = modelRegistry.active();
+        offer(10, 30);
+        await(s -> learned(s) == 20 && (int) s.get("unpublishedBatches") == 0 && modelRegistry.active() != first);
+
+        ModelSnapshot restored = learner.rollback();
+        assertSame(first, restored);
+        assertSame(first, modelRegistry.active());
+        assertEquals("nb-online", learner.stats().get("version"));
+        assertNull(learner.stats().get("rollbackVersion"));
+        // One step back only
+        assertThrows(IllegalStateException.class, () -> learner.rollback());
+
+        // Learning continues from the restored model
+        offer(10, 70);
+        await(s -> learned(s) == 30 && (int) s.get("unpublishedBatches") == 0 && modelRegistry.active() != first);
+        assertEquals("nb-online", learner.stats().get("rollbackVersion"));
+    }
+
+    @Test
+    void testStart_RefusesModelThatCannotBeUpdated() throws Exception {
+        // The builtin rules are active and are not an UpdateableClassifier
+        learner = start(true);
+
+        assertNotNull(learner.getUnavailableReason());
+        assertFalse(learner.offer(new Outcome(TestInputs.symptoms(70), "Severe Risk")));
+        assertFalse(learner.isKnownLabel("Severe Risk"));
+        assertTrue(learner.stats().containsKey("unavailable"));
+        assertThrows(IllegalStateException.class, () -> learner.rollback());
+        // Nothing was put in its place
+        assertEquals(List.of(ModelRegistry.BUILTIN_VERSION), versionNames());
+        assertEquals(ModelRegistry.BUILTIN_VERSION, modelRegistry.active().getVersion());
+    }
+
+    @Test
+    void testDisabled_RefusesOutcomes() {
+        OnlineLearner disabled = TestServices.onlineLearner(modelRegistry);
+        assertFalse(disabled.offer(new Outcome(TestInputs.symptoms(70), "Severe Risk")));
+        assertEquals(Map.of("enabled", false), disabled.stats());
+        assertThrows(IllegalStateException.class, disabled::rollback);
+    }
+
+    private OnlineLearner start(boolean autoActivate) throws Exception {
+        // Each offer() of ten outcomes is one batch, published as soon as it is learned
+        OnlineLearner online = new OnlineLearner(modelRegistry, new SimpleMeterRegistry(), true, 10, 1000, 0,
+            1000, autoActivate, 50, 0.1);
+        online.start();
+        return online;
+    }
+
+    // Naive Bayes trained on a few rows, active as "nb"
+    private ModelSnapshot registerNaiveBayes() throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        ModelSnapshot probe = new ModelSnapshot("probe", new NaiveBayesUpdateable(), header, "test", 1);
+        Instances training = new Instances(header, 30);
+        for (int i = 0; i < 30; i++) {
+            Instance row = instance(probe, TestInputs.symptoms(30 + i));
+            row.setClassValue(i % 3);
+            training.add(row);
+        }
+        NaiveBayesUpdateable classifier = new NaiveBayesUpdateable();
+        classifier.buildClassifier(training);
+        ModelSnapshot snapshot = new ModelSnapshot("nb", classifier, header, "test", 1);
+        modelRegistry.register(snapshot, true);
+        return snapshot;
+    }
+
+    private void offer(int count, int age) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(learner.offer(new Outcome(TestInputs.symptoms(age), LABELS[age >= 60 ? 2 : 0])));
+        }
+    }
+
+    private Map<String, Object> await(Predicate<Map<String, Object>> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Object> stats = learner.stats();
+            if (condition.test(stats)) {
+                return stats;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Condition not reached, stats: " + learner.stats());
+    }
+
+    private static long learned(Map<String, Object> stats) {
+        return (long) stats.get("learned");
+    }
+
+    private List<String> versionNames() {
+        List<String> names = new ArrayList<>();
+        for (ModelSnapshot snapshot : modelRegistry.versions()) {
+            names.add(snapshot.getVersion());
+        }
+        return names;
+    }
+
+    private static Instance instance(ModelSnapshot model, SymptomInput input) {
+        Instance instance = new DenseInstance(1.0, model.getEncoder().encode(input));
+        instance.setDataset(model.getHeader());
+        return instance;
+    }
+}
@@ -0,0 +1,140 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.DiagnosisResult;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.PredictionCache;
+import com.heartdiagnostic.service.service.WekaModelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PredictionCacheTest {
+
+    private Instances header;
+    private ModelSnapshot model;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        header = WekaModelService.createDataStructure();
+        model = new ModelSnapshot("v1", new MockClassifier(), header, "test", 1);
+    }
+
+    @Test
+    void testGet_ReturnsCopyOfStoredResult() {
+        PredictionCache cache = new PredictionCache(TestServices.registry(1), new SimpleMeterRegistry(), true, 1000, 0);
+        double[] values = row(1);
+        assertNull(cache.get(model, values));
+        cache.put(model, values, result("Healthy"));
+
+        // The key was copied, so the caller may reuse its array
+        values[0] = 99;
+        DiagnosisResult hit = cache.get(model, row(1));
+        assertEquals("Healthy", hit.getLabel());
+        assertEquals("v1", hit.getModelVersion());
+        assertNotSame(hit, cache.get(model, row(1)));
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    void testPut_EvictsLeastRecentlyUsedWithinSegment() {
+        // Two entries per segment; find three rows that land in the same one
+        PredictionCache cache = new PredictionCache(TestServices.registry(1), new SimpleMeterRegistry(), true, 32, 0);
+        List<double[]> rows = sameSegment(3);
+        cache.put(model, rows.get(0), result("Healthy"));
+        cache.put(model, rows.get(1), result("Moderate Risk"));
+        // Touching the first makes the second the eldest
+        assertNotNull(cache.get(model, rows.get(0)));
+        cache.put(model, rows.get(2), result("Severe Risk"));
+
+        assertEquals(1, cache.evictionCount());
+        assertNotNull(cache.get(model, rows.get(0)));
+        assertNull(cache.get(model, rows.get(1)));
+        assertNotNull(cache.get(model, rows.get(2)));
+    }
+
+    @Test
+    void testPut_StaysWithinMaxSize() {
+        PredictionCache cache = new PredictionCache(TestServices.registry(1), new SimpleMeterRegistry(), true, 64, 0);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(model, row(i), result("Healthy"));
+        }
+        assertTrue(cache.size() <= 64);
+        assertEquals(1000 - cache.size(), cache.evictionCount());
+    }
+
+    @Test
+    void testGet_ExpiresAfterTtl() throws Exception {
+        PredictionCache cache = new PredictionCache(TestServices.registry(1), new SimpleMeterRegistry(), true, 1000, 1);
+        cache.put(model, row(1), result("Healthy"));
+        assertNotNull(cache.get(model, row(1)));
+        Thread.sleep(1100);
+        assertNull(cache.get(model, row(1)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testActivation_ClearsAndReloadedVersionNeverHitsOldResults() throws Exception {
+        ModelRegistry modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(1));
+        modelRegistry.register(model, true);
+        PredictionCache cache = new PredictionCache(modelRegistry, new SimpleMeterRegistry(), true, 1000, 0);
+        cache.put(model, row(1), result("Healthy"));
+
+        // A different model under the same version string
+        ModelSnapshot replacement = new ModelSnapshot("v1", new MockClassifier(), header, "test", 1);
+        modelRegistry.register(replacement, true);
+        assertEquals(0, cache.size());
+
+        // A request still scoring with the old model stores its result after the clear
+        cache.put(model, row(1), result("Healthy"));
+        assertNull(cache.get(replacement, row(1)));
+        assertNotNull(cache.get(model, row(1)));
+    }
+
+    @Test
+    void testDisabled_NeverStores() {
+        PredictionCache cache = new PredictionCache(TestServices.registry(1), new SimpleMeterRegistry(), false, 1, 0);
+        cache.put(model, row(1), result("Healthy"));
+        assertNull(cache.get(model, row(1)));
+        assertEquals(0, cache.size());
+    }
+
+    // Probes a one-entry-per-segment cache: a put that evicts the first row
+    // went to the same segment
+    private List<double[]> sameSegment(int count) {
+        List<double[]> rows = new ArrayList<>();
+        rows.add(row(0));
+        for (int i = 1; rows.size() < count; i++) {
+            PredictionCache probe = new PredictionCache(TestServices.registry(1), new SimpleMeterRegistry(),
+                true, 16, 0);
+            probe.put(model, rows.get(0), result("Healthy"));
+            probe.put(model, row(i), result("Healthy"));
+            if (probe.evictionCount() == 1) {
+                rows.add(row(i));
+            }
+        }
+        return rows;
+    }
+
+    private double[] row(int seed) {
+        double[] values = new double[header.numAttributes()];
+        values[0] = seed;
+        values[4] = 200 + seed % 7;
+        return values;
+    }
+
+    private static DiagnosisResult result(String label) {
+        return new DiagnosisResult(label, Map.of(label, 1.0), "explanation");
+    }
+}
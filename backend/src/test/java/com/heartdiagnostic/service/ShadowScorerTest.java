@@ -0,0 +1,159 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.ShadowScorer;
+import com.heartdiagnostic.service.service.WekaModelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShadowScorerTest {
+
+    private static final double[] HEALTHY = {0.8, 0.1, 0.1};
+    private static final double[] MODERATE = {0.1, 0.8, 0.1};
+
+    private ModelRegistry modelRegistry;
+    private ModelSnapshot primary;
+    private ShadowScorer shadowScorer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(1));
+        primary = register("primary", new MockClassifier(), true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (shadowScorer != null) {
+            shadowScorer.shutdown();
+        }
+    }
+
+    @Test
+    void testOffer_CountsAgreementsAndDisagreements() throws Exception {
+        register("candidate", new HealthyClassifier(), false);
+        shadowScorer = new ShadowScorer(modelRegistry, TestServices.metrics(), new SimpleMeterRegistry(), true,
+            "candidate", 1.0, 64, 1);
+
+        // The candidate always answers Healthy: it agrees with two rows and disagrees with three
+        for (int i = 0; i < 5; i++) {
+            offer(i < 2 ? HEALTHY : MODERATE);
+        }
+        Map<String, Object> stats = await(5);
+        assertEquals("candidate", stats.get("version"));
+        assertEquals(2L, stats.get("agreed"));
+        assertEquals(0.4, (double) stats.get("agreementRate"), 1e-9);
+        assertEquals(0L, stats.get("skipped"));
+        assertEquals(0L, stats.get("failed"));
+        assertEquals(Map.of("Healthy", Map.of("Healthy", 2L), "Moderate Risk", Map.of("Healthy", 3L)),
+            stats.get("confusion"));
+
+        // A new candidate starts from fresh counts
+        shadowScorer.shadow("candidate");
+        assertEquals(0L, shadowScorer.stats().get("compared"));
+        assertNull(shadowScorer.stats().get("agreementRate"));
+
+        shadowScorer.stop();
+        offer(HEALTHY);
+        assertNull(shadowScorer.stats());
+    }
+
+    @Test
+    void testOffer_PrimaryIsNeverComparedWithItself() throws Exception {
+        shadowScorer = new ShadowScorer(modelRegistry, TestServices.metrics(), new SimpleMeterRegistry(), true,
+            "primary", 1.0, 64, 1);
+        offer(HEALTHY);
+        Thread.sleep(100);
+        assertEquals(0L, shadowScorer.stats().get("compared"));
+
+        assertThrows(IllegalArgumentException.class, () -> shadowScorer.shadow("missing"));
+        assertThrows(IllegalStateException.class, () -> TestServices.shadowScorer(modelRegistry).shadow("primary"));
+    }
+
+    @Test
+    void testOffer_SkipsSamplesWhenTheQueueIsFull() throws Exception {
+        GatedClassifier.gate = new CountDownLatch(1);
+        register("gated", new GatedClassifier(), false);
+        shadowScorer = new ShadowScorer(modelRegistry, TestServices.metrics(), new SimpleMeterRegistry(), true,
+            "gated", 1.0, 1, 1);
+
+        // One sample on the thread, one queued, and the rest dropped
+        offer(HEALTHY);
+        assertTrue(GatedClassifier.started.await(10, TimeUnit.SECONDS));
+        offer(HEALTHY);
+        offer(HEALTHY);
+        offer(HEALTHY);
+        assertEquals(2L, shadowScorer.stats().get("skipped"));
+
+        GatedClassifier.gate.countDown();
+        Map<String, Object> stats = await(2);
+        assertEquals(2L, stats.get("agreed"));
+    }
+
+    private void offer(double[] primaryDistribution) {
+        SymptomInput input = TestInputs.symptoms();
+        shadowScorer.offer(primary, primary.getEncoder().encode(input), input, primaryDistribution, 1000);
+    }
+
+    private Map<String, Object> await(long compared) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Object> stats = shadowScorer.stats();
+            if ((long) stats.get("compared") == compared) {
+                return stats;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Comparisons not reached, stats: " + shadowScorer.stats());
+    }
+
+    private ModelSnapshot register(String version, AbstractClassifier classifier, boolean activate) throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        ModelSnapshot snapshot = new ModelSnapshot(version, classifier, header, "test", 1);
+        modelRegistry.register(snapshot, activate);
+        return snapshot;
+    }
+
+    static class HealthyClassifier extends AbstractClassifier {
+
+        public void buildClassifier(Instances data) {
+        }
+
+        public double[] distributionForInstance(Instance instance) {
+            return HEALTHY.clone();
+        }
+    }
+
+    // Holds every call until the test opens the gate
+    static class GatedClassifier extends HealthyClassifier {
+
+        static volatile CountDownLatch gate;
+        static final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public double[] distributionForInstance(Instance instance) {
+            started.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.distributionForInstance(instance);
+        }
+    }
+}
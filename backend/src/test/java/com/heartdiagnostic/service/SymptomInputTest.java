@@ -0,0 +1,112 @@
+package com.heartdiagnostic.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.model.NominalFeature;
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.FeatureEncoder;
+import com.heartdiagnostic.service.service.WekaModelService;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.junit.jupiter.api.Test;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymptomInputTest {
+
+    private static final String VALID = "{\"age\":58,\"sex\":\"female\",\"chestPain\":\"asymptomatic\","
+        + "\"bloodPressure\":150,\"cholesterol\":280,\"fastingBS\":1,\"restECG\":\"st-t-abnormality\","
+        + "\"maxHeartRate\":120,\"exerciseAngina\":\"yes\",\"oldpeak\":2.5,\"thallium\":\"reversible-defect\","
+        + "\"height_m\":1.65,\"weight_kg\":70,\"bmi\":25.7}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testDeserialize_DecodesTableCodes() throws Exception {
+        SymptomInput input = objectMapper.readValue(VALID, SymptomInput.class);
+
+        assertEquals(1, input.getSexCode());
+        assertEquals(3, input.getChestPainCode());
+        assertEquals(1, input.getRestECGCode());
+        assertEquals(1, input.getExerciseAnginaCode());
+        assertEquals(2, input.getThalliumCode());
+        // Decoded values are the tables' own strings
+        assertSame(NominalFeature.SEX.value(1), input.getSex());
+        assertEquals(58, (int) input.getAge());
+        assertEquals(2.5, (double) input.getOldpeak());
+        assertEquals(70.0, (double) input.getWeightKg());
+        assertTrue(validate(input).isEmpty());
+    }
+
+    @Test
+    void testDeserialize_RoundTripsThroughJson() throws Exception {
+        SymptomInput input = objectMapper.readValue(VALID, SymptomInput.class);
+        SymptomInput copy = objectMapper.readValue(objectMapper.writeValueAsString(input), SymptomInput.class);
+
+        assertEquals(input.getChestPain(), copy.getChestPain());
+        assertEquals(input.getThalliumCode(), copy.getThalliumCode());
+        assertEquals(input.getBmi(), copy.getBmi());
+    }
+
+    @Test
+    void testValidation_UnknownAndMissingValues() throws Exception {
+        SymptomInput input = objectMapper.readValue(
+            VALID.replace("\"sex\":\"female\"", "\"sex\":\"Female\"").replace("\"thallium\":\"reversible-defect\",", ""),
+            SymptomInput.class);
+
+        assertEquals(NominalFeature.UNKNOWN, input.getSexCode());
+        assertEquals("Female", input.getSex());
+        assertEquals(NominalFeature.MISSING, input.getThalliumCode());
+        assertEquals(List.of("Sex must be either 'male' or 'female'", "Thallium scan is required"), validate(input));
+    }
+
+    @Test
+    void testSetters_MatchDeserializedCodes() throws Exception {
+        SymptomInput decoded = objectMapper.readValue(VALID, SymptomInput.class);
+        SymptomInput built = new SymptomInput();
+        built.setSex("female");
+        built.setChestPain("asymptomatic");
+        built.setRestECG("st-t-abnormality");
+        built.setExerciseAngina("yes");
+        built.setThallium("reversible-defect");
+
+        assertEquals(decoded.getSexCode(), built.getSexCode());
+        assertEquals(decoded.getChestPainCode(), built.getChestPainCode());
+        assertEquals(decoded.getRestECGCode(), built.getRestECGCode());
+        assertEquals(decoded.getExerciseAnginaCode(), built.getExerciseAnginaCode());
+        assertEquals(decoded.getThalliumCode(), built.getThalliumCode());
+    }
+
+    @Test
+    void testSchema_UsesTableOrder() throws Exception {
+        // Training and serving both use this header, so table codes are header codes
+        Instances header = WekaModelService.createDataStructure();
+        for (NominalFeature feature : NominalFeature.values()) {
+            for (int code = 0; code < feature.size(); code++) {
+                assertEquals(code, header.attribute(feature.attribute()).indexOfValue(feature.value(code)));
+            }
+        }
+
+        SymptomInput input = objectMapper.readValue(VALID, SymptomInput.class);
+        double[] values = new FeatureEncoder(header).encode(input);
+        assertEquals(input.getChestPainCode(), (int) values[header.attribute("chestPain").index()]);
+        assertEquals(input.getThalliumCode(), (int) values[header.attribute("thallium").index()]);
+    }
+
+    private static List<String> validate(SymptomInput input) {
+        try (ValidatorFactory factory = Validation.buildDefaultValidatorFactory()) {
+            Validator validator = factory.getValidator();
+            List<String> errors = new ArrayList<>();
+            for (ConstraintViolation<SymptomInput> violation : validator.validate(input)) {
+                errors.add(violation.getMessage());
+            }
+            errors.sort(null);
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.ModelFile;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.ModelSnapshot;
+import com.heartdiagnostic.service.service.TenantRouter;
+import com.heartdiagnostic.service.service.WekaModelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.core.Instances;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantRouterTest {
+
+    @TempDir
+    Path dir;
+
+    private final ModelRegistry modelRegistry = new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(2));
+
+    @Test
+    void testQuotas_LimitOnlyTheirOwnTenant() {
+        // "slow" may make two requests and then refills once every 1000 seconds
+        TenantRouter router = router(4, "slow:0.001:2:10");
+        assertNotNull(router.tryAcquire("slow", 1));
+        assertNotNull(router.tryAcquire("slow", 1));
+        assertNull(router.tryAcquire("slow", 1));
+        assertNotNull(router.tryAcquire("other", 1));
+
+        // Two at a time by default
+        TenantRouter.Lease first = router.tryAcquire("busy", 1);
+        TenantRouter.Lease second = router.tryAcquire("busy", 1);
+        assertNotNull(second);
+        assertNull(router.tryAcquire("busy", 1));
+        assertNotNull(router.tryAcquire("other", 1));
+        first.close();
+        assertNotNull(router.tryAcquire("busy", 1));
+
+        // Requests without a tenant are left to the shared admission limit
+        assertNotNull(router.tryAcquire(null, 1));
+    }
+
+    @Test
+    void testCharge_WaitsForTheBucketToRefill() throws Exception {
+        // 100 rows a second, five at most at once
+        TenantRouter router = router(4, "paced:100:5:10");
+        try (TenantRouter.Lease lease = router.tryAcquire("paced", 5)) {
+            assertNotNull(lease);
+            long start = System.nanoTime();
+            lease.charge(5);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            // Five rows at 100 a second take 50 ms to refill
+            assertTrue(elapsedMillis >= 40, "took " + elapsedMillis + " ms");
+        }
+        // The charged rows were taken, so the bucket is empty again
+        assertNull(router.tryAcquire("paced", 5));
+    }
+
+    @Test
+    void testModels_LoadedPerTenantAndLeastRecentlyUsedUnloaded() throws Exception {
+        Instances header = WekaModelService.createDataStructure();
+        for (String tenant : new String[]{"a", "b", "c"}) {
+            ModelFile.write(dir.resolve(tenant + ModelFile.EXTENSION), header,
+                CompiledTreeClassifier.compile(new MockClassifier(), header, false));
+        }
+        TenantRouter router = router(2, "");
+
+        ModelSnapshot a = router.model("a");
+        assertEquals("a/a", a.getVersion());
+        ModelSnapshot b = router.model("b");
+        assertSame(a, router.model("a"));
+        // Models on the service schema share one header
+        assertSame(a.getHeader(), b.getHeader());
+
+        // Loading a third unloads b, the least recently used
+        assertNotNull(router.model("c"));
+        assertEquals(2, router.loadedCount());
+        assertSame(a, router.model("a"));
+        assertNotSame(b, router.model("b"));
+
+        // Tenants without a file use the active model
+        assertNull(router.model("none"));
+        assertThrows(IllegalArgumentException.class, () -> router.model("../a"));
+    }
+
+    @Test
+    void testModels_FailedLoadIsNotRetriedUntilItsBackoffPasses() throws Exception {
+        Path file = dir.resolve("broken" + ModelFile.EXTENSION);
+        Files.write(file, new byte[]{1, 2, 3});
+        TenantRouter router = new TenantRouter(modelRegistry, new SimpleMeterRegistry(), true, "X-Tenant-Id",
+            dir.toString(), 2, 100, 1000, 1000, 2, "", 1, 200, 60000);
+        router.tryAcquire("broken", 1).close();
+
+        Exception failure = assertThrows(Exception.class, () -> router.model("broken"));
+        // A good file now is not read until the backoff passes; the same error is returned meanwhile
+        Instances header = WekaModelService.createDataStructure();
+        ModelFile.write(file, header, CompiledTreeClassifier.compile(new MockClassifier(), header, false));
+        assertSame(failure, assertThrows(Exception.class, () -> router.model("broken")));
+        Map<?, ?> tenant = (Map<?, ?>) ((List<?>) router.stats().get("tenants")).get(0);
+        assertEquals(failure.getMessage(), tenant.get("loadError"));
+
+        Thread.sleep(300);
+        assertEquals("broken/broken", router.model("broken").getVersion());
+        assertEquals(1, router.loadedCount());
+    }
+
+    private TenantRouter router(int maxLoaded, String quotas) {
+        return new TenantRouter(modelRegistry, new SimpleMeterRegistry(), true, "X-Tenant-Id", dir.toString(),
+            maxLoaded, 100, 1000, 1000, 2, quotas, 1, 1000, 60000);
+    }
+}
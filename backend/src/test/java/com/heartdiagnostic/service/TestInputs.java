@@ -0,0 +1,32 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+
+// A valid request that tests copy and change; each call returns a new one
+final class TestInputs {
+
+    private TestInputs() {
+    }
+
+    static SymptomInput symptoms() {
+        return symptoms(45);
+    }
+
+    static SymptomInput symptoms(int age) {
+        SymptomInput input = new SymptomInput();
+        input.setAge(age);
+        input.setSex("male");
+        input.setChestPain("typical");
+        input.setBloodPressure(140);
+        input.setCholesterol(230);
+        input.setFastingBS(1);
+        input.setRestECG("normal");
+        input.setMaxHeartRate(150);
+        input.setExerciseAngina("no");
+        input.setOldpeak(2.3);
+        input.setThallium("normal");
+        input.setHeightM(1.75);
+        input.setWeightKg(70.0);
+        return input;
+    }
+}
@@ -0,0 +1,74 @@
+package com.heartdiagnostic.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heartdiagnostic.service.service.AdmissionLimiter;
+import com.heartdiagnostic.service.service.AnalyticsStore;
+import com.heartdiagnostic.service.service.AuditLog;
+import com.heartdiagnostic.service.service.DiagnosisMetrics;
+import com.heartdiagnostic.service.service.ExplanationEngine;
+import com.heartdiagnostic.service.service.MicroBatcher;
+import com.heartdiagnostic.service.service.ModelEnsemble;
+import com.heartdiagnostic.service.service.ModelRegistry;
+import com.heartdiagnostic.service.service.ModelRegistryProperties;
+import com.heartdiagnostic.service.service.OnlineLearner;
+import com.heartdiagnostic.service.service.PredictionCache;
+import com.heartdiagnostic.service.service.ShadowScorer;
+import com.heartdiagnostic.service.service.TenantRouter;
+import com.heartdiagnostic.service.service.WekaModelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validator;
+
+// The service's beans as the tests wire them by hand: a registry without
+// model files, and each optional feature built with its switch off
+final class TestServices {
+
+    private TestServices() {
+    }
+
+    // Models are registered by the test; compiled "none" so they are scored as given
+    static ModelRegistry registry(int poolSize) {
+        return new ModelRegistry(null,
+            ModelRegistryProperties.defaults().withPath("").withDir("").withCompile("none").withPoolSize(poolSize));
+    }
+
+    static DiagnosisMetrics metrics() {
+        return new DiagnosisMetrics(new SimpleMeterRegistry());
+    }
+
+    static WekaModelService modelService(ModelRegistry modelRegistry, Validator validator) {
+        return new WekaModelService(modelRegistry, validator,
+            new PredictionCache(modelRegistry, new SimpleMeterRegistry(), false, 1, 0), metrics(),
+            new ModelEnsemble(modelRegistry, false, "", 0, 1), new ExplanationEngine("template", 3),
+            shadowScorer(modelRegistry));
+    }
+
+    static ShadowScorer shadowScorer(ModelRegistry modelRegistry) {
+        return new ShadowScorer(modelRegistry, metrics(), new SimpleMeterRegistry(), false, "", 0, 1, 1);
+    }
+
+    static AdmissionLimiter admissionLimiter() {
+        return new AdmissionLimiter(new SimpleMeterRegistry(), false, 1, 1, 1, 1, 503);
+    }
+
+    static AuditLog auditLog() {
+        return new AuditLog(new ObjectMapper(), new SimpleMeterRegistry(), false, "audit", 2, "block", 1, 1, 1, false);
+    }
+
+    static AnalyticsStore analyticsStore() {
+        return new AnalyticsStore(new ObjectMapper(), new SimpleMeterRegistry(), false, 1, 1, 1, 1, false, "audit");
+    }
+
+    static OnlineLearner onlineLearner(ModelRegistry modelRegistry) {
+        return new OnlineLearner(modelRegistry, new SimpleMeterRegistry(), false, 1, 1, 0, 1, false, 1, 0.1);
+    }
+
+    static MicroBatcher microBatcher(WekaModelService wekaModelService, ModelRegistry modelRegistry) {
+        return new MicroBatcher(wekaModelService, modelRegistry, metrics(), new SimpleMeterRegistry(),
+            false, 1, 0, 1, 1, 1);
+    }
+
+    static TenantRouter tenantRouter(ModelRegistry modelRegistry) {
+        return new TenantRouter(modelRegistry, new SimpleMeterRegistry(), false, "X-Tenant-Id", "", 1, 1, 1, 1, 1,
+            "", 1, 1000, 60000);
+    }
+}
@@ -0,0 +1,141 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.service.WekaModelService;
+import com.heartdiagnostic.service.util.ModelTrainer;
+import com.heartdiagnostic.service.util.TrainingData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrainingDataTest {
+
+    private static final String COLUMNS = "age,sex,chestPain,bloodPressure,cholesterol,fastingBS,restECG,"
+        + "maxHeartRate,exerciseAngina,oldpeak,thallium,height_m,weight_kg,class";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReadCsv_HonoursQuotedFields() throws Exception {
+        // A quoted comma in a column the schema does not use must not shift the others
+        Path file = write("note," + COLUMNS,
+            "\"seen twice, \"\"urgent\"\"\",54,\"male\",typical,140,230,1,normal,150,no,2.3,normal,1.75,70,Severe Risk");
+        TrainingData data = TrainingData.read(file, WekaModelService.createDataStructure());
+
+        assertEquals(1, data.size());
+        Instance row = data.instance(0);
+        assertEquals(54, row.value(row.dataset().attribute("age")));
+        assertEquals("male", row.stringValue(row.dataset().attribute("sex")));
+        assertEquals(70 / (1.75 * 1.75), row.value(row.dataset().attribute("bmi")), 1e-9);
+        assertEquals("Severe Risk", row.stringValue(row.classIndex()));
+    }
+
+    @Test
+    void testReadCsv_BlankHeightOrWeightLeavesBmiMissing() throws Exception {
+        Path file = write(COLUMNS,
+            "54,male,typical,140,230,1,normal,150,no,2.3,normal,,70,Healthy",
+            "54,male,typical,140,230,1,normal,150,no,2.3,normal,1.75, ,Healthy",
+            "54,male,typical,140,230,1,normal,150,no,2.3,normal,?,70,Healthy");
+        TrainingData data = TrainingData.read(file, WekaModelService.createDataStructure());
+
+        assertEquals(3, data.size());
+        for (int i = 0; i < data.size(); i++) {
+            Instance row = data.instance(i);
+            assertTrue(Utils.isMissingValue(row.value(row.dataset().attribute("bmi"))));
+        }
+    }
+
+    @Test
+    void testReadCsv_SkipsUnlabelledAndReportsBadLines() throws Exception {
+        Path unlabelled = write(COLUMNS,
+            "54,male,typical,140,230,1,normal,150,no,2.3,normal,1.75,70,",
+            "60,female,atypical,120,200,0,normal,140,yes,1.0,fixed-defect,1.60,55,Moderate Risk");
+        TrainingData data = TrainingData.read(unlabelled, WekaModelService.createDataStructure());
+        assertEquals(1, data.size());
+        assertEquals(1, data.label(0));
+
+        Path bad = write(COLUMNS,
+            "54,male,typical,140,230,1,normal,150,no,2.3,normal,1.75,70,Healthy",
+            "54,male,sideways,140,230,1,normal,150,no,2.3,normal,1.75,70,Healthy");
+        IOException e = assertThrows(IOException.class,
+            () -> TrainingData.read(bad, WekaModelService.createDataStructure()));
+        assertTrue(e.getMessage().contains("line 3"), e.getMessage());
+    }
+
+    @Test
+    void testAssignFolds_StratifiesEachClass() {
+        TrainingData data = syntheticData(90);
+        int[] folds = data.assignFolds(5, 1);
+        int[][] perFold = new int[5][3];
+        for (int i = 0; i < data.size(); i++) {
+            perFold[folds[i]][data.label(i)]++;
+        }
+        // 30 rows of each class dealt over 5 folds
+        for (int[] counts : perFold) {
+            assertArrayEquals(new int[]{6, 6, 6}, counts);
+        }
+        assertEquals(72, data.trainingSet(folds, 0).numInstances());
+        assertEquals(90, data.trainingSet(folds, -1).numInstances());
+    }
+
+    @Test
+    void testGridSearch_ScoresEveryRowOncePerGridPoint() {
+        TrainingData data = syntheticData(90);
+        int folds = 3;
+        int[] foldOf = data.assignFolds(folds, 1);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<ModelTrainer.GridResult> results;
+        try {
+            results = ModelTrainer.gridSearch(pool, data, foldOf, folds, new float[]{0.1f, 0.25f}, new int[]{2, 5});
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(4, results.size());
+        assertEquals(0.1f, results.get(0).point.confidence);
+        assertEquals(5, results.get(1).point.minLeaf);
+        for (ModelTrainer.GridResult result : results) {
+            long total = 0;
+            for (long[] actual : result.confusion) {
+                for (long count : actual) total += count;
+            }
+            assertEquals(data.size(), total);
+            assertEquals(folds, result.foldAccuracy.length);
+            // The label follows age alone, which a tree finds in every fold; only
+            // rows at the edge of an age band can fall on the wrong side of a split
+            assertTrue(result.accuracy() > 0.9, result.toString());
+        }
+    }
+
+    // Rows whose class is decided by age: under 40, 40 to 59, 60 and over
+    private static TrainingData syntheticData(int rows) {
+        Instances header = WekaModelService.createDataStructure();
+        TrainingData data = new TrainingData(header);
+        double[] row = new double[header.numAttributes()];
+        for (int i = 0; i < rows; i++) {
+            int label = i % 3;
+            row[0] = 20 + label * 20 + i % 20;
+            row[3] = 120 + i % 30;
+            row[4] = 200 + i % 50;
+            row[header.classIndex()] = label;
+            data.add(row);
+        }
+        return data;
+    }
+
+    private Path write(String... lines) throws IOException {
+        Path file = dir.resolve("data-" + System.nanoTime() + ".csv");
+        Files.write(file, List.of(lines));
+        return file;
+    }
+}
@@ -0,0 +1,186 @@
+package com.heartdiagnostic.service;
+
+import com.heartdiagnostic.service.model.SymptomInput;
+import com.heartdiagnostic.service.service.CompiledTree;
+import com.heartdiagnostic.service.service.CompiledTreeClassifier;
+import com.heartdiagnostic.service.service.FeatureEncoder;
+import com.heartdiagnostic.service.service.MockClassifier;
+import com.heartdiagnostic.service.service.TreeCompiler;
+import com.heartdiagnostic.service.service.WekaModelService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeCompilerTest {
+
+    private static final String[] SEX = {"male", "female"};
+    private static final String[] CHEST_PAIN = {"typical", "atypical", "non-anginal", "asymptomatic"};
+    private static final String[] REST_ECG = {"normal", "st-t-abnormality", "left-ventricular-hypertrophy"};
+    private static final String[] EXERCISE_ANGINA = {"yes", "no"};
+    private static final String[] THALLIUM = {"normal", "fixed-defect", "reversible-defect"};
+
+    private Instances header;
+    private FeatureEncoder encoder;
+
+    @BeforeEach
+    void setUp() {
+        header = WekaModelService.createDataStructure();
+        encoder = new FeatureEncoder(header);
+    }
+
+    @Test
+    void testMockClassifier_EquivalentAcrossSplitBoundaries() throws Exception {
+        MockClassifier mock = new MockClassifier();
+        CompiledTree tree = TreeCompiler.compile(mock);
+        CompiledTree generated = TreeCompiler.compile(mock);
+        assertTrue(TreeCompiler.generateBytecode(generated));
+
+        // Every age, and each other split feature on and around its threshold
+        int[] cholesterols = {100, 150, 199, 200, 201, 250, 600};
+        int[] bloodPressures = {50, 129, 130, 131, 300};
+        int[] maxHeartRates = {60, 129, 130, 131, 220};
+        Random random = new Random(7);
+        for (int age = 1; age <= 120; age++) {
+            for (int cholesterol : cholesterols) {
+                for (int bloodPressure : bloodPressures) {
+                    for (int maxHeartRate : maxHeartRates) {
+                        SymptomInput input = randomInput(random);
+                        input.setAge(age);
+                        input.setCholesterol(cholesterol);
+                        input.setBloodPressure(bloodPressure);
+                        input.setMaxHeartRate(maxHeartRate);
+                        assertEquivalent(mock, tree, generated, input);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testJ48_EquivalentAcrossInputDomain() throws Exception {
+        J48 j48 = new J48();
+        j48.buildClassifier(trainingData(new Random(42), 3000));
+        assertEquivalentOnRandomInputs(j48);
+    }
+
+    @Test
+    void testJ48BinarySplits_EquivalentAcrossInputDomain() throws Exception {
+        J48 j48 = new J48();
+        j48.setBinarySplits(true);
+        j48.buildClassifier(trainingData(new Random(43), 3000));
+        assertEquivalentOnRandomInputs(j48);
+    }
+
+    @Test
+    void testMissingValue_FollowsWekaWeighting() throws Exception {
+        J48 j48 = new J48();
+        j48.buildClassifier(trainingData(new Random(44), 3000));
+        CompiledTree tree = TreeCompiler.compile(j48, header);
+
+        // A height of 0 passes validation but leaves BMI missing
+        Random random = new Random(45);
+        for (int i = 0; i < 2000; i++) {
+            SymptomInput input = randomInput(random);
+            input.setHeightM(0.0);
+            double[] values = encoder.encode(input);
+            assertArrayEquals(j48.distributionForInstance(instance(values)), tree.distribution(values), 1e-12);
+        }
+    }
+
+    @Test
+    void testCompiledJ48_RetrainsSourceAndRecompiles() throws Exception {
+        J48 j48 = new J48();
+        j48.buildClassifier(trainingData(new Random(46), 300));
+        CompiledTreeClassifier compiled = CompiledTreeClassifier.compile(j48, header, false);
+
+        Instances data = trainingData(new Random(47), 3000);
+        compiled.buildClassifier(data);
+        J48 expected = new J48();
+        expected.buildClassifier(data);
+        Random random = new Random(48);
+        for (int i = 0; i < 2000; i++) {
+            Instance instance = instance(encoder.encode(randomInput(random)));
+            assertArrayEquals(expected.distributionForInstance(instance), compiled.distributionForInstance(instance),
+                1e-12);
+        }
+        assertNotSame(j48, compiled.getSource());
+
+        // Trees read from a model file have no source classifier
+        CompiledTreeClassifier mapped = new CompiledTreeClassifier(compiled.getTree(), "J48");
+        assertFalse(mapped.canRetrain());
+        assertThrows(UnsupportedOperationException.class, () -> mapped.buildClassifier(data));
+    }
+
+    private void assertEquivalentOnRandomInputs(J48 j48) throws Exception {
+        CompiledTree tree = TreeCompiler.compile(j48, header);
+        CompiledTree generated = TreeCompiler.compile(j48, header);
+        assertTrue(TreeCompiler.generateBytecode(generated));
+        assertTrue(tree.numNodes() > 1, "expected the tree to split at least once");
+
+        Random random = new Random(1);
+        for (int i = 0; i < 200_000; i++) {
+            assertEquivalent(j48, tree, generated, randomInput(random));
+        }
+    }
+
+    private void assertEquivalent(Classifier classifier, CompiledTree tree, CompiledTree generated,
+                                  SymptomInput input) throws Exception {
+        double[] values = encoder.encode(input);
+        double[] expected = classifier.distributionForInstance(instance(values));
+        assertArrayEquals(expected, tree.distribution(values), 1e-12);
+        assertArrayEquals(expected, generated.distribution(values), 1e-12);
+        assertEquals(tree.leaf(values), generated.leaf(values));
+    }
+
+    private Instance instance(double[] values) {
+        Instance instance = new DenseInstance(1.0, values.clone());
+        instance.setDataset(header);
+        return instance;
+    }
+
+    // Labels follow a noisy mix of numeric and nominal rules, so the trees use
+    // numeric thresholds as well as nominal splits
+    private Instances trainingData(Random random, int rows) {
+        Instances data = new Instances(header, rows);
+        for (int i = 0; i < rows; i++) {
+            SymptomInput input = randomInput(random);
+            double risk = (input.getAge() - 50) / 20.0
+                + (input.getCholesterol() - 240) / 80.0
+                + (input.getThallium().equals("normal") ? -1 : 1)
+                + (input.getChestPain().equals("asymptomatic") ? 1 : 0)
+                + (input.getExerciseAngina().equals("yes") ? 0.5 : 0)
+                + random.nextGaussian() * 0.5;
+            double[] values = encoder.encode(input);
+            values[header.classIndex()] = risk < 0 ? 0 : risk < 1.5 ? 1 : 2;
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    // Uniform over the ranges allowed by SymptomInput's constraints
+    private SymptomInput randomInput(Random random) {
+        SymptomInput input = new SymptomInput();
+        input.setAge(1 + random.nextInt(120));
+        input.setSex(SEX[random.nextInt(SEX.length)]);
+        input.setChestPain(CHEST_PAIN[random.nextInt(CHEST_PAIN.length)]);
+        input.setBloodPressure(50 + random.nextInt(251));
+        input.setCholesterol(100 + random.nextInt(501));
+        input.setFastingBS(random.nextInt(2));
+        input.setRestECG(REST_ECG[random.nextInt(REST_ECG.length)]);
+        input.setMaxHeartRate(60 + random.nextInt(161));
+        input.setExerciseAngina(EXERCISE_ANGINA[random.nextInt(EXERCISE_ANGINA.length)]);
+        input.setOldpeak(Math.round(random.nextDouble() * 100) / 10.0);
+        input.setThallium(THALLIUM[random.nextInt(THALLIUM.length)]);
+        input.setHeightM(0.5 + random.nextDouble() * 2.5);
+        input.setWeightKg(10 + random.nextDouble() * 490);
+        return input;
+    }
+}